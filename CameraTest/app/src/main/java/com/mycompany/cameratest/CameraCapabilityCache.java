@@ -0,0 +1,181 @@
+package com.mycompany.cameratest;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+final class CameraCapabilityCache {
+    /* Remembers each camera's supported sizes and the sizes picked for them, across launches
+     *
+     * Asking the camera for its sizes and picking from them (see CameraSizes) is done once per
+     * camera and view size, the answer is kept in a small text file:
+     *
+     *   camera-capabilities 1
+     *   <fingerprint>
+     *   <camera id> <view width> <view height> <preview> <picture> <supported previews> <...>
+     *
+     * one tab separated line per entry, sizes written WxH and lists comma separated. The file
+     * is replaced through a temporary file, so it's either the old one or the new one.
+     *
+     * The fingerprint names the OS build and the display. When it differs from the one the
+     * file was written with, after a system update or on another screen, the whole file is
+     * ignored and written again. A line that can't be read only loses its own entry.
+     *
+     * Used from the camera session thread, and the UI thread for a preview without a session.
+     */
+    private static final String TAG = "CameraCapabilities";
+    private static final String HEADER = "camera-capabilities 1";
+
+    static final class Entry {
+        final int cameraId;
+        final int viewWidth;
+        final int viewHeight;
+        final CameraSizes.Size previewSize;
+        final CameraSizes.Size pictureSize;
+        final List<CameraSizes.Size> supportedPreviewSizes;
+        final List<CameraSizes.Size> supportedPictureSizes;
+
+        Entry(int cameraId, int viewWidth, int viewHeight, List<CameraSizes.Size> previewSizes,
+              List<CameraSizes.Size> pictureSizes) {
+            // Picks the sizes for these
+            this.cameraId = cameraId;
+            this.viewWidth = viewWidth;
+            this.viewHeight = viewHeight;
+            supportedPreviewSizes = Collections.unmodifiableList(previewSizes);
+            supportedPictureSizes = Collections.unmodifiableList(pictureSizes);
+            previewSize = CameraSizes.optimalPreviewSize(previewSizes, viewWidth, viewHeight);
+            pictureSize = previewSize == null ? null
+                    : CameraSizes.optimalPictureSize(pictureSizes, previewSize.ratio());
+        }
+
+        private Entry(String line) {
+            String[] fields = line.split("\t", -1);
+            if (fields.length != 7) throw new IllegalArgumentException("Bad entry: " + line);
+            cameraId = Integer.parseInt(fields[0]);
+            viewWidth = Integer.parseInt(fields[1]);
+            viewHeight = Integer.parseInt(fields[2]);
+            previewSize = CameraSizes.Size.parse(fields[3]);
+            pictureSize = CameraSizes.Size.parse(fields[4]);
+            supportedPreviewSizes = Collections.unmodifiableList(CameraSizes.parse(fields[5]));
+            supportedPictureSizes = Collections.unmodifiableList(CameraSizes.parse(fields[6]));
+        }
+
+        private String format() {
+            return cameraId + "\t" + viewWidth + "\t" + viewHeight + "\t" + previewSize + "\t"
+                    + pictureSize + "\t" + CameraSizes.format(supportedPreviewSizes) + "\t"
+                    + CameraSizes.format(supportedPictureSizes);
+        }
+    }
+
+    private final File file;
+    private final String fingerprint;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private boolean loaded;
+    private int hits;
+    private int misses;
+
+    CameraCapabilityCache(File file, String fingerprint) {
+        // The fingerprint can't have line breaks, they're replaced
+        this.file = file;
+        this.fingerprint = fingerprint.replace('\n', ' ').replace('\r', ' ');
+    }
+
+    private static String key(int cameraId, int viewWidth, int viewHeight) {
+        return cameraId + "@" + viewWidth + "x" + viewHeight;
+    }
+
+    synchronized void load() {
+        // Reads the file once, whatever asks first. Lines that can't be read are skipped.
+        if (loaded) return;
+        loaded = true;
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                    "UTF-8"));
+            if (!HEADER.equals(reader.readLine())) return;
+            // Another build or display, the sizes may be different
+            if (!fingerprint.equals(reader.readLine())) return;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Entry entry;
+                try {
+                    entry = new Entry(line);
+                } catch (RuntimeException ex) {
+                    Log.w(TAG, "Skipping unreadable entry \"" + line + "\": " + ex);
+                    continue;
+                }
+                entries.put(key(entry.cameraId, entry.viewWidth, entry.viewHeight), entry);
+            }
+        } catch (FileNotFoundException ex) {
+            // First launch
+        } catch (IOException ex) {
+            // The entries read so far are kept, the others are asked for again
+            Log.w(TAG, "Couldn't read " + file + ": " + ex.getMessage());
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ex) {
+                    Log.w(TAG, "Couldn't close " + file + ": " + ex.getMessage());
+                }
+            }
+        }
+    }
+
+    synchronized Entry get(int cameraId, int viewWidth, int viewHeight) {
+        // Null when the sizes have to be asked for, then put() the answer
+        load();
+        Entry entry = entries.get(key(cameraId, viewWidth, viewHeight));
+        if (entry == null) misses++;
+        else hits++;
+        return entry;
+    }
+
+    synchronized Entry put(int cameraId, int viewWidth, int viewHeight,
+                           List<CameraSizes.Size> previewSizes,
+                           List<CameraSizes.Size> pictureSizes) {
+        // Picks the sizes, and saves them for the next launch if there's something to pick
+        load();
+        Entry entry = new Entry(cameraId, viewWidth, viewHeight, previewSizes, pictureSizes);
+        if (entry.previewSize == null || entry.pictureSize == null) return entry;
+        entries.put(key(cameraId, viewWidth, viewHeight), entry);
+        try {
+            save();
+        } catch (IOException ex) {
+            Log.w(TAG, "Couldn't save " + file + ": " + ex.getMessage());
+        }
+        return entry;
+    }
+
+    synchronized int getHits() {
+        return hits;
+    }
+
+    synchronized int getMisses() {
+        return misses;
+    }
+
+    private void save() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+        try {
+            writer.write(HEADER + "\n" + fingerprint + "\n");
+            for (Entry entry : entries.values()) writer.write(entry.format() + "\n");
+        } finally {
+            writer.close();
+        }
+        if (!temp.renameTo(file)) throw new IOException("Can't rename " + temp);
+    }
+}
@@ -19,15 +19,44 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback,
-        Camera.PictureCallback {
+        Camera.PictureCallback, Camera.PreviewCallback {
     private String TAG = "CameraPreview";
+    // Preview frames waiting for the frame processor before new ones are dropped
+    private static final int QUEUED_FRAMES = 2;
     private Camera mCamera;
+    // Id of mCamera, -1 when it isn't known and its sizes aren't cached
+    private int mCameraId = -1;
+    private CameraCapabilityCache mCapabilityCache;
     private int focusAreaSize;
-    private double targetRatio;
     private SurfaceHolder mHolder;
     private Camera.Parameters mParameters;
     private Matrix matrix;
+    private PhotoCapturePipeline mCapturePipeline;
+    // Log item of the picture being taken, and when its shutter fired
+    private LogItemRef mPendingRef;
+    private long mShutterNanos;
+    private PreviewFramePipeline.FrameProcessor mFrameProcessor;
+    private PreviewFramePipeline mFramePipeline;
+    private SurfaceListener mSurfaceListener;
+    private volatile boolean mSurfaceReady;
+    // Size of the parent layout, read on the UI thread for the camera thread
+    private volatile int mParentWidth;
+    private volatile int mParentHeight;
+    // Run once by the next preview frame, and once the picture being taken is saved
+    private Runnable mOnFirstFrame;
+    private Runnable mOnPictureDone;
+    private boolean mTakingPicture;
+    private FocusListener mFocusListener;
+
+    interface FocusListener {
+        // The preview was tapped at x, y, called on the UI thread
+        void onFocusRequested(float x, float y);
+    }
 
+    interface SurfaceListener {
+        // The camera can start previewing, called on the UI thread
+        void onSurfaceReady();
+    }
 
     public CameraPreview(Context context) {
         super(context);
@@ -51,164 +80,278 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
         setOnTouchListener(new OnTouchListener() {
             @Override
             public boolean onTouch(View v, MotionEvent event) {
-                if (mCamera != null && event.getAction() == MotionEvent.ACTION_UP) {
-                    Log.d(TAG, "Focus camera");
-                    mCamera.cancelAutoFocus();
-                    Rect focusRect = calculateTapArea(event.getX(), event.getY(), 1f);
-                    if (mParameters.getFocusMode().equals(Camera.Parameters.FOCUS_MODE_AUTO))
-                        mParameters.setFocusMode(Camera.Parameters.FOCUS_MODE_AUTO);
-
-                    if (mParameters.getMaxNumFocusAreas() > 0) {
-                        List<Camera.Area> myList = new ArrayList<>();
-                        myList.add(new Camera.Area(focusRect, 1000));
-                        mParameters.setFocusAreas(myList);
-                    }
+                if (event.getAction() != MotionEvent.ACTION_UP) return true;
+                // With a session the camera belongs to its thread, the tap is posted there
+                if (mFocusListener != null) mFocusListener.onFocusRequested(event.getX(),
+                        event.getY());
+                else focusAt(event.getX(), event.getY());
+                return true;
+            }
+        });
+    }
 
+    void focusAt(float x, float y) {
+        /* Focuses on the point x, y of the view, on the thread that owns the camera
+         *
+         * Continuous focus is back once the camera has focused there, unless a picture is
+         * being taken or the camera was changed meanwhile.
+         */
+        final Camera camera = mCamera;
+        if (camera == null || mParameters == null) return;
+        Log.d(TAG, "Focus camera");
+        try {
+            camera.cancelAutoFocus();
+            Rect focusRect = calculateTapArea(x, y, 1f);
+            if (mParameters.getFocusMode().equals(Camera.Parameters.FOCUS_MODE_AUTO))
+                mParameters.setFocusMode(Camera.Parameters.FOCUS_MODE_AUTO);
+
+            if (mParameters.getMaxNumFocusAreas() > 0) {
+                List<Camera.Area> myList = new ArrayList<>();
+                myList.add(new Camera.Area(focusRect, 1000));
+                mParameters.setFocusAreas(myList);
+            }
+
+            camera.setParameters(mParameters);
+            camera.startPreview();
+            camera.autoFocus(new Camera.AutoFocusCallback() {
+                @Override
+                public void onAutoFocus(boolean success, Camera camera) {
+                    if (camera != mCamera || mTakingPicture) return;
                     try {
-                        mCamera.cancelAutoFocus();
-                        mCamera.setParameters(mParameters);
-                        mCamera.startPreview();
-                        mCamera.autoFocus(new Camera.AutoFocusCallback() {
-                            @Override
-                            public void onAutoFocus(boolean success, Camera camera) {
-                                if (!camera.getParameters().getFocusMode().equals(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE)) {
-                                    mParameters = camera.getParameters();
-                                    mParameters.setFocusMode(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE);
-                                    if (mParameters.getMaxNumFocusAreas() > 0) {
-                                        mParameters.setFocusAreas(null);
-                                    }
-                                    camera.setParameters(mParameters);
-                                    camera.startPreview();
-                                }
+                        if (!camera.getParameters().getFocusMode().equals(
+                                Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE)) {
+                            mParameters = camera.getParameters();
+                            mParameters.setFocusMode(
+                                    Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE);
+                            if (mParameters.getMaxNumFocusAreas() > 0) {
+                                mParameters.setFocusAreas(null);
                             }
-                        });
-                    } catch (Exception e) {
-                        e.printStackTrace();
+                            camera.setParameters(mParameters);
+                            camera.startPreview();
+                        }
+                    } catch (RuntimeException ex) {
+                        Log.d(TAG, "Couldn't restore continuous focus: " + ex.getMessage());
                     }
                 }
-                return true;
-            }
-        });
+            });
+        } catch (RuntimeException ex) {
+            Log.d(TAG, "Couldn't focus camera: " + ex.getMessage());
+        }
     }
 
     public void setCamera(Camera camera) {
-        if (mHolder.getSurface() == null) return;
+        setCamera(camera, -1, 90);
+    }
+
+    void setCamera(Camera camera, int cameraId, int displayOrientation) {
+        stopFramePipeline();
         try {
             if (mCamera != null) mCamera.stopPreview();
         } catch (Exception ex) {
-            Log.d(TAG, "Couldn't stop camera preview" + ex.getMessage());
+            Log.d(TAG, "Couldn't stop camera preview: " + ex.getMessage());
         }
 
         mCamera = camera;
-        mCamera.setDisplayOrientation(90);
+        mCameraId = cameraId;
+        mCamera.setDisplayOrientation(displayOrientation);
+    }
+
+    void clearCamera() {
+        // The camera is about to be released
+        stopFramePipeline();
+        mCamera = null;
+        mCameraId = -1;
+        mOnFirstFrame = null;
+        mOnPictureDone = null;
+        mTakingPicture = false;
+    }
+
+    void setCapabilityCache(CameraCapabilityCache cache) {
+        mCapabilityCache = cache;
+    }
+
+    void setFocusListener(FocusListener listener) {
+        mFocusListener = listener;
+    }
+
+    void setSurfaceListener(SurfaceListener listener) {
+        // With a listener the camera is no longer refreshed here when the surface is created
+        mSurfaceListener = listener;
+    }
+
+    boolean isSurfaceReady() {
+        return mSurfaceReady;
+    }
+
+    void setCapturePipeline(PhotoCapturePipeline pipeline) {
+        mCapturePipeline = pipeline;
+    }
+
+    void setFrameProcessor(PreviewFramePipeline.FrameProcessor processor) {
+        // Takes effect the next time the camera is refreshed
+        mFrameProcessor = processor;
+    }
+
+    void takePicture(LogItemRef ref) {
+        takePicture(ref, null);
+    }
+
+    void takePicture(LogItemRef ref, Runnable done) {
+        /* The photo goes to the capture pipeline linked to ref, which may be null
+         *
+         * done runs once the preview is back, or right away if the picture couldn't be taken.
+         */
+        if (mCamera == null) {
+            if (done != null) done.run();
+            return;
+        }
+        mPendingRef = ref;
+        mOnPictureDone = done;
+        mTakingPicture = true;
+        mShutterNanos = System.nanoTime();
+        try {
+            mCamera.takePicture(new Camera.ShutterCallback() {
+                @Override
+                public void onShutter() {
+                    mShutterNanos = System.nanoTime();
+                }
+            }, null, this);
+        } catch (RuntimeException ex) {
+            Log.d(TAG, "Couldn't take picture: " + ex.getMessage());
+            mOnPictureDone = null;
+            mTakingPicture = false;
+            if (done != null) done.run();
+        }
     }
 
     public void refreshCamera() {
+        refreshCamera(null);
+    }
+
+    void refreshCamera(Runnable onFirstFrame) {
         /* Called whenever the camera is started/changed/restarted
          *
-         * Sets a preview size for the surface view, and the picture resolution
+         * Sets a preview size for the surface view, and the picture resolution. Can run on the
+         * camera's own thread, onFirstFrame runs there with the first preview frame.
          */
 
         if (mCamera == null) return;
         mParameters = mCamera.getParameters();
 
-        LinearLayout parent = (LinearLayout) getParent();
-        int width = parent.getWidth();
-        int height = parent.getHeight();
+        int width = mParentWidth;
+        int height = mParentHeight;
+        if (width == 0 || height == 0) {
+            LinearLayout parent = (LinearLayout) getParent();
+            width = parent.getWidth();
+            height = parent.getHeight();
+        }
 
-        // Prevent the view from being stretched sets target ratio for the picture
-        setPreviewDisplaySize(width, height);
-        // Set picture resolution size
-        setPictureSize();
+        // Preview and picture sizes, without stretching the view
+        setSizes(width, height);
         // Enable auto focus until camera is focused
 
         mCamera.setParameters(mParameters);
+        startFramePipeline();
+        mOnFirstFrame = onFirstFrame;
+        // Without the frame pipeline a one shot callback still reports the first frame
+        if (onFirstFrame != null && mFramePipeline == null)
+            mCamera.setOneShotPreviewCallback(this);
 
         try {
             mCamera.setPreviewDisplay(mHolder);
             mCamera.startPreview();
         } catch (IOException ex) {
-            Log.d(TAG, "Couldn't set camera display" + ex.getMessage());
+            Log.d(TAG, "Couldn't set camera display: " + ex.getMessage());
         }
     }
 
-    private void setPreviewDisplaySize(int width, int height) {
-        // Get preview sizes to avoid getting a stretched preview
-        List<Camera.Size> supportedPreviewSizes = mParameters.getSupportedPreviewSizes();
-        Camera.Size mPreviewSize = getOptimalPreviewSize(supportedPreviewSizes, width, height);
-        mParameters.setPreviewSize(mPreviewSize.width, mPreviewSize.height);
-
-        ViewGroup.LayoutParams layoutParams = getLayoutParams();
-        // Preview size is flipped here for some reason, switch the height and width
-        //noinspection SuspiciousNameCombination
-        layoutParams.width = mPreviewSize.height;
-        //noinspection SuspiciousNameCombination
-        layoutParams.height = mPreviewSize.width;
-        Log.d(TAG, String.format("Set preview size to w:%d, h:%d", mPreviewSize.width,
-                mPreviewSize.height));
-        setLayoutParams(layoutParams);
-    }
-
-    private Camera.Size getOptimalPreviewSize(List<Camera.Size> sizes, int w, int h) {
-        if (sizes == null) return null;
-
-        final double ASPECT_TOLERANCE = 0.1;
-        double targetRatio = (double) h / w;
-
-        Camera.Size optimalSize = null;
-        double minDiff = Double.MAX_VALUE;
-
-        for (Camera.Size size : sizes) {
-            // Camera size and height are flipped so it fits on the display
-            double ratio = (double) size.width / size.height;
-            if (Math.abs(ratio - targetRatio) > ASPECT_TOLERANCE) continue;
-            if (Math.abs(size.height - h) < minDiff) {
-                optimalSize = size;
-                minDiff = Math.abs(size.height - h);
-            }
-        }
-
-        if (optimalSize == null) {
-            minDiff = Double.MAX_VALUE;
-            for (Camera.Size size : sizes) {
-                if (Math.abs(size.height - h) < minDiff) {
-                    optimalSize = size;
-                    minDiff = Math.abs(size.height - h);
+    private void startFramePipeline() {
+        // Preview frames reach the frame processor in NV21 callback buffers that are reused
+        stopFramePipeline();
+        if (mFrameProcessor == null) return;
+        Camera.Size size = mParameters.getPreviewSize();
+        final Camera camera = mCamera;
+        mFramePipeline = new PreviewFramePipeline(size.width, size.height, QUEUED_FRAMES,
+                mFrameProcessor, new PreviewFramePipeline.BufferRecycler() {
+            @Override
+            public void recycle(byte[] buffer) {
+                try {
+                    camera.addCallbackBuffer(buffer);
+                } catch (RuntimeException ex) {
+                    // The camera was released meanwhile, the buffer isn't needed
                 }
             }
-        }
-        if (optimalSize != null) this.targetRatio = (double) optimalSize.width / optimalSize.height;
-        return optimalSize;
+        });
+        int bufferSize = FrameBufferPool.nv21Size(size.width, size.height);
+        for (int i = 0; i < mFramePipeline.callbackBuffers(); i++)
+            camera.addCallbackBuffer(new byte[bufferSize]);
+        camera.setPreviewCallbackWithBuffer(this);
     }
 
-    private void setPictureSize() {
-        List<Camera.Size> supportedPictureSizes = mParameters.getSupportedPictureSizes();
-        Camera.Size mPictureSize = getOptimalPictureSize(supportedPictureSizes);
-        Log.d(TAG, String.format("Set picture size to w:%d, h:%d", mPictureSize.width,
-                mPictureSize.height));
-        mParameters.setPictureSize(mPictureSize.width, mPictureSize.height);
+    private void stopFramePipeline() {
+        if (mFramePipeline == null) return;
+        try {
+            if (mCamera != null) mCamera.setPreviewCallbackWithBuffer(null);
+        } catch (RuntimeException ex) {
+            Log.d(TAG, "Couldn't remove preview callback: " + ex.getMessage());
+        }
+        mFramePipeline.close();
+        mFramePipeline = null;
     }
 
-    private Camera.Size getOptimalPictureSize(List<Camera.Size> sizes) {
-        if (sizes == null) return null;
-
-        Log.d(TAG, "targetRatio is: " + targetRatio);
-        double minRatioDiff = Double.MAX_VALUE;
-        Camera.Size optimalSize = null;
-
-        for (Camera.Size size : sizes) {
-            double ratio = (double) size.width / size.height;
-            Log.d(TAG, String.format("Picture w: %d, h: %d, r: ", size.width, size.height) + ratio);
-            // If the ratio fits perfectly return it
-            if (ratio == targetRatio) {
-                optimalSize = size;
-                break;
-            } else if (Math.abs(ratio - targetRatio) < minRatioDiff) optimalSize = size;
-            // Else if the ratio fits the screen better then set it as the new optimalSize
+    private void setSizes(int width, int height) {
+        /* Sets the preview size, resizing the view so it isn't stretched, and a picture size with
+         * the same ratio
+         *
+         * The sizes come from the capability cache when this camera was already set up for a
+         * view this size, otherwise they're asked for and picked by CameraSizes.
+         */
+        CameraCapabilityCache.Entry entry = null;
+        if (mCapabilityCache != null && mCameraId >= 0)
+            entry = mCapabilityCache.get(mCameraId, width, height);
+        if (entry == null) {
+            List<CameraSizes.Size> previewSizes = sizes(mParameters.getSupportedPreviewSizes());
+            List<CameraSizes.Size> pictureSizes = sizes(mParameters.getSupportedPictureSizes());
+            if (mCapabilityCache != null && mCameraId >= 0)
+                entry = mCapabilityCache.put(mCameraId, width, height, previewSizes, pictureSizes);
+            else
+                entry = new CameraCapabilityCache.Entry(mCameraId, width, height, previewSizes,
+                        pictureSizes);
+        }
+        if (entry.previewSize == null || entry.pictureSize == null) {
+            Log.d(TAG, "Camera has no preview or picture sizes");
+            return;
         }
 
-        // Return the optimal size if no perfect ratio was found
-        return optimalSize;
+        CameraSizes.Size previewSize = entry.previewSize;
+        mParameters.setPreviewSize(previewSize.width, previewSize.height);
+        mParameters.setPictureSize(entry.pictureSize.width, entry.pictureSize.height);
+        Log.d(TAG, String.format("Set preview size to %s, picture size to %s", previewSize,
+                entry.pictureSize));
+
+        // May be on the camera thread, the view and its layout belong to the UI thread
+        final int previewWidth = previewSize.width;
+        final int previewHeight = previewSize.height;
+        post(new Runnable() {
+            @Override
+            public void run() {
+                ViewGroup.LayoutParams layoutParams = getLayoutParams();
+                // Preview size is flipped here for some reason, switch the height and width
+                //noinspection SuspiciousNameCombination
+                layoutParams.width = previewHeight;
+                //noinspection SuspiciousNameCombination
+                layoutParams.height = previewWidth;
+                setLayoutParams(layoutParams);
+            }
+        });
+    }
+
+    private static List<CameraSizes.Size> sizes(List<Camera.Size> cameraSizes) {
+        List<CameraSizes.Size> sizes = new ArrayList<>();
+        if (cameraSizes == null) return sizes;
+        for (Camera.Size size : cameraSizes) sizes.add(new CameraSizes.Size(size.width,
+                size.height));
+        return sizes;
     }
 
     private Rect calculateTapArea(float x, float y, float coefficient) {
@@ -235,15 +378,41 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
 
     @Override
     public void onPictureTaken(byte[] data, Camera camera) {
+        // Hand the JPEG over without copying it and get the preview back for the next shot
+        if (mCapturePipeline != null && data != null
+                && !mCapturePipeline.submit(data, mPendingRef, mShutterNanos))
+            Log.d(TAG, "Capture queue full, photo dropped");
+        mPendingRef = null;
+        mTakingPicture = false;
+        try {
+            camera.startPreview();
+        } catch (RuntimeException ex) {
+            Log.d(TAG, "Couldn't restart camera preview: " + ex.getMessage());
+        }
+        Runnable done = mOnPictureDone;
+        mOnPictureDone = null;
+        if (done != null) done.run();
+    }
 
+    @Override
+    public void onPreviewFrame(byte[] data, Camera camera) {
+        Runnable first = mOnFirstFrame;
+        mOnFirstFrame = null;
+        if (first != null) first.run();
+        if (mFramePipeline != null) mFramePipeline.onFrame(data, System.nanoTime());
     }
 
     @Override
     public void surfaceCreated(SurfaceHolder holder) {
         Log.d(TAG, "Surface created");
-        refreshCamera();
+        LinearLayout parent = (LinearLayout) getParent();
+        mParentWidth = parent.getWidth();
+        mParentHeight = parent.getHeight();
         focusAreaSize = getResources().getDimensionPixelSize(R.dimen.camera_focus_area_size);
         matrix = new Matrix();
+        mSurfaceReady = true;
+        if (mSurfaceListener != null) mSurfaceListener.onSurfaceReady();
+        else refreshCamera();
     }
 
     @Override
@@ -254,5 +423,6 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
     @Override
     public void surfaceDestroyed(SurfaceHolder holder) {
         Log.d(TAG, "Surface destroyed");
+        mSurfaceReady = false;
     }
 }
@@ -0,0 +1,390 @@
+package com.mycompany.cameratest;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+final class CameraSession {
+    /* Opens, previews, captures with and releases cameras away from the UI thread
+     *
+     * Every request is posted to the session executor, a HandlerThread on the device, and
+     * runs there in order, so the UI thread only ever posts. The camera itself is behind a
+     * Driver, which keeps this class plain Java.
+     *
+     *   CLOSED --open--> OPENING --preview started--> PREVIEWING --capture--> CAPTURING
+     *   CAPTURING --picture done or capture timeout--> PREVIEWING
+     *   OPENING, PREVIEWING, CAPTURING --close--> RELEASING --> CLOSED
+     *   OPENING, PREVIEWING --switch--> RELEASING --> OPENING (the other camera)
+     *
+     * Requests that don't apply to the current state are ignored. OPENING waits there if the
+     * preview surface isn't ready yet, surfaceReady() starts the preview when it is. A picture
+     * that isn't done within the capture timeout is reported to onError() and given up on, so
+     * a lost camera callback can't leave the session capturing for good.
+     *
+     * Once a camera is previewing the next one is prepared in the background (Driver.prepare),
+     * so a switch only has to open it. The time from a request to the first preview frame is
+     * reported as cold start for open() and as switch latency for switchTo().
+     */
+    enum State {
+        CLOSED, OPENING, PREVIEWING, CAPTURING, RELEASING
+    }
+
+    interface Driver {
+        /* Called on the session thread only */
+        int[] findCameras();
+
+        // Whatever opening cameraId needs that can be worked out ahead, or null
+        Object prepare(int cameraId);
+
+        void open(int cameraId, Object prepared) throws Exception;
+
+        // False if the preview surface isn't there yet. Must call firstFrame() later.
+        boolean startPreview() throws Exception;
+
+        // Must call pictureDone() once the preview is back
+        void capture() throws Exception;
+
+        // Focuses on x, y of the preview
+        void focus(float x, float y) throws Exception;
+
+        void release();
+    }
+
+    interface Listener {
+        /* Called on the session thread */
+        void onCamerasFound(int[] cameraIds);
+
+        void onStateChanged(State previous, State state);
+
+        // switched is false for a cold start
+        void onFirstFrame(int cameraId, long latencyNanos, boolean switched);
+
+        void onError(int cameraId, Exception ex);
+    }
+
+    static final class Metrics {
+        final long coldStartNanos;
+        final int switches;
+        final long lastSwitchNanos;
+        final long totalSwitchNanos;
+
+        private Metrics(CameraSession session) {
+            coldStartNanos = session.coldStartNanos;
+            switches = session.switches;
+            lastSwitchNanos = session.lastSwitchNanos;
+            totalSwitchNanos = session.totalSwitchNanos;
+        }
+
+        long meanSwitchNanos() {
+            return switches == 0 ? 0 : totalSwitchNanos / switches;
+        }
+    }
+
+    static final long CAPTURE_TIMEOUT_MILLIS = 5000;
+
+    // Shared by every session, it only posts the timeouts to their session's executor
+    private static final ScheduledExecutorService TIMEOUTS =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "CameraSession-timeout");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final Executor executor;
+    private final Driver driver;
+    private final Listener listener;
+    private volatile long captureTimeoutMillis = CAPTURE_TIMEOUT_MILLIS;
+
+    // Only used on the session thread, except state which anyone may read
+    private volatile State state = State.CLOSED;
+    private int[] cameraIds;
+    private final Map<Integer, Object> prepared = new HashMap<>();
+    private int cameraId = -1;
+    // Reopened by open() after a close
+    private int lastCameraId = -1;
+    private long requestNanos;
+    private boolean switching;
+    private boolean waitingFirstFrame;
+    // Tells a timeout from an earlier picture apart from the current one
+    private int captures;
+
+    // Guards the metrics
+    private final Object lock = new Object();
+    private long coldStartNanos = -1;
+    private int switches;
+    private long lastSwitchNanos;
+    private long totalSwitchNanos;
+
+    CameraSession(Executor executor, Driver driver, Listener listener) {
+        this.executor = executor;
+        this.driver = driver;
+        this.listener = listener;
+    }
+
+    State getState() {
+        return state;
+    }
+
+    void setCaptureTimeoutMillis(long millis) {
+        captureTimeoutMillis = millis;
+    }
+
+    Metrics getMetrics() {
+        synchronized (lock) {
+            return new Metrics(this);
+        }
+    }
+
+    void findCameras() {
+        // Reported to onCamerasFound
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                cameras();
+            }
+        });
+    }
+
+    void open() {
+        // The camera used last, or the first one found
+        open(-1);
+    }
+
+    void open(final int id) {
+        final long requested = System.nanoTime();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (state != State.CLOSED) return;
+                int open = id;
+                if (open < 0) open = lastCameraId;
+                if (open < 0 && cameras().length > 0) open = cameras()[0];
+                if (open < 0) {
+                    listener.onError(open, new IllegalStateException("No camera found"));
+                    return;
+                }
+                requestNanos = requested;
+                switching = false;
+                openCamera(open);
+            }
+        });
+    }
+
+    void switchToNext() {
+        // The camera after the current one in the order they were found
+        final long requested = System.nanoTime();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int[] ids = cameras();
+                for (int i = 0; i < ids.length; i++) {
+                    if (ids[i] != cameraId) continue;
+                    switchCamera(ids[(i + 1) % ids.length], requested);
+                    return;
+                }
+            }
+        });
+    }
+
+    void switchTo(final int id) {
+        final long requested = System.nanoTime();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                switchCamera(id, requested);
+            }
+        });
+    }
+
+    void surfaceReady() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (state == State.OPENING) startPreview();
+            }
+        });
+    }
+
+    void capture() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (state != State.PREVIEWING) return;
+                setState(State.CAPTURING);
+                scheduleCaptureTimeout(++captures);
+                try {
+                    driver.capture();
+                } catch (Exception ex) {
+                    listener.onError(cameraId, ex);
+                    setState(State.PREVIEWING);
+                }
+            }
+        });
+    }
+
+    private void scheduleCaptureTimeout(final int capture) {
+        final long millis = captureTimeoutMillis;
+        final Runnable expire = new Runnable() {
+            @Override
+            public void run() {
+                if (state != State.CAPTURING || capture != captures) return;
+                listener.onError(cameraId,
+                        new TimeoutException("No picture after " + millis + " ms"));
+                setState(State.PREVIEWING);
+            }
+        };
+        TIMEOUTS.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    executor.execute(expire);
+                } catch (RejectedExecutionException ex) {
+                    // The session thread is gone, nothing is capturing
+                }
+            }
+        }, millis, TimeUnit.MILLISECONDS);
+    }
+
+    void focus(final float x, final float y) {
+        // A tap on the preview, ignored unless it's previewing (not switching or capturing)
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (state != State.PREVIEWING) return;
+                try {
+                    driver.focus(x, y);
+                } catch (Exception ex) {
+                    listener.onError(cameraId, ex);
+                }
+            }
+        });
+    }
+
+    void pictureDone() {
+        // From the driver, the preview is running again
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (state == State.CAPTURING) setState(State.PREVIEWING);
+            }
+        });
+    }
+
+    void firstFrame(final int id) {
+        // From the driver, when camera id delivers a preview frame
+        final long now = System.nanoTime();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!waitingFirstFrame || id != cameraId) return;
+                waitingFirstFrame = false;
+                long latency = now - requestNanos;
+                synchronized (lock) {
+                    if (switching) {
+                        switches++;
+                        lastSwitchNanos = latency;
+                        totalSwitchNanos += latency;
+                    } else if (coldStartNanos < 0) {
+                        coldStartNanos = latency;
+                    }
+                }
+                listener.onFirstFrame(cameraId, latency, switching);
+            }
+        });
+    }
+
+    void close() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (state == State.CLOSED) return;
+                releaseCamera();
+            }
+        });
+    }
+
+    private int[] cameras() {
+        if (cameraIds == null) {
+            cameraIds = driver.findCameras();
+            listener.onCamerasFound(cameraIds.clone());
+        }
+        return cameraIds;
+    }
+
+    private void switchCamera(int id, long requested) {
+        if (state != State.PREVIEWING && state != State.OPENING) return;
+        if (id == cameraId) return;
+        releaseCamera();
+        requestNanos = requested;
+        switching = true;
+        openCamera(id);
+    }
+
+    private void openCamera(int id) {
+        setState(State.OPENING);
+        cameraId = id;
+        lastCameraId = id;
+        waitingFirstFrame = false;
+        try {
+            Object configuration = prepared.remove(id);
+            if (configuration == null) configuration = driver.prepare(id);
+            driver.open(id, configuration);
+        } catch (Exception ex) {
+            listener.onError(id, ex);
+            releaseCamera();
+            return;
+        }
+        startPreview();
+    }
+
+    private void startPreview() {
+        try {
+            if (!driver.startPreview()) return;
+        } catch (Exception ex) {
+            listener.onError(cameraId, ex);
+            releaseCamera();
+            return;
+        }
+        waitingFirstFrame = true;
+        setState(State.PREVIEWING);
+        prepareNext();
+    }
+
+    private void prepareNext() {
+        // Posted, so it runs after whatever the UI asked for meanwhile
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (int id : cameras()) {
+                    if (id == cameraId || prepared.containsKey(id)) continue;
+                    Object configuration = driver.prepare(id);
+                    if (configuration != null) prepared.put(id, configuration);
+                }
+            }
+        });
+    }
+
+    private void releaseCamera() {
+        setState(State.RELEASING);
+        waitingFirstFrame = false;
+        driver.release();
+        cameraId = -1;
+        setState(State.CLOSED);
+    }
+
+    private void setState(State next) {
+        State previous = state;
+        if (previous == next) return;
+        state = next;
+        listener.onStateChanged(previous, next);
+    }
+}
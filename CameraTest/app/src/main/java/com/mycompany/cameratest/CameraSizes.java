@@ -0,0 +1,116 @@
+package com.mycompany.cameratest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+final class CameraSizes {
+    /* Picks the preview and picture sizes, away from android.hardware.Camera so it can be
+     * tested and its answers cached
+     *
+     * Preview and picture sizes are in the camera's landscape orientation, the view they go in
+     * is portrait, so the preview ratio is compared with the view's height / width.
+     */
+    private static final double ASPECT_TOLERANCE = 0.1;
+
+    static final class Size {
+        final int width;
+        final int height;
+
+        Size(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        double ratio() {
+            return (double) width / height;
+        }
+
+        static Size parse(String text) {
+            // As written by toString(), WxH
+            int x = text.indexOf('x');
+            if (x < 0) throw new IllegalArgumentException("Not a size: " + text);
+            return new Size(Integer.parseInt(text.substring(0, x)),
+                    Integer.parseInt(text.substring(x + 1)));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Size)) return false;
+            Size other = (Size) o;
+            return width == other.width && height == other.height;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * width + height;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height;
+        }
+    }
+
+    private CameraSizes() {
+    }
+
+    static Size optimalPreviewSize(List<Size> sizes, int viewWidth, int viewHeight) {
+        /* The size closest to the view's height among those with its ratio, or among all of
+         * them if none has it
+         */
+        if (sizes == null || sizes.isEmpty()) return null;
+        double targetRatio = (double) viewHeight / viewWidth;
+
+        Size optimalSize = null;
+        int minDiff = Integer.MAX_VALUE;
+        for (Size size : sizes) {
+            if (Math.abs(size.ratio() - targetRatio) > ASPECT_TOLERANCE) continue;
+            if (Math.abs(size.height - viewHeight) < minDiff) {
+                optimalSize = size;
+                minDiff = Math.abs(size.height - viewHeight);
+            }
+        }
+        if (optimalSize != null) return optimalSize;
+
+        for (Size size : sizes) {
+            if (Math.abs(size.height - viewHeight) < minDiff) {
+                optimalSize = size;
+                minDiff = Math.abs(size.height - viewHeight);
+            }
+        }
+        return optimalSize;
+    }
+
+    static Size optimalPictureSize(List<Size> sizes, double targetRatio) {
+        // The first size with the preview's ratio, else the one with the closest ratio
+        if (sizes == null || sizes.isEmpty()) return null;
+        double minRatioDiff = Double.MAX_VALUE;
+        Size optimalSize = null;
+        for (Size size : sizes) {
+            double ratioDiff = Math.abs(size.ratio() - targetRatio);
+            if (ratioDiff == 0) return size;
+            if (ratioDiff < minRatioDiff) {
+                optimalSize = size;
+                minRatioDiff = ratioDiff;
+            }
+        }
+        return optimalSize;
+    }
+
+    static String format(List<Size> sizes) {
+        // Comma separated, read back by parse()
+        StringBuilder text = new StringBuilder();
+        for (Size size : sizes) {
+            if (text.length() > 0) text.append(',');
+            text.append(size);
+        }
+        return text.toString();
+    }
+
+    static List<Size> parse(String text) {
+        List<Size> sizes = new ArrayList<>();
+        if (text.isEmpty()) return sizes;
+        for (String size : text.split(",")) sizes.add(Size.parse(size));
+        return sizes;
+    }
+}
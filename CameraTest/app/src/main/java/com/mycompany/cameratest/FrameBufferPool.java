@@ -0,0 +1,47 @@
+package com.mycompany.cameratest;
+
+final class FrameBufferPool implements PreviewFramePipeline.BufferRecycler {
+    /* Preallocated frame buffers, recycled instead of garbage collected
+     *
+     * Stands in for the camera's own queue of callback buffers (addCallbackBuffer) when frames
+     * come from somewhere else, a recording or a benchmark. One thread acquires buffers, any
+     * thread can give them back: PreviewFramePipeline recycles dropped frames on the camera
+     * thread and processed ones on its worker. recycle() is synchronized so the free list still
+     * sees a single producer, an uncontended lock doesn't allocate.
+     */
+    private final FrameRing free;
+    private final int bufferSize;
+    private final int count;
+
+    FrameBufferPool(int count, int bufferSize) {
+        free = new FrameRing(FrameRing.capacityFor(count));
+        this.bufferSize = bufferSize;
+        this.count = count;
+        for (int i = 0; i < count; i++) free.offer(new byte[bufferSize], 0);
+    }
+
+    static int nv21Size(int width, int height) {
+        // Full resolution Y plane plus interleaved V and U at half resolution
+        return width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    int available() {
+        return free.size();
+    }
+
+    byte[] acquire() {
+        // Null if every buffer is in use
+        return free.poll();
+    }
+
+    @Override
+    public synchronized void recycle(byte[] buffer) {
+        if (buffer.length != bufferSize)
+            throw new IllegalArgumentException("Not a buffer of this pool: " + buffer.length);
+        if (!free.offer(buffer, 0)) throw new IllegalStateException("Buffer released twice");
+    }
+}
@@ -0,0 +1,74 @@
+package com.mycompany.cameratest;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+final class FrameRing {
+    /* Fixed size ring of frame buffers between exactly one producer and one consumer thread
+     *
+     * Each slot holds a buffer and its timestamp. head and tail only ever grow, the slot is
+     * their value masked by the capacity, a power of two. The producer publishes a slot with a
+     * lazySet of tail after filling it and the consumer frees it the same way with head, so
+     * offer() and poll() never lock and never allocate.
+     *
+     * offer() refuses instead of waiting when the ring is full.
+     */
+    private final byte[][] buffers;
+    private final long[] timestamps;
+    private final int mask;
+    // Next slot to poll, written by the consumer only
+    private final AtomicLong head = new AtomicLong();
+    // Next slot to fill, written by the producer only
+    private final AtomicLong tail = new AtomicLong();
+    // Timestamp of the last buffer polled
+    private long polledTimestamp;
+
+    FrameRing(int capacity) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        buffers = new byte[capacity][];
+        timestamps = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    static int capacityFor(int size) {
+        // Smallest power of two that holds size buffers
+        return size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+    }
+
+    int capacity() {
+        return buffers.length;
+    }
+
+    int size() {
+        // Only a hint while the other thread is running
+        return (int) (tail.get() - head.get());
+    }
+
+    boolean offer(byte[] buffer, long timestamp) {
+        // Producer thread. False if full.
+        long t = tail.get();
+        if (t - head.get() == buffers.length) return false;
+        int slot = (int) t & mask;
+        buffers[slot] = buffer;
+        timestamps[slot] = timestamp;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    byte[] poll() {
+        // Consumer thread. Null if empty, else the buffer, see polledTimestamp()
+        long h = head.get();
+        if (h == tail.get()) return null;
+        int slot = (int) h & mask;
+        byte[] buffer = buffers[slot];
+        polledTimestamp = timestamps[slot];
+        buffers[slot] = null;
+        head.lazySet(h + 1);
+        return buffer;
+    }
+
+    long polledTimestamp() {
+        // Consumer thread
+        return polledTimestamp;
+    }
+}
@@ -0,0 +1,126 @@
+package com.mycompany.cameratest;
+
+import android.hardware.Camera;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class HardwareCameraDriver implements CameraSession.Driver {
+    /* Runs the device cameras for a CameraSession, on the session's thread
+     *
+     * The camera is opened on that thread too, so its callbacks (preview frames, pictures)
+     * come back there and the UI thread stays free.
+     */
+    private String TAG = "CameraDriver";
+    private final CameraPreview mPreview;
+    private CameraCapabilityCache mCapabilityCache;
+    private CameraSession mSession;
+    private Camera mCamera;
+    private int mCameraId = -1;
+    // Log item the photos belong to, may be null
+    private volatile LogItemRef mLogItemRef;
+
+    HardwareCameraDriver(CameraPreview preview) {
+        mPreview = preview;
+    }
+
+    void setSession(CameraSession session) {
+        mSession = session;
+    }
+
+    void setCapabilityCache(CameraCapabilityCache cache) {
+        // Read ahead of opening, then used by the preview to skip asking for the sizes
+        mCapabilityCache = cache;
+        mPreview.setCapabilityCache(cache);
+    }
+
+    void setLogItemRef(LogItemRef ref) {
+        mLogItemRef = ref;
+    }
+
+    @Override
+    public int[] findCameras() {
+        // The back facing camera goes first, it's the one that takes the log pages
+        List<Integer> back = new ArrayList<>();
+        List<Integer> front = new ArrayList<>();
+        int numberOfCameras = Camera.getNumberOfCameras();
+        Log.d(TAG, String.format("Found %d cameras", numberOfCameras));
+        for (int i = 0; i < numberOfCameras; i++) {
+            Camera.CameraInfo info = new Camera.CameraInfo();
+            Camera.getCameraInfo(i, info);
+            if (info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) front.add(i);
+            else back.add(i);
+        }
+        // One of each facing, as the switch button only goes back and forth
+        int[] ids = new int[Math.min(back.size(), 1) + Math.min(front.size(), 1)];
+        int i = 0;
+        if (!back.isEmpty()) ids[i++] = back.get(0);
+        if (!front.isEmpty()) ids[i] = front.get(0);
+        return ids;
+    }
+
+    @Override
+    public Object prepare(int cameraId) {
+        // The camera info, needed to turn the preview the right way, and the cached sizes
+        if (mCapabilityCache != null) mCapabilityCache.load();
+        Camera.CameraInfo info = new Camera.CameraInfo();
+        Camera.getCameraInfo(cameraId, info);
+        return info;
+    }
+
+    @Override
+    public void open(int cameraId, Object prepared) throws Exception {
+        Camera.CameraInfo info = (Camera.CameraInfo) prepared;
+        Log.d(TAG, String.format("Opening camera #%d", cameraId));
+        mCamera = Camera.open(cameraId);
+        mCameraId = cameraId;
+        // The front camera is mirrored, the back one isn't
+        int orientation = info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT
+                ? (360 - info.orientation) % 360 : info.orientation;
+        mPreview.setCamera(mCamera, cameraId, orientation);
+    }
+
+    @Override
+    public boolean startPreview() {
+        if (mCamera == null || !mPreview.isSurfaceReady()) return false;
+        final int cameraId = mCameraId;
+        mPreview.refreshCamera(new Runnable() {
+            @Override
+            public void run() {
+                mSession.firstFrame(cameraId);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public void capture() {
+        mPreview.takePicture(mLogItemRef, new Runnable() {
+            @Override
+            public void run() {
+                mSession.pictureDone();
+            }
+        });
+    }
+
+    @Override
+    public void focus(float x, float y) {
+        mPreview.focusAt(x, y);
+    }
+
+    @Override
+    public void release() {
+        if (mCamera == null) return;
+        Log.d(TAG, String.format("Releasing camera #%d", mCameraId));
+        mPreview.clearCamera();
+        try {
+            mCamera.stopPreview();
+        } catch (RuntimeException ex) {
+            Log.d(TAG, "Couldn't stop camera preview: " + ex.getMessage());
+        }
+        mCamera.release();
+        mCamera = null;
+        mCameraId = -1;
+    }
+}
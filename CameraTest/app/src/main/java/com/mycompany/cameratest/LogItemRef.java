@@ -0,0 +1,102 @@
+package com.mycompany.cameratest;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+
+final class LogItemRef {
+    /* The log item a photo belongs to: aircraft, page folio and item number
+     *
+     * This app doesn't see CapturaTest's LogItems, whoever starts it passes the reference as
+     * intent extras and it travels in the photo's file name:
+     *
+     *   <aircraft>_<folio>_<logItemNumber>_<sequence>.jpg
+     *
+     * Anything in aircraft or folio other than letters, digits and '-' is %-escaped, so the
+     * name can always be parsed back.
+     */
+    static final String EXTRA_AIRCRAFT = "aircraft";
+    static final String EXTRA_FOLIO = "folio";
+    static final String EXTRA_LOG_ITEM_NUMBER = "logItemNumber";
+
+    private final String aircraft;
+    private final String folio;
+    private final int logItemNumber;
+
+    LogItemRef(String aircraft, String folio, int logItemNumber) {
+        if (aircraft == null || folio == null)
+            throw new IllegalArgumentException("A log item needs its aircraft and folio");
+        this.aircraft = aircraft;
+        this.folio = folio;
+        this.logItemNumber = logItemNumber;
+    }
+
+    String getAircraft() {
+        return aircraft;
+    }
+
+    String getFolio() {
+        return folio;
+    }
+
+    int getLogItemNumber() {
+        return logItemNumber;
+    }
+
+    String fileNamePrefix() {
+        // Every photo of this item starts with it
+        return escape(aircraft) + '_' + escape(folio) + '_' + logItemNumber + '_';
+    }
+
+    static LogItemRef fromFileName(String name) {
+        // Null if the name isn't a linked photo
+        String[] parts = name.split("_");
+        if (parts.length != 4) return null;
+        try {
+            return new LogItemRef(URLDecoder.decode(parts[0], "UTF-8"),
+                    URLDecoder.decode(parts[1], "UTF-8"), Integer.parseInt(parts[2]));
+        } catch (UnsupportedEncodingException | IllegalArgumentException ex) {
+            // NumberFormatException or a broken escape
+            return null;
+        }
+    }
+
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        byte[] utf8;
+        try {
+            utf8 = value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+        for (byte b : utf8) {
+            char c = (char) (b & 0xFF);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-') {
+                escaped.append(c);
+            } else {
+                escaped.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16)))
+                        .append(Character.toUpperCase(Character.forDigit(c & 0xF, 16)));
+            }
+        }
+        return escaped.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof LogItemRef)) return false;
+        LogItemRef other = (LogItemRef) o;
+        return logItemNumber == other.logItemNumber && aircraft.equals(other.aircraft)
+                && folio.equals(other.folio);
+    }
+
+    @Override
+    public int hashCode() {
+        return (aircraft.hashCode() * 31 + folio.hashCode()) * 31 + logItemNumber;
+    }
+
+    @Override
+    public String toString() {
+        return aircraft + " " + folio + " #" + logItemNumber;
+    }
+}
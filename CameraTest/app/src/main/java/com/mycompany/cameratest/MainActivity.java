@@ -5,21 +5,33 @@ import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
 import android.Manifest;
+import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.hardware.Camera;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.View;
 import android.view.WindowManager;
 import android.widget.ImageButton;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
 public class MainActivity extends AppCompatActivity {
     private String TAG = "CameraMain";
-    private Camera mCamera;
     private CameraPreview mPreview;
-    private int currentCamera;
-    private int FRONT_CAMERA = -1;
-    private int BACK_CAMERA = -1;
+    private HandlerThread mSessionThread;
+    private CameraSession mSession;
+    private HardwareCameraDriver mDriver;
+    private PhotoCapturePipeline mCapturePipeline;
+    private PageDetector mPageDetector;
+    // Log item the photos belong to, from the intent that started us
+    private LogItemRef mLogItemRef;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -34,72 +46,139 @@ public class MainActivity extends AppCompatActivity {
         }
 
         mPreview = findViewById(R.id.cameraPreview);
+        setUpCapture();
 
         setFullscreen();
-        // Check number of cameras and activate the switch camera button
-        getCameras();
-        if (FRONT_CAMERA != -1 && BACK_CAMERA != -1) {
-            ImageButton switchCameraButton = findViewById(R.id.switchCamera);
-            switchCameraButton.setOnClickListener(new View.OnClickListener() {
-                @Override
-                public void onClick(View v) {
-                    releaseCamera();
-                    switchCamera();
-                }
-            });
-            switchCameraButton.setVisibility(View.VISIBLE);
-        }
-
-        // Set back facing camera as current camera, unless it's not found
-        currentCamera = BACK_CAMERA != -1 ? BACK_CAMERA : FRONT_CAMERA;
-
-        try {
-            mCamera = Camera.open(currentCamera);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        mPreview.setCamera(mCamera);
-    }
-
-    private void getCameras() {
-        Log.d(TAG, "Getting number of cameras");
-        int numberOfCameras = Camera.getNumberOfCameras();
-        Log.d(TAG, String.format("Found %d cameras", numberOfCameras));
-        for (int i = 0; i < numberOfCameras; i++){
-            // Check the facing of all cameras
-            Camera.CameraInfo info = new Camera.CameraInfo();
-            Camera.getCameraInfo(i, info);
-            if (info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) FRONT_CAMERA = i;
-            else if(info.facing == Camera.CameraInfo.CAMERA_FACING_BACK) BACK_CAMERA = i;
-            // If both cameras are set, end the function
-            if (FRONT_CAMERA != -1 && BACK_CAMERA != -1) return;
-        }
+        setUpSession();
     }
 
-    private void releaseCamera() {
-        if (mCamera == null) return;
-        Log.d(TAG, String.format("Releasing camera #%d", currentCamera));
-        mCamera.stopPreview();
-        mCamera.release();
-        mCamera = null;
+    private void setUpSession() {
+        // The cameras are opened, switched and released on their own thread
+        mSessionThread = new HandlerThread("CameraSession");
+        mSessionThread.start();
+        final Handler handler = new Handler(mSessionThread.getLooper());
+        mDriver = new HardwareCameraDriver(mPreview);
+        mDriver.setCapabilityCache(capabilityCache());
+        mDriver.setLogItemRef(mLogItemRef);
+        mSession = new CameraSession(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        }, mDriver, new CameraSession.Listener() {
+            @Override
+            public void onCamerasFound(final int[] cameraIds) {
+                Log.d(TAG, String.format("Using %d cameras", cameraIds.length));
+                if (cameraIds.length < 2) return;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Activate the switch camera button
+                        findViewById(R.id.switchCamera).setVisibility(View.VISIBLE);
+                    }
+                });
+            }
+
+            @Override
+            public void onStateChanged(CameraSession.State previous,
+                                       CameraSession.State state) {
+                Log.d(TAG, "Camera " + previous + " -> " + state);
+            }
+
+            @Override
+            public void onFirstFrame(int cameraId, long latencyNanos, boolean switched) {
+                Log.d(TAG, String.format("First frame from camera #%d after %d ms (%s)",
+                        cameraId, latencyNanos / 1000000, switched ? "switch" : "cold start"));
+            }
+
+            @Override
+            public void onError(int cameraId, Exception ex) {
+                Log.d(TAG, String.format("Camera #%d failed: %s", cameraId, ex.getMessage()));
+            }
+        });
+        mDriver.setSession(mSession);
+        mPreview.setFocusListener(new CameraPreview.FocusListener() {
+            @Override
+            public void onFocusRequested(float x, float y) {
+                mSession.focus(x, y);
+            }
+        });
+        mPreview.setSurfaceListener(new CameraPreview.SurfaceListener() {
+            @Override
+            public void onSurfaceReady() {
+                mSession.surfaceReady();
+            }
+        });
+        mSession.findCameras();
+
+        ImageButton switchCameraButton = findViewById(R.id.switchCamera);
+        switchCameraButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                mSession.switchToNext();
+            }
+        });
     }
 
-    private void restartCamera() {
-        if (mCamera != null) return;
-        Log.d(TAG, String.format("Restarting camera #%d", currentCamera));
-        // Restart and set the camera in in the surface view
-        mCamera = Camera.open(currentCamera);
-        mPreview.setCamera(mCamera);
+    private CameraCapabilityCache capabilityCache() {
+        // Sizes picked on earlier launches, until the system is updated or the display changes
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        // Short side first, width and height swap when the device is rotated
+        int shortSide = Math.min(metrics.widthPixels, metrics.heightPixels);
+        int longSide = Math.max(metrics.widthPixels, metrics.heightPixels);
+        String fingerprint = String.format(Locale.US, "%s %d %dx%d %d", Build.FINGERPRINT,
+                Build.VERSION.SDK_INT, shortSide, longSide, metrics.densityDpi);
+        return new CameraCapabilityCache(new File(getFilesDir(), "camera_capabilities"),
+                fingerprint);
     }
 
-    private void switchCamera() {
-        // Change the current camera
-        currentCamera = currentCamera == BACK_CAMERA ? FRONT_CAMERA : BACK_CAMERA;
-        mCamera = Camera.open(currentCamera);
-        mPreview.setVisibility(View.INVISIBLE);
-        mPreview.setCamera(mCamera);
-        mPreview.setVisibility(View.VISIBLE);
-        //mPreview.refreshCamera();
+    private void setUpCapture() {
+        // Photos are written in the background by the capture pipeline
+        Intent intent = getIntent();
+        String aircraft = intent.getStringExtra(LogItemRef.EXTRA_AIRCRAFT);
+        String folio = intent.getStringExtra(LogItemRef.EXTRA_FOLIO);
+        if (aircraft != null && folio != null)
+            mLogItemRef = new LogItemRef(aircraft, folio,
+                    intent.getIntExtra(LogItemRef.EXTRA_LOG_ITEM_NUMBER, 0));
+
+        mCapturePipeline = new PhotoCapturePipeline(new File(getFilesDir(), "photos"),
+                new PhotoCapturePipeline.Options(), new PhotoCapturePipeline.Listener() {
+            @Override
+            public void onPhotoSaved(LogItemRef ref, File file, long latencyNanos) {
+                Log.d(TAG, String.format("Saved %s for %s in %d ms", file.getName(), ref,
+                        latencyNanos / 1000000));
+            }
+
+            @Override
+            public void onPhotoFailed(LogItemRef ref, IOException ex) {
+                Log.d(TAG, "Couldn't save photo for " + ref + ": " + ex.getMessage());
+            }
+        });
+        mPreview.setCapturePipeline(mCapturePipeline);
+
+        // Takes the picture by itself once a page is held still and in focus
+        mPageDetector = new PageDetector(new PageDetector.Options(),
+                new PageDetector.CaptureTrigger() {
+            @Override
+            public void onCapture(PageDetector.Quad page, double sharpness) {
+                Log.d(TAG, String.format("Page found at %s, sharpness %.0f", page, sharpness));
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        mSession.capture();
+                    }
+                });
+            }
+        });
+        mPreview.setFrameProcessor(mPageDetector);
+
+        ImageButton takePhotoButton = findViewById(R.id.takePhoto);
+        takePhotoButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                mSession.capture();
+            }
+        });
     }
 
     private void setFullscreen() {
@@ -112,18 +191,33 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        releaseCamera();
+        mSession.close();
+        /* Once the camera is released no more frames reach the detector, its threads are
+         * stopped then and the session thread quits
+         */
+        final HandlerThread sessionThread = mSessionThread;
+        final PageDetector pageDetector = mPageDetector;
+        new Handler(sessionThread.getLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                pageDetector.close();
+                sessionThread.quit();
+            }
+        });
+        // The photos already taken still reach the disk
+        mCapturePipeline.close();
     }
 
     @Override
     protected void onPause() {
         super.onPause();
-        releaseCamera();
+        mSession.close();
     }
 
     @Override
     protected void onResume() {
         super.onResume();
-        restartCamera();
+        // Waits for the preview surface if it isn't there yet
+        mSession.open();
     }
 }
@@ -0,0 +1,490 @@
+package com.mycompany.cameratest;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+final class PageDetector implements PreviewFramePipeline.FrameProcessor, Closeable {
+    /* Finds a paper log page in preview frames and decides when to take the picture
+     *
+     * Works on the Y plane of NV21 frames only:
+     *   1. The frame is downsampled to about detectionWidth pixels wide by averaging blocks.
+     *   2. Sobel gradients of the small image, pixels over edgeFactor times the mean gradient
+     *      (and at least minEdge) are edges.
+     *   3. The largest 8-connected group of edge pixels is taken as the page outline, its
+     *      corners are its extremes along the diagonals (min and max of x + y and x - y).
+     *   4. The quad is kept if it's convex, covers minAreaFraction of the frame and edges run
+     *      along minEdgeSupport of its perimeter.
+     *   5. Sharpness is the variance of the Laplacian over the page, on the full resolution Y
+     *      plane sampled every other pixel: blur flattens it quickly.
+     *
+     * A page whose corners move less than maxCornerDrift of the frame diagonal for
+     * stableFrames frames in a row, and is sharp enough, triggers a capture, then no other one
+     * for cooldownMillis.
+     *
+     * Steps 1, 2 and 5 are split in bands of rows over a fixed pool of threads, the bands and
+     * every buffer are reused from frame to frame. The calling thread runs the first band
+     * itself and waits for the others on a semaphore. One frame at a time, from a single
+     * thread; close it once frames stop coming.
+     */
+    static final class Options {
+        // Width of the image edges are detected on
+        int detectionWidth = 320;
+        int edgeFactor = 3;
+        int minEdge = 48;
+        double minAreaFraction = 0.15;
+        double minEdgeSupport = 0.6;
+        int stableFrames = 6;
+        // Fraction of the frame diagonal
+        double maxCornerDrift = 0.015;
+        // Sensor noise alone scores about 150
+        double minSharpness = 300;
+        long cooldownMillis = 3000;
+        int threads = Runtime.getRuntime().availableProcessors();
+    }
+
+    interface CaptureTrigger {
+        // Called on the thread running the detector
+        void onCapture(Quad page, double sharpness);
+    }
+
+    static final class Quad {
+        /* Corners in frame pixels: top left, top right, bottom right, bottom left */
+        final float[] x = new float[4];
+        final float[] y = new float[4];
+
+        void set(Quad other) {
+            System.arraycopy(other.x, 0, x, 0, 4);
+            System.arraycopy(other.y, 0, y, 0, 4);
+        }
+
+        double maxDistance(Quad other) {
+            // Largest distance between matching corners
+            double max = 0;
+            for (int i = 0; i < 4; i++)
+                max = Math.max(max, Math.hypot(x[i] - other.x[i], y[i] - other.y[i]));
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("(%.0f,%.0f) (%.0f,%.0f) (%.0f,%.0f) (%.0f,%.0f)", x[0], y[0],
+                    x[1], y[1], x[2], y[2], x[3], y[3]);
+        }
+    }
+
+    static final class Result {
+        /* Reused, valid until the next frame */
+        boolean found;
+        final Quad page = new Quad();
+        double sharpness;
+        int stableFrames;
+        boolean capture;
+    }
+
+    private static final int STAGE_DOWNSAMPLE = 0;
+    private static final int STAGE_GRADIENT = 1;
+    private static final int STAGE_SHARPNESS = 2;
+
+    // Corners in the order of Quad
+    private static final int TOP_LEFT = 0;
+    private static final int TOP_RIGHT = 1;
+    private static final int BOTTOM_RIGHT = 2;
+    private static final int BOTTOM_LEFT = 3;
+
+    private final class Band implements Runnable {
+        int stage;
+        int from;
+        int to;
+        long sum;
+        long sumOfSquares;
+        long count;
+        RuntimeException failure;
+
+        @Override
+        public void run() {
+            sum = 0;
+            sumOfSquares = 0;
+            count = 0;
+            try {
+                switch (stage) {
+                    case STAGE_DOWNSAMPLE:
+                        downsample(from, to);
+                        break;
+                    case STAGE_GRADIENT:
+                        gradient(this);
+                        break;
+                    case STAGE_SHARPNESS:
+                        laplacian(this);
+                        break;
+                }
+            } catch (RuntimeException ex) {
+                failure = ex;
+            } finally {
+                done.release();
+            }
+        }
+    }
+
+    private final Options options;
+    private final CaptureTrigger trigger;
+    private final ExecutorService pool;
+    private final List<Band> bands = new ArrayList<>();
+    // A permit for every band that finished
+    private final Semaphore done = new Semaphore(0);
+    private final Result result = new Result();
+    private final Quad candidate = new Quad();
+    private final Quad previous = new Quad();
+    private boolean previousFound;
+    private long lastCaptureNanos = Long.MIN_VALUE;
+
+    // Current frame
+    private byte[] frame;
+    private int width;
+    private int height;
+    private int scale;
+    // Downsampled Y, its gradient magnitude and the connected component marks
+    private int smallWidth;
+    private int smallHeight;
+    private int[] small = new int[0];
+    private int[] gradient = new int[0];
+    private int[] marks = new int[0];
+    private int[] stack = new int[0];
+    private int stamp;
+    private int threshold;
+    // Bounding box of the page for the sharpness stage, in frame pixels
+    private int boxLeft;
+    private int boxRight;
+    private int boxTop;
+
+    PageDetector(Options options, CaptureTrigger trigger) {
+        this.options = options;
+        this.trigger = trigger;
+        int threads = Math.max(1, options.threads);
+        pool = threads == 1 ? null : Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "PageDetector-band");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        for (int i = 0; i < threads; i++) bands.add(new Band());
+    }
+
+    @Override
+    public void process(byte[] nv21, int width, int height, long timestampNanos) {
+        Result detected = detect(nv21, width, height, timestampNanos);
+        if (detected.capture && trigger != null) trigger.onCapture(detected.page,
+                detected.sharpness);
+    }
+
+    Result detect(byte[] nv21, int width, int height, long timestampNanos) {
+        // The Y plane is the first width * height bytes of nv21
+        prepare(nv21, width, height);
+        result.found = false;
+        result.sharpness = 0;
+        result.capture = false;
+
+        runBands(STAGE_DOWNSAMPLE, smallHeight);
+        long gradientSum = 0;
+        for (Band band : runBands(STAGE_GRADIENT, smallHeight)) gradientSum += band.sum;
+        int mean = (int) (gradientSum / ((long) smallWidth * smallHeight));
+        threshold = Math.max(options.minEdge, options.edgeFactor * mean);
+
+        if (findOutline() && checkOutline()) {
+            result.found = true;
+            for (int i = 0; i < 4; i++) {
+                result.page.x[i] = (candidate.x[i] + 0.5f) * scale;
+                result.page.y[i] = (candidate.y[i] + 0.5f) * scale;
+            }
+            result.sharpness = sharpness();
+        }
+        track(timestampNanos);
+        return result;
+    }
+
+    @Override
+    public void close() {
+        if (pool != null) pool.shutdownNow();
+    }
+
+    private void prepare(byte[] nv21, int width, int height) {
+        if (nv21.length < width * height)
+            throw new IllegalArgumentException("Frame too short for " + width + "x" + height);
+        frame = nv21;
+        if (width == this.width && height == this.height) return;
+        this.width = width;
+        this.height = height;
+        scale = Math.max(1, width / options.detectionWidth);
+        smallWidth = width / scale;
+        smallHeight = height / scale;
+        int pixels = smallWidth * smallHeight;
+        small = new int[pixels];
+        gradient = new int[pixels];
+        marks = new int[pixels];
+        stack = new int[pixels];
+        previousFound = false;
+    }
+
+    private List<Band> runBands(int stage, int rows) {
+        // Returns the bands that ran
+        int count = Math.max(1, Math.min(bands.size(), rows / 16));
+        for (int i = 0; i < count; i++) {
+            Band band = bands.get(i);
+            band.stage = stage;
+            band.from = (int) ((long) rows * i / count);
+            band.to = (int) ((long) rows * (i + 1) / count);
+        }
+        for (int i = 1; i < count; i++) {
+            if (pool != null) pool.execute(bands.get(i));
+            else bands.get(i).run();
+        }
+        bands.get(0).run();
+        // Even when interrupted, the bands write into buffers the next stage reads
+        done.acquireUninterruptibly(count);
+        List<Band> used = bands.subList(0, count);
+        for (Band band : used) {
+            RuntimeException failure = band.failure;
+            band.failure = null;
+            if (failure != null) throw new IllegalStateException(failure);
+        }
+        return used;
+    }
+
+    private void downsample(int from, int to) {
+        // Averages scale x scale blocks of the Y plane
+        int area = scale * scale;
+        for (int sy = from; sy < to; sy++) {
+            for (int sx = 0; sx < smallWidth; sx++) {
+                int total = 0;
+                int row = sy * scale * width + sx * scale;
+                for (int dy = 0; dy < scale; dy++, row += width)
+                    for (int dx = 0; dx < scale; dx++) total += frame[row + dx] & 0xFF;
+                small[sy * smallWidth + sx] = total / area;
+            }
+        }
+    }
+
+    private void gradient(Band band) {
+        // Sobel |gx| + |gy|, zero on the border
+        int w = smallWidth;
+        long sum = 0;
+        for (int y = band.from; y < band.to; y++) {
+            for (int x = 0; x < w; x++) {
+                int i = y * w + x;
+                if (x == 0 || y == 0 || x == w - 1 || y == smallHeight - 1) {
+                    gradient[i] = 0;
+                    continue;
+                }
+                int gx = small[i - w + 1] + 2 * small[i + 1] + small[i + w + 1]
+                        - small[i - w - 1] - 2 * small[i - 1] - small[i + w - 1];
+                int gy = small[i + w - 1] + 2 * small[i + w] + small[i + w + 1]
+                        - small[i - w - 1] - 2 * small[i - w] - small[i - w + 1];
+                int magnitude = Math.abs(gx) + Math.abs(gy);
+                gradient[i] = magnitude;
+                sum += magnitude;
+            }
+        }
+        band.sum = sum;
+    }
+
+    private boolean findOutline() {
+        // Corners of the largest connected group of edge pixels into candidate
+        if (++stamp == 0) {
+            // Wrapped around, start the marks over
+            Arrays.fill(marks, 0);
+            stamp = 1;
+        }
+        int w = smallWidth;
+        int h = smallHeight;
+        int best = 0;
+        for (int start = 0; start < gradient.length; start++) {
+            if (gradient[start] <= threshold || marks[start] == stamp) continue;
+            int size = 0;
+            int top = 0;
+            stack[top++] = start;
+            marks[start] = stamp;
+            int minSum = Integer.MAX_VALUE;
+            int maxSum = Integer.MIN_VALUE;
+            int minDiff = Integer.MAX_VALUE;
+            int maxDiff = Integer.MIN_VALUE;
+            int topLeft = start;
+            int bottomRight = start;
+            int bottomLeft = start;
+            int topRight = start;
+            while (top > 0) {
+                int i = stack[--top];
+                size++;
+                int x = i % w;
+                int y = i / w;
+                if (x + y < minSum) {
+                    minSum = x + y;
+                    topLeft = i;
+                }
+                if (x + y > maxSum) {
+                    maxSum = x + y;
+                    bottomRight = i;
+                }
+                if (x - y < minDiff) {
+                    minDiff = x - y;
+                    bottomLeft = i;
+                }
+                if (x - y > maxDiff) {
+                    maxDiff = x - y;
+                    topRight = i;
+                }
+                for (int dy = -1; dy <= 1; dy++) {
+                    int ny = y + dy;
+                    if (ny < 0 || ny >= h) continue;
+                    for (int dx = -1; dx <= 1; dx++) {
+                        int nx = x + dx;
+                        if (nx < 0 || nx >= w) continue;
+                        int n = ny * w + nx;
+                        if (marks[n] == stamp || gradient[n] <= threshold) continue;
+                        marks[n] = stamp;
+                        stack[top++] = n;
+                    }
+                }
+            }
+            if (size > best) {
+                best = size;
+                setCorner(TOP_LEFT, topLeft);
+                setCorner(TOP_RIGHT, topRight);
+                setCorner(BOTTOM_RIGHT, bottomRight);
+                setCorner(BOTTOM_LEFT, bottomLeft);
+            }
+        }
+        return best > 0;
+    }
+
+    private void setCorner(int corner, int index) {
+        candidate.x[corner] = index % smallWidth;
+        candidate.y[corner] = index / smallWidth;
+    }
+
+    private boolean checkOutline() {
+        // Whether candidate looks like a whole page
+        float[] x = candidate.x;
+        float[] y = candidate.y;
+        double area = 0;
+        int sign = 0;
+        for (int i = 0; i < 4; i++) {
+            int j = (i + 1) % 4;
+            int k = (i + 2) % 4;
+            area += x[i] * y[j] - x[j] * y[i];
+            double cross = (x[j] - x[i]) * (y[k] - y[j]) - (y[j] - y[i]) * (x[k] - x[j]);
+            int turn = cross > 0 ? 1 : cross < 0 ? -1 : 0;
+            if (turn == 0 || (sign != 0 && turn != sign)) return false;
+            sign = turn;
+        }
+        if (Math.abs(area) / 2 < options.minAreaFraction * smallWidth * smallHeight) return false;
+
+        int samples = 0;
+        int supported = 0;
+        for (int i = 0; i < 4; i++) {
+            int j = (i + 1) % 4;
+            int steps = (int) Math.max(Math.abs(x[j] - x[i]), Math.abs(y[j] - y[i]));
+            for (int s = 0; s < steps; s++) {
+                int px = Math.round(x[i] + (x[j] - x[i]) * s / steps);
+                int py = Math.round(y[i] + (y[j] - y[i]) * s / steps);
+                samples++;
+                if (edgeNear(px, py)) supported++;
+            }
+        }
+        return samples > 0 && supported >= options.minEdgeSupport * samples;
+    }
+
+    private boolean edgeNear(int x, int y) {
+        for (int ny = Math.max(0, y - 1); ny <= Math.min(smallHeight - 1, y + 1); ny++)
+            for (int nx = Math.max(0, x - 1); nx <= Math.min(smallWidth - 1, x + 1); nx++)
+                if (gradient[ny * smallWidth + nx] > threshold) return true;
+        return false;
+    }
+
+    private double sharpness() {
+        // Variance of the Laplacian inside the bounding box of the page
+        float minX = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            minX = Math.min(minX, result.page.x[i]);
+            maxX = Math.max(maxX, result.page.x[i]);
+            minY = Math.min(minY, result.page.y[i]);
+            maxY = Math.max(maxY, result.page.y[i]);
+        }
+        boxLeft = Math.max(1, (int) minX);
+        boxRight = Math.min(width - 2, (int) maxX);
+        boxTop = Math.max(1, (int) minY);
+        int bottom = Math.min(height - 2, (int) maxY);
+        if (boxRight <= boxLeft || bottom <= boxTop) return 0;
+
+        // Bands cover sampled rows, row r is boxTop + 2 * r
+        long sum = 0;
+        long sumOfSquares = 0;
+        long count = 0;
+        for (Band band : runBands(STAGE_SHARPNESS, (bottom - boxTop) / 2 + 1)) {
+            sum += band.sum;
+            sumOfSquares += band.sumOfSquares;
+            count += band.count;
+        }
+        if (count == 0) return 0;
+        double mean = (double) sum / count;
+        return (double) sumOfSquares / count - mean * mean;
+    }
+
+    private void laplacian(Band band) {
+        long sum = 0;
+        long sumOfSquares = 0;
+        long count = 0;
+        for (int r = band.from; r < band.to; r++) {
+            int y = boxTop + 2 * r;
+            if (y >= height - 1) break;
+            int row = y * width;
+            for (int x = boxLeft; x <= boxRight; x += 2) {
+                int i = row + x;
+                int value = 4 * (frame[i] & 0xFF) - (frame[i - 1] & 0xFF)
+                        - (frame[i + 1] & 0xFF) - (frame[i - width] & 0xFF)
+                        - (frame[i + width] & 0xFF);
+                sum += value;
+                sumOfSquares += value * value;
+                count++;
+            }
+        }
+        band.sum = sum;
+        band.sumOfSquares = sumOfSquares;
+        band.count = count;
+    }
+
+    private void track(long timestampNanos) {
+        // Stability across frames and the capture decision
+        if (!result.found) {
+            previousFound = false;
+            result.stableFrames = 0;
+            return;
+        }
+        double diagonal = Math.hypot(width, height);
+        if (previousFound
+                && result.page.maxDistance(previous) <= options.maxCornerDrift * diagonal) {
+            result.stableFrames++;
+        } else {
+            result.stableFrames = 1;
+        }
+        previous.set(result.page);
+        previousFound = true;
+        if (result.stableFrames >= options.stableFrames
+                && result.sharpness >= options.minSharpness
+                && (lastCaptureNanos == Long.MIN_VALUE
+                || timestampNanos - lastCaptureNanos >= options.cooldownMillis * 1000000)) {
+            result.capture = true;
+            lastCaptureNanos = timestampNanos;
+            result.stableFrames = 0;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.mycompany.cameratest;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+final class PhotoCapturePipeline implements Closeable {
+    /* Takes JPEGs off the camera callback thread and makes them durable in the background
+     *
+     * submit() only wraps the camera's byte array, no copy, and hands it to a single writer
+     * thread through a bounded queue, so onPictureTaken() returns right away and the preview
+     * can restart. When queueCapacity photos are already waiting the new one is refused rather
+     * than blocking the camera thread or piling up JPEGs in memory.
+     *
+     * The writer puts the bytes straight into a FileChannel from a ByteBuffer wrapping the same
+     * array, forces them to disk and renames the temporary file to its final name, so a photo
+     * is either complete or not there. The name links it to its log item (see LogItemRef),
+     * photos taken without one are named photo_<sequence>.jpg.
+     *
+     * Latency is measured from the shutter to the rename.
+     */
+    static final class Options {
+        int queueCapacity = 4;
+        // fsync each photo before renaming it
+        boolean sync = true;
+    }
+
+    interface Listener {
+        // Both called on the writer thread
+        void onPhotoSaved(LogItemRef ref, File file, long latencyNanos);
+
+        void onPhotoFailed(LogItemRef ref, IOException ex);
+    }
+
+    static final class Stats {
+        final int saved;
+        final int failed;
+        final int refused;
+        final long totalLatencyNanos;
+        final long maxLatencyNanos;
+
+        private Stats(PhotoCapturePipeline pipeline) {
+            saved = pipeline.saved;
+            failed = pipeline.failed;
+            refused = pipeline.refused;
+            totalLatencyNanos = pipeline.totalLatencyNanos;
+            maxLatencyNanos = pipeline.maxLatencyNanos;
+        }
+
+        long meanLatencyNanos() {
+            return saved == 0 ? 0 : totalLatencyNanos / saved;
+        }
+    }
+
+    private static final String EXTENSION = ".jpg";
+    private static final String UNLINKED_PREFIX = "photo_";
+
+    private final File directory;
+    private final Options options;
+    private final Listener listener;
+    private final ThreadPoolExecutor writer;
+
+    // Only used on the writer thread
+    private long lastSequence;
+
+    // Guards the counters
+    private final Object lock = new Object();
+    private int saved;
+    private int failed;
+    private int refused;
+    private long totalLatencyNanos;
+    private long maxLatencyNanos;
+
+    PhotoCapturePipeline(File directory, Options options, Listener listener) {
+        this.directory = directory;
+        this.options = options;
+        this.listener = listener;
+        // One thread and a bounded queue, execute() throws when it's full
+        writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(options.queueCapacity), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "PhotoCapturePipeline-writer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    boolean submit(final byte[] jpeg, final LogItemRef ref, final long shutterNanos) {
+        /* Called on the camera thread with the array it handed us, which must not change
+         *
+         * shutterNanos is System.nanoTime() when the shutter fired. Returns false if the photo
+         * was refused because the writer is too far behind or the pipeline is closed.
+         */
+        try {
+            writer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    write(jpeg, ref, shutterNanos);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException ex) {
+            synchronized (lock) {
+                refused++;
+            }
+            return false;
+        }
+    }
+
+    Stats getStats() {
+        synchronized (lock) {
+            return new Stats(this);
+        }
+    }
+
+    List<File> photosOf(LogItemRef ref) {
+        // Saved photos of a log item, oldest first
+        String prefix = ref.fileNamePrefix();
+        List<File> photos = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files == null) return photos;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(prefix) && name.endsWith(EXTENSION)) photos.add(file);
+        }
+        Collections.sort(photos);
+        return photos;
+    }
+
+    @Override
+    public void close() {
+        // Refuses new photos, the ones already accepted are still written. Doesn't wait.
+        writer.shutdown();
+    }
+
+    boolean awaitClosed(long timeoutMillis) throws InterruptedException {
+        // True once every accepted photo was written
+        return writer.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void write(byte[] jpeg, LogItemRef ref, long shutterNanos) {
+        // Writer thread
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs())
+                throw new IOException("Can't create " + directory);
+            File file = nextFile(ref);
+            File temp = new File(directory, file.getName() + ".tmp");
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                FileChannel channel = out.getChannel();
+                ByteBuffer bytes = ByteBuffer.wrap(jpeg);
+                while (bytes.hasRemaining()) channel.write(bytes);
+                if (options.sync) channel.force(true);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) throw new IOException("Can't rename " + temp);
+
+            long latency = System.nanoTime() - shutterNanos;
+            synchronized (lock) {
+                saved++;
+                totalLatencyNanos += latency;
+                maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+            }
+            if (listener != null) listener.onPhotoSaved(ref, file, latency);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            synchronized (lock) {
+                failed++;
+            }
+            if (listener != null) listener.onPhotoFailed(ref, ex);
+        }
+    }
+
+    private File nextFile(LogItemRef ref) {
+        // Sequence is the time in millis, bumped if two photos land in the same one
+        long sequence = Math.max(System.currentTimeMillis(), lastSequence + 1);
+        String prefix = ref == null ? UNLINKED_PREFIX : ref.fileNamePrefix();
+        File file = new File(directory, prefix + sequence + EXTENSION);
+        while (file.exists()) file = new File(directory, prefix + ++sequence + EXTENSION);
+        lastSequence = sequence;
+        return file;
+    }
+}
@@ -0,0 +1,127 @@
+package com.mycompany.cameratest;
+
+import java.util.concurrent.locks.LockSupport;
+
+final class PreviewFramePipeline {
+    /* Hands preview frames from the camera thread to a worker thread for processing
+     *
+     * Follows the camera's addCallbackBuffer model: a few buffers are allocated up front and
+     * circulate between the camera, a FrameRing and the worker. onFrame() puts the buffer in
+     * the ring and wakes the worker, which processes it and gives it back to the
+     * BufferRecycler (the camera, or a FrameBufferPool off device). When the ring is full the
+     * worker is behind and the frame is dropped, its buffer goes straight back, so a slow
+     * processor skips frames instead of falling further and further behind.
+     *
+     * queuedFrames is rounded up to a power of two. Nothing is allocated per frame: the ring
+     * is preallocated, each counter is written by one thread, and the worker waits with
+     * LockSupport.park().
+     */
+    interface FrameProcessor {
+        // Worker thread. The buffer is only valid until this returns.
+        void process(byte[] nv21, int width, int height, long timestampNanos);
+    }
+
+    interface BufferRecycler {
+        // Gives a buffer back to whoever fills them, called on either thread
+        void recycle(byte[] buffer);
+    }
+
+    private final int width;
+    private final int height;
+    private final FrameProcessor processor;
+    private final BufferRecycler recycler;
+    private final FrameRing ring;
+    private final Thread worker;
+    private volatile boolean running = true;
+    private volatile boolean parked;
+
+    // Written by the camera thread only
+    private volatile long received;
+    private volatile long dropped;
+    // Written by the worker only
+    private volatile long processed;
+
+    PreviewFramePipeline(int width, int height, int queuedFrames, FrameProcessor processor,
+                         BufferRecycler recycler) {
+        this.width = width;
+        this.height = height;
+        this.processor = processor;
+        this.recycler = recycler;
+        ring = new FrameRing(FrameRing.capacityFor(queuedFrames));
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        }, "PreviewFramePipeline-worker");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    int callbackBuffers() {
+        // Buffers the camera needs: a full ring, the one being processed, the one filling
+        return ring.capacity() + 2;
+    }
+
+    void onFrame(byte[] nv21, long timestampNanos) {
+        // Camera thread
+        received++;
+        if (!running || !ring.offer(nv21, timestampNanos)) {
+            dropped++;
+            recycler.recycle(nv21);
+            return;
+        }
+        if (parked) LockSupport.unpark(worker);
+    }
+
+    long getReceived() {
+        return received;
+    }
+
+    long getProcessed() {
+        return processed;
+    }
+
+    long getDropped() {
+        return dropped;
+    }
+
+    void close() {
+        /* Stops the worker once the frame it's processing is done, queued ones are recycled
+         *
+         * Call it once the camera stops sending frames, a frame racing with close() may be
+         * left in the ring.
+         */
+        running = false;
+        LockSupport.unpark(worker);
+        try {
+            worker.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void work() {
+        while (true) {
+            byte[] frame = ring.poll();
+            if (frame == null) {
+                if (!running) return;
+                parked = true;
+                // A frame offered before parked was set would otherwise wait for the next one
+                if (ring.size() == 0 && running) LockSupport.park(this);
+                parked = false;
+                continue;
+            }
+            // Once closed what's left is only recycled
+            if (running) {
+                try {
+                    processor.process(frame, width, height, ring.polledTimestamp());
+                } catch (RuntimeException ex) {
+                    ex.printStackTrace();
+                }
+                processed++;
+            }
+            recycler.recycle(frame);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.mycompany.cameratest;
+
+import org.junit.Assume;
+
+final class Benchmarks {
+    /* Timing tests start with assumeEnabled() and are skipped unless run with
+     * -Dbenchmarks=true (./gradlew testDebugUnitTest -Pbenchmarks=true), so the unit tests
+     * stay fast and print nothing. Their figures depend on the machine, they're printed rather
+     * than asserted.
+     */
+    private Benchmarks() {
+    }
+
+    static void assumeEnabled() {
+        Assume.assumeTrue("benchmarks not enabled", Boolean.getBoolean("benchmarks"));
+    }
+}
@@ -0,0 +1,141 @@
+package com.mycompany.cameratest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CameraCapabilityCacheTest {
+    private static final String FINGERPRINT = "vendor/device:9/PQ3A/1 28 1080x2160 420";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<CameraSizes.Size> sizes(int... dimensions) {
+        List<CameraSizes.Size> sizes = new ArrayList<>();
+        for (int i = 0; i < dimensions.length; i += 2)
+            sizes.add(new CameraSizes.Size(dimensions[i], dimensions[i + 1]));
+        return sizes;
+    }
+
+    private static List<CameraSizes.Size> randomSizes(Random random) {
+        // A camera's worth of sizes in the usual ratios
+        int[][] ratios = {{4, 3}, {16, 9}, {3, 2}, {1, 1}, {11, 9}, {18, 9}};
+        List<CameraSizes.Size> sizes = new ArrayList<>();
+        int count = 5 + random.nextInt(20);
+        for (int i = 0; i < count; i++) {
+            int[] ratio = ratios[random.nextInt(ratios.length)];
+            int height = 120 + 8 * random.nextInt(400);
+            sizes.add(new CameraSizes.Size(height * ratio[0] / ratio[1], height));
+        }
+        return sizes;
+    }
+
+    @Test
+    public void picksThePreviewClosestToTheViewWithItsRatio() {
+        List<CameraSizes.Size> sizes = sizes(1920, 1080, 1280, 720, 640, 480, 2160, 1080);
+        // A 1080x1920 portrait view wants 16:9, the closest height is 1080
+        assertEquals(new CameraSizes.Size(1920, 1080),
+                CameraSizes.optimalPreviewSize(sizes, 1080, 1920));
+        // 4:3, and 5:4 is close enough to it
+        assertEquals(new CameraSizes.Size(640, 480),
+                CameraSizes.optimalPreviewSize(sizes, 480, 640));
+        assertEquals(new CameraSizes.Size(640, 480),
+                CameraSizes.optimalPreviewSize(sizes, 600, 750));
+        // Nothing near 1:1, the closest height wins
+        assertEquals(new CameraSizes.Size(1280, 720),
+                CameraSizes.optimalPreviewSize(sizes, 700, 700));
+        assertNull(CameraSizes.optimalPreviewSize(sizes(), 1080, 1920));
+    }
+
+    @Test
+    public void picksThePictureWithTheClosestRatio() {
+        List<CameraSizes.Size> sizes = sizes(4000, 3000, 1920, 1088, 3264, 2448, 1600, 960);
+        assertEquals(new CameraSizes.Size(4000, 3000),
+                CameraSizes.optimalPictureSize(sizes, 4 / 3.0));
+        // Not just the last size closer than the first: 1920x1088 is 1.76, 1600x960 is 1.67
+        assertEquals(new CameraSizes.Size(1920, 1088),
+                CameraSizes.optimalPictureSize(sizes, 16 / 9.0));
+        assertEquals(new CameraSizes.Size(1600, 960),
+                CameraSizes.optimalPictureSize(sizes, 5 / 3.0));
+        assertNull(CameraSizes.optimalPictureSize(sizes(), 1));
+    }
+
+    @Test
+    public void cachedSizesMatchFreshOnes() {
+        File file = new File(folder.getRoot(), "camera_capabilities");
+        Random random = new Random(7);
+        int[][] views = {{1080, 1920}, {720, 1280}, {1080, 2040}, {600, 960}};
+        List<CameraCapabilityCache.Entry> fresh = new ArrayList<>();
+        CameraCapabilityCache cache = new CameraCapabilityCache(file, FINGERPRINT);
+        for (int cameraId = 0; cameraId < 2; cameraId++) {
+            List<CameraSizes.Size> previewSizes = randomSizes(random);
+            List<CameraSizes.Size> pictureSizes = randomSizes(random);
+            for (int[] view : views) {
+                assertNull(cache.get(cameraId, view[0], view[1]));
+                fresh.add(cache.put(cameraId, view[0], view[1], previewSizes, pictureSizes));
+            }
+        }
+
+        // The next launch
+        cache = new CameraCapabilityCache(file, FINGERPRINT);
+        for (CameraCapabilityCache.Entry expected : fresh) {
+            CameraCapabilityCache.Entry cached =
+                    cache.get(expected.cameraId, expected.viewWidth, expected.viewHeight);
+            assertNotNull(cached);
+            assertEquals(expected.previewSize, cached.previewSize);
+            assertEquals(expected.pictureSize, cached.pictureSize);
+            assertEquals(expected.supportedPreviewSizes, cached.supportedPreviewSizes);
+            assertEquals(expected.supportedPictureSizes, cached.supportedPictureSizes);
+            // And picking again from what was cached gives the same answer
+            CameraCapabilityCache.Entry again = new CameraCapabilityCache.Entry(cached.cameraId,
+                    cached.viewWidth, cached.viewHeight, cached.supportedPreviewSizes,
+                    cached.supportedPictureSizes);
+            assertEquals(cached.previewSize, again.previewSize);
+            assertEquals(cached.pictureSize, again.pictureSize);
+        }
+        assertEquals(fresh.size(), cache.getHits());
+        assertEquals(0, cache.getMisses());
+        // Another view size is asked for
+        assertNull(cache.get(0, 1440, 2560));
+    }
+
+    @Test
+    public void forgetsEverythingAfterAnUpdateOrOnAnotherDisplay() throws Exception {
+        File file = new File(folder.getRoot(), "camera_capabilities");
+        List<CameraSizes.Size> sizes = sizes(1920, 1080, 1280, 720);
+        new CameraCapabilityCache(file, FINGERPRINT).put(0, 1080, 1920, sizes, sizes);
+        assertNotNull(new CameraCapabilityCache(file, FINGERPRINT).get(0, 1080, 1920));
+
+        // A system update, then the same build on a different screen
+        CameraCapabilityCache updated = new CameraCapabilityCache(file,
+                "vendor/device:10/QQ1A/2 29 1080x2160 420");
+        assertNull(updated.get(0, 1080, 1920));
+        updated.put(1, 1080, 1920, sizes, sizes);
+        assertNull(new CameraCapabilityCache(file, FINGERPRINT).get(1, 1080, 1920));
+        CameraCapabilityCache otherDisplay = new CameraCapabilityCache(file,
+                "vendor/device:10/QQ1A/2 29 1440x2960 560");
+        assertNull(otherDisplay.get(1, 1080, 1920));
+
+        // A damaged line only loses its own entry
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.write("0\t1080\tnot a size\n".getBytes("UTF-8"));
+        out.write("2\t1080\t1920\t1920x1080\t1920x1080\tbad\t1920x1080\n".getBytes("UTF-8"));
+        out.close();
+        CameraCapabilityCache damaged = new CameraCapabilityCache(file,
+                "vendor/device:10/QQ1A/2 29 1080x2160 420");
+        assertNotNull(damaged.get(1, 1080, 1920));
+        assertNull(damaged.get(0, 1080, 1920));
+        assertNull(damaged.get(2, 1080, 1920));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        assertEquals(Arrays.asList(file.getName()), Arrays.asList(folder.getRoot().list()));
+    }
+}
@@ -0,0 +1,323 @@
+package com.mycompany.cameratest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class CameraSessionTest {
+    private static final long PREPARE_MILLIS = 60;
+    private static final long OPEN_MILLIS = 40;
+    private static final long FIRST_FRAME_MILLIS = 30;
+
+    private static final class FakeDriver implements CameraSession.Driver {
+        /* Two cameras that take a while to look up, open and start, like the real ones */
+        final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+        CameraSession session;
+        volatile boolean surfaceReady = true;
+        volatile int failOpen = -1;
+        // Leaves the session capturing until the test calls pictureDone()
+        volatile boolean holdPicture;
+        int open = -1;
+
+        @Override
+        public int[] findCameras() {
+            calls.add("find");
+            return new int[]{0, 1};
+        }
+
+        @Override
+        public Object prepare(int cameraId) {
+            calls.add("prepare " + cameraId);
+            sleep(PREPARE_MILLIS);
+            return "config " + cameraId;
+        }
+
+        @Override
+        public void open(int cameraId, Object prepared) throws Exception {
+            calls.add("open " + cameraId + " with " + prepared);
+            assertEquals(-1, open);
+            if (cameraId == failOpen) throw new RuntimeException("Camera " + cameraId + " busy");
+            sleep(OPEN_MILLIS);
+            open = cameraId;
+        }
+
+        @Override
+        public boolean startPreview() {
+            if (!surfaceReady) return false;
+            calls.add("preview " + open);
+            final int cameraId = open;
+            // Frames arrive on the camera's own thread
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    sleep(FIRST_FRAME_MILLIS);
+                    session.firstFrame(cameraId);
+                }
+            }).start();
+            return true;
+        }
+
+        @Override
+        public void capture() {
+            calls.add("capture " + open);
+            if (!holdPicture) session.pictureDone();
+        }
+
+        @Override
+        public void focus(float x, float y) {
+            calls.add("focus " + open + " at " + (int) x + "," + (int) y);
+        }
+
+        @Override
+        public void release() {
+            calls.add("release " + open);
+            open = -1;
+        }
+    }
+
+    private static final class RecordingListener implements CameraSession.Listener {
+        final List<CameraSession.State> states =
+                Collections.synchronizedList(new ArrayList<CameraSession.State>());
+        final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+        volatile int firstFrames;
+        volatile int[] cameraIds;
+
+        @Override
+        public void onCamerasFound(int[] cameraIds) {
+            this.cameraIds = cameraIds;
+        }
+
+        @Override
+        public void onStateChanged(CameraSession.State previous, CameraSession.State state) {
+            states.add(state);
+        }
+
+        @Override
+        public void onFirstFrame(int cameraId, long latencyNanos, boolean switched) {
+            firstFrames++;
+        }
+
+        @Override
+        public void onError(int cameraId, Exception ex) {
+            errors.add(ex);
+        }
+    }
+
+    private ExecutorService executor;
+    private FakeDriver driver;
+    private RecordingListener listener;
+    private CameraSession session;
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+        driver = new FakeDriver();
+        listener = new RecordingListener();
+        session = new CameraSession(executor, driver, listener);
+        driver.session = session;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    private void waitFor(int firstFrames) throws Exception {
+        // Until the preview is running and everything posted meanwhile is done
+        long deadline = System.currentTimeMillis() + 5000;
+        while (listener.firstFrames < firstFrames) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(2);
+        }
+        idle();
+    }
+
+    private void idle() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+        }
+    }
+
+    @Test
+    public void switchesToAPreparedCamera() throws Exception {
+        session.open();
+        waitFor(1);
+        assertArrayEquals(new int[]{0, 1}, listener.cameraIds);
+        assertEquals(CameraSession.State.PREVIEWING, session.getState());
+        // The other camera was looked up while the first one was previewing
+        assertTrue(driver.calls.contains("prepare 1"));
+
+        driver.calls.clear();
+        session.switchToNext();
+        waitFor(2);
+        assertEquals("release 0", driver.calls.get(0));
+        assertEquals("open 1 with config 1", driver.calls.get(1));
+        assertFalse(driver.calls.contains("prepare 1"));
+
+        // And back, the first camera's configuration was prepared again meanwhile
+        driver.calls.clear();
+        session.switchTo(0);
+        waitFor(3);
+        assertEquals("open 0 with config 0", driver.calls.get(1));
+
+        CameraSession.Metrics metrics = session.getMetrics();
+        assertEquals(2, metrics.switches);
+        // A cold start looks the camera up, a switch doesn't have to
+        long preparedMillis = OPEN_MILLIS + FIRST_FRAME_MILLIS;
+        assertTrue(metrics.coldStartNanos >= (PREPARE_MILLIS + preparedMillis) * 1000000);
+        assertTrue(metrics.meanSwitchNanos() >= preparedMillis * 1000000);
+        assertTrue(metrics.meanSwitchNanos() < metrics.coldStartNanos);
+
+        session.close();
+        idle();
+        assertEquals(CameraSession.State.CLOSED, session.getState());
+        assertTrue(listener.errors.isEmpty());
+    }
+
+    @Test
+    public void waitsForTheSurfaceAndReopensTheLastCamera() throws Exception {
+        driver.surfaceReady = false;
+        session.open(1);
+        idle();
+        assertEquals(CameraSession.State.OPENING, session.getState());
+        assertEquals(0, listener.firstFrames);
+        // Nothing to capture with yet
+        session.capture();
+        driver.surfaceReady = true;
+        session.surfaceReady();
+        waitFor(1);
+        assertEquals(CameraSession.State.PREVIEWING, session.getState());
+        assertFalse(driver.calls.contains("capture 1"));
+
+        // Paused and resumed
+        session.close();
+        session.open();
+        waitFor(2);
+        assertEquals(1, driver.open);
+        assertEquals(0, session.getMetrics().switches);
+        session.close();
+        idle();
+    }
+
+    @Test
+    public void capturesOnlyWhilePreviewing() throws Exception {
+        session.capture();
+        idle();
+        assertFalse(driver.calls.contains("capture -1"));
+        session.open();
+        waitFor(1);
+        session.capture();
+        idle();
+        // Back to previewing once the picture is done, ready for the next one
+        session.capture();
+        idle();
+        assertEquals(2, Collections.frequency(driver.calls, "capture 0"));
+        assertEquals(CameraSession.State.PREVIEWING, session.getState());
+        assertTrue(listener.states.contains(CameraSession.State.CAPTURING));
+        session.close();
+        idle();
+    }
+
+    @Test
+    public void givesUpOnAPictureThatNeverArrives() throws Exception {
+        session.setCaptureTimeoutMillis(100);
+        session.open();
+        waitFor(1);
+        driver.holdPicture = true;
+        session.capture();
+        idle();
+        assertEquals(CameraSession.State.CAPTURING, session.getState());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (session.getState() == CameraSession.State.CAPTURING) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+        assertEquals(CameraSession.State.PREVIEWING, session.getState());
+        assertEquals(1, listener.errors.size());
+        assertTrue(listener.errors.get(0) instanceof TimeoutException);
+
+        // The late picture changes nothing, the next one is taken
+        session.pictureDone();
+        idle();
+        assertEquals(CameraSession.State.PREVIEWING, session.getState());
+        driver.holdPicture = false;
+        session.capture();
+        idle();
+        assertEquals(2, Collections.frequency(driver.calls, "capture 0"));
+        assertEquals(CameraSession.State.PREVIEWING, session.getState());
+        session.close();
+        idle();
+    }
+
+    @Test
+    public void focusesOnlyWhilePreviewing() throws Exception {
+        // Taps while the camera is closed, opening, previewing and taking a picture
+        session.focus(1, 1);
+        driver.surfaceReady = false;
+        session.open();
+        idle();
+        session.focus(2, 2);
+        driver.surfaceReady = true;
+        session.surfaceReady();
+        waitFor(1);
+        session.focus(3, 3);
+        driver.holdPicture = true;
+        session.capture();
+        session.focus(4, 4);
+        idle();
+        assertEquals(CameraSession.State.CAPTURING, session.getState());
+        session.pictureDone();
+        session.focus(5, 5);
+        idle();
+
+        List<String> focused = new ArrayList<>();
+        for (String call : driver.calls) if (call.startsWith("focus")) focused.add(call);
+        assertEquals(Arrays.asList("focus 0 at 3,3", "focus 0 at 5,5"), focused);
+        session.close();
+        idle();
+    }
+
+    @Test
+    public void releasesACameraThatFailsToOpen() throws Exception {
+        driver.failOpen = 1;
+        session.open();
+        waitFor(1);
+        session.switchToNext();
+        idle();
+        assertEquals(1, listener.errors.size());
+        assertEquals(CameraSession.State.CLOSED, session.getState());
+        assertEquals(-1, driver.open);
+
+        // The first camera still opens
+        driver.failOpen = -1;
+        session.open(0);
+        waitFor(2);
+        assertEquals(CameraSession.State.PREVIEWING, session.getState());
+        session.close();
+        idle();
+    }
+}
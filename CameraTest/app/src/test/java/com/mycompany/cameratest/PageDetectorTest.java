@@ -0,0 +1,244 @@
+package com.mycompany.cameratest;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PageDetectorTest {
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+
+    private static final class Page {
+        /* A log page on a dark bench: center, size and rotation in frame pixels */
+        double centerX = WIDTH / 2.0;
+        double centerY = HEIGHT / 2.0;
+        double width = 420;
+        double height = 560;
+        double angle = Math.toRadians(8);
+
+        double cornerX(int corner) {
+            double[] u = {-width / 2, width / 2, width / 2, -width / 2};
+            double[] v = {-height / 2, -height / 2, height / 2, height / 2};
+            return centerX + u[corner] * Math.cos(angle) - v[corner] * Math.sin(angle);
+        }
+
+        double cornerY(int corner) {
+            double[] u = {-width / 2, width / 2, width / 2, -width / 2};
+            double[] v = {-height / 2, -height / 2, height / 2, height / 2};
+            return centerY + u[corner] * Math.sin(angle) + v[corner] * Math.cos(angle);
+        }
+    }
+
+    private static byte[] frame(Page page, int blurRadius, long seed) {
+        // NV21 frame: paper with ruled lines and handwriting-like strokes, sensor noise
+        Random random = new Random(seed);
+        byte[] nv21 = new byte[FrameBufferPool.nv21Size(WIDTH, HEIGHT)];
+        int[] y = new int[WIDTH * HEIGHT];
+        double cos = page == null ? 1 : Math.cos(page.angle);
+        double sin = page == null ? 0 : Math.sin(page.angle);
+        for (int py = 0; py < HEIGHT; py++) {
+            for (int px = 0; px < WIDTH; px++) {
+                int value = 45 + (px * 7 + py * 3) % 11;
+                if (page != null) {
+                    double dx = px - page.centerX;
+                    double dy = py - page.centerY;
+                    double u = dx * cos + dy * sin + page.width / 2;
+                    double v = -dx * sin + dy * cos + page.height / 2;
+                    if (u >= 0 && u < page.width && v >= 0 && v < page.height) {
+                        value = 205;
+                        boolean margin = u < 25 || u > page.width - 25;
+                        if (!margin && (int) v % 28 < 2) value = 120;
+                        if (!margin && (int) v % 28 > 10 && (int) v % 28 < 20
+                                && ((int) (u / 6) * 31 + (int) (v / 28) * 17) % 5 < 2)
+                            value = 70;
+                    }
+                }
+                y[py * WIDTH + px] = value;
+            }
+        }
+        if (blurRadius > 0) y = blur(y, blurRadius);
+        for (int i = 0; i < y.length; i++) {
+            int value = y[i] + random.nextInt(9) - 4;
+            nv21[i] = (byte) Math.max(0, Math.min(255, value));
+        }
+        for (int i = WIDTH * HEIGHT; i < nv21.length; i++) nv21[i] = (byte) 128;
+        return nv21;
+    }
+
+    private static int[] blur(int[] y, int radius) {
+        // Box blur, rows then columns
+        int[] rows = new int[y.length];
+        int[] out = new int[y.length];
+        for (int py = 0; py < HEIGHT; py++) {
+            for (int px = 0; px < WIDTH; px++) {
+                int sum = 0;
+                int count = 0;
+                for (int d = -radius; d <= radius; d++) {
+                    int x = px + d;
+                    if (x < 0 || x >= WIDTH) continue;
+                    sum += y[py * WIDTH + x];
+                    count++;
+                }
+                rows[py * WIDTH + px] = sum / count;
+            }
+        }
+        for (int py = 0; py < HEIGHT; py++) {
+            for (int px = 0; px < WIDTH; px++) {
+                int sum = 0;
+                int count = 0;
+                for (int d = -radius; d <= radius; d++) {
+                    int row = py + d;
+                    if (row < 0 || row >= HEIGHT) continue;
+                    sum += rows[row * WIDTH + px];
+                    count++;
+                }
+                out[py * WIDTH + px] = sum / count;
+            }
+        }
+        return out;
+    }
+
+    private static PageDetector.Options options(int threads) {
+        PageDetector.Options options = new PageDetector.Options();
+        options.threads = threads;
+        return options;
+    }
+
+    private static void assertCorners(Page page, PageDetector.Quad quad) {
+        // Within a couple of downsampled pixels
+        for (int corner = 0; corner < 4; corner++) {
+            double distance = Math.hypot(quad.x[corner] - page.cornerX(corner),
+                    quad.y[corner] - page.cornerY(corner));
+            assertTrue("Corner " + corner + " off by " + distance + ": " + quad, distance < 14);
+        }
+    }
+
+    @Test
+    public void findsTheOutlineOfRotatedPages() {
+        PageDetector detector = new PageDetector(options(1), null);
+        for (double degrees : new double[]{-20, -5, 0, 12, 25}) {
+            Page page = new Page();
+            page.angle = Math.toRadians(degrees);
+            page.centerX += degrees * 4;
+            PageDetector.Result result = detector.detect(frame(page, 0, 1), WIDTH, HEIGHT, 0);
+            assertTrue("Page at " + degrees + " degrees", result.found);
+            assertCorners(page, result.page);
+        }
+
+        // A bench with nothing on it, and a page too far away
+        assertFalse(detector.detect(frame(null, 0, 2), WIDTH, HEIGHT, 0).found);
+        Page small = new Page();
+        small.width = 120;
+        small.height = 160;
+        assertFalse(detector.detect(frame(small, 0, 3), WIDTH, HEIGHT, 0).found);
+        detector.close();
+    }
+
+    @Test
+    public void blurLowersSharpness() {
+        PageDetector detector = new PageDetector(options(1), null);
+        Page page = new Page();
+        double sharp = detector.detect(frame(page, 0, 1), WIDTH, HEIGHT, 0).sharpness;
+        PageDetector.Result blurred = detector.detect(frame(page, 3, 1), WIDTH, HEIGHT, 0);
+        assertTrue(blurred.found);
+        assertTrue(sharp > new PageDetector.Options().minSharpness);
+        assertTrue(blurred.sharpness < new PageDetector.Options().minSharpness);
+        detector.close();
+    }
+
+    @Test
+    public void capturesOnceThePageIsStillAndSharp() {
+        final int[] captures = new int[1];
+        PageDetector.Options options = options(2);
+        PageDetector detector = new PageDetector(options, new PageDetector.CaptureTrigger() {
+            @Override
+            public void onCapture(PageDetector.Quad page, double sharpness) {
+                captures[0]++;
+            }
+        });
+        long frameNanos = 33000000;
+        long time = 0;
+        Page page = new Page();
+        // Still moving
+        for (int i = 0; i < 10; i++, time += frameNanos) {
+            page.centerX += 25;
+            detector.process(frame(page, 0, i), WIDTH, HEIGHT, time);
+        }
+        assertEquals(0, captures[0]);
+        // Held still and sharp, then kept there through the cooldown
+        int firstCapture = -1;
+        for (int i = 0; i < 20; i++, time += frameNanos) {
+            detector.process(frame(page, 0, 100 + i), WIDTH, HEIGHT, time);
+            if (captures[0] == 1 && firstCapture < 0) firstCapture = i;
+        }
+        // Counting the last moving frame, already where the page stopped
+        assertEquals(options.stableFrames - 2, firstCapture);
+        assertEquals(1, captures[0]);
+        // Still but out of focus after the cooldown, until the focus comes back
+        time += options.cooldownMillis * 1000000;
+        for (int i = 0; i < 10; i++, time += frameNanos)
+            detector.process(frame(page, 3, i), WIDTH, HEIGHT, time);
+        assertEquals(1, captures[0]);
+        detector.process(frame(page, 0, 200), WIDTH, HEIGHT, time);
+        assertEquals(2, captures[0]);
+        detector.close();
+    }
+
+    private static byte[][] tiltedFrames() {
+        // Pages at a few angles, the last one out of focus
+        byte[][] frames = new byte[4][];
+        for (int i = 0; i < frames.length; i++) {
+            Page page = new Page();
+            page.angle = Math.toRadians(-10 + 7 * i);
+            frames[i] = frame(page, i == 3 ? 2 : 0, i);
+        }
+        return frames;
+    }
+
+    @Test
+    public void bandsGiveTheSameAnswerOnEveryThreadCount() throws Exception {
+        byte[][] frames = tiltedFrames();
+        PageDetector serial = new PageDetector(options(1), null);
+        for (int threads : new int[]{2, 4}) {
+            PageDetector parallel = new PageDetector(options(threads), null);
+            for (byte[] frame : frames) {
+                PageDetector.Result expected = serial.detect(frame, WIDTH, HEIGHT, 0);
+                boolean found = expected.found;
+                String quad = expected.page.toString();
+                double sharpness = expected.sharpness;
+                PageDetector.Result actual = parallel.detect(frame, WIDTH, HEIGHT, 0);
+                assertEquals(found, actual.found);
+                assertEquals(quad, actual.page.toString());
+                assertEquals(sharpness, actual.sharpness, 1e-9);
+            }
+            parallel.close();
+        }
+        serial.close();
+    }
+
+    @Test
+    public void benchmarkPageDetection() throws Exception {
+        Benchmarks.assumeEnabled();
+        byte[][] frames = tiltedFrames();
+        // A 30 fps preview leaves 33 ms per frame
+        for (int threads : new int[]{1, Runtime.getRuntime().availableProcessors()}) {
+            PageDetector detector = new PageDetector(options(threads), null);
+            int warmup = 30;
+            int iterations = 120;
+            int found = 0;
+            for (int i = 0; i < warmup; i++)
+                detector.detect(frames[i % frames.length], WIDTH, HEIGHT, i);
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                if (detector.detect(frames[i % frames.length], WIDTH, HEIGHT, i).found) found++;
+            }
+            double millis = (System.nanoTime() - start) / 1e6 / iterations;
+            System.out.printf("page detection %dx%d, %d threads: %.2f ms/frame%n", WIDTH,
+                    HEIGHT, threads, millis);
+            assertEquals(iterations, found);
+            detector.close();
+        }
+    }
+}
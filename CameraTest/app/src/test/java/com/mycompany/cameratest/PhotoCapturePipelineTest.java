@@ -0,0 +1,149 @@
+package com.mycompany.cameratest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PhotoCapturePipelineTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] jpeg(Random random, int size) {
+        // Synthetic JPEG, the pipeline never looks inside
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        bytes[0] = (byte) 0xFF;
+        bytes[1] = (byte) 0xD8;
+        return bytes;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void writesPhotosLinkedToTheirLogItems() throws Exception {
+        File directory = new File(folder.getRoot(), "photos");
+        PhotoCapturePipeline.Options options = new PhotoCapturePipeline.Options();
+        options.queueCapacity = 32;
+        PhotoCapturePipeline pipeline = new PhotoCapturePipeline(directory, options, null);
+        LogItemRef item = new LogItemRef("XA-MFH", "1024", 2);
+        LogItemRef odd = new LogItemRef("N 12_3", "7/b", 1);
+        Random random = new Random(1);
+        byte[][] photos = new byte[12][];
+        for (int i = 0; i < photos.length; i++) {
+            photos[i] = jpeg(random, 3 * 1024 * 1024);
+            assertTrue(pipeline.submit(photos[i], i % 3 == 0 ? odd : item, System.nanoTime()));
+        }
+        assertTrue(pipeline.submit(jpeg(random, 1000), null, System.nanoTime()));
+        pipeline.close();
+        assertTrue(pipeline.awaitClosed(30000));
+        assertFalse(pipeline.submit(photos[0], item, System.nanoTime()));
+
+        List<File> saved = pipeline.photosOf(item);
+        assertEquals(8, saved.size());
+        for (int i = 0, k = 0; i < photos.length; i++) {
+            if (i % 3 == 0) continue;
+            File file = saved.get(k++);
+            assertTrue(Arrays.equals(photos[i], read(file)));
+            assertEquals(item, LogItemRef.fromFileName(file.getName()));
+        }
+        List<File> oddSaved = pipeline.photosOf(odd);
+        assertEquals(4, oddSaved.size());
+        assertEquals(odd, LogItemRef.fromFileName(oddSaved.get(0).getName()));
+        // Everything, the unlinked photo included, and no temporary files left
+        assertEquals(13, directory.list().length);
+
+        PhotoCapturePipeline.Stats stats = pipeline.getStats();
+        assertEquals(13, stats.saved);
+        assertEquals(1, stats.refused);
+        assertEquals(0, stats.failed);
+    }
+
+    @Test
+    public void refusesPhotosWhenTheWriterFallsBehind() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch firstSaved = new CountDownLatch(1);
+        PhotoCapturePipeline.Options options = new PhotoCapturePipeline.Options();
+        options.queueCapacity = 2;
+        PhotoCapturePipeline pipeline = new PhotoCapturePipeline(folder.getRoot(), options,
+                new PhotoCapturePipeline.Listener() {
+                    @Override
+                    public void onPhotoSaved(LogItemRef ref, File file, long latencyNanos) {
+                        // Stalls the writer after the first photo
+                        firstSaved.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+
+                    @Override
+                    public void onPhotoFailed(LogItemRef ref, IOException ex) {
+                    }
+                });
+        LogItemRef item = new LogItemRef("XA-AFH", "3", 1);
+        byte[] photo = jpeg(new Random(2), 64 * 1024);
+        assertTrue(pipeline.submit(photo, item, System.nanoTime()));
+        assertTrue(firstSaved.await(10, TimeUnit.SECONDS));
+        // Two wait in the queue, the camera thread is never blocked by the rest
+        assertTrue(pipeline.submit(photo, item, System.nanoTime()));
+        assertTrue(pipeline.submit(photo, item, System.nanoTime()));
+        long start = System.nanoTime();
+        assertFalse(pipeline.submit(photo, item, System.nanoTime()));
+        assertFalse(pipeline.submit(photo, item, System.nanoTime()));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(100));
+        release.countDown();
+        pipeline.close();
+        assertTrue(pipeline.awaitClosed(10000));
+        assertEquals(3, pipeline.getStats().saved);
+        assertEquals(2, pipeline.getStats().refused);
+    }
+
+    @Test
+    public void benchmarkShutterToDurableLatency() throws Exception {
+        Benchmarks.assumeEnabled();
+        /* A burst of 3 MB photos at a camera-like pace, measuring how long the camera thread is
+         * held by submit() and how long each photo takes to be on disk
+         */
+        PhotoCapturePipeline pipeline = new PhotoCapturePipeline(folder.getRoot(),
+                new PhotoCapturePipeline.Options(), null);
+        LogItemRef item = new LogItemRef("XA-MFH", "1", 1);
+        Random random = new Random(3);
+        byte[][] photos = new byte[4][];
+        for (int i = 0; i < photos.length; i++) photos[i] = jpeg(random, 3 * 1024 * 1024);
+        int shots = 20;
+        long held = 0;
+        for (int i = 0; i < shots; i++) {
+            long shutter = System.nanoTime();
+            assertTrue(pipeline.submit(photos[i % photos.length], item, shutter));
+            held += System.nanoTime() - shutter;
+            Thread.sleep(150);
+        }
+        pipeline.close();
+        assertTrue(pipeline.awaitClosed(30000));
+        PhotoCapturePipeline.Stats stats = pipeline.getStats();
+        assertEquals(shots, stats.saved);
+        System.out.printf("submit %.1f us, shutter to durable %.1f ms mean, %.1f ms max%n",
+                held / 1e3 / shots, stats.meanLatencyNanos() / 1e6, stats.maxLatencyNanos / 1e6);
+    }
+}
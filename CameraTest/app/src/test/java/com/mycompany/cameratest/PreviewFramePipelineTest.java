@@ -0,0 +1,136 @@
+package com.mycompany.cameratest;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.*;
+
+public class PreviewFramePipelineTest {
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+
+    @Test
+    public void ringKeepsOrderAndRefusesWhenFull() {
+        FrameRing ring = new FrameRing(4);
+        byte[][] buffers = new byte[6][];
+        for (int i = 0; i < buffers.length; i++) buffers[i] = new byte[1];
+        for (int round = 0; round < 3; round++) {
+            // Goes around the ring a few times
+            for (int i = 0; i < 4; i++) assertTrue(ring.offer(buffers[i], round * 10 + i));
+            assertFalse(ring.offer(buffers[4], 0));
+            assertEquals(4, ring.size());
+            for (int i = 0; i < 4; i++) {
+                assertSame(buffers[i], ring.poll());
+                assertEquals(round * 10 + i, ring.polledTimestamp());
+            }
+            assertNull(ring.poll());
+        }
+        assertEquals(4, FrameRing.capacityFor(3));
+        assertEquals(1, FrameRing.capacityFor(1));
+        assertEquals(8, FrameRing.capacityFor(8));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void poolCatchesBuffersReleasedTwice() {
+        FrameBufferPool pool = new FrameBufferPool(2, 16);
+        byte[] buffer = pool.acquire();
+        pool.recycle(buffer);
+        pool.recycle(buffer);
+    }
+
+    @Test
+    public void dropsFramesWhenTheWorkerIsBehind() throws Exception {
+        /* A 30 fps camera feeding a processor that needs 50 ms per frame: about every other
+         * frame has to be dropped, and none may be processed out of order
+         */
+        final FrameBufferPool pool = new FrameBufferPool(5,
+                FrameBufferPool.nv21Size(WIDTH, HEIGHT));
+        final AtomicLong lastTimestamp = new AtomicLong();
+        final AtomicLong outOfOrder = new AtomicLong();
+        PreviewFramePipeline pipeline = new PreviewFramePipeline(WIDTH, HEIGHT, 2,
+                new PreviewFramePipeline.FrameProcessor() {
+                    @Override
+                    public void process(byte[] nv21, int width, int height, long timestamp) {
+                        if (timestamp <= lastTimestamp.getAndSet(timestamp))
+                            outOfOrder.incrementAndGet();
+                        LockSupport.parkNanos(50000000);
+                    }
+                }, pool);
+        assertEquals(4, pipeline.callbackBuffers());
+        for (int frame = 0; frame < 60; frame++) {
+            byte[] buffer = pool.acquire();
+            // The pool never runs dry, the dropped frames give their buffers back at once
+            assertNotNull(buffer);
+            pipeline.onFrame(buffer, System.nanoTime());
+            Thread.sleep(33);
+        }
+        pipeline.close();
+        assertEquals(60, pipeline.getReceived());
+        assertTrue(pipeline.getDropped() > 15);
+        assertTrue(pipeline.getProcessed() > 15);
+        assertTrue(pipeline.getProcessed() + pipeline.getDropped() <= 60);
+        assertEquals(0, outOfOrder.get());
+        assertEquals(5, pool.available());
+    }
+
+    @Test
+    public void benchmarkSteadyStateAllocatesNothing() throws Exception {
+        /* Frames as fast as the worker takes them, measuring what each thread allocates. The
+         * camera waits for room in the ring, flooding it would only measure dropping.
+         */
+        Benchmarks.assumeEnabled();
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final FrameBufferPool pool = new FrameBufferPool(6,
+                FrameBufferPool.nv21Size(WIDTH, HEIGHT));
+        final AtomicLong workerId = new AtomicLong();
+        final long[] lumaSum = new long[1];
+        PreviewFramePipeline pipeline = new PreviewFramePipeline(WIDTH, HEIGHT, 4,
+                new PreviewFramePipeline.FrameProcessor() {
+                    @Override
+                    public void process(byte[] nv21, int width, int height, long timestamp) {
+                        // Mean luminance, a stand-in for real work on the Y plane
+                        workerId.lazySet(Thread.currentThread().getId());
+                        long sum = 0;
+                        for (int i = 0; i < width * height; i += 4) sum += nv21[i] & 0xFF;
+                        lumaSum[0] += sum;
+                    }
+                }, pool);
+
+        int warmup = 2000;
+        int frames = 20000;
+        long producerBytes = 0;
+        long workerBytes = 0;
+        long start = 0;
+        long producer = Thread.currentThread().getId();
+        for (int frame = 0; frame < warmup + frames; frame++) {
+            if (frame == warmup) {
+                producerBytes = threads.getThreadAllocatedBytes(producer);
+                workerBytes = threads.getThreadAllocatedBytes(workerId.get());
+                start = System.nanoTime();
+            }
+            while (pipeline.getReceived() - pipeline.getDropped() - pipeline.getProcessed() >= 4)
+                Thread.yield();
+            byte[] buffer;
+            while ((buffer = pool.acquire()) == null) Thread.yield();
+            pipeline.onFrame(buffer, System.nanoTime());
+        }
+        while (pool.available() < pool.getCount()) Thread.yield();
+        long elapsed = System.nanoTime() - start;
+        producerBytes = threads.getThreadAllocatedBytes(producer) - producerBytes;
+        workerBytes = threads.getThreadAllocatedBytes(workerId.get()) - workerBytes;
+        pipeline.close();
+
+        System.out.printf("%.0f frames/s, %d processed, %d dropped, allocated %d B on the "
+                        + "camera thread and %d B on the worker%n", frames * 1e9 / elapsed,
+                pipeline.getProcessed(), pipeline.getDropped(), producerBytes, workerBytes);
+        assertEquals(warmup + frames, pipeline.getProcessed() + pipeline.getDropped());
+        assertTrue(lumaSum[0] >= 0);
+        // Less than a byte per frame, the odd allocation by the JVM itself aside
+        assertTrue(producerBytes < frames);
+        assertTrue(workerBytes < frames);
+    }
+}
@@ -0,0 +1,278 @@
+package com.mycompany.capturatest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class AircraftLogIndex implements LogStore.Listener, Closeable {
+    /* Time ordered index of the entries in a LogStore, one timeline per aircraft
+     *
+     * Every item of a saved page is an Entry (folio, item number, date reported, canceled and
+     * deferred flags). Each aircraft keeps its entries in a sorted set ordered by the date the
+     * discrepancy was reported (the corrective action's date if it has none), then folio and
+     * item number. Date ranges and "last N entries" are a walk over the selected aircraft's
+     * set, other aircraft are never looked at. Deferred items that weren't canceled are also
+     * kept in a second, much smaller set per aircraft. Entries without a date sort before
+     * every dated one and are left out of date ranges.
+     *
+     * Built from the store when opened and kept up to date through LogStore.Listener. Entries
+     * hold no text, read the pages to show from the store.
+     */
+    private static final int FLAG_CANCELED = 1;
+    private static final int FLAG_DEFERRED = 1 << 1;
+    private static final int FLAG_BITS = 2;
+
+    private static final Comparator<Entry> TIMELINE = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            // A timeline holds one aircraft, its registration needn't be compared
+            if (a.date != b.date) return a.date < b.date ? -1 : 1;
+            int result = PageKey.compareFolios(a.page.getFolio(), b.page.getFolio());
+            if (result != 0) return result;
+            if (a.itemNumber != b.itemNumber) return a.itemNumber < b.itemNumber ? -1 : 1;
+            // Repeated item numbers are told apart by their place in the page
+            return a.bits < b.bits ? -1 : (a.bits == b.bits ? 0 : 1);
+        }
+    };
+
+    private final LogStore store;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Timeline> byAircraft = new HashMap<>();
+    private final Map<PageKey, Entry[]> byPage = new HashMap<>();
+    private int size;
+
+    public static final class Entry {
+        private final PageKey page;
+        private final int itemNumber;
+        private final long date;
+        // Place in the page above the flags
+        private final int bits;
+
+        Entry(PageKey page, int itemNumber, long date, int bits) {
+            this.page = page;
+            this.itemNumber = itemNumber;
+            this.date = date;
+            this.bits = bits;
+        }
+
+        PageKey getPage() {
+            return page;
+        }
+
+        public String getAircraft() {
+            return page.getAircraft();
+        }
+
+        public String getFolio() {
+            return page.getFolio();
+        }
+
+        public int getLogItemNumber() {
+            return itemNumber;
+        }
+
+        public Date getDate() {
+            return LogDateCodec.dateOf(date);
+        }
+
+        public boolean isCanceled() {
+            return (bits & FLAG_CANCELED) != 0;
+        }
+
+        public boolean isDeferred() {
+            return (bits & FLAG_DEFERRED) != 0;
+        }
+
+        @Override
+        public String toString() {
+            return page + " #" + itemNumber
+                    + (date == LogDateCodec.NO_DATE ? "" : " " + new Date(date));
+        }
+    }
+
+    private static final class Timeline {
+        final NavigableSet<Entry> entries = new TreeSet<>(TIMELINE);
+        final NavigableSet<Entry> deferred = new TreeSet<>(TIMELINE);
+    }
+
+    private AircraftLogIndex(LogStore store) {
+        this.store = store;
+    }
+
+    static AircraftLogIndex open(LogStore store) throws IOException {
+        // Open it before the log can be edited, a page saved before it listens has no entries
+        AircraftLogIndex index = new AircraftLogIndex(store);
+        store.replay(index);
+        store.addListener(index);
+        return index;
+    }
+
+    @Override
+    public void onPageSaved(LogPage page) {
+        // Entries are built before taking the lock, readers only wait for the swap
+        Entry[] entries = entriesOf(page);
+        lock.writeLock().lock();
+        try {
+            remove(page.getKey());
+            add(page.getKey(), entries);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onPageDeleted(PageKey key) {
+        lock.writeLock().lock();
+        try {
+            remove(key);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public List<Entry> between(String aircraft, Date from, Date to) {
+        // Entries reported from "from" up to but not including "to", oldest first
+        List<Entry> result = new ArrayList<>();
+        if (!from.before(to)) return result;
+        lock.readLock().lock();
+        try {
+            Timeline timeline = byAircraft.get(aircraft);
+            if (timeline == null) return result;
+            result.addAll(timeline.entries.subSet(probe(aircraft, from.getTime()), true,
+                    probe(aircraft, to.getTime()), false));
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    public List<Entry> latest(String aircraft, int count) {
+        // The last count entries, newest first
+        List<Entry> result = new ArrayList<>();
+        if (count <= 0) return result;
+        lock.readLock().lock();
+        try {
+            Timeline timeline = byAircraft.get(aircraft);
+            if (timeline == null) return result;
+            Iterator<Entry> newest = timeline.entries.descendingIterator();
+            while (newest.hasNext() && result.size() < count) result.add(newest.next());
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    public List<Entry> openDeferred(String aircraft) {
+        // Deferred items that weren't canceled, oldest first
+        lock.readLock().lock();
+        try {
+            Timeline timeline = byAircraft.get(aircraft);
+            if (timeline == null) return Collections.emptyList();
+            return new ArrayList<>(timeline.deferred);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    List<PageKey> pages(String aircraft) {
+        // Pages holding the aircraft's entries, the one with the newest entry first
+        Set<PageKey> pages = new LinkedHashSet<>();
+        lock.readLock().lock();
+        try {
+            Timeline timeline = byAircraft.get(aircraft);
+            if (timeline == null) return new ArrayList<>();
+            for (Entry entry : timeline.entries.descendingSet()) pages.add(entry.page);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new ArrayList<>(pages);
+    }
+
+    public int size(String aircraft) {
+        lock.readLock().lock();
+        try {
+            Timeline timeline = byAircraft.get(aircraft);
+            return timeline == null ? 0 : timeline.entries.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        store.removeListener(this);
+    }
+
+    private static Entry probe(String aircraft, long date) {
+        // Sorts before every entry of that date
+        return new Entry(new PageKey(aircraft, ""), Integer.MIN_VALUE, date, 0);
+    }
+
+    private static Entry[] entriesOf(LogPage page) {
+        List<LogItem> items = page.getItems();
+        Entry[] entries = new Entry[items.size()];
+        for (int i = 0; i < entries.length; i++) {
+            LogItem item = items.get(i);
+            Date date = item.getDiscrepancy().getDate();
+            if (date == null) date = item.getCorrectiveAction().getDate();
+            LogItem.CorrectiveAction correctiveAction = item.getCorrectiveAction();
+            int bits = i << FLAG_BITS | (item.isCanceled() ? FLAG_CANCELED : 0)
+                    | (correctiveAction.isDeferred() && !correctiveAction.isCanceled()
+                    ? FLAG_DEFERRED : 0);
+            entries[i] = new Entry(page.getKey(), item.getLogItemNumber(),
+                    LogDateCodec.millisOf(date), bits);
+        }
+        return entries;
+    }
+
+    private void add(PageKey key, Entry[] entries) {
+        // Called with the write lock held
+        if (entries.length == 0) return;
+        byPage.put(key, entries);
+        Timeline timeline = byAircraft.get(key.getAircraft());
+        if (timeline == null) {
+            timeline = new Timeline();
+            byAircraft.put(key.getAircraft(), timeline);
+        }
+        for (Entry entry : entries) {
+            timeline.entries.add(entry);
+            if (entry.isDeferred() && !entry.isCanceled()) timeline.deferred.add(entry);
+        }
+        size += entries.length;
+    }
+
+    private void remove(PageKey key) {
+        // Called with the write lock held
+        Entry[] entries = byPage.remove(key);
+        if (entries == null) return;
+        Timeline timeline = byAircraft.get(key.getAircraft());
+        for (Entry entry : entries) {
+            timeline.entries.remove(entry);
+            timeline.deferred.remove(entry);
+        }
+        if (timeline.entries.isEmpty()) byAircraft.remove(key.getAircraft());
+        size -= entries.length;
+    }
+}
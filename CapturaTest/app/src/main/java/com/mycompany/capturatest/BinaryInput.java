@@ -0,0 +1,87 @@
+package com.mycompany.capturatest;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+final class BinaryInput {
+    /* Reads what BinaryOutput writes from a byte array
+     *
+     * Running past the end of the data or finding a malformed varint throws an IOException,
+     * since it means the data is truncated or corrupt.
+     */
+    private final byte[] bytes;
+    private final int limit;
+    private int pos;
+
+    BinaryInput(byte[] bytes) {
+        this(bytes, 0, bytes.length);
+    }
+
+    BinaryInput(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.pos = offset;
+        this.limit = offset + length;
+    }
+
+    int position() {
+        return pos;
+    }
+
+    int remaining() {
+        return limit - pos;
+    }
+
+    int readByte() throws IOException {
+        if (pos >= limit) throw new EOFException();
+        return bytes[pos++] & 0xFF;
+    }
+
+    byte[] readBytes(int length) throws IOException {
+        if (length < 0 || length > limit - pos) throw new EOFException();
+        byte[] value = new byte[length];
+        System.arraycopy(bytes, pos, value, 0, length);
+        pos += length;
+        return value;
+    }
+
+    int readInt() throws IOException {
+        return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+    }
+
+    long readLong() throws IOException {
+        return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+    }
+
+    int readVarInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    long readZigZagLong() throws IOException {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    String readString() throws IOException {
+        int length = readVarInt();
+        if (length < 0 || length > limit - pos) throw new EOFException();
+        String value = new String(bytes, pos, length, LogItemJsonWriter.UTF_8);
+        pos += length;
+        return value;
+    }
+}
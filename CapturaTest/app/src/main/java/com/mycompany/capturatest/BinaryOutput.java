@@ -0,0 +1,103 @@
+package com.mycompany.capturatest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+final class BinaryOutput {
+    /* Growable byte buffer with varint encoding helpers
+     *
+     * Integers are written as LEB128 varints (7 bits per byte, high bit set if more bytes
+     * follow), signed values are zigzag encoded first so small negatives stay small.
+     */
+    private byte[] bytes;
+    private int size;
+
+    BinaryOutput() {
+        this(256);
+    }
+
+    BinaryOutput(int initialCapacity) {
+        bytes = new byte[Math.max(16, initialCapacity)];
+    }
+
+    int size() {
+        return size;
+    }
+
+    void reset() {
+        size = 0;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    byte[] buffer() {
+        // Backing array, only the first size() bytes are valid
+        return bytes;
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, size);
+    }
+
+    void writeByte(int value) {
+        ensureCapacity(1);
+        bytes[size++] = (byte) value;
+    }
+
+    void writeBytes(byte[] value, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(value, offset, bytes, size, length);
+        size += length;
+    }
+
+    void writeInt(int value) {
+        // Fixed size, big endian
+        ensureCapacity(4);
+        bytes[size++] = (byte) (value >>> 24);
+        bytes[size++] = (byte) (value >>> 16);
+        bytes[size++] = (byte) (value >>> 8);
+        bytes[size++] = (byte) value;
+    }
+
+    void writeLong(long value) {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+
+    void writeVarInt(int value) {
+        ensureCapacity(5);
+        while ((value & ~0x7F) != 0) {
+            bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[size++] = (byte) value;
+    }
+
+    void writeVarLong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[size++] = (byte) value;
+    }
+
+    void writeZigZagLong(long value) {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    void writeString(String value) {
+        // Varint length followed by the UTF-8 bytes
+        byte[] utf8 = value.getBytes(LogItemJsonWriter.UTF_8);
+        writeVarInt(utf8.length);
+        writeBytes(utf8, 0, utf8.length);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > bytes.length)
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+    }
+}
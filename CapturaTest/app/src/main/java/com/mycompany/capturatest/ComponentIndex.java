@@ -0,0 +1,447 @@
+package com.mycompany.capturatest;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class ComponentIndex implements LogStore.Listener, Closeable {
+    /* Inverted index of the component changes in a LogStore, for traceability audits
+     *
+     * Answers "where has this serial number been installed or removed" and "every change of
+     * parts starting with 3214" without reading the pages. Each installed or removed component
+     * of a non canceled item is an Entry (aircraft, folio, item number, date, installed or
+     * removed), found through two sorted maps, by part number and by serial number. Sorted maps
+     * make prefix queries a range walk. Part and serial numbers are matched trimmed and
+     * uppercase.
+     *
+     * Kept up to date as pages are saved through LogStore.Listener, and persisted as a snapshot
+     * when closed. The snapshot remembers the store's last sequence number, so a snapshot that
+     * missed writes (the app died before closing it) is thrown away and rebuilt from the store.
+     * Open it before writing to the store, and close it before closing the store.
+     */
+    private static final int SNAPSHOT_MAGIC = 0x434D5049; // "CMPI"
+    private static final int SNAPSHOT_VERSION = 1;
+
+    private static final int FLAG_INSTALLED = 1;
+    private static final int FLAG_HAS_DATE = 1 << 1;
+    private static final int FLAG_HAS_PART = 1 << 2;
+    private static final int FLAG_HAS_SERIAL = 1 << 3;
+
+    private static final Comparator<Entry> HISTORY = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            // Oldest first, undated entries last
+            if (a.date != b.date) {
+                if (a.date == LogDateCodec.NO_DATE) return 1;
+                if (b.date == LogDateCodec.NO_DATE) return -1;
+                return a.date < b.date ? -1 : 1;
+            }
+            int result = a.page.compareTo(b.page);
+            if (result != 0) return result;
+            if (a.itemNumber != b.itemNumber) return a.itemNumber - b.itemNumber;
+            // A part comes out before its replacement goes in
+            return (a.installed ? 1 : 0) - (b.installed ? 1 : 0);
+        }
+    };
+
+    private final File file;
+    private final LogStore store;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final NavigableMap<String, Postings> byPart = new TreeMap<>();
+    private final NavigableMap<String, Postings> bySerial = new TreeMap<>();
+    private final Map<PageKey, Entry[]> byPage = new HashMap<>();
+    private int size;
+
+    public static final class Entry {
+        private final PageKey page;
+        private final int itemNumber;
+        private final long date;
+        private final boolean installed;
+        private String partNumber;
+        private String serialNumber;
+
+        Entry(PageKey page, int itemNumber, long date, boolean installed) {
+            this.page = page;
+            this.itemNumber = itemNumber;
+            this.date = date;
+            this.installed = installed;
+        }
+
+        public String getAircraft() {
+            return page.getAircraft();
+        }
+
+        public String getFolio() {
+            return page.getFolio();
+        }
+
+        public int getLogItemNumber() {
+            return itemNumber;
+        }
+
+        public Date getDate() {
+            return LogDateCodec.dateOf(date);
+        }
+
+        public boolean isInstalled() {
+            return installed;
+        }
+
+        public boolean isRemoved() {
+            return !installed;
+        }
+
+        public String getPartNumber() {
+            return partNumber;
+        }
+
+        public String getSerialNumber() {
+            return serialNumber;
+        }
+
+        @Override
+        public String toString() {
+            return (installed ? "installed " : "removed ") + partNumber + " s/n " + serialNumber
+                    + " at " + page + " #" + itemNumber;
+        }
+    }
+
+    private static final class Postings {
+        // Entries sharing a part or serial number, which they all point to to save memory
+        final String key;
+        final List<Entry> entries = new ArrayList<>(2);
+
+        Postings(String key) {
+            this.key = key;
+        }
+    }
+
+    private ComponentIndex(File file, LogStore store) {
+        this.file = file;
+        this.store = store;
+    }
+
+    static ComponentIndex open(File file, LogStore store) throws IOException {
+        // Loads the snapshot if it's current, otherwise reindexes every page in the store
+        ComponentIndex index = new ComponentIndex(file, store);
+        if (!index.load()) store.replay(index);
+        // Until saved again the snapshot is out of date
+        if (file.exists() && !file.delete()) throw new IOException("Can't delete " + file);
+        store.addListener(index);
+        return index;
+    }
+
+    @Override
+    public void onPageSaved(LogPage page) {
+        // Entries are built before taking the lock, readers only wait for the swap
+        Entry[] entries = entriesOf(page);
+        lock.writeLock().lock();
+        try {
+            remove(page.getKey());
+            add(page.getKey(), entries);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onPageDeleted(PageKey key) {
+        lock.writeLock().lock();
+        try {
+            remove(key);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public List<Entry> findBySerial(String serialNumber) {
+        // History of one serial number, oldest first
+        return find(bySerial, serialNumber);
+    }
+
+    public List<Entry> findByPart(String partNumber) {
+        return find(byPart, partNumber);
+    }
+
+    public List<Entry> findByPartPrefix(String prefix, int limit) {
+        // Up to limit entries whose part number starts with prefix, by part number then date
+        return findByPrefix(byPart, prefix, limit);
+    }
+
+    public List<Entry> findBySerialPrefix(String prefix, int limit) {
+        return findByPrefix(bySerial, prefix, limit);
+    }
+
+    public List<String> partNumbers(String prefix, int limit) {
+        // Distinct part numbers starting with prefix, for autocompleting the audit screen
+        String key = TextFolding.normalizeCode(prefix);
+        List<String> result = new ArrayList<>();
+        if (key == null || limit <= 0) return result;
+        lock.readLock().lock();
+        try {
+            for (String part : byPart.tailMap(key, true).keySet()) {
+                if (!part.startsWith(key) || result.size() == limit) break;
+                result.add(part);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    public int size() {
+        // Number of entries, one per installed or removed component
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        store.removeListener(this);
+        save();
+    }
+
+    private List<Entry> find(NavigableMap<String, Postings> map, String value) {
+        String key = TextFolding.normalizeCode(value);
+        if (key == null) return Collections.emptyList();
+        List<Entry> result;
+        lock.readLock().lock();
+        try {
+            Postings postings = map.get(key);
+            if (postings == null) return Collections.emptyList();
+            result = new ArrayList<>(postings.entries);
+        } finally {
+            lock.readLock().unlock();
+        }
+        Collections.sort(result, HISTORY);
+        return result;
+    }
+
+    private List<Entry> findByPrefix(NavigableMap<String, Postings> map, String prefix,
+                                     int limit) {
+        String key = TextFolding.normalizeCode(prefix);
+        List<Entry> result = new ArrayList<>();
+        if (key == null || limit <= 0) return result;
+        lock.readLock().lock();
+        try {
+            for (Postings postings : map.tailMap(key, true).values()) {
+                if (!postings.key.startsWith(key)) break;
+                int start = result.size();
+                result.addAll(postings.entries);
+                Collections.sort(result.subList(start, result.size()), HISTORY);
+                if (result.size() >= limit) break;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    private static Entry[] entriesOf(LogPage page) {
+        List<Entry> entries = new ArrayList<>();
+        for (LogItem item : page.getItems()) {
+            if (item.isCanceled()) continue;
+            // The components are changed as part of the corrective action
+            Date date = item.getCorrectiveAction().getDate();
+            if (date == null) date = item.getDiscrepancy().getDate();
+            long millis = LogDateCodec.millisOf(date);
+            for (LogItem.ComponentsChanged.ComponentChange change
+                    : item.getComponentsChanged().getComponentChanges()) {
+                if (change.isComponentRemoved()) {
+                    addEntry(entries, new Entry(page.getKey(), item.getLogItemNumber(), millis,
+                            false), change.getRemovedPartNumber(), change.getRemovedSerialNumber());
+                }
+                if (change.isComponentInstalled()) {
+                    addEntry(entries, new Entry(page.getKey(), item.getLogItemNumber(), millis,
+                            true), change.getInstalledPartNumber(),
+                            change.getInstalledSerialNumber());
+                }
+            }
+        }
+        return entries.toArray(new Entry[entries.size()]);
+    }
+
+    private static void addEntry(List<Entry> entries, Entry entry, String partNumber,
+                                 String serialNumber) {
+        entry.partNumber = TextFolding.normalizeCode(partNumber);
+        entry.serialNumber = TextFolding.normalizeCode(serialNumber);
+        // Nothing to find it by
+        if (entry.partNumber == null && entry.serialNumber == null) return;
+        entries.add(entry);
+    }
+
+    private void add(PageKey key, Entry[] entries) {
+        // Called with the write lock held
+        if (entries.length == 0) return;
+        byPage.put(key, entries);
+        for (Entry entry : entries) {
+            if (entry.partNumber != null) entry.partNumber = post(byPart, entry.partNumber, entry);
+            if (entry.serialNumber != null)
+                entry.serialNumber = post(bySerial, entry.serialNumber, entry);
+        }
+        size += entries.length;
+    }
+
+    private void remove(PageKey key) {
+        // Called with the write lock held
+        Entry[] entries = byPage.remove(key);
+        if (entries == null) return;
+        for (Entry entry : entries) {
+            if (entry.partNumber != null) unpost(byPart, entry.partNumber, entry);
+            if (entry.serialNumber != null) unpost(bySerial, entry.serialNumber, entry);
+        }
+        size -= entries.length;
+    }
+
+    private static String post(NavigableMap<String, Postings> map, String key, Entry entry) {
+        // Returns the shared copy of key
+        Postings postings = map.get(key);
+        if (postings == null) {
+            postings = new Postings(key);
+            map.put(key, postings);
+        }
+        postings.entries.add(entry);
+        return postings.key;
+    }
+
+    private static void unpost(NavigableMap<String, Postings> map, String key, Entry entry) {
+        Postings postings = map.get(key);
+        if (postings == null) return;
+        // Entries are only equal to themselves
+        postings.entries.remove(entry);
+        if (postings.entries.isEmpty()) map.remove(key);
+    }
+
+    private void save() throws IOException {
+        /* Snapshot layout:
+         *   magic, version, store sequence, page count, part number dictionary,
+         *   then per page: aircraft, folio, entry count and the entries
+         */
+        BinaryOutput out;
+        lock.readLock().lock();
+        try {
+            out = new BinaryOutput(size * 24 + 64);
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeVarInt(SNAPSHOT_VERSION);
+            out.writeVarLong(store.lastSequence());
+            out.writeVarInt(store.size());
+            // Part numbers repeat a lot, serial numbers hardly ever
+            Map<String, Integer> parts = new HashMap<>();
+            out.writeVarInt(byPart.size());
+            for (String part : byPart.keySet()) {
+                parts.put(part, parts.size());
+                out.writeString(part);
+            }
+            out.writeVarInt(byPage.size());
+            for (Map.Entry<PageKey, Entry[]> page : byPage.entrySet()) {
+                out.writeString(page.getKey().getAircraft());
+                out.writeString(page.getKey().getFolio());
+                out.writeVarInt(page.getValue().length);
+                for (Entry entry : page.getValue()) {
+                    int flags = (entry.installed ? FLAG_INSTALLED : 0)
+                            | (entry.date != LogDateCodec.NO_DATE ? FLAG_HAS_DATE : 0)
+                            | (entry.partNumber != null ? FLAG_HAS_PART : 0)
+                            | (entry.serialNumber != null ? FLAG_HAS_SERIAL : 0);
+                    out.writeByte(flags);
+                    out.writeVarInt(entry.itemNumber);
+                    if (entry.date != LogDateCodec.NO_DATE) out.writeZigZagLong(entry.date);
+                    if (entry.partNumber != null) out.writeVarInt(parts.get(entry.partNumber));
+                    if (entry.serialNumber != null) out.writeString(entry.serialNumber);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            out.writeTo(stream);
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        if (!temp.renameTo(file)) throw new IOException("Can't replace " + file);
+    }
+
+    private boolean load() {
+        // False if there's no usable snapshot for the current state of the store
+        if (!file.isFile()) return false;
+        try {
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            byte[] bytes;
+            try {
+                bytes = new byte[(int) in.length()];
+                in.readFully(bytes);
+            } finally {
+                in.close();
+            }
+            BinaryInput input = new BinaryInput(bytes);
+            if (input.readInt() != SNAPSHOT_MAGIC || input.readVarInt() != SNAPSHOT_VERSION)
+                return false;
+            // Missed writes, or written for another store
+            if (input.readVarLong() != store.lastSequence() || input.readVarInt() != store.size())
+                return false;
+            String[] parts = new String[input.readVarInt()];
+            for (int i = 0; i < parts.length; i++) parts[i] = input.readString();
+            int pages = input.readVarInt();
+            lock.writeLock().lock();
+            try {
+                for (int p = 0; p < pages; p++) {
+                    PageKey key = new PageKey(input.readString(), input.readString());
+                    Entry[] entries = new Entry[input.readVarInt()];
+                    for (int i = 0; i < entries.length; i++) {
+                        int flags = input.readByte();
+                        int itemNumber = input.readVarInt();
+                        long date = (flags & FLAG_HAS_DATE) != 0
+                                ? input.readZigZagLong() : LogDateCodec.NO_DATE;
+                        Entry entry = new Entry(key, itemNumber, date,
+                                (flags & FLAG_INSTALLED) != 0);
+                        if ((flags & FLAG_HAS_PART) != 0)
+                            entry.partNumber = parts[input.readVarInt()];
+                        if ((flags & FLAG_HAS_SERIAL) != 0)
+                            entry.serialNumber = input.readString();
+                        entries[i] = entry;
+                    }
+                    add(key, entries);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return true;
+        } catch (IOException | RuntimeException ex) {
+            // A damaged snapshot is just rebuilt
+            ex.printStackTrace();
+            clear();
+            return false;
+        }
+    }
+
+    private void clear() {
+        lock.writeLock().lock();
+        try {
+            byPart.clear();
+            bySerial.clear();
+            byPage.clear();
+            size = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
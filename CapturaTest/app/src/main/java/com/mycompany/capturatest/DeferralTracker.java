@@ -0,0 +1,419 @@
+package com.mycompany.capturatest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class DeferralTracker implements LogStore.Listener, Closeable {
+    /* Open MEL deferrals of the fleet, ordered by when they expire
+     *
+     * A deferred corrective action (item and action not canceled) is open until its page is
+     * saved with the deferral closed. Its expiry comes from the MEL category in deferralBasis,
+     * counted from the day the discrepancy was reported, in calendar days not counting that day:
+     *   - B: 3 days, C: 10 days, D: 120 days
+     *   - A: the interval written in the basis, "CAT A 2 DIAS" or "CAT A 72 HRS" (hours are
+     *     counted from the report itself)
+     * A deferral whose expiry can't be worked out (no category, A without interval, no date)
+     * is treated as already expired, so it's the first thing someone looks at.
+     *
+     * Open deferrals sit in sorted sets by expiry, one for the fleet and one per aircraft, so
+     * opening or closing one is O(log n) and "what expires in the next 24 h" is a subset.
+     * The store is only read the first time the tracker is used, after that LogStore.Listener
+     * keeps it current. The read takes no lock: saves made meanwhile are only noted, and
+     * applied over what was read once it's done. Time comes from a Clock, tests drive their
+     * own.
+     */
+    static final long HOUR_MILLIS = 60 * 60 * 1000L;
+    static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+
+    private static final Comparator<Deferral> BY_EXPIRY = new Comparator<Deferral>() {
+        @Override
+        public int compare(Deferral a, Deferral b) {
+            if (a.expiry != b.expiry) return a.expiry < b.expiry ? -1 : 1;
+            int result = a.page.compareTo(b.page);
+            if (result != 0) return result;
+            if (a.itemNumber != b.itemNumber) return a.itemNumber < b.itemNumber ? -1 : 1;
+            return a.position - b.position;
+        }
+    };
+
+    interface Clock {
+        long currentTimeMillis();
+    }
+
+    static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    private final LogStore store;
+    private final Clock clock;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final NavigableSet<Deferral> fleet = new TreeSet<>(BY_EXPIRY);
+    private final Map<String, NavigableSet<Deferral>> byAircraft = new HashMap<>();
+    private final Map<PageKey, Deferral[]> byPage = new HashMap<>();
+    private boolean loaded;
+    // Saves and deletes (no deferrals) seen while loading, latest per page
+    private Map<PageKey, Deferral[]> pending;
+    // One load at a time, readers wait on it for the first one
+    private final Object loadLock = new Object();
+
+    public static final class Deferral {
+        private final PageKey page;
+        private final int itemNumber;
+        private final int position;
+        private final String deferralBasis;
+        private final char category;
+        private final long reported;
+        private final long expiry;
+
+        Deferral(PageKey page, int itemNumber, int position, String deferralBasis,
+                 char category, long reported, long expiry) {
+            this.page = page;
+            this.itemNumber = itemNumber;
+            this.position = position;
+            this.deferralBasis = deferralBasis;
+            this.category = category;
+            this.reported = reported;
+            this.expiry = expiry;
+        }
+
+        public String getAircraft() {
+            return page.getAircraft();
+        }
+
+        public String getFolio() {
+            return page.getFolio();
+        }
+
+        public int getLogItemNumber() {
+            return itemNumber;
+        }
+
+        public String getDeferralBasis() {
+            return deferralBasis;
+        }
+
+        public char getCategory() {
+            // 'A' to 'D', or 0 if the basis doesn't say
+            return category;
+        }
+
+        public Date getReported() {
+            return reported == Long.MIN_VALUE ? null : new Date(reported);
+        }
+
+        public Date getExpiry() {
+            return new Date(expiry);
+        }
+
+        public long getExpiryMillis() {
+            return expiry;
+        }
+
+        public boolean isExpired(long now) {
+            return expiry <= now;
+        }
+
+        @Override
+        public String toString() {
+            return page + " #" + itemNumber + " " + deferralBasis + " expires "
+                    + new Date(expiry);
+        }
+    }
+
+    private DeferralTracker(LogStore store, Clock clock) {
+        this.store = store;
+        this.clock = clock;
+    }
+
+    static DeferralTracker open(LogStore store) {
+        return open(store, SYSTEM_CLOCK);
+    }
+
+    static DeferralTracker open(LogStore store, Clock clock) {
+        // Cheap, the store is read on first use
+        DeferralTracker tracker = new DeferralTracker(store, clock);
+        store.addListener(tracker);
+        return tracker;
+    }
+
+    @Override
+    public void onPageSaved(LogPage page) {
+        Deferral[] deferrals = deferralsOf(page);
+        lock.writeLock().lock();
+        try {
+            if (!loaded) {
+                // The store already has the page, unless the load read it before this save
+                if (pending != null) pending.put(page.getKey(), deferrals);
+                return;
+            }
+            remove(page.getKey());
+            add(page.getKey(), deferrals);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onPageDeleted(PageKey key) {
+        lock.writeLock().lock();
+        try {
+            if (loaded) remove(key);
+            else if (pending != null) pending.put(key, new Deferral[0]);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public List<Deferral> expiringWithin(long millis) throws IOException {
+        // Fleet deferrals not expired yet that expire within millis, soonest first
+        return select(null, millis);
+    }
+
+    public List<Deferral> expiringWithin(String aircraft, long millis) throws IOException {
+        return select(aircraft, millis);
+    }
+
+    public List<Deferral> expired(String aircraft) throws IOException {
+        // Deferrals of the aircraft past their expiry, longest expired first
+        return select(aircraft, -1);
+    }
+
+    private List<Deferral> select(String aircraft, long millis) throws IOException {
+        // Expiring within millis, or already expired if millis is negative
+        load();
+        long now = clock.currentTimeMillis();
+        lock.readLock().lock();
+        try {
+            NavigableSet<Deferral> open = aircraft == null ? fleet : byAircraft.get(aircraft);
+            if (open == null) return new ArrayList<>();
+            if (millis < 0) return new ArrayList<>(open.headSet(after(now)));
+            return new ArrayList<>(open.subSet(after(now), after(now + millis)));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<Deferral> open(String aircraft) throws IOException {
+        // Every open deferral of the aircraft, soonest to expire first
+        load();
+        lock.readLock().lock();
+        try {
+            NavigableSet<Deferral> open = byAircraft.get(aircraft);
+            return open == null ? new ArrayList<Deferral>() : new ArrayList<>(open);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Deferral next() throws IOException {
+        // The next deferral to expire, or the longest expired one; null if none is open
+        load();
+        lock.readLock().lock();
+        try {
+            return fleet.isEmpty() ? null : fleet.first();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() throws IOException {
+        load();
+        lock.readLock().lock();
+        try {
+            return fleet.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        store.removeListener(this);
+    }
+
+    private void load() throws IOException {
+        lock.readLock().lock();
+        try {
+            if (loaded) return;
+        } finally {
+            lock.readLock().unlock();
+        }
+        synchronized (loadLock) {
+            lock.writeLock().lock();
+            try {
+                if (loaded) return;
+                pending = new HashMap<>();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            /* Only this thread touches the sets until loaded is set, the listener notes what
+             * it gets in pending. Saves aren't held up by the read, a fleet takes seconds.
+             */
+            try {
+                for (PageKey key : store.keys()) {
+                    LogPage page = store.get(key.getAircraft(), key.getFolio());
+                    if (page != null) add(key, deferralsOf(page));
+                }
+            } catch (IOException | RuntimeException ex) {
+                lock.writeLock().lock();
+                try {
+                    pending = null;
+                    fleet.clear();
+                    byAircraft.clear();
+                    byPage.clear();
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                throw ex;
+            }
+            lock.writeLock().lock();
+            try {
+                // Newer than, or the same as, what was read
+                for (Map.Entry<PageKey, Deferral[]> saved : pending.entrySet()) {
+                    remove(saved.getKey());
+                    add(saved.getKey(), saved.getValue());
+                }
+                pending = null;
+                loaded = true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private static Deferral after(long time) {
+        // Sorts after every deferral expiring at time or before, and before the rest
+        return new Deferral(new PageKey("", ""), Integer.MIN_VALUE, 0, null, (char) 0,
+                Long.MIN_VALUE, time + 1);
+    }
+
+    private void add(PageKey key, Deferral[] deferrals) {
+        // Called with the write lock held, or by load()
+        if (deferrals.length == 0) return;
+        byPage.put(key, deferrals);
+        NavigableSet<Deferral> open = byAircraft.get(key.getAircraft());
+        if (open == null) {
+            open = new TreeSet<>(BY_EXPIRY);
+            byAircraft.put(key.getAircraft(), open);
+        }
+        for (Deferral deferral : deferrals) {
+            fleet.add(deferral);
+            open.add(deferral);
+        }
+    }
+
+    private void remove(PageKey key) {
+        // Called with the write lock held
+        Deferral[] deferrals = byPage.remove(key);
+        if (deferrals == null) return;
+        NavigableSet<Deferral> open = byAircraft.get(key.getAircraft());
+        for (Deferral deferral : deferrals) {
+            fleet.remove(deferral);
+            open.remove(deferral);
+        }
+        if (open.isEmpty()) byAircraft.remove(key.getAircraft());
+    }
+
+    private static Deferral[] deferralsOf(LogPage page) {
+        List<Deferral> deferrals = new ArrayList<>();
+        List<LogItem> items = page.getItems();
+        for (int i = 0; i < items.size(); i++) {
+            LogItem item = items.get(i);
+            LogItem.CorrectiveAction action = item.getCorrectiveAction();
+            if (item.isCanceled() || action.isCanceled() || !action.isDeferred()) continue;
+            Date date = item.getDiscrepancy().getDate();
+            if (date == null) date = action.getDate();
+            long reported = date == null ? Long.MIN_VALUE : date.getTime();
+            String basis = action.getDeferralBasis();
+            String[] words = basis == null ? new String[0]
+                    : TextFolding.foldWords(basis).split(" ");
+            char category = categoryOf(words);
+            deferrals.add(new Deferral(page.getKey(), item.getLogItemNumber(), i, basis,
+                    category, reported, expiryOf(category, words, reported)));
+        }
+        return deferrals.toArray(new Deferral[deferrals.size()]);
+    }
+
+    static char categoryOf(String[] words) {
+        // "cat b", "categoria c", "cat. d"; words are folded
+        int i = categoryIndex(words);
+        return i < 0 ? 0 : Character.toUpperCase(words[i].charAt(0));
+    }
+
+    private static int categoryIndex(String[] words) {
+        // Where the category letter is, -1 if there's none
+        for (int i = 0; i + 1 < words.length; i++) {
+            if (!words[i].equals("cat") && !words[i].equals("categoria")) continue;
+            String next = words[i + 1];
+            if (next.length() == 1 && next.charAt(0) >= 'a' && next.charAt(0) <= 'd')
+                return i + 1;
+        }
+        return -1;
+    }
+
+    static long expiryOf(char category, String[] words, long reported) {
+        // Long.MIN_VALUE when it can't be worked out, that is already expired
+        if (reported == Long.MIN_VALUE) return Long.MIN_VALUE;
+        switch (category) {
+            case 'B':
+                return endOfDays(reported, 3);
+            case 'C':
+                return endOfDays(reported, 10);
+            case 'D':
+                return endOfDays(reported, 120);
+            case 'A':
+                return intervalOf(words, reported);
+            default:
+                return Long.MIN_VALUE;
+        }
+    }
+
+    private static long intervalOf(String[] words, long reported) {
+        // First "<number> <unit>" after the category, numbers before it are the MEL item
+        for (int i = categoryIndex(words) + 1; i + 1 < words.length; i++) {
+            if (!isNumber(words[i])) continue;
+            int amount = Integer.parseInt(words[i]);
+            String unit = words[i + 1];
+            if (unit.startsWith("dia") || unit.startsWith("day") || unit.equals("d"))
+                return endOfDays(reported, amount);
+            if (unit.startsWith("hora") || unit.startsWith("hr") || unit.startsWith("hour")
+                    || unit.equals("h"))
+                return reported + amount * HOUR_MILLIS;
+        }
+        return Long.MIN_VALUE;
+    }
+
+    private static long endOfDays(long reported, int days) {
+        // Midnight at the end of the last day, the day of the report doesn't count
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(reported);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.add(Calendar.DAY_OF_MONTH, days + 1);
+        return calendar.getTimeInMillis();
+    }
+
+    private static boolean isNumber(String word) {
+        if (word.isEmpty() || word.length() > 5) return false;
+        for (int i = 0; i < word.length(); i++) {
+            if (word.charAt(i) < '0' || word.charAt(i) > '9') return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,388 @@
+package com.mycompany.capturatest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class EmployeeDirectory implements LogStore.Listener {
+    /* In-memory directory of the mechanics and crew members that report in the log
+     *
+     * - Autocomplete: a trie over the accent folded words of every name, so "her" suggests
+     *   "José Hernández". Every trie node keeps its best MAX_SUGGESTIONS people (most reports
+     *   first), so a suggestion is a walk down the prefix and a copy of that list.
+     * - Hash indexes for license -> person and name -> license.
+     *
+     * Loaded from a snapshot file on startup and updated as pages are saved, through
+     * LogStore.Listener. Reads and updates can come from different threads.
+     */
+    static final int MAX_SUGGESTIONS = 10;
+
+    private static final int SNAPSHOT_MAGIC = 0x454D5044; // "EMPD"
+    private static final Person[] NO_PEOPLE = new Person[0];
+    private static final Comparator<Person> RANKING = new Comparator<Person>() {
+        @Override
+        public int compare(Person a, Person b) {
+            // Most reports first, then alphabetically
+            if (a.reports != b.reports) return a.reports > b.reports ? -1 : 1;
+            return a.foldedName.compareTo(b.foldedName);
+        }
+    };
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Node root = new Node();
+    private final Map<String, Person> byLicense = new HashMap<>();
+    private final Map<String, Person> byName = new HashMap<>();
+    // Names shared by people with different licenses, they can't give a license back
+    private final Set<String> ambiguousNames = new HashSet<>();
+    private final List<Person> people = new ArrayList<>();
+
+    public static final class Person {
+        private final String name;
+        private final String foldedName;
+        private final String[] words;
+        private String license;
+        private boolean crew;
+        private int reports;
+
+        Person(String name, String license, boolean crew) {
+            this.name = name;
+            this.foldedName = TextFolding.foldWords(name);
+            this.words = splitWords(foldedName);
+            this.license = license;
+            this.crew = crew;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getLicense() {
+            return license;
+        }
+
+        public boolean isCrew() {
+            return crew;
+        }
+
+        public int getReports() {
+            return reports;
+        }
+    }
+
+    private static final class Node {
+        char[] labels = new char[0];
+        Node[] children = new Node[0];
+        Person[] top = NO_PEOPLE;
+        // People with a word that ends here
+        List<Person> people;
+
+        Node child(char label) {
+            int index = Arrays.binarySearch(labels, label);
+            return index >= 0 ? children[index] : null;
+        }
+
+        Node addChild(char label) {
+            int index = Arrays.binarySearch(labels, label);
+            if (index >= 0) return children[index];
+            index = -index - 1;
+            char[] newLabels = new char[labels.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(labels, 0, newLabels, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            newLabels[index] = label;
+            newChildren[index] = new Node();
+            System.arraycopy(labels, index, newLabels, index + 1, labels.length - index);
+            System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+            labels = newLabels;
+            children = newChildren;
+            return newChildren[index];
+        }
+
+        void rank(Person person) {
+            // Person's report count went up, move it up (or into) the top list
+            int current = -1;
+            for (int i = 0; i < top.length; i++) {
+                if (top[i] == person) {
+                    current = i;
+                    break;
+                }
+            }
+            if (current < 0) {
+                if (top.length == MAX_SUGGESTIONS
+                        && RANKING.compare(person, top[top.length - 1]) >= 0) return;
+                top = Arrays.copyOf(top, Math.min(top.length + 1, MAX_SUGGESTIONS));
+                current = top.length - 1;
+            }
+            while (current > 0 && RANKING.compare(person, top[current - 1]) < 0) {
+                top[current] = top[current - 1];
+                current--;
+            }
+            top[current] = person;
+        }
+    }
+
+    public void record(String name, String license, boolean crew) {
+        /* Adds a report by this person, creating them if they are new
+         *
+         * People are identified by license and, when there's none, by name. A license seen for
+         * the first time for a known unlicensed name completes that person.
+         */
+        if (name != null && name.trim().isEmpty()) name = null;
+        if (license != null && license.trim().isEmpty()) license = null;
+        if (name == null) return;
+        String folded = TextFolding.foldWords(name);
+        if (folded.isEmpty()) return;
+        lock.writeLock().lock();
+        try {
+            Person person = license != null ? byLicense.get(license) : null;
+            if (person == null) {
+                Person named = byName.get(folded);
+                if (named != null && (license == null || named.license == null)) person = named;
+            }
+            if (person == null) {
+                person = new Person(name, license, crew);
+                add(person);
+            } else if (license != null && person.license == null) {
+                person.license = license;
+                byLicense.put(license, person);
+            }
+            if (crew) person.crew = true;
+            person.reports++;
+            rankAll(person);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void record(LogItem.Employee employee) {
+        record(employee.getEmployeeName(), employee.getEmployeeLicense(), employee.isCrew());
+    }
+
+    public void record(LogItem item) {
+        if (item.isCanceled()) return;
+        if (!item.getDiscrepancy().isCanceled()) record(item.getDiscrepancy().getEmployee());
+        if (!item.getCorrectiveAction().isCanceled())
+            record(item.getCorrectiveAction().getEmployee());
+    }
+
+    @Override
+    public void onPageSaved(LogPage page) {
+        for (LogItem item : page.getItems()) record(item);
+    }
+
+    @Override
+    public void onPageDeleted(PageKey key) {
+        // People stay in the directory even if their reports are deleted
+    }
+
+    public List<Person> suggest(String prefix, int limit) {
+        /* Up to limit people whose name has words starting with every word of prefix
+         *
+         * Single word prefixes are answered from the trie node's top list. With more words the
+         * people having the complete words are filtered by the remaining ones.
+         */
+        String[] words = splitWords(TextFolding.foldWords(prefix));
+        if (words.length == 0 || limit <= 0) return Collections.emptyList();
+        lock.readLock().lock();
+        try {
+            if (words.length == 1) {
+                Node node = find(words[0]);
+                if (node == null) return Collections.emptyList();
+                List<Person> result = new ArrayList<>(Math.min(limit, node.top.length));
+                for (int i = 0; i < node.top.length && i < limit; i++) result.add(node.top[i]);
+                return result;
+            }
+
+            // Smallest list of people having one of the complete words
+            List<Person> candidates = null;
+            for (int i = 0; i < words.length - 1; i++) {
+                Node node = find(words[i]);
+                if (node == null || node.people == null) return Collections.emptyList();
+                if (candidates == null || node.people.size() < candidates.size())
+                    candidates = node.people;
+            }
+            // Keeps the best limit matches sorted, without sorting every match
+            Person[] best = new Person[Math.min(limit, candidates.size())];
+            int count = 0;
+            for (Person person : candidates) {
+                if (!matchesAll(person, words)) continue;
+                if (count == best.length) {
+                    if (RANKING.compare(person, best[count - 1]) >= 0) continue;
+                    count--;
+                }
+                int i = count++;
+                while (i > 0 && RANKING.compare(person, best[i - 1]) < 0) {
+                    best[i] = best[i - 1];
+                    i--;
+                }
+                best[i] = person;
+            }
+            return new ArrayList<>(Arrays.asList(best).subList(0, count));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Person findByLicense(String license) {
+        if (license == null) return null;
+        lock.readLock().lock();
+        try {
+            return byLicense.get(license);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public String nameFor(String license) {
+        Person person = findByLicense(license);
+        return person == null ? null : person.name;
+    }
+
+    public String licenseFor(String name) {
+        // Null if unknown, or if several people share the name
+        if (name == null) return null;
+        String folded = TextFolding.foldWords(name);
+        lock.readLock().lock();
+        try {
+            if (ambiguousNames.contains(folded)) return null;
+            Person person = byName.get(folded);
+            return person == null ? null : person.license;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return people.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void save(File file) throws IOException {
+        // Writes a snapshot, replacing the old one only once the new one is complete
+        BinaryOutput out;
+        lock.readLock().lock();
+        try {
+            out = new BinaryOutput(people.size() * 32 + 16);
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeVarInt(people.size());
+            for (Person person : people) {
+                out.writeString(person.name);
+                out.writeByte((person.license != null ? 1 : 0) | (person.crew ? 2 : 0));
+                if (person.license != null) out.writeString(person.license);
+                out.writeVarInt(person.reports);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            out.writeTo(stream);
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        if (!temp.renameTo(file)) throw new IOException("Can't replace " + file);
+    }
+
+    static EmployeeDirectory load(File file) throws IOException {
+        // An empty directory if there's no snapshot yet
+        EmployeeDirectory directory = new EmployeeDirectory();
+        if (!file.isFile()) return directory;
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        byte[] bytes;
+        try {
+            bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+        BinaryInput input = new BinaryInput(bytes);
+        if (input.readInt() != SNAPSHOT_MAGIC) throw new IOException("Not a directory snapshot");
+        int count = input.readVarInt();
+        Person[] loaded = new Person[count];
+        for (int i = 0; i < count; i++) {
+            String name = input.readString();
+            int flags = input.readByte();
+            Person person = new Person(name, (flags & 1) != 0 ? input.readString() : null,
+                    (flags & 2) != 0);
+            person.reports = input.readVarInt();
+            loaded[i] = person;
+        }
+        // Adding them best first fills the top lists without reordering
+        Arrays.sort(loaded, RANKING);
+        for (Person person : loaded) {
+            directory.add(person);
+            directory.rankAll(person);
+        }
+        return directory;
+    }
+
+    private void add(Person person) {
+        // Called with the write lock held
+        people.add(person);
+        if (person.license != null) byLicense.put(person.license, person);
+        Person named = byName.get(person.foldedName);
+        if (named == null) byName.put(person.foldedName, person);
+        else ambiguousNames.add(person.foldedName);
+        for (String word : person.words) {
+            Node node = root;
+            for (int i = 0; i < word.length(); i++) node = node.addChild(word.charAt(i));
+            if (node.people == null) node.people = new ArrayList<>(1);
+            if (!node.people.contains(person)) node.people.add(person);
+        }
+    }
+
+    private void rankAll(Person person) {
+        // Updates the top lists of every prefix of every word of the name
+        for (String word : person.words) {
+            Node node = root;
+            for (int i = 0; i < word.length(); i++) {
+                node = node.child(word.charAt(i));
+                node.rank(person);
+            }
+        }
+    }
+
+    private Node find(String prefix) {
+        Node node = root;
+        for (int i = 0; i < prefix.length() && node != null; i++)
+            node = node.child(prefix.charAt(i));
+        return node;
+    }
+
+    private static boolean matchesAll(Person person, String[] words) {
+        for (int i = 0; i < words.length; i++) {
+            boolean found = false;
+            for (String name : person.words) {
+                // Every word but the last one has to be complete
+                if (i < words.length - 1 ? name.equals(words[i]) : name.startsWith(words[i])) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) return false;
+        }
+        return true;
+    }
+
+    private static String[] splitWords(String folded) {
+        return folded.isEmpty() ? new String[0] : folded.split(" ");
+    }
+}
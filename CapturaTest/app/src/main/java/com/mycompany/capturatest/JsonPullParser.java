@@ -0,0 +1,324 @@
+package com.mycompany.capturatest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+final class JsonPullParser implements Closeable {
+    /* Small pull parser for JSON streams, modeled after android.util.JsonReader
+     *
+     * Reads tokens one at a time through a fixed size buffer, so memory use doesn't depend on
+     * the size of the document. Names and strings are only decoded when asked for, skipValue()
+     * walks over them without building anything. Several top level values may follow each
+     * other, which is how JSON lines files are read.
+     *
+     * Pure Java so it can run in JVM unit tests, android.util.JsonReader is a stub there.
+     */
+    enum Token {
+        BEGIN_ARRAY, END_ARRAY, BEGIN_OBJECT, END_OBJECT, NAME, STRING, NUMBER, BOOLEAN, NULL,
+        END_DOCUMENT
+    }
+
+    // Scopes of the values being read
+    private static final int DOCUMENT = 0;
+    private static final int EMPTY_ARRAY = 1;
+    private static final int NONEMPTY_ARRAY = 2;
+    private static final int EMPTY_OBJECT = 3;
+    private static final int DANGLING_NAME = 4;
+    private static final int NONEMPTY_OBJECT = 5;
+
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private int pos;
+    private int limit;
+    private long offset;
+
+    private int[] stack = new int[16];
+    private int stackSize;
+    private Token peeked;
+    private final StringBuilder scratch = new StringBuilder();
+
+    JsonPullParser(Reader in) {
+        this.in = in;
+        stack[stackSize++] = DOCUMENT;
+    }
+
+    Token peek() throws IOException {
+        if (peeked != null) return peeked;
+        int scope = stack[stackSize - 1];
+        int c;
+        switch (scope) {
+            case EMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') return peeked = Token.END_ARRAY;
+                stack[stackSize - 1] = NONEMPTY_ARRAY;
+                return peeked = valueToken(c);
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') return peeked = Token.END_ARRAY;
+                if (c != ',') throw syntaxError("Expected ',' or ']'");
+                return peeked = valueToken(nextNonWhitespace());
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = nextNonWhitespace();
+                if (c == '}') return peeked = Token.END_OBJECT;
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',') throw syntaxError("Expected ',' or '}'");
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') throw syntaxError("Expected name");
+                stack[stackSize - 1] = DANGLING_NAME;
+                return peeked = Token.NAME;
+            case DANGLING_NAME:
+                if (nextNonWhitespace() != ':') throw syntaxError("Expected ':'");
+                stack[stackSize - 1] = NONEMPTY_OBJECT;
+                return peeked = valueToken(nextNonWhitespace());
+            default:
+                c = nextNonWhitespace();
+                if (c == -1) return peeked = Token.END_DOCUMENT;
+                return peeked = valueToken(c);
+        }
+    }
+
+    void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        stackSize--;
+    }
+
+    void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        stackSize--;
+    }
+
+    boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY
+                && token != Token.END_DOCUMENT;
+    }
+
+    String nextName() throws IOException {
+        expect(Token.NAME);
+        return readString();
+    }
+
+    String nextString() throws IOException {
+        Token token = peek();
+        peeked = null;
+        if (token == Token.STRING) return readString();
+        if (token == Token.NUMBER) return readLiteral();
+        throw syntaxError("Expected a string but was " + token);
+    }
+
+    String nextStringOrNull() throws IOException {
+        if (peek() == Token.NULL) {
+            nextNull();
+            return null;
+        }
+        return nextString();
+    }
+
+    boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        String literal = readLiteral();
+        if (literal.equals("true")) return true;
+        if (literal.equals("false")) return false;
+        throw syntaxError("Expected a boolean but was " + literal);
+    }
+
+    void nextNull() throws IOException {
+        expect(Token.NULL);
+        if (!readLiteral().equals("null")) throw syntaxError("Expected null");
+    }
+
+    void skipValue() throws IOException {
+        // Skips the next value, including everything nested in it
+        int depth = 0;
+        do {
+            Token token = peek();
+            peeked = null;
+            switch (token) {
+                case BEGIN_ARRAY:
+                    push(EMPTY_ARRAY);
+                    depth++;
+                    break;
+                case BEGIN_OBJECT:
+                    push(EMPTY_OBJECT);
+                    depth++;
+                    break;
+                case END_ARRAY:
+                case END_OBJECT:
+                    stackSize--;
+                    depth--;
+                    break;
+                case NAME:
+                case STRING:
+                    skipString();
+                    break;
+                case END_DOCUMENT:
+                    throw syntaxError("Unexpected end of document");
+                default:
+                    skipLiteral();
+            }
+        } while (depth > 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) throw syntaxError("Expected " + expected + " but was " + token);
+        peeked = null;
+    }
+
+    private void push(int scope) {
+        if (stackSize == stack.length) {
+            int[] grown = new int[stackSize * 2];
+            System.arraycopy(stack, 0, grown, 0, stackSize);
+            stack = grown;
+        }
+        stack[stackSize++] = scope;
+    }
+
+    private Token valueToken(int c) throws IOException {
+        switch (c) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '"':
+                return Token.STRING;
+            case 't':
+            case 'f':
+                pos--;
+                return Token.BOOLEAN;
+            case 'n':
+                pos--;
+                return Token.NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    pos--;
+                    return Token.NUMBER;
+                }
+                throw syntaxError("Unexpected character");
+        }
+    }
+
+    private int read() throws IOException {
+        if (pos == limit && !fill()) return -1;
+        return buffer[pos++];
+    }
+
+    private boolean fill() throws IOException {
+        offset += limit;
+        pos = 0;
+        limit = 0;
+        int read = in.read(buffer, 0, buffer.length);
+        if (read <= 0) return false;
+        limit = read;
+        return true;
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c == ' ' || c == '\n' || c == '\r' || c == '\t');
+        return c;
+    }
+
+    private String readString() throws IOException {
+        // The opening quote was consumed by peek()
+        scratch.setLength(0);
+        while (true) {
+            if (pos == limit && !fill()) throw syntaxError("Unterminated string");
+            // Copy runs without escapes in one go
+            int start = pos;
+            while (pos < limit) {
+                char c = buffer[pos];
+                if (c == '"' || c == '\\') break;
+                pos++;
+            }
+            scratch.append(buffer, start, pos - start);
+            if (pos == limit) continue;
+            if (buffer[pos++] == '"') return scratch.toString();
+            scratch.append(readEscape());
+        }
+    }
+
+    private void skipString() throws IOException {
+        while (true) {
+            int c = read();
+            if (c == -1) throw syntaxError("Unterminated string");
+            if (c == '"') return;
+            if (c == '\\') readEscape();
+        }
+    }
+
+    private char readEscape() throws IOException {
+        int c = read();
+        switch (c) {
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) throw syntaxError("Invalid unicode escape");
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            default:
+                throw syntaxError("Invalid escape sequence");
+        }
+    }
+
+    private String readLiteral() throws IOException {
+        scratch.setLength(0);
+        int c;
+        while ((c = read()) != -1 && isLiteral(c)) scratch.append((char) c);
+        if (c != -1) pos--;
+        return scratch.toString();
+    }
+
+    private void skipLiteral() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c != -1 && isLiteral(c));
+        if (c != -1) pos--;
+    }
+
+    private static boolean isLiteral(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '+'
+                || c == '.' || c == 'E';
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException(message + " at character " + (offset + pos));
+    }
+}
@@ -6,15 +6,39 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.List;
 
-public class LogAdapter extends RecyclerView.Adapter<LogAdapter.ItemViewHolder> {
-    private List<LogItem> logItems;
+public class LogAdapter extends ListAdapter<LogRow, LogAdapter.ItemViewHolder> {
+    /* Shows LogRow snapshots, submitted with submitList()
+     *
+     * ListAdapter diffs each new snapshot against the current one on a background thread and
+     * dispatches the changes. A changed row gets LogRow.changesFrom() as payload, so only the
+     * TextViews whose text changed are bound again.
+     */
+    private static final DiffUtil.ItemCallback<LogRow> DIFF = new DiffUtil.ItemCallback<LogRow>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull LogRow oldRow, @NonNull LogRow newRow) {
+            return oldRow.getId() == newRow.getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull LogRow oldRow, @NonNull LogRow newRow) {
+            return oldRow.equals(newRow);
+        }
 
-    LogAdapter(List<LogItem> logItems) {
-        this.logItems = logItems;
+        @Override
+        public Object getChangePayload(@NonNull LogRow oldRow, @NonNull LogRow newRow) {
+            return newRow.changesFrom(oldRow);
+        }
+    };
+
+    LogAdapter() {
+        super(DIFF);
+        setHasStableIds(true);
     }
 
     @NonNull
@@ -27,28 +51,29 @@ public class LogAdapter extends RecyclerView.Adapter<LogAdapter.ItemViewHolder>
 
     @Override
     public void onBindViewHolder(@NonNull ItemViewHolder holder, int position) {
-        holder.itemNo.setText(String.valueOf(logItems.get(position).getLogItemNumber()));
-        if (logItems.get(position).getDiscrepancy().getDescription() != null)
-            holder.discrepancy.setText(logItems.get(position).getDiscrepancy().getDescription());
-        else
-            holder.discrepancy.setText(R.string.blank_item);
-        if (logItems.get(position).getCorrectiveAction().getDescription() != null)
-            holder.correctiveAction.setText(logItems.get(position).getCorrectiveAction().getDescription());
-        else
-            holder.correctiveAction.setText(R.string.blank_item);
+        holder.bind(getItem(position), LogRow.CHANGED_NUMBER | LogRow.CHANGED_DISCREPANCY
+                | LogRow.CHANGED_CORRECTIVE_ACTION);
     }
 
     @Override
-    public int getItemCount() {
-        return logItems.size();
+    public void onBindViewHolder(@NonNull ItemViewHolder holder, int position,
+                                 @NonNull List<Object> payloads) {
+        // No payloads means a full bind, several can pile up before the row is bound
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        int changes = 0;
+        for (Object payload : payloads) changes |= (Integer) payload;
+        holder.bind(getItem(position), changes);
     }
 
     @Override
-    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
-        super.onAttachedToRecyclerView(recyclerView);
+    public long getItemId(int position) {
+        return getItem(position).getId();
     }
 
-    public class ItemViewHolder extends RecyclerView.ViewHolder {
+    public static class ItemViewHolder extends RecyclerView.ViewHolder {
         TextView itemNo;
         TextView discrepancy;
         TextView correctiveAction;
@@ -59,5 +84,25 @@ public class LogAdapter extends RecyclerView.Adapter<LogAdapter.ItemViewHolder>
             discrepancy = itemView.findViewById(R.id.discrepancy);
             correctiveAction = itemView.findViewById(R.id.corrAction);
         }
+
+        void bind(LogRow row, int changes) {
+            if ((changes & LogRow.CHANGED_NUMBER) != 0) itemNo.setText(row.getItemNumber());
+            if ((changes & LogRow.CHANGED_DISCREPANCY) != 0)
+                setTextOrBlank(discrepancy, row.getDiscrepancy());
+            if ((changes & LogRow.CHANGED_CORRECTIVE_ACTION) != 0)
+                setTextOrBlank(correctiveAction, row.getCorrectiveAction());
+        }
+
+        void bindPlaceholder() {
+            // Still loading
+            itemNo.setText(null);
+            discrepancy.setText(R.string.blank_item);
+            correctiveAction.setText(R.string.blank_item);
+        }
+
+        private void setTextOrBlank(TextView view, String text) {
+            if (text != null) view.setText(text);
+            else view.setText(R.string.blank_item);
+        }
     }
 }
@@ -0,0 +1,434 @@
+package com.mycompany.capturatest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+final class LogColumns {
+    /* Column store of LogItems for bulk analysis
+     *
+     * Each field of every entry is kept in its own array, indexed by row, instead of one small
+     * object graph per entry:
+     *   - repeated strings (aircraft, folio, stations, ATA chapters, names, licenses, flight
+     *     numbers, MEL references, part numbers) as int codes into one dictionary, -1 for null
+     *   - dates as long millis, NO_DATE for null
+     *   - booleans as one BitSet per flag
+     *   - descriptions, operation logs and serial numbers as offset and length into one shared
+     *     char buffer, length -1 for null
+     *   - component changes as a range of rows of their own columns, starting at changeStart
+     *
+     * Scans and filters are plain loops over one primitive array and return the matching rows
+     * as a BitSet, so they can be combined with and(), or() and andNot(). Whole LogItems are
+     * only built by item(row), when an entry has to be shown or edited.
+     *
+     * Rows come from the JSON export read with LogItemJsonReader, one item at a time, or are
+     * added from pages. Not thread safe, load first and then share it read only.
+     */
+    // Dictionary encoded columns
+    static final int AIRCRAFT = 0;
+    static final int FOLIO = 1;
+    static final int DISCREPANCY_STATION = 2;
+    static final int DISCREPANCY_ATA = 3;
+    static final int DISCREPANCY_NAME = 4;
+    static final int DISCREPANCY_LICENSE = 5;
+    static final int FLIGHT_NUMBER = 6;
+    static final int ACTION_STATION = 7;
+    static final int ACTION_ATA = 8;
+    static final int ACTION_NAME = 9;
+    static final int ACTION_LICENSE = 10;
+    static final int DEFERRAL_BASIS = 11;
+    private static final int CODE_COLUMNS = 12;
+
+    // Date columns
+    static final int DISCREPANCY_DATE = 0;
+    static final int ACTION_DATE = 1;
+    private static final int DATE_COLUMNS = 2;
+
+    // Text columns
+    static final int DISCREPANCY_DESCRIPTION = 0;
+    static final int ACTION_DESCRIPTION = 1;
+    static final int OPERATION_LOG = 2;
+    private static final int TEXT_COLUMNS = 3;
+
+    // Flags
+    static final int CANCELED = 0;
+    static final int DISCREPANCY_CANCELED = 1;
+    static final int ACTION_CANCELED = 2;
+    static final int DEFERRED = 3;
+    static final int DISCREPANCY_CREW = 4;
+    static final int ACTION_CREW = 5;
+    private static final int FLAGS = 6;
+
+    static final long NO_DATE = Long.MIN_VALUE;
+    private static final int NO_CODE = -1;
+
+    // Component change flags
+    private static final byte INSTALLED = 1;
+    private static final byte REMOVED = 1 << 1;
+
+    // Dictionary shared by every code column
+    private final List<String> values = new ArrayList<>();
+    private final Map<String, Integer> codes = new HashMap<>();
+
+    private int rows;
+    private int[] itemNumbers = new int[0];
+    private final int[][] codeColumns = new int[CODE_COLUMNS][0];
+    private final long[][] dateColumns = new long[DATE_COLUMNS][0];
+    private final int[][] textStarts = new int[TEXT_COLUMNS][0];
+    private final int[][] textLengths = new int[TEXT_COLUMNS][0];
+    private final BitSet[] flags = new BitSet[FLAGS];
+
+    // Component changes of row r are changes changeStart[r] to changeStart[r + 1]
+    private int[] changeStart = new int[1];
+    private int changes;
+    private byte[] changeFlags = new byte[0];
+    private int[] installedParts = new int[0];
+    private int[] removedParts = new int[0];
+    private int[] installedSerialStarts = new int[0];
+    private int[] installedSerialLengths = new int[0];
+    private int[] removedSerialStarts = new int[0];
+    private int[] removedSerialLengths = new int[0];
+
+    private char[] chars = new char[4096];
+    private int charsUsed;
+
+    LogColumns() {
+        for (int i = 0; i < FLAGS; i++) flags[i] = new BitSet();
+    }
+
+    int size() {
+        return rows;
+    }
+
+    int addJson(String aircraft, InputStream in) throws IOException {
+        return addJson(aircraft, new LogItemJsonReader(in));
+    }
+
+    int addJson(String aircraft, Reader in) throws IOException {
+        return addJson(aircraft, new LogItemJsonReader(in));
+    }
+
+    private int addJson(String aircraft, LogItemJsonReader reader) throws IOException {
+        // The export doesn't have folios, rows read from it have none
+        int added = 0;
+        try {
+            while (reader.hasNext()) {
+                add(aircraft, null, reader.next());
+                added++;
+            }
+        } finally {
+            reader.close();
+        }
+        return added;
+    }
+
+    void add(LogPage page) {
+        for (LogItem item : page.getItems())
+            add(page.getKey().getAircraft(), page.getKey().getFolio(), item);
+    }
+
+    void add(String aircraft, String folio, LogItem item) {
+        ensureRows(rows + 1);
+        int row = rows;
+        itemNumbers[row] = item.getLogItemNumber();
+        codeColumns[AIRCRAFT][row] = encode(aircraft);
+        codeColumns[FOLIO][row] = encode(folio);
+        flags[CANCELED].set(row, item.isCanceled());
+
+        LogItem.Discrepancy discrepancy = item.getDiscrepancy();
+        addBase(row, discrepancy, DISCREPANCY_STATION, DISCREPANCY_ATA, DISCREPANCY_NAME,
+                DISCREPANCY_LICENSE, DISCREPANCY_DATE, DISCREPANCY_DESCRIPTION,
+                DISCREPANCY_CANCELED, DISCREPANCY_CREW);
+        codeColumns[FLIGHT_NUMBER][row] = encode(discrepancy.getFlightNumber());
+        putText(textStarts[OPERATION_LOG], textLengths[OPERATION_LOG], row,
+                discrepancy.getOperationLog());
+
+        LogItem.CorrectiveAction correctiveAction = item.getCorrectiveAction();
+        addBase(row, correctiveAction, ACTION_STATION, ACTION_ATA, ACTION_NAME, ACTION_LICENSE,
+                ACTION_DATE, ACTION_DESCRIPTION, ACTION_CANCELED, ACTION_CREW);
+        flags[DEFERRED].set(row, correctiveAction.isDeferred());
+        codeColumns[DEFERRAL_BASIS][row] = encode(correctiveAction.getDeferralBasis());
+
+        List<LogItem.ComponentsChanged.ComponentChange> rowChanges =
+                item.getComponentsChanged().getComponentChanges();
+        ensureChanges(changes + rowChanges.size());
+        for (LogItem.ComponentsChanged.ComponentChange change : rowChanges) {
+            changeFlags[changes] = (byte) ((change.isComponentInstalled() ? INSTALLED : 0)
+                    | (change.isComponentRemoved() ? REMOVED : 0));
+            installedParts[changes] = encode(change.getInstalledPartNumber());
+            removedParts[changes] = encode(change.getRemovedPartNumber());
+            putText(installedSerialStarts, installedSerialLengths, changes,
+                    change.getInstalledSerialNumber());
+            putText(removedSerialStarts, removedSerialLengths, changes,
+                    change.getRemovedSerialNumber());
+            changes++;
+        }
+        changeStart[row + 1] = changes;
+        rows++;
+    }
+
+    private void addBase(int row, LogItem.BaseLogItem base, int station, int ata, int name,
+                         int license, int date, int description, int canceled, int crew) {
+        codeColumns[station][row] = encode(base.getStation());
+        codeColumns[ata][row] = encode(base.getAtaChapter());
+        LogItem.Employee employee = base.getEmployee();
+        codeColumns[name][row] = encode(employee.getEmployeeName());
+        codeColumns[license][row] = encode(employee.getEmployeeLicense());
+        Date value = base.getDate();
+        dateColumns[date][row] = value == null ? NO_DATE : value.getTime();
+        putText(textStarts[description], textLengths[description], row, base.getDescription());
+        flags[canceled].set(row, base.isCanceled());
+        flags[crew].set(row, employee.isCrew());
+    }
+
+    int codeOf(String value) {
+        // NO_CODE (-1) if no row has the value
+        Integer code = value == null ? null : codes.get(value);
+        return code == null ? NO_CODE : code;
+    }
+
+    String valueOf(int code) {
+        return code == NO_CODE ? null : values.get(code);
+    }
+
+    int codeCount() {
+        return values.size();
+    }
+
+    String get(int column, int row) {
+        checkRow(row);
+        return valueOf(codeColumns[column][row]);
+    }
+
+    int getCode(int column, int row) {
+        checkRow(row);
+        return codeColumns[column][row];
+    }
+
+    long getDate(int column, int row) {
+        checkRow(row);
+        return dateColumns[column][row];
+    }
+
+    String getText(int column, int row) {
+        checkRow(row);
+        return text(textStarts[column][row], textLengths[column][row]);
+    }
+
+    boolean is(int flag, int row) {
+        checkRow(row);
+        return flags[flag].get(row);
+    }
+
+    int getLogItemNumber(int row) {
+        checkRow(row);
+        return itemNumbers[row];
+    }
+
+    BitSet all() {
+        BitSet result = new BitSet(rows);
+        result.set(0, rows);
+        return result;
+    }
+
+    BitSet flagged(int flag) {
+        // A copy, callers combine it with other filters
+        return (BitSet) flags[flag].clone();
+    }
+
+    BitSet equal(int column, String value) {
+        BitSet result = new BitSet(rows);
+        int code = codeOf(value);
+        if (code == NO_CODE && value != null) return result;
+        int[] columnCodes = codeColumns[column];
+        for (int row = 0; row < rows; row++) {
+            if (columnCodes[row] == code) result.set(row);
+        }
+        return result;
+    }
+
+    BitSet between(int column, long from, long to) {
+        // Rows dated from (inclusive) to to (exclusive), rows without a date never match
+        BitSet result = new BitSet(rows);
+        long[] dates = dateColumns[column];
+        for (int row = 0; row < rows; row++) {
+            long date = dates[row];
+            if (date >= from && date < to && date != NO_DATE) result.set(row);
+        }
+        return result;
+    }
+
+    BitSet containing(int column, String text) {
+        // Case and accent insensitive substring match on the shared char buffer
+        BitSet result = new BitSet(rows);
+        char[] needle = foldedChars(text);
+        if (needle.length == 0) return result;
+        int[] starts = textStarts[column];
+        int[] lengths = textLengths[column];
+        for (int row = 0; row < rows; row++) {
+            if (contains(starts[row], lengths[row], needle)) result.set(row);
+        }
+        return result;
+    }
+
+    int[] count(int column, BitSet selected) {
+        // Number of selected rows by code of the column, indexed by code
+        int[] counts = new int[values.size()];
+        int[] codeColumn = codeColumns[column];
+        for (int row = selected.nextSetBit(0); row >= 0 && row < rows;
+             row = selected.nextSetBit(row + 1)) {
+            int code = codeColumn[row];
+            if (code != NO_CODE) counts[code]++;
+        }
+        return counts;
+    }
+
+    LogItem item(int row) {
+        // Builds the entry back from its columns
+        checkRow(row);
+        LogItem item = new LogItem(itemNumbers[row]);
+        LogItem.Discrepancy discrepancy = item.getDiscrepancy();
+        fillBase(row, discrepancy, DISCREPANCY_STATION, DISCREPANCY_ATA, DISCREPANCY_NAME,
+                DISCREPANCY_LICENSE, DISCREPANCY_DATE, DISCREPANCY_DESCRIPTION,
+                DISCREPANCY_CANCELED, DISCREPANCY_CREW);
+        discrepancy.setFlightNumber(get(FLIGHT_NUMBER, row));
+        discrepancy.setOperationLog(getText(OPERATION_LOG, row));
+
+        LogItem.CorrectiveAction correctiveAction = item.getCorrectiveAction();
+        fillBase(row, correctiveAction, ACTION_STATION, ACTION_ATA, ACTION_NAME, ACTION_LICENSE,
+                ACTION_DATE, ACTION_DESCRIPTION, ACTION_CANCELED, ACTION_CREW);
+        correctiveAction.setDeferred(flags[DEFERRED].get(row));
+        correctiveAction.setDeferralBasis(get(DEFERRAL_BASIS, row));
+
+        for (int i = changeStart[row]; i < changeStart[row + 1]; i++) {
+            LogItem.ComponentsChanged.ComponentChange change =
+                    item.getComponentsChanged().addComponentChange();
+            // The part numbers can only be set once the component is marked as installed/removed
+            change.setComponentInstalled((changeFlags[i] & INSTALLED) != 0);
+            change.setComponentRemoved((changeFlags[i] & REMOVED) != 0);
+            change.setInstalledPartNumber(valueOf(installedParts[i]));
+            change.setInstalledSerialNumber(text(installedSerialStarts[i],
+                    installedSerialLengths[i]));
+            change.setRemovedPartNumber(valueOf(removedParts[i]));
+            change.setRemovedSerialNumber(text(removedSerialStarts[i], removedSerialLengths[i]));
+        }
+        item.setCanceled(flags[CANCELED].get(row));
+        return item;
+    }
+
+    private void fillBase(int row, LogItem.BaseLogItem base, int station, int ata, int name,
+                          int license, int date, int description, int canceled, int crew) {
+        base.setStation(get(station, row));
+        base.setAtaChapter(get(ata, row));
+        long millis = dateColumns[date][row];
+        base.setDate(millis == NO_DATE ? null : new Date(millis));
+        base.setDescription(getText(description, row));
+        LogItem.Employee employee = base.getEmployee();
+        employee.setEmployeeName(get(name, row));
+        employee.setEmployeeLicense(get(license, row));
+        employee.setCrew(flags[crew].get(row));
+        base.setCanceled(flags[canceled].get(row));
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= rows) throw new IndexOutOfBoundsException("Row " + row);
+    }
+
+    private int encode(String value) {
+        if (value == null) return NO_CODE;
+        Integer code = codes.get(value);
+        if (code == null) {
+            code = values.size();
+            codes.put(value, code);
+            values.add(value);
+        }
+        return code;
+    }
+
+    private void putText(int[] starts, int[] lengths, int index, String value) {
+        if (value == null) {
+            starts[index] = 0;
+            lengths[index] = -1;
+            return;
+        }
+        if (charsUsed + value.length() > chars.length)
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charsUsed + value.length()));
+        value.getChars(0, value.length(), chars, charsUsed);
+        starts[index] = charsUsed;
+        lengths[index] = value.length();
+        charsUsed += value.length();
+    }
+
+    private String text(int start, int length) {
+        return length < 0 ? null : new String(chars, start, length);
+    }
+
+    private static char[] foldedChars(String text) {
+        StringBuilder folded = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!TextFolding.isMark(c)) folded.append(TextFolding.fold(c));
+        }
+        char[] result = new char[folded.length()];
+        folded.getChars(0, folded.length(), result, 0);
+        return result;
+    }
+
+    private boolean contains(int start, int length, char[] needle) {
+        // Naive search, descriptions are a line or two
+        int last = start + length - needle.length;
+        for (int i = start; i <= last; i++) {
+            int j = 0;
+            while (j < needle.length && TextFolding.fold(chars[i + j]) == needle[j]) j++;
+            if (j == needle.length) return true;
+        }
+        return false;
+    }
+
+    void trimToSize() {
+        // Drops the room left for more rows, once everything is loaded
+        chars = Arrays.copyOf(chars, charsUsed);
+        resizeRows(rows);
+        resizeChanges(changes);
+    }
+
+    private void ensureRows(int capacity) {
+        if (capacity <= itemNumbers.length) return;
+        resizeRows(Math.max(capacity, Math.max(16, itemNumbers.length * 2)));
+    }
+
+    private void resizeRows(int size) {
+        itemNumbers = Arrays.copyOf(itemNumbers, size);
+        for (int i = 0; i < CODE_COLUMNS; i++)
+            codeColumns[i] = Arrays.copyOf(codeColumns[i], size);
+        for (int i = 0; i < DATE_COLUMNS; i++)
+            dateColumns[i] = Arrays.copyOf(dateColumns[i], size);
+        for (int i = 0; i < TEXT_COLUMNS; i++) {
+            textStarts[i] = Arrays.copyOf(textStarts[i], size);
+            textLengths[i] = Arrays.copyOf(textLengths[i], size);
+        }
+        changeStart = Arrays.copyOf(changeStart, size + 1);
+    }
+
+    private void ensureChanges(int capacity) {
+        if (capacity <= changeFlags.length) return;
+        resizeChanges(Math.max(capacity, Math.max(16, changeFlags.length * 2)));
+    }
+
+    private void resizeChanges(int size) {
+        changeFlags = Arrays.copyOf(changeFlags, size);
+        installedParts = Arrays.copyOf(installedParts, size);
+        removedParts = Arrays.copyOf(removedParts, size);
+        installedSerialStarts = Arrays.copyOf(installedSerialStarts, size);
+        installedSerialLengths = Arrays.copyOf(installedSerialLengths, size);
+        removedSerialStarts = Arrays.copyOf(removedSerialStarts, size);
+        removedSerialLengths = Arrays.copyOf(removedSerialLengths, size);
+    }
+}
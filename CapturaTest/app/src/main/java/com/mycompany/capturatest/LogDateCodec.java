@@ -0,0 +1,165 @@
+package com.mycompany.capturatest;
+
+import java.text.ParseException;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+final class LogDateCodec {
+    /* Formats and parses the dd/MM/yyyy date field of log items
+     *
+     * Replaces creating a SimpleDateFormat for every serialized date. Dates are converted with
+     * plain arithmetic on the day number, and the formatted strings are kept in a small direct
+     * mapped cache indexed by day, since most entries of an export share a handful of dates.
+     * A cache hit doesn't allocate anything.
+     *
+     * Immutable apart from the cache, whose entries are immutable, so one instance can be shared
+     * by any number of threads without locking.
+     *
+     * Uses the proleptic Gregorian calendar, which only differs from SimpleDateFormat for dates
+     * before 1582.
+     */
+    // A missing date where dates are kept as millis
+    static final long NO_DATE = Long.MIN_VALUE;
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    // Must be a power of two, ~11 years worth of distinct days
+    private static final int CACHE_SIZE = 4096;
+
+    private static volatile LogDateCodec sDefault = new LogDateCodec(TimeZone.getDefault());
+
+    private final TimeZone timeZone;
+    private final AtomicReferenceArray<Entry> cache = new AtomicReferenceArray<>(CACHE_SIZE);
+
+    private static final class Entry {
+        final long day;
+        final String text;
+
+        Entry(long day, String text) {
+            this.day = day;
+            this.text = text;
+        }
+    }
+
+    LogDateCodec(TimeZone timeZone) {
+        // TimeZone isn't thread safe to modify, keep our own copy
+        this.timeZone = (TimeZone) timeZone.clone();
+    }
+
+    static LogDateCodec getDefault() {
+        return sDefault;
+    }
+
+    static void refreshDefault() {
+        // Call when the device time zone changes, the default codec keeps the zone it started with
+        sDefault = new LogDateCodec(TimeZone.getDefault());
+    }
+
+    static long millisOf(Date date) {
+        return date == null ? NO_DATE : date.getTime();
+    }
+
+    static Date dateOf(long millis) {
+        return millis == NO_DATE ? null : new Date(millis);
+    }
+
+    String format(Date date) {
+        return format(date.getTime());
+    }
+
+    String format(long millis) {
+        long day = floorDiv(millis + timeZone.getOffset(millis), MILLIS_PER_DAY);
+        int slot = (int) day & (CACHE_SIZE - 1);
+        Entry entry = cache.get(slot);
+        if (entry != null && entry.day == day) return entry.text;
+        String text = formatDay(day);
+        cache.set(slot, new Entry(day, text));
+        return text;
+    }
+
+    Date parse(String text) throws ParseException {
+        return new Date(parseMillis(text));
+    }
+
+    long parseMillis(CharSequence text) throws ParseException {
+        // Accepts d/M/yyyy as well as dd/MM/yyyy, like the lenient SimpleDateFormat did
+        int length = text.length();
+        int dayOfMonth = 0;
+        int month = 0;
+        int year = 0;
+        int field = 0;
+        int digits = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++digits > (field == 2 ? 4 : 2)) throw new ParseException(text.toString(), i);
+                if (field == 0) dayOfMonth = dayOfMonth * 10 + (c - '0');
+                else if (field == 1) month = month * 10 + (c - '0');
+                else year = year * 10 + (c - '0');
+            } else if (c == '/' && field < 2 && digits > 0) {
+                field++;
+                digits = 0;
+            } else {
+                throw new ParseException(text.toString(), i);
+            }
+        }
+        if (field != 2 || digits == 0) throw new ParseException(text.toString(), length);
+        if (month < 1 || month > 12 || dayOfMonth < 1 || dayOfMonth > daysInMonth(year, month))
+            throw new ParseException(text.toString(), 0);
+
+        // Local midnight, moved back to UTC with the offset in effect at that moment
+        long local = daysFromCivil(year, month, dayOfMonth) * MILLIS_PER_DAY;
+        return local - timeZone.getOffset(local - timeZone.getRawOffset());
+    }
+
+    private static String formatDay(long day) {
+        // Converts a day number (days since 1970-01-01) to dd/MM/yyyy
+        long z = day + 719468;
+        long era = floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int dayOfMonth = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        char[] chars = new char[10];
+        chars[0] = (char) ('0' + dayOfMonth / 10);
+        chars[1] = (char) ('0' + dayOfMonth % 10);
+        chars[2] = '/';
+        chars[3] = (char) ('0' + month / 10);
+        chars[4] = (char) ('0' + month % 10);
+        chars[5] = '/';
+        if (year < 0 || year > 9999) return new String(chars, 0, 6) + year;
+        int y = (int) year;
+        chars[6] = (char) ('0' + y / 1000);
+        chars[7] = (char) ('0' + y / 100 % 10);
+        chars[8] = (char) ('0' + y / 10 % 10);
+        chars[9] = (char) ('0' + y % 10);
+        return new String(chars);
+    }
+
+    private static long daysFromCivil(int year, int month, int dayOfMonth) {
+        // Inverse of formatDay, days since 1970-01-01
+        long y = month <= 2 ? year - 1 : year;
+        long era = floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + dayOfMonth - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        if (month == 2) {
+            boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+            return leap ? 29 : 28;
+        }
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) q--;
+        return q;
+    }
+}
@@ -0,0 +1,137 @@
+package com.mycompany.capturatest;
+
+import java.util.Date;
+import java.util.List;
+
+final class LogField {
+    /* Identifies each editable field of a LogItem, as reported to LogItem.ChangeListener
+     *
+     * A change is (part, index, field, value). The numbers are written to the journal, so
+     * existing ones must never be renumbered.
+     */
+    // Parts
+    static final int PART_ITEM = 0;
+    static final int PART_DISCREPANCY = 1;
+    static final int PART_CORRECTIVE_ACTION = 2;
+    static final int PART_COMPONENT_CHANGE = 3;
+
+    // LogItem and BaseLogItem
+    static final int CANCELED = 0;
+    static final int STATION = 1;
+    static final int ATA_CHAPTER = 2;
+    static final int DATE = 3;
+    static final int DESCRIPTION = 4;
+    static final int EMPLOYEE_NAME = 5;
+    static final int EMPLOYEE_LICENSE = 6;
+    static final int EMPLOYEE_CREW = 7;
+    // Discrepancy
+    static final int FLIGHT_NUMBER = 8;
+    static final int OPERATION_LOG = 9;
+    // CorrectiveAction
+    static final int DEFERRED = 10;
+    static final int DEFERRAL_BASIS = 11;
+    // ComponentChange
+    static final int COMPONENT_ADDED = 12;
+    static final int INSTALLED = 13;
+    static final int INSTALLED_PART_NUMBER = 14;
+    static final int INSTALLED_SERIAL_NUMBER = 15;
+    static final int REMOVED = 16;
+    static final int REMOVED_PART_NUMBER = 17;
+    static final int REMOVED_SERIAL_NUMBER = 18;
+
+    private LogField() {
+    }
+
+    static void apply(LogItem item, int part, int index, int field, Object value) {
+        // Makes the same change again through the setters, used to replay the journal
+        switch (part) {
+            case PART_ITEM:
+                if (field != CANCELED) break;
+                item.setCanceled((Boolean) value);
+                return;
+            case PART_DISCREPANCY:
+                LogItem.Discrepancy discrepancy = item.getDiscrepancy();
+                if (field == FLIGHT_NUMBER) discrepancy.setFlightNumber((String) value);
+                else if (field == OPERATION_LOG) discrepancy.setOperationLog((String) value);
+                else if (!applyBase(discrepancy, field, value)) break;
+                return;
+            case PART_CORRECTIVE_ACTION:
+                LogItem.CorrectiveAction correctiveAction = item.getCorrectiveAction();
+                if (field == DEFERRED) correctiveAction.setDeferred((Boolean) value);
+                else if (field == DEFERRAL_BASIS)
+                    correctiveAction.setDeferralBasis((String) value);
+                else if (!applyBase(correctiveAction, field, value)) break;
+                return;
+            case PART_COMPONENT_CHANGE:
+                if (applyComponentChange(item.getComponentsChanged(), index, field, value)) return;
+                break;
+        }
+        throw new IllegalArgumentException("Unknown field " + part + "/" + field);
+    }
+
+    private static boolean applyBase(LogItem.BaseLogItem base, int field, Object value) {
+        switch (field) {
+            case CANCELED:
+                base.setCanceled((Boolean) value);
+                return true;
+            case STATION:
+                base.setStation((String) value);
+                return true;
+            case ATA_CHAPTER:
+                base.setAtaChapter((String) value);
+                return true;
+            case DATE:
+                base.setDate((Date) value);
+                return true;
+            case DESCRIPTION:
+                base.setDescription((String) value);
+                return true;
+            case EMPLOYEE_NAME:
+                base.getEmployee().setEmployeeName((String) value);
+                return true;
+            case EMPLOYEE_LICENSE:
+                base.getEmployee().setEmployeeLicense((String) value);
+                return true;
+            case EMPLOYEE_CREW:
+                base.getEmployee().setCrew((Boolean) value);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean applyComponentChange(LogItem.ComponentsChanged componentsChanged,
+                                                int index, int field, Object value) {
+        if (field == COMPONENT_ADDED) {
+            componentsChanged.addComponentChange();
+            return true;
+        }
+        List<LogItem.ComponentsChanged.ComponentChange> changes =
+                componentsChanged.getComponentChanges();
+        if (index < 0 || index >= changes.size())
+            throw new IllegalArgumentException("No component change " + index);
+        LogItem.ComponentsChanged.ComponentChange change = changes.get(index);
+        switch (field) {
+            case INSTALLED:
+                change.setComponentInstalled((Boolean) value);
+                return true;
+            case INSTALLED_PART_NUMBER:
+                change.setInstalledPartNumber((String) value);
+                return true;
+            case INSTALLED_SERIAL_NUMBER:
+                change.setInstalledSerialNumber((String) value);
+                return true;
+            case REMOVED:
+                change.setComponentRemoved((Boolean) value);
+                return true;
+            case REMOVED_PART_NUMBER:
+                change.setRemovedPartNumber((String) value);
+                return true;
+            case REMOVED_SERIAL_NUMBER:
+                change.setRemovedSerialNumber((String) value);
+                return true;
+            default:
+                return false;
+        }
+    }
+}
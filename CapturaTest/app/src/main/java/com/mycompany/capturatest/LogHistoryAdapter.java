@@ -0,0 +1,69 @@
+package com.mycompany.capturatest;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+public class LogHistoryAdapter extends RecyclerView.Adapter<LogAdapter.ItemViewHolder> {
+    /* Shows an aircraft's whole history through a LogHistorySource
+     *
+     * Rows that aren't loaded yet are shown blank and bound again once their window arrives.
+     * Windows are read on the given loader, shared with the adapters that came before.
+     */
+    private static final int PAGES_PER_WINDOW = 20;
+    private static final int MAX_WINDOWS = 6;
+
+    private final LogHistorySource source;
+
+    LogHistoryAdapter(LogStore store, List<PageKey> pages, Executor loader) {
+        final Handler handler = new Handler(Looper.getMainLooper());
+        Executor mainThread = new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                handler.post(runnable);
+            }
+        };
+        source = new LogHistorySource(store, pages, PAGES_PER_WINDOW, MAX_WINDOWS, loader,
+                mainThread, new LogHistorySource.Callback() {
+                    @Override
+                    public void onRowsLoaded(int position, int count) {
+                        notifyItemRangeChanged(position, count);
+                    }
+                });
+    }
+
+    @NonNull
+    @Override
+    public LogAdapter.ItemViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.log_item, parent,
+                false);
+        return new LogAdapter.ItemViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull LogAdapter.ItemViewHolder holder, int position) {
+        LogRow row = source.get(position);
+        if (row != null) holder.bind(row, LogRow.CHANGED_NUMBER | LogRow.CHANGED_DISCREPANCY
+                | LogRow.CHANGED_CORRECTIVE_ACTION);
+        else holder.bindPlaceholder();
+    }
+
+    @Override
+    public int getItemCount() {
+        return source.size();
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onDetachedFromRecyclerView(recyclerView);
+        source.close();
+    }
+}
@@ -0,0 +1,185 @@
+package com.mycompany.capturatest;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+final class LogHistorySource {
+    /* Rows of an aircraft's whole maintenance history, loaded from a LogStore a window at a time
+     *
+     * Every page takes ITEMS_PER_PAGE rows, in the order the pages are given (newest first,
+     * see AircraftLogIndex.pages()), just like the paper log where unused entries are left
+     * blank. Rows are read in windows of pagesPerWindow pages on the loader executor. get()
+     * returns null for rows that aren't loaded yet, asks for their window and prefetches the
+     * neighbouring window in the direction being scrolled. Once more than maxWindows windows
+     * are held, the ones farthest from the last row asked for are dropped, so memory stays the
+     * same whatever the length of the history.
+     *
+     * Loaded windows are handed to the callback through the callback executor (the main thread
+     * on Android). The page list is fixed, make a new source to see pages saved later.
+     */
+    interface Callback {
+        void onRowsLoaded(int position, int count);
+    }
+
+    private final LogStore store;
+    private final List<PageKey> pages;
+    private final int pagesPerWindow;
+    private final int rowsPerWindow;
+    private final int maxWindows;
+    private final Executor loader;
+    private final Executor callbackExecutor;
+    private final Callback callback;
+
+    // Guards everything below
+    private final Object lock = new Object();
+    private final Map<Integer, LogRow[]> windows = new HashMap<>();
+    private final Set<Integer> loading = new HashSet<>();
+    private int currentWindow;
+    private int lastPosition;
+    private boolean closed;
+
+    LogHistorySource(LogStore store, List<PageKey> pages, int pagesPerWindow, int maxWindows,
+                     Executor loader, Executor callbackExecutor, Callback callback) {
+        if (pagesPerWindow < 1 || maxWindows < 2)
+            throw new IllegalArgumentException("Need at least 2 windows of 1 page");
+        this.store = store;
+        this.pages = pages;
+        this.pagesPerWindow = pagesPerWindow;
+        rowsPerWindow = pagesPerWindow * LogItem.ITEMS_PER_PAGE;
+        this.maxWindows = maxWindows;
+        this.loader = loader;
+        this.callbackExecutor = callbackExecutor;
+        this.callback = callback;
+    }
+
+    int size() {
+        return pages.size() * LogItem.ITEMS_PER_PAGE;
+    }
+
+    LogRow get(int position) {
+        // The row, or null if its window is still loading
+        if (position < 0 || position >= size())
+            throw new IndexOutOfBoundsException("Row " + position + " of " + size());
+        int window = position / rowsPerWindow;
+        LogRow row = null;
+        int prefetch;
+        synchronized (lock) {
+            boolean forward = position >= lastPosition;
+            lastPosition = position;
+            currentWindow = window;
+            LogRow[] rows = windows.get(window);
+            if (rows != null) row = rows[position - window * rowsPerWindow];
+            // Load the next window once half of this one has been scrolled through
+            int offset = position - window * rowsPerWindow;
+            if (forward) prefetch = offset >= rowsPerWindow / 2 ? window + 1 : -1;
+            else prefetch = offset < rowsPerWindow / 2 ? window - 1 : -1;
+        }
+        if (row == null && request(window)) row = loadedRow(window, position);
+        if (prefetch >= 0) request(prefetch);
+        return row;
+    }
+
+    private LogRow loadedRow(int window, int position) {
+        // A loader that runs in place may have loaded it already
+        synchronized (lock) {
+            LogRow[] rows = windows.get(window);
+            return rows != null ? rows[position - window * rowsPerWindow] : null;
+        }
+    }
+
+    int loadedWindows() {
+        synchronized (lock) {
+            return windows.size();
+        }
+    }
+
+    void close() {
+        // Loads still running are dropped
+        synchronized (lock) {
+            closed = true;
+            windows.clear();
+        }
+    }
+
+    private boolean request(final int window) {
+        // False if there was nothing to load
+        if (window * rowsPerWindow >= size()) return false;
+        synchronized (lock) {
+            if (closed || windows.containsKey(window) || !loading.add(window)) return false;
+        }
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                final LogRow[] rows = load(window);
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        loaded(window, rows);
+                    }
+                });
+            }
+        });
+        return true;
+    }
+
+    private LogRow[] load(int window) {
+        // Runs on the loader, null if the store couldn't be read
+        int first = window * pagesPerWindow;
+        int last = Math.min(first + pagesPerWindow, pages.size());
+        LogRow[] rows = new LogRow[(last - first) * LogItem.ITEMS_PER_PAGE];
+        try {
+            for (int p = first; p < last; p++) {
+                PageKey key = pages.get(p);
+                LogPage page = store.get(key.getAircraft(), key.getFolio());
+                List<LogItem> items = page == null ? Collections.<LogItem>emptyList()
+                        : page.getItems();
+                int offset = (p - first) * LogItem.ITEMS_PER_PAGE;
+                for (int i = 0; i < LogItem.ITEMS_PER_PAGE; i++) {
+                    rows[offset + i] = i < items.size() ? LogRow.of(key, items.get(i))
+                            : blankRow(key, i + 1);
+                }
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return null;
+        }
+        return rows;
+    }
+
+    private void loaded(int window, LogRow[] rows) {
+        // Runs on the callback executor
+        synchronized (lock) {
+            loading.remove(window);
+            // Failed loads are retried the next time one of their rows is asked for
+            if (closed || rows == null) return;
+            // Scrolled far away while it loaded
+            if (Math.abs(window - currentWindow) > maxWindows / 2) return;
+            windows.put(window, rows);
+            evict();
+        }
+        callback.onRowsLoaded(window * rowsPerWindow, rows.length);
+    }
+
+    private void evict() {
+        // Called with the lock held, drops the windows farthest from the current one
+        while (windows.size() > maxWindows) {
+            int farthest = currentWindow;
+            for (int window : windows.keySet()) {
+                if (Math.abs(window - currentWindow) > Math.abs(farthest - currentWindow))
+                    farthest = window;
+            }
+            windows.remove(farthest);
+        }
+    }
+
+    private static LogRow blankRow(PageKey key, int itemNumber) {
+        // An unused entry of the page
+        return new LogRow(LogRow.idOf(key, itemNumber), String.valueOf(itemNumber), null, null);
+    }
+}
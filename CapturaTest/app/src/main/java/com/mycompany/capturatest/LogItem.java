@@ -4,12 +4,10 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
-import java.util.Locale;
 
 public class LogItem {
     /* Object representing an entry in a maintenance log
@@ -37,18 +35,62 @@ public class LogItem {
      *           - componentInstalled (Boolean): A component was installed.
      *           - installedPartNumber (String): Part number of the installed component.
      *           - installedSerialNumber (String): Serial number of the installed component
+     *
+     * Whole histories are held in memory, so entries are kept small: the nested objects are
+     * static and only keep the reference they need, JSON keys are the LogJsonKeys constants,
+     * dates are stored as millis and the values that repeat across entries (stations, ATA
+     * chapters, names, licenses, flight numbers, MEL references, part numbers) are interned so
+     * every entry shares one copy of each.
      */
+    // A maintenance log page only has room for 3 entries
+    static final int ITEMS_PER_PAGE = 3;
+    // Stored instead of a date that wasn't set
+    private static final long NO_DATE = Long.MIN_VALUE;
+
     private int logItemNumber;
     private Discrepancy discrepancy;
     private CorrectiveAction correctiveAction;
     private ComponentsChanged componentsChanged;
     private boolean canceled;
 
+    /* Change tracking
+     *
+     * Every setter, here or in the nested objects, bumps version, so savers can tell whether
+     * the item changed since they last saw it. The serialized JSON of the item and of each
+     * nested object is kept until one of its fields changes. The setters aren't thread safe,
+     * but an export on another thread may read and fill the caches: each one is a single
+     * immutable CachedJson in a volatile field, so the text and its date format always match.
+     */
+    private int version;
+    private int savedVersion;
+    private volatile CachedJson cachedJson;
+    private ChangeListener changeListener;
+
+    static final class CachedJson {
+        // JSON text and the date format it was written with
+        final String json;
+        final LogDateCodec codec;
+
+        CachedJson(String json, LogDateCodec codec) {
+            this.json = json;
+            this.codec = codec;
+        }
+    }
+
+    interface ChangeListener {
+        /* Called after every setter with the field that changed and its new value
+         *
+         * part and field are LogField constants, index is the position of the component change
+         * for LogField.PART_COMPONENT_CHANGE and 0 otherwise. Dates are passed as Date.
+         */
+        void onFieldChanged(LogItem item, int part, int index, int field, Object value);
+    }
+
     LogItem(int logItemNo) {
         logItemNumber = logItemNo;
-        discrepancy = new Discrepancy();
-        correctiveAction = new CorrectiveAction();
-        componentsChanged = new ComponentsChanged();
+        discrepancy = new Discrepancy(this);
+        correctiveAction = new CorrectiveAction(this);
+        componentsChanged = new ComponentsChanged(this);
         canceled = false;
     }
 
@@ -64,30 +106,69 @@ public class LogItem {
         return correctiveAction;
     }
 
+    ComponentsChanged getComponentsChanged() {
+        return componentsChanged;
+    }
+
     public void setCanceled(boolean canceled) {
         this.canceled = canceled;
+        fieldChanged(LogField.PART_ITEM, 0, LogField.CANCELED, canceled);
     }
 
     public boolean isCanceled() {
-        return !canceled;
+        return canceled;
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    boolean isDirty() {
+        // Changed since the last markSaved()
+        return version != savedVersion;
+    }
+
+    void markSaved() {
+        savedVersion = version;
+    }
+
+    void setChangeListener(ChangeListener listener) {
+        changeListener = listener;
+    }
+
+    private void fieldChanged(int part, int index, int field, Object value) {
+        version++;
+        cachedJson = null;
+        if (changeListener != null) changeListener.onFieldChanged(this, part, index, field, value);
+    }
+
+    String toJSONString() {
+        // Same text as toJSON().toString(), only serialized again once something changes
+        LogDateCodec codec = LogDateCodec.getDefault();
+        CachedJson cached = cachedJson;
+        if (cached == null || cached.codec != codec) {
+            cached = new CachedJson(LogItemJsonWriter.toJSONString(this), codec);
+            cachedJson = cached;
+        }
+        return cached.json;
+    }
+
+    private static String shared(String value) {
+        // One copy of each repeated value for the whole history
+        return value == null ? null : value.intern();
     }
 
     public JSONObject toJSON() {
-        // Magic strings bad
-        final String discrepancyJSON = "discrepancy";
-        final String correctiveActionJSON = "correctiveAction";
-        final String componentsChangedJSON = "componentsChanged";
-        final String canceledJSON = "canceledItem";
         JSONObject jsonObject = new JSONObject();
         try {
             if (canceled) {
                 // If the whole item is cancelled only add this
-                jsonObject.put(canceledJSON, true);
+                jsonObject.put(LogJsonKeys.CANCELED_ITEM, true);
             } else {
-                jsonObject.put(discrepancyJSON, discrepancy);
-                jsonObject.put(correctiveActionJSON, correctiveAction);
+                jsonObject.put(LogJsonKeys.DISCREPANCY, discrepancy.toJSON());
+                jsonObject.put(LogJsonKeys.CORRECTIVE_ACTION, correctiveAction.toJSON());
                 if (componentsChanged.numberOfComponentChanges() > 0)
-                    jsonObject.put(componentsChangedJSON, componentsChanged);
+                    jsonObject.put(LogJsonKeys.COMPONENTS_CHANGED, componentsChanged.toJSON());
             }
         } catch(JSONException ex) {
             ex.printStackTrace();
@@ -95,27 +176,44 @@ public class LogItem {
         return jsonObject;
     }
 
-    private abstract class BaseLogItem {
+    abstract static class BaseLogItem {
+        private final LogItem item;
         private String station;
         private String ataChapter;
-        private Date dateReported;
-        private Employee reportedBy;
+        private long dateReported;
+        private final Employee reportedBy;
         private String description;
         private boolean canceled;
+        private volatile CachedJson cachedJson;
 
-        final String stationJSON = "station";
-        final String ataJSON = "ataChapter";
-        final String dateReportedJSON = "date";
-        final String reportedByJSON = "reportedBy";
-        final String descriptionJSON = "description";
-        final String canceledJSON = "canceled";
-        BaseLogItem() {
-            reportedBy = new Employee();
+        BaseLogItem(LogItem item) {
+            this.item = item;
+            dateReported = NO_DATE;
+            reportedBy = new Employee(this);
             canceled = false;
         }
 
+        abstract int part();
+
+        void invalidate(int field, Object value) {
+            // Called by every setter, the cached JSON no longer matches
+            cachedJson = null;
+            item.fieldChanged(part(), 0, field, value);
+        }
+
+        String getCachedJson(LogDateCodec codec) {
+            // Null unless it was cached with the same date format
+            CachedJson cached = cachedJson;
+            return cached != null && cached.codec == codec ? cached.json : null;
+        }
+
+        void setCachedJson(String json, LogDateCodec codec) {
+            cachedJson = new CachedJson(json, codec);
+        }
+
         public void setStation(String station) {
-            this.station = station;
+            this.station = shared(station);
+            invalidate(LogField.STATION, station);
         }
 
         public String getStation() {
@@ -127,15 +225,18 @@ public class LogItem {
         }
 
         public void setAtaChapter(String ataChapter) {
-            this.ataChapter = ataChapter;
+            this.ataChapter = shared(ataChapter);
+            invalidate(LogField.ATA_CHAPTER, ataChapter);
         }
 
         public Date getDate() {
-            return dateReported;
+            // A new Date every time, changing it doesn't change the item
+            return dateReported == NO_DATE ? null : new Date(dateReported);
         }
 
         public void setDate(Date date) {
-            dateReported = date;
+            dateReported = date == null ? NO_DATE : date.getTime();
+            invalidate(LogField.DATE, date);
         }
 
         public Employee getEmployee() {
@@ -148,14 +249,16 @@ public class LogItem {
 
         public void setDescription(String description) {
             this.description = description;
+            invalidate(LogField.DESCRIPTION, description);
         }
 
         boolean isCanceled() {
-            return !canceled;
+            return canceled;
         }
 
         public void setCanceled(boolean cancel) {
             canceled = cancel;
+            invalidate(LogField.CANCELED, cancel);
         }
 
         public JSONObject toJSON() {
@@ -163,23 +266,21 @@ public class LogItem {
             try {
                 if (canceled) {
                     // If item is canceled we don't need to add anything to it
-                    jsonObject.put(canceledJSON, true);
+                    jsonObject.put(LogJsonKeys.CANCELED, true);
                 } else {
                     // Otherwise add all the data we have
-                    jsonObject.put(stationJSON, station);
+                    jsonObject.put(LogJsonKeys.STATION, station);
                     if (ataChapter != null)
                         // No need to add the ATA Chapter if it's null
-                        jsonObject.put(ataJSON, ataChapter);
+                        jsonObject.put(LogJsonKeys.ATA_CHAPTER, ataChapter);
 
                     // Convert date to a string
-                    String pattern = "dd/MM/yyyy";
-                    DateFormat df = new SimpleDateFormat(pattern,
-                                                         new Locale("es", "mx"));
-                    String dateString = df.format(dateReported);
-                    jsonObject.put(dateReportedJSON, dateString);
-
-                    jsonObject.put(reportedByJSON, reportedBy.toJSON());
-                    jsonObject.put(descriptionJSON, description);
+                    if (dateReported != NO_DATE)
+                        jsonObject.put(LogJsonKeys.DATE_REPORTED,
+                                LogDateCodec.getDefault().format(getDate()));
+
+                    jsonObject.put(LogJsonKeys.REPORTED_BY, reportedBy.toJSON());
+                    jsonObject.put(LogJsonKeys.DESCRIPTION, description);
                 }
             } catch (JSONException ex) {
                 ex.printStackTrace();
@@ -188,15 +289,17 @@ public class LogItem {
         }
     }
 
-    protected class Discrepancy extends BaseLogItem {
+    protected static class Discrepancy extends BaseLogItem {
         private String flightNumber;
         private String operationLog;
 
-        final String flightNumberJSON = "flightNumber";
-        final String operationLogJSON = "operationLog";
+        Discrepancy(LogItem item) {
+            super(item);
+        }
 
-        Discrepancy() {
-            super();
+        @Override
+        int part() {
+            return LogField.PART_DISCREPANCY;
         }
 
         public String getFlightNumber() {
@@ -204,7 +307,8 @@ public class LogItem {
         }
 
         public void setFlightNumber(String flightNumber) {
-            this.flightNumber = flightNumber;
+            this.flightNumber = shared(flightNumber);
+            invalidate(LogField.FLIGHT_NUMBER, flightNumber);
         }
 
         public String getOperationLog() {
@@ -213,6 +317,7 @@ public class LogItem {
 
         public void setOperationLog(String operationLog) {
             this.operationLog = operationLog;
+            invalidate(LogField.OPERATION_LOG, operationLog);
         }
 
         @Override
@@ -222,9 +327,9 @@ public class LogItem {
                 // If it's not canceled add the extra parameters
                 try {
                     if (flightNumber != null)
-                        jsonObject.put(flightNumberJSON, flightNumber);
+                        jsonObject.put(LogJsonKeys.FLIGHT_NUMBER, flightNumber);
                     if (operationLog != null)
-                        jsonObject.put(operationLogJSON, operationLog);
+                        jsonObject.put(LogJsonKeys.OPERATION_LOG, operationLog);
                 } catch (JSONException ex) {
                     ex.printStackTrace();
                 }
@@ -233,24 +338,36 @@ public class LogItem {
         }
     }
 
-    protected class CorrectiveAction extends BaseLogItem {
+    protected static class CorrectiveAction extends BaseLogItem {
         private boolean deferred;
         private String deferralBasis;
 
-        final String deferredJSON = "deferred";
-        final String deferralBasisJSON = "deferralBasis";
-
-        CorrectiveAction() {
-            super();
+        CorrectiveAction(LogItem item) {
+            super(item);
             deferred = false;
         }
 
+        @Override
+        int part() {
+            return LogField.PART_CORRECTIVE_ACTION;
+        }
+
         public boolean isDeferred() {
             return deferred;
         }
 
         public void setDeferred(boolean deferred) {
             this.deferred = deferred;
+            invalidate(LogField.DEFERRED, deferred);
+        }
+
+        public String getDeferralBasis() {
+            return deferralBasis;
+        }
+
+        public void setDeferralBasis(String deferralBasis) {
+            this.deferralBasis = shared(deferralBasis);
+            invalidate(LogField.DEFERRAL_BASIS, deferralBasis);
         }
 
         @Override
@@ -259,9 +376,9 @@ public class LogItem {
             if (!isCanceled()) {
                 // If it's not canceled add the extra parameters
                 try {
-                    jsonObject.put(deferredJSON, deferred);
+                    jsonObject.put(LogJsonKeys.DEFERRED, deferred);
                     if (deferred)
-                        jsonObject.put(deferralBasisJSON, deferralBasis);
+                        jsonObject.put(LogJsonKeys.DEFERRAL_BASIS, deferralBasis);
                 } catch (JSONException e) {
                     e.printStackTrace();
                 }
@@ -270,15 +387,14 @@ public class LogItem {
         }
     }
 
-    protected class Employee {
+    protected static class Employee {
+        private final BaseLogItem owner;
         private String employeeName;
         private String employeeLicense;
         private boolean crew;
-        final String employeeNameJSON = "name";
-        final String employeeLicenseJSON = "license";
-        final String employeeIsCrewJSON = "isCrew";
 
-        Employee () {
+        Employee (BaseLogItem owner) {
+            this.owner = owner;
             crew = false;
         }
 
@@ -287,8 +403,9 @@ public class LogItem {
         }
 
         public void setEmployeeName(String name) {
-            // TODO: Add employee name to the local sqlite db and try to retrieve license from name
-            employeeName = name;
+            // New names reach the EmployeeDirectory when the page is saved
+            employeeName = shared(name);
+            owner.invalidate(LogField.EMPLOYEE_NAME, name);
         }
 
         public String getEmployeeLicense() {
@@ -296,8 +413,8 @@ public class LogItem {
         }
 
         public void setEmployeeLicense(String license) {
-            // TODO: Add employee license to the local sqlite db and retrieve name from license
-            employeeLicense = license;
+            employeeLicense = shared(license);
+            owner.invalidate(LogField.EMPLOYEE_LICENSE, license);
         }
 
         public boolean isCrew() {
@@ -305,17 +422,23 @@ public class LogItem {
         }
 
         public void setCrew(boolean isCrew) {
-            //TODO: Add logic for setting data to sqlite db
             this.crew = isCrew;
+            owner.invalidate(LogField.EMPLOYEE_CREW, isCrew);
+        }
+
+        void completeFromDirectory(EmployeeDirectory directory) {
+            // Fill in the license from the name, or the name from the license
+            if (employeeLicense == null) setEmployeeLicense(directory.licenseFor(employeeName));
+            else if (employeeName == null) setEmployeeName(directory.nameFor(employeeLicense));
         }
 
         JSONObject toJSON() {
             JSONObject jsonObject = new JSONObject();
             try {
-                jsonObject.put(employeeNameJSON, employeeName);
+                jsonObject.put(LogJsonKeys.EMPLOYEE_NAME, employeeName);
                 if (employeeLicense != null)
-                    jsonObject.put(employeeLicenseJSON, employeeLicense);
-                jsonObject.put(employeeIsCrewJSON, crew);
+                    jsonObject.put(LogJsonKeys.EMPLOYEE_LICENSE, employeeLicense);
+                jsonObject.put(LogJsonKeys.EMPLOYEE_IS_CREW, crew);
             } catch (JSONException e) {
                 e.printStackTrace();
             }
@@ -323,27 +446,59 @@ public class LogItem {
         }
     }
 
-    protected class ComponentsChanged {
+    protected static class ComponentsChanged {
+        private final LogItem item;
+        // Most entries change no components, the list is only created for the first one
         private List<ComponentChange> componentChangeList;
+        private volatile String cachedJson;
 
-        ComponentsChanged() {
-            componentChangeList = new ArrayList<>();
+        ComponentsChanged(LogItem item) {
+            this.item = item;
         }
 
         public int numberOfComponentChanges() {
-            return componentChangeList.size();
+            return componentChangeList == null ? 0 : componentChangeList.size();
+        }
+
+        List<ComponentChange> getComponentChanges() {
+            // Read only, changes go through addComponentChange so they are tracked
+            if (componentChangeList == null) return Collections.emptyList();
+            return Collections.unmodifiableList(componentChangeList);
+        }
+
+        public ComponentChange addComponentChange() {
+            ComponentChange change = new ComponentChange(this);
+            if (componentChangeList == null) componentChangeList = new ArrayList<>(2);
+            componentChangeList.add(change);
+            invalidate(componentChangeList.size() - 1, LogField.COMPONENT_ADDED, null);
+            return change;
+        }
+
+        void invalidate(int index, int field, Object value) {
+            cachedJson = null;
+            item.fieldChanged(LogField.PART_COMPONENT_CHANGE, index, field, value);
+        }
+
+        String getCachedJson() {
+            // No dates in here, the JSON doesn't depend on the date format
+            return cachedJson;
+        }
+
+        void setCachedJson(String json) {
+            cachedJson = json;
         }
 
         public JSONArray toJSON() {
             JSONArray jsonArray = new JSONArray();
             // Loop through all component changes, call their toJSON method and add it to the array
-            for (ComponentChange change : componentChangeList) {
+            for (ComponentChange change : getComponentChanges()) {
                 jsonArray.put(change.toJSON());
             }
             return jsonArray;
         }
 
-        protected class ComponentChange {
+        protected static class ComponentChange {
+            private final ComponentsChanged owner;
             private boolean componentInstalled;
             private String installedPartNumber;
             private String installedSerialNumber;
@@ -351,10 +506,13 @@ public class LogItem {
             private String removedPartNumber;
             private String removedSerialNumber;
 
-            final String partNumberJSON = "partNumber";
-            final String serialNumberJSON = "serialNumber";
-            final String componentInstalledJSON = "installed";
-            final String componentRemovedJSON = "removed";
+            ComponentChange(ComponentsChanged owner) {
+                this.owner = owner;
+            }
+
+            private void changed(int field, Object value) {
+                owner.invalidate(owner.componentChangeList.indexOf(this), field, value);
+            }
 
             public boolean isComponentInstalled() {
                 return componentInstalled;
@@ -362,6 +520,7 @@ public class LogItem {
 
             public void setComponentInstalled(boolean componentInstalled) {
                 this.componentInstalled = componentInstalled;
+                changed(LogField.INSTALLED, componentInstalled);
             }
 
             public String getInstalledPartNumber() {
@@ -370,7 +529,10 @@ public class LogItem {
 
             public void setInstalledPartNumber(String installedPartNumber) {
                 // Prevent from setting if no component was installed.
-                if (componentInstalled) this.installedPartNumber = installedPartNumber;
+                if (componentInstalled) {
+                    this.installedPartNumber = shared(installedPartNumber);
+                    changed(LogField.INSTALLED_PART_NUMBER, installedPartNumber);
+                }
             }
 
             public String getInstalledSerialNumber() {
@@ -379,7 +541,10 @@ public class LogItem {
 
             public void setInstalledSerialNumber(String installedSerialNumber) {
                 // Prevent from setting if no component was installed.
-                if (componentInstalled) this.installedSerialNumber = installedSerialNumber;
+                if (componentInstalled) {
+                    this.installedSerialNumber = installedSerialNumber;
+                    changed(LogField.INSTALLED_SERIAL_NUMBER, installedSerialNumber);
+                }
             }
 
             public boolean isComponentRemoved() {
@@ -388,6 +553,7 @@ public class LogItem {
 
             public void setComponentRemoved(boolean componentRemoved) {
                 this.componentRemoved = componentRemoved;
+                changed(LogField.REMOVED, componentRemoved);
             }
 
             public String getRemovedPartNumber() {
@@ -396,7 +562,10 @@ public class LogItem {
 
             public void setRemovedPartNumber(String removedPartNumber) {
                 // Prevent from setting if no component was removed.
-                if (componentRemoved) this.removedPartNumber = removedPartNumber;
+                if (componentRemoved) {
+                    this.removedPartNumber = shared(removedPartNumber);
+                    changed(LogField.REMOVED_PART_NUMBER, removedPartNumber);
+                }
             }
 
             public String getRemovedSerialNumber() {
@@ -405,7 +574,10 @@ public class LogItem {
 
             public void setRemovedSerialNumber(String removedSerialNumber) {
                 // Prevent from setting if no component was removed.
-                if (componentRemoved) this.removedSerialNumber = removedSerialNumber;
+                if (componentRemoved) {
+                    this.removedSerialNumber = removedSerialNumber;
+                    changed(LogField.REMOVED_SERIAL_NUMBER, removedSerialNumber);
+                }
             }
 
             JSONObject toJSON() {
@@ -413,9 +585,9 @@ public class LogItem {
                 if (componentInstalled) {
                     JSONObject installedObject = new JSONObject();
                     try {
-                        installedObject.put(partNumberJSON, installedPartNumber);
-                        installedObject.put(serialNumberJSON, installedSerialNumber);
-                        jsonObject.put(componentInstalledJSON, installedObject);
+                        installedObject.put(LogJsonKeys.PART_NUMBER, installedPartNumber);
+                        installedObject.put(LogJsonKeys.SERIAL_NUMBER, installedSerialNumber);
+                        jsonObject.put(LogJsonKeys.COMPONENT_INSTALLED, installedObject);
                     } catch (JSONException ex) {
                         ex.printStackTrace();
                     }
@@ -423,9 +595,9 @@ public class LogItem {
                 if (componentRemoved) {
                     JSONObject removedObject = new JSONObject();
                     try {
-                        removedObject.put(partNumberJSON, removedPartNumber);
-                        removedObject.put(serialNumberJSON, removedSerialNumber);
-                        jsonObject.put(componentRemovedJSON, removedObject);
+                        removedObject.put(LogJsonKeys.PART_NUMBER, removedPartNumber);
+                        removedObject.put(LogJsonKeys.SERIAL_NUMBER, removedSerialNumber);
+                        jsonObject.put(LogJsonKeys.COMPONENT_REMOVED, removedObject);
                     } catch (JSONException ex) {
                         ex.printStackTrace();
                     }
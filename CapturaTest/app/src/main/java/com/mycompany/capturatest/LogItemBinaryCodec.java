@@ -0,0 +1,279 @@
+package com.mycompany.capturatest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+final class LogItemBinaryCodec {
+    /* Compact binary encoding of LogItems for on-device storage and sync
+     *
+     * Layout:
+     *   - magic (int) and version (byte)
+     *   - dictionary: varint count, then every distinct string (varint length + UTF-8)
+     *   - varint item count, then every item:
+     *       - varint logItemNumber, flags byte (canceled)
+     *       - discrepancy and corrective action: varint flags with one bit per boolean and per
+     *         non null field, then the present fields. Strings are varint dictionary indexes,
+     *         dates zigzag varint millis.
+     *       - varint component change count, then a flags byte and the part/serial numbers of
+     *         each change
+     *
+     * Station codes, ATA chapters, registrations, names and licenses repeat across almost every
+     * entry, so the dictionary stores each of them once per file.
+     *
+     * Unlike toJSON() it keeps the fields of canceled items, nothing is lost in a round trip.
+     */
+    static final int MAGIC = 0x4C4F4742; // "LOGB"
+    static final int VERSION = 1;
+
+    // LogItem flags
+    private static final int ITEM_CANCELED = 1;
+
+    // BaseLogItem flags, EXTRA_A and EXTRA_B depend on the subclass:
+    //   Discrepancy: has flightNumber / has operationLog
+    //   CorrectiveAction: deferred / has deferralBasis
+    private static final int CANCELED = 1;
+    private static final int HAS_STATION = 1 << 1;
+    private static final int HAS_ATA = 1 << 2;
+    private static final int HAS_DATE = 1 << 3;
+    private static final int HAS_DESCRIPTION = 1 << 4;
+    private static final int HAS_NAME = 1 << 5;
+    private static final int HAS_LICENSE = 1 << 6;
+    private static final int CREW = 1 << 7;
+    private static final int EXTRA_A = 1 << 8;
+    private static final int EXTRA_B = 1 << 9;
+
+    // ComponentChange flags
+    private static final int INSTALLED = 1;
+    private static final int REMOVED = 1 << 1;
+    private static final int HAS_INSTALLED_PART = 1 << 2;
+    private static final int HAS_INSTALLED_SERIAL = 1 << 3;
+    private static final int HAS_REMOVED_PART = 1 << 4;
+    private static final int HAS_REMOVED_SERIAL = 1 << 5;
+
+    private LogItemBinaryCodec() {
+    }
+
+    static byte[] encode(List<LogItem> items) {
+        BinaryOutput out = new BinaryOutput(items.size() * 64 + 64);
+        encode(items, out);
+        return out.toByteArray();
+    }
+
+    static void encode(List<LogItem> items, OutputStream out) throws IOException {
+        BinaryOutput buffer = new BinaryOutput(items.size() * 64 + 64);
+        encode(items, buffer);
+        buffer.writeTo(out);
+    }
+
+    static void encode(List<LogItem> items, BinaryOutput out) {
+        // First pass collects the dictionary, second one writes the items
+        Dictionary dictionary = new Dictionary();
+        for (LogItem item : items) dictionary.addAll(item);
+
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeVarInt(dictionary.strings.size());
+        for (String string : dictionary.strings) out.writeString(string);
+        out.writeVarInt(items.size());
+        for (LogItem item : items) writeItem(item, dictionary, out);
+    }
+
+    static List<LogItem> decode(byte[] data) throws IOException {
+        return decode(new BinaryInput(data));
+    }
+
+    static List<LogItem> decode(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) bytes.write(buffer, 0, read);
+        return decode(bytes.toByteArray());
+    }
+
+    static List<LogItem> decode(BinaryInput in) throws IOException {
+        if (in.readInt() != MAGIC) throw new IOException("Not a binary log item file");
+        int version = in.readByte();
+        if (version != VERSION) throw new IOException("Unsupported version " + version);
+
+        // Every string and every item takes at least a byte, a larger count is corrupt data
+        int dictionarySize = in.readVarInt();
+        if (dictionarySize < 0 || dictionarySize > in.remaining())
+            throw new IOException("Bad dictionary size " + dictionarySize);
+        String[] dictionary = new String[dictionarySize];
+        for (int i = 0; i < dictionarySize; i++) dictionary[i] = in.readString();
+
+        int count = in.readVarInt();
+        if (count < 0 || count > in.remaining()) throw new IOException("Bad item count " + count);
+        List<LogItem> items = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) items.add(readItem(in, dictionary));
+        return items;
+    }
+
+    private static void writeItem(LogItem item, Dictionary dictionary, BinaryOutput out) {
+        out.writeVarInt(item.getLogItemNumber());
+        out.writeByte(item.isCanceled() ? ITEM_CANCELED : 0);
+
+        LogItem.Discrepancy discrepancy = item.getDiscrepancy();
+        writeBase(discrepancy, flag(discrepancy.getFlightNumber() != null, EXTRA_A)
+                | flag(discrepancy.getOperationLog() != null, EXTRA_B), dictionary, out);
+        if (discrepancy.getFlightNumber() != null)
+            out.writeVarInt(dictionary.indexOf(discrepancy.getFlightNumber()));
+        if (discrepancy.getOperationLog() != null)
+            out.writeVarInt(dictionary.indexOf(discrepancy.getOperationLog()));
+
+        LogItem.CorrectiveAction correctiveAction = item.getCorrectiveAction();
+        writeBase(correctiveAction, flag(correctiveAction.isDeferred(), EXTRA_A)
+                | flag(correctiveAction.getDeferralBasis() != null, EXTRA_B), dictionary, out);
+        if (correctiveAction.getDeferralBasis() != null)
+            out.writeVarInt(dictionary.indexOf(correctiveAction.getDeferralBasis()));
+
+        List<LogItem.ComponentsChanged.ComponentChange> changes =
+                item.getComponentsChanged().getComponentChanges();
+        out.writeVarInt(changes.size());
+        for (LogItem.ComponentsChanged.ComponentChange change : changes) {
+            out.writeByte(flag(change.isComponentInstalled(), INSTALLED)
+                    | flag(change.isComponentRemoved(), REMOVED)
+                    | flag(change.getInstalledPartNumber() != null, HAS_INSTALLED_PART)
+                    | flag(change.getInstalledSerialNumber() != null, HAS_INSTALLED_SERIAL)
+                    | flag(change.getRemovedPartNumber() != null, HAS_REMOVED_PART)
+                    | flag(change.getRemovedSerialNumber() != null, HAS_REMOVED_SERIAL));
+            writeOptional(change.getInstalledPartNumber(), dictionary, out);
+            writeOptional(change.getInstalledSerialNumber(), dictionary, out);
+            writeOptional(change.getRemovedPartNumber(), dictionary, out);
+            writeOptional(change.getRemovedSerialNumber(), dictionary, out);
+        }
+    }
+
+    private static void writeBase(LogItem.BaseLogItem base, int extraFlags,
+                                  Dictionary dictionary, BinaryOutput out) {
+        LogItem.Employee employee = base.getEmployee();
+        Date date = base.getDate();
+        int flags = extraFlags
+                | flag(base.isCanceled(), CANCELED)
+                | flag(base.getStation() != null, HAS_STATION)
+                | flag(base.getAtaChapter() != null, HAS_ATA)
+                | flag(date != null, HAS_DATE)
+                | flag(base.getDescription() != null, HAS_DESCRIPTION)
+                | flag(employee.getEmployeeName() != null, HAS_NAME)
+                | flag(employee.getEmployeeLicense() != null, HAS_LICENSE)
+                | flag(employee.isCrew(), CREW);
+        out.writeVarInt(flags);
+        writeOptional(base.getStation(), dictionary, out);
+        writeOptional(base.getAtaChapter(), dictionary, out);
+        if (date != null) out.writeZigZagLong(date.getTime());
+        writeOptional(base.getDescription(), dictionary, out);
+        writeOptional(employee.getEmployeeName(), dictionary, out);
+        writeOptional(employee.getEmployeeLicense(), dictionary, out);
+    }
+
+    private static void writeOptional(String value, Dictionary dictionary, BinaryOutput out) {
+        // Presence is already recorded in the flags
+        if (value != null) out.writeVarInt(dictionary.indexOf(value));
+    }
+
+    private static LogItem readItem(BinaryInput in, String[] dictionary) throws IOException {
+        LogItem item = new LogItem(in.readVarInt());
+        item.setCanceled((in.readByte() & ITEM_CANCELED) != 0);
+
+        LogItem.Discrepancy discrepancy = item.getDiscrepancy();
+        int flags = readBase(discrepancy, in, dictionary);
+        if ((flags & EXTRA_A) != 0) discrepancy.setFlightNumber(string(in, dictionary));
+        if ((flags & EXTRA_B) != 0) discrepancy.setOperationLog(string(in, dictionary));
+
+        LogItem.CorrectiveAction correctiveAction = item.getCorrectiveAction();
+        flags = readBase(correctiveAction, in, dictionary);
+        correctiveAction.setDeferred((flags & EXTRA_A) != 0);
+        if ((flags & EXTRA_B) != 0) correctiveAction.setDeferralBasis(string(in, dictionary));
+
+        int changes = in.readVarInt();
+        for (int i = 0; i < changes; i++) {
+            LogItem.ComponentsChanged.ComponentChange change =
+                    item.getComponentsChanged().addComponentChange();
+            int changeFlags = in.readByte();
+            // The part numbers can only be set once the component is marked as installed/removed
+            change.setComponentInstalled((changeFlags & INSTALLED) != 0);
+            change.setComponentRemoved((changeFlags & REMOVED) != 0);
+            if ((changeFlags & HAS_INSTALLED_PART) != 0)
+                change.setInstalledPartNumber(string(in, dictionary));
+            if ((changeFlags & HAS_INSTALLED_SERIAL) != 0)
+                change.setInstalledSerialNumber(string(in, dictionary));
+            if ((changeFlags & HAS_REMOVED_PART) != 0)
+                change.setRemovedPartNumber(string(in, dictionary));
+            if ((changeFlags & HAS_REMOVED_SERIAL) != 0)
+                change.setRemovedSerialNumber(string(in, dictionary));
+        }
+        return item;
+    }
+
+    private static int readBase(LogItem.BaseLogItem base, BinaryInput in, String[] dictionary)
+            throws IOException {
+        int flags = in.readVarInt();
+        base.setCanceled((flags & CANCELED) != 0);
+        if ((flags & HAS_STATION) != 0) base.setStation(string(in, dictionary));
+        if ((flags & HAS_ATA) != 0) base.setAtaChapter(string(in, dictionary));
+        if ((flags & HAS_DATE) != 0) base.setDate(new Date(in.readZigZagLong()));
+        if ((flags & HAS_DESCRIPTION) != 0) base.setDescription(string(in, dictionary));
+        LogItem.Employee employee = base.getEmployee();
+        if ((flags & HAS_NAME) != 0) employee.setEmployeeName(string(in, dictionary));
+        if ((flags & HAS_LICENSE) != 0) employee.setEmployeeLicense(string(in, dictionary));
+        employee.setCrew((flags & CREW) != 0);
+        return flags;
+    }
+
+    private static String string(BinaryInput in, String[] dictionary) throws IOException {
+        int index = in.readVarInt();
+        if (index < 0 || index >= dictionary.length)
+            throw new IOException("Invalid dictionary index " + index);
+        return dictionary[index];
+    }
+
+    private static int flag(boolean set, int flag) {
+        return set ? flag : 0;
+    }
+
+    private static final class Dictionary {
+        /* Distinct strings of a file in order of first appearance */
+        final List<String> strings = new ArrayList<>();
+        private final Map<String, Integer> indexes = new HashMap<>();
+
+        void addAll(LogItem item) {
+            addBase(item.getDiscrepancy());
+            add(item.getDiscrepancy().getFlightNumber());
+            add(item.getDiscrepancy().getOperationLog());
+            addBase(item.getCorrectiveAction());
+            add(item.getCorrectiveAction().getDeferralBasis());
+            for (LogItem.ComponentsChanged.ComponentChange change :
+                    item.getComponentsChanged().getComponentChanges()) {
+                add(change.getInstalledPartNumber());
+                add(change.getInstalledSerialNumber());
+                add(change.getRemovedPartNumber());
+                add(change.getRemovedSerialNumber());
+            }
+        }
+
+        private void addBase(LogItem.BaseLogItem base) {
+            add(base.getStation());
+            add(base.getAtaChapter());
+            add(base.getDescription());
+            add(base.getEmployee().getEmployeeName());
+            add(base.getEmployee().getEmployeeLicense());
+        }
+
+        private void add(String value) {
+            if (value == null || indexes.containsKey(value)) return;
+            indexes.put(value, strings.size());
+            strings.add(value);
+        }
+
+        int indexOf(String value) {
+            return indexes.get(value);
+        }
+    }
+}
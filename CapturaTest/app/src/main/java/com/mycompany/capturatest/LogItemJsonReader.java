@@ -0,0 +1,251 @@
+package com.mycompany.capturatest;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+public class LogItemJsonReader implements Closeable {
+    /* Reads back LogItems written by LogItem.toJSON() or LogItemJsonWriter, one at a time
+     *
+     * Accepts either a JSON array of items or JSON lines (one item per line), whichever the
+     * stream starts with. Only the item being returned is held in memory.
+     *
+     * Callers can restrict which fields are materialized by passing their paths, for example
+     * "discrepancy.ataChapter" or "componentsChanged". Everything else is skipped by the parser
+     * without being decoded. With no paths every field is read.
+     *
+     * Item numbers aren't part of the JSON, they are assigned by position in the stream, one
+     * page (ITEMS_PER_PAGE items) after another.
+     */
+    private final JsonPullParser parser;
+    private final String[] fields;
+    private final LogDateCodec dateCodec;
+    private boolean started;
+    private int itemsRead;
+
+    LogItemJsonReader(Reader in, String... fields) {
+        parser = new JsonPullParser(in);
+        this.fields = fields.length == 0 ? null : Arrays.copyOf(fields, fields.length);
+        dateCodec = LogDateCodec.getDefault();
+    }
+
+    LogItemJsonReader(InputStream in, String... fields) {
+        this(new BufferedReader(new InputStreamReader(in, LogItemJsonWriter.UTF_8)), fields);
+    }
+
+    public boolean hasNext() throws IOException {
+        if (!started) {
+            started = true;
+            // Otherwise it's a JSON lines stream
+            if (parser.peek() == JsonPullParser.Token.BEGIN_ARRAY) parser.beginArray();
+        }
+        return parser.hasNext();
+    }
+
+    public LogItem next() throws IOException {
+        if (!hasNext()) throw new NoSuchElementException();
+        LogItem item = new LogItem(itemsRead % LogItem.ITEMS_PER_PAGE + 1);
+        itemsRead++;
+        readLogItem(item);
+        return item;
+    }
+
+    @Override
+    public void close() throws IOException {
+        parser.close();
+    }
+
+    private void readLogItem(LogItem item) throws IOException {
+        parser.beginObject();
+        while (parser.hasNext()) {
+            String name = parser.nextName();
+            if (!wants(null, name)) {
+                parser.skipValue();
+                continue;
+            }
+            switch (name) {
+                case LogJsonKeys.CANCELED_ITEM:
+                    item.setCanceled(parser.nextBoolean());
+                    break;
+                case LogJsonKeys.DISCREPANCY:
+                    readDiscrepancy(item.getDiscrepancy());
+                    break;
+                case LogJsonKeys.CORRECTIVE_ACTION:
+                    readCorrectiveAction(item.getCorrectiveAction());
+                    break;
+                case LogJsonKeys.COMPONENTS_CHANGED:
+                    readComponentsChanged(item.getComponentsChanged());
+                    break;
+                default:
+                    parser.skipValue();
+            }
+        }
+        parser.endObject();
+    }
+
+    private void readDiscrepancy(LogItem.Discrepancy discrepancy) throws IOException {
+        final String path = LogJsonKeys.DISCREPANCY;
+        parser.beginObject();
+        while (parser.hasNext()) {
+            String name = parser.nextName();
+            if (!wants(path, name)) {
+                parser.skipValue();
+            } else if (name.equals(LogJsonKeys.FLIGHT_NUMBER)) {
+                discrepancy.setFlightNumber(parser.nextStringOrNull());
+            } else if (name.equals(LogJsonKeys.OPERATION_LOG)) {
+                discrepancy.setOperationLog(parser.nextStringOrNull());
+            } else {
+                readBaseField(discrepancy, path, name);
+            }
+        }
+        parser.endObject();
+    }
+
+    private void readCorrectiveAction(LogItem.CorrectiveAction correctiveAction)
+            throws IOException {
+        final String path = LogJsonKeys.CORRECTIVE_ACTION;
+        parser.beginObject();
+        while (parser.hasNext()) {
+            String name = parser.nextName();
+            if (!wants(path, name)) {
+                parser.skipValue();
+            } else if (name.equals(LogJsonKeys.DEFERRED)) {
+                correctiveAction.setDeferred(parser.nextBoolean());
+            } else if (name.equals(LogJsonKeys.DEFERRAL_BASIS)) {
+                correctiveAction.setDeferralBasis(parser.nextStringOrNull());
+            } else {
+                readBaseField(correctiveAction, path, name);
+            }
+        }
+        parser.endObject();
+    }
+
+    private void readBaseField(LogItem.BaseLogItem base, String path, String name)
+            throws IOException {
+        switch (name) {
+            case LogJsonKeys.STATION:
+                base.setStation(parser.nextStringOrNull());
+                break;
+            case LogJsonKeys.ATA_CHAPTER:
+                base.setAtaChapter(parser.nextStringOrNull());
+                break;
+            case LogJsonKeys.DATE_REPORTED:
+                String date = parser.nextStringOrNull();
+                try {
+                    base.setDate(date == null ? null : dateCodec.parse(date));
+                } catch (ParseException ex) {
+                    throw new IOException("Invalid date " + date, ex);
+                }
+                break;
+            case LogJsonKeys.REPORTED_BY:
+                readEmployee(base.getEmployee(), path + '.' + LogJsonKeys.REPORTED_BY);
+                break;
+            case LogJsonKeys.DESCRIPTION:
+                base.setDescription(parser.nextStringOrNull());
+                break;
+            case LogJsonKeys.CANCELED:
+                base.setCanceled(parser.nextBoolean());
+                break;
+            default:
+                parser.skipValue();
+        }
+    }
+
+    private void readEmployee(LogItem.Employee employee, String path) throws IOException {
+        parser.beginObject();
+        while (parser.hasNext()) {
+            String name = parser.nextName();
+            if (!wants(path, name)) {
+                parser.skipValue();
+                continue;
+            }
+            switch (name) {
+                case LogJsonKeys.EMPLOYEE_NAME:
+                    employee.setEmployeeName(parser.nextStringOrNull());
+                    break;
+                case LogJsonKeys.EMPLOYEE_LICENSE:
+                    employee.setEmployeeLicense(parser.nextStringOrNull());
+                    break;
+                case LogJsonKeys.EMPLOYEE_IS_CREW:
+                    employee.setCrew(parser.nextBoolean());
+                    break;
+                default:
+                    parser.skipValue();
+            }
+        }
+        parser.endObject();
+    }
+
+    private void readComponentsChanged(LogItem.ComponentsChanged componentsChanged)
+            throws IOException {
+        final String path = LogJsonKeys.COMPONENTS_CHANGED;
+        parser.beginArray();
+        while (parser.hasNext()) {
+            LogItem.ComponentsChanged.ComponentChange change =
+                    componentsChanged.addComponentChange();
+            parser.beginObject();
+            while (parser.hasNext()) {
+                String name = parser.nextName();
+                if (!wants(path, name)) {
+                    parser.skipValue();
+                } else if (name.equals(LogJsonKeys.COMPONENT_INSTALLED)) {
+                    // The part numbers can only be set once the component is marked as installed
+                    change.setComponentInstalled(true);
+                    String[] part = readPart(path + '.' + name);
+                    change.setInstalledPartNumber(part[0]);
+                    change.setInstalledSerialNumber(part[1]);
+                } else if (name.equals(LogJsonKeys.COMPONENT_REMOVED)) {
+                    change.setComponentRemoved(true);
+                    String[] part = readPart(path + '.' + name);
+                    change.setRemovedPartNumber(part[0]);
+                    change.setRemovedSerialNumber(part[1]);
+                } else {
+                    parser.skipValue();
+                }
+            }
+            parser.endObject();
+        }
+        parser.endArray();
+    }
+
+    private String[] readPart(String path) throws IOException {
+        // Returns {partNumber, serialNumber}
+        String[] part = new String[2];
+        parser.beginObject();
+        while (parser.hasNext()) {
+            String name = parser.nextName();
+            if (!wants(path, name)) parser.skipValue();
+            else if (name.equals(LogJsonKeys.PART_NUMBER)) part[0] = parser.nextStringOrNull();
+            else if (name.equals(LogJsonKeys.SERIAL_NUMBER)) part[1] = parser.nextStringOrNull();
+            else parser.skipValue();
+        }
+        parser.endObject();
+        return part;
+    }
+
+    private boolean wants(String parent, String name) {
+        /* Checks whether the field at parent.name has to be read
+         *
+         * It does if it was asked for, if one of its parents was asked for (the whole object is
+         * wanted) or if one of its children was asked for (we need to go inside of it).
+         */
+        if (fields == null) return true;
+        String path = parent == null ? name : parent + '.' + name;
+        for (String field : fields) {
+            if (isPrefix(path, field) || isPrefix(field, path)) return true;
+        }
+        return false;
+    }
+
+    private static boolean isPrefix(String prefix, String path) {
+        // True if prefix is path itself or one of its parents
+        return path.startsWith(prefix)
+                && (path.length() == prefix.length() || path.charAt(prefix.length()) == '.');
+    }
+}
@@ -0,0 +1,312 @@
+package com.mycompany.capturatest;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Date;
+
+public class LogItemJsonWriter implements Closeable, Flushable {
+    /* Streaming counterpart of LogItem.toJSON()
+     *
+     * Writes each LogItem straight to the underlying Writer without building a JSONObject tree,
+     * so exporting a whole fleet only ever holds one entry in memory. The output has the same
+     * keys, key order and escaping as LogItem.toJSON().toString().
+     *
+     * Items can be written as a JSON array (beginArray/write/endArray) or as JSON lines
+     * (writeLine), which is the format read back by LogItemJsonReader.
+     *
+     * The discrepancy, corrective action and component changes are rendered once and cached in
+     * the item until one of their fields changes, so writing a mostly unchanged page again only
+     * serializes what was edited.
+     *
+     * Not thread safe, use one writer per export. Several exports may write the same items at
+     * once as long as nobody edits them meanwhile, see LogItem.CachedJson.
+     */
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private Writer out;
+    private final LogDateCodec dateCodec;
+    // Target while rendering a nested object to be cached
+    private StringWriter scratch;
+    private boolean inArray;
+    private boolean firstInArray;
+
+    LogItemJsonWriter(Writer out) {
+        this.out = out;
+        dateCodec = LogDateCodec.getDefault();
+    }
+
+    LogItemJsonWriter(OutputStream out) {
+        this(new BufferedWriter(new OutputStreamWriter(out, UTF_8)));
+    }
+
+    public void beginArray() throws IOException {
+        if (inArray) throw new IllegalStateException("Array already started");
+        out.write('[');
+        inArray = true;
+        firstInArray = true;
+    }
+
+    public void endArray() throws IOException {
+        if (!inArray) throw new IllegalStateException("No array was started");
+        out.write(']');
+        inArray = false;
+    }
+
+    public void write(LogItem item) throws IOException {
+        // Write a single item, separated by a comma if we are inside an array
+        if (inArray) {
+            if (!firstInArray) out.write(',');
+            firstInArray = false;
+        }
+        writeLogItem(item);
+    }
+
+    public void writeLine(LogItem item) throws IOException {
+        // Write a single item followed by a new line (JSON lines format)
+        if (inArray) throw new IllegalStateException("Can't write JSON lines inside an array");
+        writeLogItem(item);
+        out.write('\n');
+    }
+
+    static String toJSONString(LogItem item) {
+        StringWriter text = new StringWriter();
+        try {
+            new LogItemJsonWriter(text).write(item);
+        } catch (IOException ex) {
+            // StringWriter doesn't throw
+            throw new IllegalStateException(ex);
+        }
+        return text.toString();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void writeLogItem(LogItem item) throws IOException {
+        out.write('{');
+        if (item.isCanceled()) {
+            // If the whole item is cancelled only add this
+            name(LogJsonKeys.CANCELED_ITEM, true);
+            out.write("true");
+        } else {
+            LogItem.Discrepancy discrepancy = item.getDiscrepancy();
+            name(LogJsonKeys.DISCREPANCY, true);
+            String json = discrepancy.getCachedJson(dateCodec);
+            if (json == null) {
+                Writer target = beginCaching();
+                writeDiscrepancy(discrepancy);
+                json = endCaching(target);
+                discrepancy.setCachedJson(json, dateCodec);
+            }
+            out.write(json);
+
+            LogItem.CorrectiveAction correctiveAction = item.getCorrectiveAction();
+            name(LogJsonKeys.CORRECTIVE_ACTION, false);
+            json = correctiveAction.getCachedJson(dateCodec);
+            if (json == null) {
+                Writer target = beginCaching();
+                writeCorrectiveAction(correctiveAction);
+                json = endCaching(target);
+                correctiveAction.setCachedJson(json, dateCodec);
+            }
+            out.write(json);
+
+            LogItem.ComponentsChanged componentsChanged = item.getComponentsChanged();
+            if (componentsChanged.numberOfComponentChanges() > 0) {
+                name(LogJsonKeys.COMPONENTS_CHANGED, false);
+                json = componentsChanged.getCachedJson();
+                if (json == null) {
+                    Writer target = beginCaching();
+                    writeComponentsChanged(componentsChanged);
+                    json = endCaching(target);
+                    componentsChanged.setCachedJson(json);
+                }
+                out.write(json);
+            }
+        }
+        out.write('}');
+    }
+
+    private Writer beginCaching() {
+        // Sends the output to the scratch buffer, returns the writer to restore
+        if (scratch == null) scratch = new StringWriter();
+        scratch.getBuffer().setLength(0);
+        Writer target = out;
+        out = scratch;
+        return target;
+    }
+
+    private String endCaching(Writer target) {
+        out = target;
+        return scratch.toString();
+    }
+
+    private void writeDiscrepancy(LogItem.Discrepancy discrepancy) throws IOException {
+        out.write('{');
+        boolean first = writeBaseLogItem(discrepancy);
+        if (!discrepancy.isCanceled()) {
+            first = stringField(LogJsonKeys.FLIGHT_NUMBER, discrepancy.getFlightNumber(), first);
+            stringField(LogJsonKeys.OPERATION_LOG, discrepancy.getOperationLog(), first);
+        }
+        out.write('}');
+    }
+
+    private void writeCorrectiveAction(LogItem.CorrectiveAction correctiveAction)
+            throws IOException {
+        out.write('{');
+        boolean first = writeBaseLogItem(correctiveAction);
+        if (!correctiveAction.isCanceled()) {
+            name(LogJsonKeys.DEFERRED, first);
+            out.write(correctiveAction.isDeferred() ? "true" : "false");
+            if (correctiveAction.isDeferred())
+                stringField(LogJsonKeys.DEFERRAL_BASIS, correctiveAction.getDeferralBasis(),
+                        false);
+        }
+        out.write('}');
+    }
+
+    private boolean writeBaseLogItem(LogItem.BaseLogItem base) throws IOException {
+        /* Writes the fields shared by discrepancies and corrective actions
+         *
+         * Returns true if nothing was written yet, so the caller knows whether the next field
+         * needs a comma before it.
+         */
+        if (base.isCanceled()) {
+            // If item is canceled we don't need to add anything to it
+            name(LogJsonKeys.CANCELED, true);
+            out.write("true");
+            return false;
+        }
+        boolean first = stringField(LogJsonKeys.STATION, base.getStation(), true);
+        first = stringField(LogJsonKeys.ATA_CHAPTER, base.getAtaChapter(), first);
+        Date date = base.getDate();
+        if (date != null)
+            first = stringField(LogJsonKeys.DATE_REPORTED, dateCodec.format(date), first);
+        name(LogJsonKeys.REPORTED_BY, first);
+        writeEmployee(base.getEmployee());
+        stringField(LogJsonKeys.DESCRIPTION, base.getDescription(), false);
+        return false;
+    }
+
+    private void writeEmployee(LogItem.Employee employee) throws IOException {
+        out.write('{');
+        boolean first = stringField(LogJsonKeys.EMPLOYEE_NAME, employee.getEmployeeName(), true);
+        first = stringField(LogJsonKeys.EMPLOYEE_LICENSE, employee.getEmployeeLicense(), first);
+        name(LogJsonKeys.EMPLOYEE_IS_CREW, first);
+        out.write(employee.isCrew() ? "true" : "false");
+        out.write('}');
+    }
+
+    private void writeComponentsChanged(LogItem.ComponentsChanged componentsChanged)
+            throws IOException {
+        out.write('[');
+        boolean first = true;
+        for (LogItem.ComponentsChanged.ComponentChange change :
+                componentsChanged.getComponentChanges()) {
+            if (!first) out.write(',');
+            first = false;
+            out.write('{');
+            boolean firstField = true;
+            if (change.isComponentInstalled()) {
+                name(LogJsonKeys.COMPONENT_INSTALLED, true);
+                writePart(change.getInstalledPartNumber(), change.getInstalledSerialNumber());
+                firstField = false;
+            }
+            if (change.isComponentRemoved()) {
+                name(LogJsonKeys.COMPONENT_REMOVED, firstField);
+                writePart(change.getRemovedPartNumber(), change.getRemovedSerialNumber());
+            }
+            out.write('}');
+        }
+        out.write(']');
+    }
+
+    private void writePart(String partNumber, String serialNumber) throws IOException {
+        out.write('{');
+        boolean first = stringField(LogJsonKeys.PART_NUMBER, partNumber, true);
+        stringField(LogJsonKeys.SERIAL_NUMBER, serialNumber, first);
+        out.write('}');
+    }
+
+    private boolean stringField(String key, String value, boolean first) throws IOException {
+        // Null values are skipped, just like JSONObject.put does
+        if (value == null) return first;
+        name(key, first);
+        string(value);
+        return false;
+    }
+
+    private void name(String key, boolean first) throws IOException {
+        if (!first) out.write(',');
+        string(key);
+        out.write(':');
+    }
+
+    private void string(String value) throws IOException {
+        // Same escaping rules as org.json.JSONStringer
+        out.write('"');
+        int length = value.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String replacement;
+            switch (c) {
+                case '"':
+                    replacement = "\\\"";
+                    break;
+                case '\\':
+                    replacement = "\\\\";
+                    break;
+                case '/':
+                    replacement = "\\/";
+                    break;
+                case '\t':
+                    replacement = "\\t";
+                    break;
+                case '\b':
+                    replacement = "\\b";
+                    break;
+                case '\n':
+                    replacement = "\\n";
+                    break;
+                case '\r':
+                    replacement = "\\r";
+                    break;
+                case '\f':
+                    replacement = "\\f";
+                    break;
+                default:
+                    if (c > 0x1F) continue;
+                    replacement = null;
+            }
+            // Copy the unescaped run in one go
+            if (start < i) out.write(value, start, i - start);
+            if (replacement != null) out.write(replacement);
+            else unicodeEscape(c);
+            start = i + 1;
+        }
+        if (start < length) out.write(value, start, length - start);
+        out.write('"');
+    }
+
+    private void unicodeEscape(char c) throws IOException {
+        final String hex = "0123456789abcdef";
+        out.write("\\u00");
+        out.write(hex.charAt((c >> 4) & 0xF));
+        out.write(hex.charAt(c & 0xF));
+    }
+}
@@ -0,0 +1,419 @@
+package com.mycompany.capturatest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+final class LogItemSnapshot {
+    /* Immutable copy of a LogItem
+     *
+     * LogItem is edited in place and can't be read from another thread while the UI changes
+     * it. A snapshot can: every field is final and the component changes are an unmodifiable
+     * list, so once it's published (see LogPageState) autosave, sync or export can serialize
+     * it while the UI builds the next version.
+     *
+     * New versions are made with a Builder, usually from toBuilder(). Whatever isn't changed
+     * (a Part, the component changes) is shared with the previous version, not copied.
+     */
+    static final long NO_DATE = Long.MIN_VALUE;
+
+    private final int logItemNumber;
+    private final boolean canceled;
+    private final Part discrepancy;
+    private final Part correctiveAction;
+    private final List<ComponentChange> componentChanges;
+
+    private LogItemSnapshot(Builder builder) {
+        logItemNumber = builder.logItemNumber;
+        canceled = builder.canceled;
+        discrepancy = builder.discrepancy;
+        correctiveAction = builder.correctiveAction;
+        componentChanges = builder.componentChanges;
+    }
+
+    static Builder builder(int logItemNumber) {
+        return new Builder(logItemNumber);
+    }
+
+    static LogItemSnapshot of(LogItem item) {
+        // Must be called on the thread that edits the item
+        List<ComponentChange> changes = new ArrayList<>();
+        for (LogItem.ComponentsChanged.ComponentChange change :
+                item.getComponentsChanged().getComponentChanges())
+            changes.add(ComponentChange.of(change));
+        return builder(item.getLogItemNumber())
+                .canceled(item.isCanceled())
+                .discrepancy(Part.of(item.getDiscrepancy()))
+                .correctiveAction(Part.of(item.getCorrectiveAction()))
+                .componentChanges(changes)
+                .build();
+    }
+
+    LogItem toLogItem() {
+        // A new, mutable LogItem with the same fields
+        LogItem item = new LogItem(logItemNumber);
+        discrepancy.copyTo(item.getDiscrepancy());
+        item.getDiscrepancy().setFlightNumber(discrepancy.flightNumber);
+        item.getDiscrepancy().setOperationLog(discrepancy.operationLog);
+        correctiveAction.copyTo(item.getCorrectiveAction());
+        item.getCorrectiveAction().setDeferred(correctiveAction.deferred);
+        item.getCorrectiveAction().setDeferralBasis(correctiveAction.deferralBasis);
+        for (ComponentChange change : componentChanges)
+            change.copyTo(item.getComponentsChanged().addComponentChange());
+        item.setCanceled(canceled);
+        return item;
+    }
+
+    Builder toBuilder() {
+        Builder builder = builder(logItemNumber)
+                .canceled(canceled)
+                .discrepancy(discrepancy)
+                .correctiveAction(correctiveAction);
+        // Already unmodifiable, shared as is
+        builder.componentChanges = componentChanges;
+        return builder;
+    }
+
+    int getLogItemNumber() {
+        return logItemNumber;
+    }
+
+    boolean isCanceled() {
+        return canceled;
+    }
+
+    Part getDiscrepancy() {
+        return discrepancy;
+    }
+
+    Part getCorrectiveAction() {
+        return correctiveAction;
+    }
+
+    List<ComponentChange> getComponentChanges() {
+        return componentChanges;
+    }
+
+    static final class Builder {
+        private final int logItemNumber;
+        private boolean canceled;
+        private Part discrepancy = Part.EMPTY;
+        private Part correctiveAction = Part.EMPTY;
+        private List<ComponentChange> componentChanges = Collections.emptyList();
+
+        private Builder(int logItemNumber) {
+            this.logItemNumber = logItemNumber;
+        }
+
+        Builder canceled(boolean canceled) {
+            this.canceled = canceled;
+            return this;
+        }
+
+        Builder discrepancy(Part discrepancy) {
+            this.discrepancy = discrepancy;
+            return this;
+        }
+
+        Builder correctiveAction(Part correctiveAction) {
+            this.correctiveAction = correctiveAction;
+            return this;
+        }
+
+        Builder componentChanges(List<ComponentChange> changes) {
+            componentChanges = Collections.unmodifiableList(new ArrayList<>(changes));
+            return this;
+        }
+
+        Builder addComponentChange(ComponentChange change) {
+            List<ComponentChange> changes = new ArrayList<>(componentChanges);
+            changes.add(change);
+            componentChanges = Collections.unmodifiableList(changes);
+            return this;
+        }
+
+        LogItemSnapshot build() {
+            return new LogItemSnapshot(this);
+        }
+    }
+
+    static final class Part {
+        /* Discrepancy or corrective action
+         *
+         * flightNumber and operationLog are only used by the discrepancy, deferred and
+         * deferralBasis only by the corrective action.
+         */
+        static final Part EMPTY = new Part.Builder().build();
+
+        private final String station;
+        private final String ataChapter;
+        private final long date;
+        private final String description;
+        private final String employeeName;
+        private final String employeeLicense;
+        private final boolean crew;
+        private final boolean canceled;
+        private final String flightNumber;
+        private final String operationLog;
+        private final boolean deferred;
+        private final String deferralBasis;
+
+        private Part(Builder builder) {
+            station = builder.station;
+            ataChapter = builder.ataChapter;
+            date = builder.date;
+            description = builder.description;
+            employeeName = builder.employeeName;
+            employeeLicense = builder.employeeLicense;
+            crew = builder.crew;
+            canceled = builder.canceled;
+            flightNumber = builder.flightNumber;
+            operationLog = builder.operationLog;
+            deferred = builder.deferred;
+            deferralBasis = builder.deferralBasis;
+        }
+
+        static Part of(LogItem.BaseLogItem base) {
+            Builder builder = new Builder()
+                    .station(base.getStation())
+                    .ataChapter(base.getAtaChapter())
+                    .date(base.getDate())
+                    .description(base.getDescription())
+                    .employeeName(base.getEmployee().getEmployeeName())
+                    .employeeLicense(base.getEmployee().getEmployeeLicense())
+                    .crew(base.getEmployee().isCrew())
+                    .canceled(base.isCanceled());
+            if (base instanceof LogItem.Discrepancy) {
+                LogItem.Discrepancy discrepancy = (LogItem.Discrepancy) base;
+                builder.flightNumber(discrepancy.getFlightNumber())
+                        .operationLog(discrepancy.getOperationLog());
+            } else if (base instanceof LogItem.CorrectiveAction) {
+                LogItem.CorrectiveAction correctiveAction = (LogItem.CorrectiveAction) base;
+                builder.deferred(correctiveAction.isDeferred())
+                        .deferralBasis(correctiveAction.getDeferralBasis());
+            }
+            return builder.build();
+        }
+
+        private void copyTo(LogItem.BaseLogItem base) {
+            base.setStation(station);
+            base.setAtaChapter(ataChapter);
+            base.setDate(getDate());
+            base.setDescription(description);
+            base.getEmployee().setEmployeeName(employeeName);
+            base.getEmployee().setEmployeeLicense(employeeLicense);
+            base.getEmployee().setCrew(crew);
+            base.setCanceled(canceled);
+        }
+
+        Builder toBuilder() {
+            Builder builder = new Builder();
+            builder.station = station;
+            builder.ataChapter = ataChapter;
+            builder.date = date;
+            builder.description = description;
+            builder.employeeName = employeeName;
+            builder.employeeLicense = employeeLicense;
+            builder.crew = crew;
+            builder.canceled = canceled;
+            builder.flightNumber = flightNumber;
+            builder.operationLog = operationLog;
+            builder.deferred = deferred;
+            builder.deferralBasis = deferralBasis;
+            return builder;
+        }
+
+        String getStation() {
+            return station;
+        }
+
+        String getAtaChapter() {
+            return ataChapter;
+        }
+
+        Date getDate() {
+            return date == NO_DATE ? null : new Date(date);
+        }
+
+        long getDateMillis() {
+            return date;
+        }
+
+        String getDescription() {
+            return description;
+        }
+
+        String getEmployeeName() {
+            return employeeName;
+        }
+
+        String getEmployeeLicense() {
+            return employeeLicense;
+        }
+
+        boolean isCrew() {
+            return crew;
+        }
+
+        boolean isCanceled() {
+            return canceled;
+        }
+
+        String getFlightNumber() {
+            return flightNumber;
+        }
+
+        String getOperationLog() {
+            return operationLog;
+        }
+
+        boolean isDeferred() {
+            return deferred;
+        }
+
+        String getDeferralBasis() {
+            return deferralBasis;
+        }
+
+        static final class Builder {
+            private String station;
+            private String ataChapter;
+            private long date = NO_DATE;
+            private String description;
+            private String employeeName;
+            private String employeeLicense;
+            private boolean crew;
+            private boolean canceled;
+            private String flightNumber;
+            private String operationLog;
+            private boolean deferred;
+            private String deferralBasis;
+
+            Builder station(String station) {
+                this.station = station;
+                return this;
+            }
+
+            Builder ataChapter(String ataChapter) {
+                this.ataChapter = ataChapter;
+                return this;
+            }
+
+            Builder date(Date date) {
+                this.date = date == null ? NO_DATE : date.getTime();
+                return this;
+            }
+
+            Builder description(String description) {
+                this.description = description;
+                return this;
+            }
+
+            Builder employeeName(String employeeName) {
+                this.employeeName = employeeName;
+                return this;
+            }
+
+            Builder employeeLicense(String employeeLicense) {
+                this.employeeLicense = employeeLicense;
+                return this;
+            }
+
+            Builder crew(boolean crew) {
+                this.crew = crew;
+                return this;
+            }
+
+            Builder canceled(boolean canceled) {
+                this.canceled = canceled;
+                return this;
+            }
+
+            Builder flightNumber(String flightNumber) {
+                this.flightNumber = flightNumber;
+                return this;
+            }
+
+            Builder operationLog(String operationLog) {
+                this.operationLog = operationLog;
+                return this;
+            }
+
+            Builder deferred(boolean deferred) {
+                this.deferred = deferred;
+                return this;
+            }
+
+            Builder deferralBasis(String deferralBasis) {
+                this.deferralBasis = deferralBasis;
+                return this;
+            }
+
+            Part build() {
+                return new Part(this);
+            }
+        }
+    }
+
+    static final class ComponentChange {
+        private final boolean installed;
+        private final String installedPartNumber;
+        private final String installedSerialNumber;
+        private final boolean removed;
+        private final String removedPartNumber;
+        private final String removedSerialNumber;
+
+        ComponentChange(boolean installed, String installedPartNumber,
+                        String installedSerialNumber, boolean removed, String removedPartNumber,
+                        String removedSerialNumber) {
+            this.installed = installed;
+            this.installedPartNumber = installedPartNumber;
+            this.installedSerialNumber = installedSerialNumber;
+            this.removed = removed;
+            this.removedPartNumber = removedPartNumber;
+            this.removedSerialNumber = removedSerialNumber;
+        }
+
+        static ComponentChange of(LogItem.ComponentsChanged.ComponentChange change) {
+            return new ComponentChange(change.isComponentInstalled(),
+                    change.getInstalledPartNumber(), change.getInstalledSerialNumber(),
+                    change.isComponentRemoved(), change.getRemovedPartNumber(),
+                    change.getRemovedSerialNumber());
+        }
+
+        private void copyTo(LogItem.ComponentsChanged.ComponentChange change) {
+            // The part numbers can only be set once the component is marked as installed/removed
+            change.setComponentInstalled(installed);
+            change.setInstalledPartNumber(installedPartNumber);
+            change.setInstalledSerialNumber(installedSerialNumber);
+            change.setComponentRemoved(removed);
+            change.setRemovedPartNumber(removedPartNumber);
+            change.setRemovedSerialNumber(removedSerialNumber);
+        }
+
+        boolean isComponentInstalled() {
+            return installed;
+        }
+
+        String getInstalledPartNumber() {
+            return installedPartNumber;
+        }
+
+        String getInstalledSerialNumber() {
+            return installedSerialNumber;
+        }
+
+        boolean isComponentRemoved() {
+            return removed;
+        }
+
+        String getRemovedPartNumber() {
+            return removedPartNumber;
+        }
+
+        String getRemovedSerialNumber() {
+            return removedSerialNumber;
+        }
+    }
+}
@@ -0,0 +1,490 @@
+package com.mycompany.capturatest;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+public class LogJournal implements LogStore.Listener, Closeable {
+    /* Write-ahead journal of the log pages being edited, so an app kill doesn't lose them
+     *
+     * Tracked pages report every setter call through LogItem.ChangeListener. Each one becomes a
+     * small record (page, item, LogField, new value) appended to an in-memory buffer, which a
+     * background thread writes to the file once flushIntervalMillis pass or flushBytes pile up.
+     * The editing thread never touches the disk.
+     *
+     * Records:
+     *   - record: length (varint), CRC32 of the payload (int), payload
+     *   - payload: type, varint page id, then
+     *       - BEGIN_PAGE: aircraft, folio, dirty flag, items encoded with LogItemBinaryCodec
+     *       - ADD_ITEM: the item encoded with LogItemBinaryCodec
+     *       - CHANGE: varint item position, part, varint index, field, tagged value
+     *       - SAVED, CLOSE_PAGE: nothing else
+     *
+     * On open the journal is replayed: each page starts from its BEGIN_PAGE snapshot and gets
+     * every change applied again through the setters, which rebuilds it exactly. Pages with
+     * changes after their last SAVED record are returned by getRecoveredPages(), already
+     * tracked again. A torn record at the end (the app died mid write) ends the replay, a whole
+     * record that can't be applied (an item or field that isn't there) is skipped.
+     *
+     * Pages are marked SAVED when they are put in a LogStore this journal listens to. Once every
+     * tracked page is saved the file is emptied and starts over from fresh snapshots, so it
+     * only ever holds the edits of the pages currently open.
+     */
+    static final class Options {
+        long flushIntervalMillis = 200;
+        int flushBytes = 16 * 1024;
+        // fsync after every flush
+        boolean syncOnFlush = true;
+    }
+
+    private static final int TYPE_BEGIN_PAGE = 0;
+    private static final int TYPE_ADD_ITEM = 1;
+    private static final int TYPE_CHANGE = 2;
+    private static final int TYPE_SAVED = 3;
+    private static final int TYPE_CLOSE_PAGE = 4;
+
+    private static final int VALUE_NULL = 0;
+    private static final int VALUE_FALSE = 1;
+    private static final int VALUE_TRUE = 2;
+    private static final int VALUE_STRING = 3;
+    private static final int VALUE_DATE = 4;
+
+    private final File file;
+    private final Options options;
+    private final ScheduledExecutorService flusher;
+    private FileChannel channel;
+
+    // Guards everything below
+    private final Object lock = new Object();
+    private final Map<LogPage, Tracker> tracked = new LinkedHashMap<>();
+    private final CRC32 crc = new CRC32();
+    private final BinaryOutput record = new BinaryOutput(256);
+    private BinaryOutput pending = new BinaryOutput(4096);
+    private BinaryOutput writing = new BinaryOutput(4096);
+    private boolean truncatePending;
+    private boolean flushScheduled;
+    private boolean flushQueued;
+    private int nextPageId;
+    private IOException failure;
+    private boolean closed;
+
+    private List<LogPage> recovered = Collections.emptyList();
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushPending();
+        }
+    };
+
+    private final class Tracker implements LogPage.ChangeListener {
+        final LogPage page;
+        final int id;
+
+        Tracker(LogPage page, int id) {
+            this.page = page;
+            this.id = id;
+        }
+
+        @Override
+        public void onFieldChanged(LogItem item, int part, int index, int field,
+                                   Object value) {
+            synchronized (lock) {
+                record.reset();
+                record.writeByte(TYPE_CHANGE);
+                record.writeVarInt(id);
+                record.writeVarInt(page.getItems().indexOf(item));
+                record.writeByte(part);
+                record.writeVarInt(index);
+                record.writeByte(field);
+                writeValue(value);
+                append();
+            }
+        }
+
+        @Override
+        public void onItemAdded(LogPage page, LogItem item) {
+            synchronized (lock) {
+                record.reset();
+                record.writeByte(TYPE_ADD_ITEM);
+                record.writeVarInt(id);
+                LogItemBinaryCodec.encode(Collections.singletonList(item), record);
+                append();
+            }
+        }
+    }
+
+    private static final class Replay {
+        final LogPage page;
+        boolean dirty;
+
+        Replay(LogPage page, boolean dirty) {
+            this.page = page;
+            this.dirty = dirty;
+        }
+    }
+
+    private LogJournal(File file, Options options) {
+        this.file = file;
+        this.options = options;
+        flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "LogJournal-flusher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    static LogJournal open(File file) throws IOException {
+        return open(file, new Options());
+    }
+
+    static LogJournal open(File file, Options options) throws IOException {
+        LogJournal journal = new LogJournal(file, options);
+        try {
+            journal.recover();
+        } catch (IOException ex) {
+            journal.flusher.shutdown();
+            throw ex;
+        }
+        return journal;
+    }
+
+    List<LogPage> getRecoveredPages() {
+        // Pages with unsaved edits found when the journal was opened, tracked again
+        return recovered;
+    }
+
+    void track(LogPage page) {
+        // Starts journaling the edits of page, from its current state
+        Tracker tracker;
+        synchronized (lock) {
+            if (tracked.containsKey(page)) return;
+            tracker = new Tracker(page, nextPageId++);
+            tracked.put(page, tracker);
+            begin(tracker);
+            append();
+        }
+        page.setChangeListener(tracker);
+    }
+
+    void untrack(LogPage page) {
+        // The page was closed, saved or not its edits are no longer needed
+        page.setChangeListener(null);
+        synchronized (lock) {
+            Tracker tracker = tracked.remove(page);
+            if (tracker == null) return;
+            record.reset();
+            record.writeByte(TYPE_CLOSE_PAGE);
+            record.writeVarInt(tracker.id);
+            append();
+            checkpointIfClean();
+        }
+    }
+
+    @Override
+    public void onPageSaved(LogPage page) {
+        synchronized (lock) {
+            // Another copy of the page being saved doesn't save our edits
+            Tracker tracker = tracked.get(page);
+            if (tracker == null) return;
+            record.reset();
+            record.writeByte(TYPE_SAVED);
+            record.writeVarInt(tracker.id);
+            append();
+            checkpointIfClean();
+        }
+    }
+
+    @Override
+    public void onPageDeleted(PageKey key) {
+        // Open pages keep their edits, they can still be saved again
+    }
+
+    void flush() throws IOException {
+        // Writes everything appended so far, waiting for it to be on disk
+        Future<?> future;
+        synchronized (lock) {
+            if (closed) throw new IOException("Journal closed");
+            future = flusher.submit(flushTask);
+        }
+        try {
+            future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while flushing", ex);
+        } catch (ExecutionException ex) {
+            throw new IOException(ex.getCause());
+        }
+        synchronized (lock) {
+            if (failure != null) throw failure;
+        }
+    }
+
+    long fileBytes() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            synchronized (lock) {
+                closed = true;
+                for (LogPage page : tracked.keySet()) page.setChangeListener(null);
+                tracked.clear();
+            }
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            channel.close();
+        }
+    }
+
+    private void begin(Tracker tracker) {
+        // Called with the lock held, snapshot the page in the record buffer
+        LogPage page = tracker.page;
+        record.reset();
+        record.writeByte(TYPE_BEGIN_PAGE);
+        record.writeVarInt(tracker.id);
+        record.writeString(page.getAircraft());
+        record.writeString(page.getFolio());
+        record.writeByte(page.isDirty() ? 1 : 0);
+        byte[] items = page.encodedItems();
+        record.writeBytes(items, 0, items.length);
+    }
+
+    private void checkpointIfClean() {
+        /* Called with the lock held. With nothing left to recover the journal starts over
+         *
+         * Whatever wasn't flushed yet is dropped, and the file is emptied before the snapshots
+         * of the pages still open are written.
+         */
+        for (LogPage page : tracked.keySet()) if (page.isDirty()) return;
+        pending.reset();
+        truncatePending = true;
+        for (Tracker tracker : tracked.values()) {
+            begin(tracker);
+            append();
+        }
+        scheduleFlush(false);
+    }
+
+    private void writeValue(Object value) {
+        if (value == null) {
+            record.writeByte(VALUE_NULL);
+        } else if (value instanceof Boolean) {
+            record.writeByte((Boolean) value ? VALUE_TRUE : VALUE_FALSE);
+        } else if (value instanceof String) {
+            record.writeByte(VALUE_STRING);
+            record.writeString((String) value);
+        } else if (value instanceof Date) {
+            record.writeByte(VALUE_DATE);
+            record.writeZigZagLong(((Date) value).getTime());
+        } else {
+            throw new IllegalArgumentException("Can't journal " + value.getClass());
+        }
+    }
+
+    private static Object readValue(BinaryInput in) throws IOException {
+        int tag = in.readByte();
+        switch (tag) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_STRING:
+                return in.readString();
+            case VALUE_DATE:
+                return new Date(in.readZigZagLong());
+            default:
+                throw new IOException("Unknown value tag " + tag);
+        }
+    }
+
+    private void append() {
+        // Called with the lock held, queues the record buffer for the flusher
+        if (closed) return;
+        frame();
+        scheduleFlush(pending.size() >= options.flushBytes);
+    }
+
+    private void frame() {
+        // Called with the lock held, adds length and CRC and moves the record to pending
+        crc.reset();
+        crc.update(record.buffer(), 0, record.size());
+        pending.writeVarInt(record.size());
+        pending.writeInt((int) crc.getValue());
+        pending.writeBytes(record.buffer(), 0, record.size());
+    }
+
+    private void scheduleFlush(boolean now) {
+        // Called with the lock held
+        if (closed) return;
+        if (now) {
+            if (flushQueued) return;
+            flushQueued = true;
+            flusher.execute(flushTask);
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            flusher.schedule(flushTask, options.flushIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flushPending() {
+        // Only ever runs on the flusher thread, so writes never interleave
+        BinaryOutput buffer;
+        boolean truncate;
+        synchronized (lock) {
+            // A timer still pending after this just finds nothing to write
+            flushScheduled = false;
+            flushQueued = false;
+            if (pending.size() == 0 && !truncatePending) return;
+            buffer = pending;
+            pending = writing;
+            writing = buffer;
+            truncate = truncatePending;
+            truncatePending = false;
+        }
+        try {
+            if (truncate) channel.truncate(0);
+            ByteBuffer bytes = ByteBuffer.wrap(buffer.buffer(), 0, buffer.size());
+            long position = channel.size();
+            while (bytes.hasRemaining()) position += channel.write(bytes, position);
+            if (options.syncOnFlush) channel.force(false);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            synchronized (lock) {
+                failure = ex;
+            }
+        } finally {
+            buffer.reset();
+        }
+    }
+
+    private void recover() throws IOException {
+        byte[] data = new byte[0];
+        if (file.isFile()) {
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            try {
+                data = new byte[(int) in.length()];
+                in.readFully(data);
+            } finally {
+                in.close();
+            }
+        }
+        Map<Integer, Replay> pages = new LinkedHashMap<>();
+        BinaryInput in = new BinaryInput(data);
+        while (in.remaining() > 0) {
+            byte[] payload;
+            try {
+                int length = in.readVarInt();
+                int expected = in.readInt();
+                if (length < 0 || length > in.remaining()) break;
+                payload = in.readBytes(length);
+                CRC32 check = new CRC32();
+                check.update(payload, 0, length);
+                if ((int) check.getValue() != expected) break;
+            } catch (IOException ex) {
+                // Torn record at the end
+                break;
+            }
+            try {
+                replay(new BinaryInput(payload), pages);
+            } catch (IOException | RuntimeException ex) {
+                // Only this record is lost, the edits after it still replay
+            }
+        }
+
+        List<LogPage> unsaved = new ArrayList<>();
+        for (Replay replay : pages.values()) if (replay.dirty) unsaved.add(replay.page);
+
+        // Start a new file with just the pages being recovered, replacing the old one at once
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            synchronized (lock) {
+                for (LogPage page : unsaved) {
+                    Tracker tracker = new Tracker(page, nextPageId++);
+                    tracked.put(page, tracker);
+                    begin(tracker);
+                    frame();
+                }
+                pending.writeTo(stream);
+                pending.reset();
+            }
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        if (!temp.renameTo(file)) throw new IOException("Can't replace " + file);
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        synchronized (lock) {
+            for (Map.Entry<LogPage, Tracker> entry : tracked.entrySet())
+                entry.getKey().setChangeListener(entry.getValue());
+        }
+        recovered = Collections.unmodifiableList(unsaved);
+    }
+
+    private static void replay(BinaryInput in, Map<Integer, Replay> pages) throws IOException {
+        int type = in.readByte();
+        int id = in.readVarInt();
+        if (type == TYPE_BEGIN_PAGE) {
+            String aircraft = in.readString();
+            String folio = in.readString();
+            boolean dirty = in.readByte() != 0;
+            pages.put(id, new Replay(new LogPage(aircraft, folio, LogItemBinaryCodec.decode(in)),
+                    dirty));
+            return;
+        }
+        Replay replay = pages.get(id);
+        if (replay == null) throw new IOException("Journal record for unknown page " + id);
+        switch (type) {
+            case TYPE_ADD_ITEM:
+                replay.page.addItem(LogItemBinaryCodec.decode(in).get(0));
+                replay.dirty = true;
+                break;
+            case TYPE_CHANGE:
+                LogItem item = replay.page.getItems().get(in.readVarInt());
+                int part = in.readByte();
+                int index = in.readVarInt();
+                int field = in.readByte();
+                LogField.apply(item, part, index, field, readValue(in));
+                replay.dirty = true;
+                break;
+            case TYPE_SAVED:
+                replay.dirty = false;
+                break;
+            case TYPE_CLOSE_PAGE:
+                pages.remove(id);
+                break;
+            default:
+                throw new IOException("Unknown journal record " + type);
+        }
+    }
+}
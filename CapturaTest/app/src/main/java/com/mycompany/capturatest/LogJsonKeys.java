@@ -0,0 +1,57 @@
+package com.mycompany.capturatest;
+
+final class LogJsonKeys {
+    /* Keys used in the JSON representation of a LogItem, and of the pages sent to the back
+     * office by LogSyncQueue.
+     *
+     * Shared by LogItem.toJSON() and every serializer and parser, so they all agree and no
+     * LogItem carries its own copy of the keys.
+     */
+    // LogItem
+    static final String DISCREPANCY = "discrepancy";
+    static final String CORRECTIVE_ACTION = "correctiveAction";
+    static final String COMPONENTS_CHANGED = "componentsChanged";
+    static final String CANCELED_ITEM = "canceledItem";
+
+    // BaseLogItem
+    static final String STATION = "station";
+    static final String ATA_CHAPTER = "ataChapter";
+    static final String DATE_REPORTED = "date";
+    static final String REPORTED_BY = "reportedBy";
+    static final String DESCRIPTION = "description";
+    static final String CANCELED = "canceled";
+
+    // Discrepancy
+    static final String FLIGHT_NUMBER = "flightNumber";
+    static final String OPERATION_LOG = "operationLog";
+
+    // CorrectiveAction
+    static final String DEFERRED = "deferred";
+    static final String DEFERRAL_BASIS = "deferralBasis";
+
+    // Employee
+    static final String EMPLOYEE_NAME = "name";
+    static final String EMPLOYEE_LICENSE = "license";
+    static final String EMPLOYEE_IS_CREW = "isCrew";
+
+    // ComponentChange
+    static final String PART_NUMBER = "partNumber";
+    static final String SERIAL_NUMBER = "serialNumber";
+    static final String COMPONENT_INSTALLED = "installed";
+    static final String COMPONENT_REMOVED = "removed";
+
+    // Sync batches
+    static final String SYNC_PAGES = "pages";
+    static final String SYNC_ID = "id";
+    static final String SYNC_AIRCRAFT = "aircraft";
+    static final String SYNC_FOLIO = "folio";
+    static final String SYNC_ITEMS = "items";
+    // Added to the pages in LogSyncQueue's rejected file
+    static final String SYNC_STATUS = "status";
+
+    // Format of the date field
+    static final String DATE_PATTERN = "dd/MM/yyyy";
+
+    private LogJsonKeys() {
+    }
+}
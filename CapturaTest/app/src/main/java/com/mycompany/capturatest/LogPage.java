@@ -0,0 +1,98 @@
+package com.mycompany.capturatest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class LogPage {
+    /* A page of the maintenance log
+     * Attributes:
+     *   - aircraft (String): Registration of the aircraft the log belongs to (XA-AFH...).
+     *   - folio (String): Folio printed on the page.
+     *   - items (List<LogItem>): Entries of the page, up to ITEMS_PER_PAGE.
+     */
+    private final PageKey key;
+    private final List<LogItem> items;
+    private boolean itemsAdded;
+    // Binary form of the items, valid while every item is still at the version it was encoded at
+    private byte[] encodedItems;
+    private int[] encodedVersions;
+    private ChangeListener changeListener;
+
+    interface ChangeListener extends LogItem.ChangeListener {
+        // Also told about the changes of every item of the page
+        void onItemAdded(LogPage page, LogItem item);
+    }
+
+    LogPage(String aircraft, String folio) {
+        key = new PageKey(aircraft, folio);
+        items = new ArrayList<>(LogItem.ITEMS_PER_PAGE);
+    }
+
+    LogPage(String aircraft, String folio, List<LogItem> items) {
+        this(aircraft, folio);
+        for (LogItem item : items) addItem(item);
+    }
+
+    PageKey getKey() {
+        return key;
+    }
+
+    public String getAircraft() {
+        return key.getAircraft();
+    }
+
+    public String getFolio() {
+        return key.getFolio();
+    }
+
+    public List<LogItem> getItems() {
+        return Collections.unmodifiableList(items);
+    }
+
+    public void addItem(LogItem item) {
+        if (items.size() >= LogItem.ITEMS_PER_PAGE)
+            throw new IllegalStateException("A log page only has " + LogItem.ITEMS_PER_PAGE
+                    + " items");
+        items.add(item);
+        itemsAdded = true;
+        encodedItems = null;
+        if (changeListener != null) {
+            item.setChangeListener(changeListener);
+            changeListener.onItemAdded(this, item);
+        }
+    }
+
+    void setChangeListener(ChangeListener listener) {
+        changeListener = listener;
+        for (LogItem item : items) item.setChangeListener(listener);
+    }
+
+    boolean isDirty() {
+        // An item was added or changed since the page was last saved or read
+        if (itemsAdded) return true;
+        for (LogItem item : items) if (item.isDirty()) return true;
+        return false;
+    }
+
+    void markSaved() {
+        itemsAdded = false;
+        for (LogItem item : items) item.markSaved();
+    }
+
+    byte[] encodedItems() {
+        // Items encoded with LogItemBinaryCodec, only encoded again once one of them changes
+        if (encodedItems != null) {
+            boolean current = true;
+            for (int i = 0; i < items.size() && current; i++)
+                current = items.get(i).getVersion() == encodedVersions[i];
+            if (current) return encodedItems;
+        }
+        // The dictionary is per page, so a changed item means encoding the whole page again
+        int[] versions = new int[items.size()];
+        for (int i = 0; i < versions.length; i++) versions[i] = items.get(i).getVersion();
+        encodedItems = LogItemBinaryCodec.encode(items);
+        encodedVersions = versions;
+        return encodedItems;
+    }
+}
@@ -0,0 +1,56 @@
+package com.mycompany.capturatest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+final class LogPageSnapshot {
+    /* Immutable version of a LogPage, the items are LogItemSnapshots
+     *
+     * with...() methods return a new version sharing every item that didn't change.
+     */
+    private final PageKey key;
+    private final List<LogItemSnapshot> items;
+
+    LogPageSnapshot(PageKey key, List<LogItemSnapshot> items) {
+        if (items.size() > LogItem.ITEMS_PER_PAGE)
+            throw new IllegalArgumentException("A log page only has " + LogItem.ITEMS_PER_PAGE
+                    + " items");
+        this.key = key;
+        this.items = Collections.unmodifiableList(new ArrayList<>(items));
+    }
+
+    static LogPageSnapshot of(LogPage page) {
+        // Must be called on the thread that edits the page
+        List<LogItemSnapshot> items = new ArrayList<>(page.getItems().size());
+        for (LogItem item : page.getItems()) items.add(LogItemSnapshot.of(item));
+        return new LogPageSnapshot(page.getKey(), items);
+    }
+
+    LogPage toLogPage() {
+        // A new, mutable LogPage, what LogStore saves
+        List<LogItem> logItems = new ArrayList<>(items.size());
+        for (LogItemSnapshot item : items) logItems.add(item.toLogItem());
+        return new LogPage(key.getAircraft(), key.getFolio(), logItems);
+    }
+
+    PageKey getKey() {
+        return key;
+    }
+
+    List<LogItemSnapshot> getItems() {
+        return items;
+    }
+
+    LogPageSnapshot withItem(int index, LogItemSnapshot item) {
+        List<LogItemSnapshot> changed = new ArrayList<>(items);
+        changed.set(index, item);
+        return new LogPageSnapshot(key, changed);
+    }
+
+    LogPageSnapshot withItemAdded(LogItemSnapshot item) {
+        List<LogItemSnapshot> changed = new ArrayList<>(items);
+        changed.add(item);
+        return new LogPageSnapshot(key, changed);
+    }
+}
@@ -0,0 +1,79 @@
+package com.mycompany.capturatest;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+final class LogPageState {
+    /* Current version of a page being edited, shared between the UI and background workers
+     *
+     * The page is a LogPageSnapshot in an AtomicReference. The UI publishes a new version
+     * with update(), which builds it from the current one and swaps it in with a compare and
+     * set, trying again if another writer got there first. Readers just get() the current
+     * version, nobody waits on a lock and nobody sees half of an edit.
+     *
+     * Since versions are immutable, "changed since the last save" is a reference comparison:
+     * saveTo() only writes when the current version isn't the one it last saved. It's meant
+     * for a single autosave worker, two concurrent savers could write versions out of order.
+     */
+    interface Edit {
+        // Returns the next version, or current itself for no change. May be called again.
+        LogPageSnapshot apply(LogPageSnapshot current);
+    }
+
+    interface ItemEdit {
+        // Same contract as Edit, for one item of the page
+        LogItemSnapshot apply(LogItemSnapshot current);
+    }
+
+    private final AtomicReference<LogPageSnapshot> current;
+    private final AtomicReference<LogPageSnapshot> saved = new AtomicReference<>();
+
+    LogPageState(LogPageSnapshot initial) {
+        current = new AtomicReference<>(initial);
+    }
+
+    LogPageSnapshot get() {
+        return current.get();
+    }
+
+    void set(LogPageSnapshot snapshot) {
+        current.set(snapshot);
+    }
+
+    boolean compareAndSet(LogPageSnapshot expected, LogPageSnapshot snapshot) {
+        return current.compareAndSet(expected, snapshot);
+    }
+
+    LogPageSnapshot update(Edit edit) {
+        // Returns the version that was published
+        while (true) {
+            LogPageSnapshot snapshot = current.get();
+            LogPageSnapshot next = edit.apply(snapshot);
+            if (next == snapshot || current.compareAndSet(snapshot, next)) return next;
+        }
+    }
+
+    LogPageSnapshot updateItem(final int index, final ItemEdit edit) {
+        return update(new Edit() {
+            @Override
+            public LogPageSnapshot apply(LogPageSnapshot snapshot) {
+                LogItemSnapshot item = snapshot.getItems().get(index);
+                LogItemSnapshot next = edit.apply(item);
+                return next == item ? snapshot : snapshot.withItem(index, next);
+            }
+        });
+    }
+
+    boolean isSaved() {
+        return current.get() == saved.get();
+    }
+
+    boolean saveTo(LogStore store) throws IOException {
+        // Saves the current version unless it's already saved, never blocks the editors
+        LogPageSnapshot snapshot = current.get();
+        if (snapshot == saved.get()) return false;
+        store.put(snapshot.toLogPage());
+        saved.set(snapshot);
+        return true;
+    }
+}
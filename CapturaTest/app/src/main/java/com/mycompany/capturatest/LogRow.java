@@ -0,0 +1,100 @@
+package com.mycompany.capturatest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+final class LogRow {
+    /* Immutable snapshot of what a LogAdapter row shows of a LogItem
+     *
+     * Rows are built off the UI thread and compared by the adapter's differ. The id is derived
+     * from aircraft, folio and item number, so the same entry keeps its id in every snapshot
+     * and RecyclerView can use stable ids. changesFrom() tells which views need to be bound
+     * again, and is sent to the adapter as the change payload.
+     */
+    static final int CHANGED_NUMBER = 1;
+    static final int CHANGED_DISCREPANCY = 1 << 1;
+    static final int CHANGED_CORRECTIVE_ACTION = 1 << 2;
+
+    private final long id;
+    private final String itemNumber;
+    private final String discrepancy;
+    private final String correctiveAction;
+
+    LogRow(long id, String itemNumber, String discrepancy, String correctiveAction) {
+        this.id = id;
+        this.itemNumber = itemNumber;
+        this.discrepancy = discrepancy;
+        this.correctiveAction = correctiveAction;
+    }
+
+    static LogRow of(PageKey page, LogItem item) {
+        return new LogRow(idOf(page, item.getLogItemNumber()),
+                String.valueOf(item.getLogItemNumber()), item.getDiscrepancy().getDescription(),
+                item.getCorrectiveAction().getDescription());
+    }
+
+    static List<LogRow> of(LogPage page) {
+        List<LogRow> rows = new ArrayList<>(page.getItems().size());
+        for (LogItem item : page.getItems()) rows.add(of(page.getKey(), item));
+        return Collections.unmodifiableList(rows);
+    }
+
+    static long idOf(PageKey page, int itemNumber) {
+        // 64 bit FNV-1a of aircraft/folio#number, collisions are negligible for a fleet's history
+        long hash = 0xcbf29ce484222325L;
+        hash = hash(hash, page.getAircraft());
+        hash = (hash ^ '/') * 0x100000001b3L;
+        hash = hash(hash, page.getFolio());
+        hash = (hash ^ '#') * 0x100000001b3L;
+        return (hash ^ itemNumber) * 0x100000001b3L;
+    }
+
+    private static long hash(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        return hash;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    String getItemNumber() {
+        return itemNumber;
+    }
+
+    String getDiscrepancy() {
+        // Null when it hasn't been written yet
+        return discrepancy;
+    }
+
+    String getCorrectiveAction() {
+        return correctiveAction;
+    }
+
+    int changesFrom(LogRow old) {
+        // Bit mask of the CHANGED_ constants
+        int changes = 0;
+        if (!same(itemNumber, old.itemNumber)) changes |= CHANGED_NUMBER;
+        if (!same(discrepancy, old.discrepancy)) changes |= CHANGED_DISCREPANCY;
+        if (!same(correctiveAction, old.correctiveAction)) changes |= CHANGED_CORRECTIVE_ACTION;
+        return changes;
+    }
+
+    private static boolean same(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof LogRow)) return false;
+        LogRow other = (LogRow) o;
+        return id == other.id && changesFrom(other) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (id ^ (id >>> 32));
+    }
+}
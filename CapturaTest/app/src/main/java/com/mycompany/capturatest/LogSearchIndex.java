@@ -0,0 +1,446 @@
+package com.mycompany.capturatest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class LogSearchIndex implements LogStore.Listener, Closeable {
+    /* Full text search over the discrepancy and corrective action descriptions of a LogStore
+     *
+     * Every description of an item that wasn't canceled is a document. Its SpanishAnalyzer
+     * terms go to an inverted index: per term, the ids of the documents having it with how
+     * many times, in increasing id order. A query walks the postings of its terms together, a
+     * document at a time, scores each with BM25 and keeps only the best limit hits. Filters on
+     * aircraft, station and ATA chapter are checked against per document arrays before
+     * scoring, so they cost an array read per candidate.
+     *
+     * Kept up to date through LogStore.Listener. Re-saving a page only reindexes descriptions
+     * whose text, station or ATA chapter changed (compared by hash), the rest keep their
+     * documents. Replaced documents are marked deleted and skipped. Once they are a quarter of
+     * the index the postings are compacted, until then they still count in the document
+     * frequencies and in the document count they're compared with.
+     */
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    private static final int COMPACT_MIN_DELETED = 1024;
+    private static final int ANY = -1;
+    private static final int NONE = 0;
+
+    private final LogStore store;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final Map<PageKey, int[]> byPage = new HashMap<>();
+    private final Dictionary aircraft = new Dictionary();
+    private final Dictionary stations = new Dictionary();
+    private final Dictionary ataChapters = new Dictionary();
+
+    // Per document, by id: item number << 1 | 1 for corrective actions
+    private PageKey[] docPage = new PageKey[1024];
+    private int[] docItem = new int[1024];
+    private int[] docLength = new int[1024];
+    private int[] docAircraft = new int[1024];
+    private int[] docStation = new int[1024];
+    private int[] docAta = new int[1024];
+    private long[] docHash = new long[1024];
+    private final BitSet deleted = new BitSet();
+    private int docCount;
+    private int deletedCount;
+    private long liveLength;
+
+    public static final class Hit {
+        private final PageKey page;
+        private final int item;
+        private final float score;
+
+        Hit(PageKey page, int item, float score) {
+            this.page = page;
+            this.item = item;
+            this.score = score;
+        }
+
+        public String getAircraft() {
+            return page.getAircraft();
+        }
+
+        public String getFolio() {
+            return page.getFolio();
+        }
+
+        public int getLogItemNumber() {
+            return item >>> 1;
+        }
+
+        public boolean isCorrectiveAction() {
+            // Otherwise it's the discrepancy that matched
+            return (item & 1) != 0;
+        }
+
+        public float getScore() {
+            return score;
+        }
+
+        @Override
+        public String toString() {
+            return page + " #" + getLogItemNumber()
+                    + (isCorrectiveAction() ? " corrective action " : " discrepancy ") + score;
+        }
+    }
+
+    static final class Filter {
+        // Null matches anything
+        String aircraft;
+        String station;
+        String ataChapter;
+    }
+
+    private static final class Postings {
+        int[] docs = new int[2];
+        int[] freqs = new int[2];
+        int size;
+
+        void add(int doc, int freq) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                freqs = Arrays.copyOf(freqs, size * 2);
+            }
+            docs[size] = doc;
+            freqs[size] = freq;
+            size++;
+        }
+    }
+
+    private static final class Dictionary {
+        // Small ids for the few distinct registrations, stations and chapters, 0 is none
+        final Map<String, Integer> ids = new HashMap<>();
+
+        int id(String value) {
+            if (value == null) return NONE;
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = ids.size() + 1;
+                ids.put(value, id);
+            }
+            return id;
+        }
+
+        int find(String value) {
+            // ANY for null, NONE if it was never seen, nothing can match it then
+            if (value == null) return ANY;
+            Integer id = ids.get(value);
+            return id == null ? NONE : id;
+        }
+    }
+
+    private static final class Document {
+        // A description analyzed off the lock
+        final int item;
+        final long hash;
+        final String station;
+        final String ataChapter;
+        final Map<String, int[]> freqs = new HashMap<>();
+        int length;
+
+        Document(int item, String description, String station, String ataChapter) {
+            this.item = item;
+            this.station = station;
+            this.ataChapter = ataChapter;
+            hash = hash(hash(hash(0xcbf29ce484222325L, description), station), ataChapter);
+            for (String term : SpanishAnalyzer.terms(description)) {
+                int[] freq = freqs.get(term);
+                if (freq == null) freqs.put(term, new int[]{1});
+                else freq[0]++;
+                length++;
+            }
+        }
+    }
+
+    private LogSearchIndex(LogStore store) {
+        this.store = store;
+    }
+
+    static LogSearchIndex open(LogStore store) throws IOException {
+        /* Analyzes every description in the store, the slow part of opening. Open it before
+         * the log can be edited, descriptions saved in the meantime wouldn't be searchable.
+         */
+        LogSearchIndex index = new LogSearchIndex(store);
+        store.replay(index);
+        store.addListener(index);
+        return index;
+    }
+
+    @Override
+    public void onPageSaved(LogPage page) {
+        // Analyzed before taking the lock, readers only wait for the postings to be updated
+        List<Document> documents = documentsOf(page);
+        lock.writeLock().lock();
+        try {
+            update(page.getKey(), documents);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onPageDeleted(PageKey key) {
+        lock.writeLock().lock();
+        try {
+            update(key, Collections.<Document>emptyList());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public List<Hit> search(String query, Filter filter, int limit) {
+        // Best limit matches of any query term, best first, newest first among equal scores
+        List<String> terms = new ArrayList<>(new LinkedHashSet<>(SpanishAnalyzer.terms(query)));
+        if (terms.isEmpty() || limit <= 0) return Collections.emptyList();
+        lock.readLock().lock();
+        try {
+            int aircraftId = ANY, stationId = ANY, ataId = ANY;
+            if (filter != null) {
+                aircraftId = aircraft.find(filter.aircraft);
+                stationId = stations.find(TextFolding.normalizeCode(filter.station));
+                ataId = ataChapters.find(TextFolding.normalizeCode(filter.ataChapter));
+                if (aircraftId == NONE || stationId == NONE || ataId == NONE)
+                    return Collections.emptyList();
+            }
+            int live = docCount - deletedCount;
+            List<Postings> lists = new ArrayList<>(terms.size());
+            for (String term : terms) {
+                Postings list = postings.get(term);
+                if (list != null) lists.add(list);
+            }
+            if (lists.isEmpty() || live == 0) return Collections.emptyList();
+
+            int count = lists.size();
+            Postings[] cursors = lists.toArray(new Postings[count]);
+            int[] positions = new int[count];
+            float[] weights = new float[count];
+            for (int i = 0; i < count; i++) {
+                // BM25 idf, never negative: df counts deleted documents too, so N does as well
+                int df = cursors[i].size;
+                weights[i] = (float) Math.log(1 + (docCount - df + 0.5) / (df + 0.5)) * (K1 + 1);
+            }
+            float averageLength = (float) liveLength / live;
+
+            int[] bestDocs = new int[Math.min(limit, live)];
+            float[] bestScores = new float[bestDocs.length];
+            int found = 0;
+            while (true) {
+                // Next document in any of the lists
+                int doc = Integer.MAX_VALUE;
+                for (int i = 0; i < count; i++) {
+                    if (positions[i] < cursors[i].size && cursors[i].docs[positions[i]] < doc)
+                        doc = cursors[i].docs[positions[i]];
+                }
+                if (doc == Integer.MAX_VALUE) break;
+                boolean skip = deleted.get(doc)
+                        || (aircraftId != ANY && docAircraft[doc] != aircraftId)
+                        || (stationId != ANY && docStation[doc] != stationId)
+                        || (ataId != ANY && docAta[doc] != ataId);
+                float score = 0;
+                float norm = K1 * (1 - B + B * docLength[doc] / averageLength);
+                for (int i = 0; i < count; i++) {
+                    if (positions[i] < cursors[i].size && cursors[i].docs[positions[i]] == doc) {
+                        int freq = cursors[i].freqs[positions[i]++];
+                        if (!skip) score += weights[i] * freq / (freq + norm);
+                    }
+                }
+                if (skip) continue;
+
+                // Keeps the best matches sorted, later documents win ties
+                if (found == bestDocs.length) {
+                    if (score < bestScores[found - 1]) continue;
+                    found--;
+                }
+                int i = found++;
+                while (i > 0 && score >= bestScores[i - 1]) {
+                    bestDocs[i] = bestDocs[i - 1];
+                    bestScores[i] = bestScores[i - 1];
+                    i--;
+                }
+                bestDocs[i] = doc;
+                bestScores[i] = score;
+            }
+            List<Hit> hits = new ArrayList<>(found);
+            for (int i = 0; i < found; i++)
+                hits.add(new Hit(docPage[bestDocs[i]], docItem[bestDocs[i]], bestScores[i]));
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        // Number of descriptions indexed
+        lock.readLock().lock();
+        try {
+            return docCount - deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int termCount() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        store.removeListener(this);
+    }
+
+    private static List<Document> documentsOf(LogPage page) {
+        List<Document> documents = new ArrayList<>();
+        for (LogItem item : page.getItems()) {
+            if (item.isCanceled()) continue;
+            addDocument(documents, item.getLogItemNumber() << 1, item.getDiscrepancy());
+            addDocument(documents, item.getLogItemNumber() << 1 | 1,
+                    item.getCorrectiveAction());
+        }
+        return documents;
+    }
+
+    private static void addDocument(List<Document> documents, int item,
+                                    LogItem.BaseLogItem part) {
+        String description = part.getDescription();
+        if (part.isCanceled() || description == null || description.trim().isEmpty()) return;
+        Document document = new Document(item, description,
+                TextFolding.normalizeCode(part.getStation()),
+                TextFolding.normalizeCode(part.getAtaChapter()));
+        if (document.length > 0) documents.add(document);
+    }
+
+    private void update(PageKey key, List<Document> documents) {
+        // Called with the write lock held, replaces the documents of a page
+        int[] old = byPage.remove(key);
+        if (old == null) old = new int[0];
+        int[] ids = new int[documents.size()];
+        boolean[] kept = new boolean[old.length];
+        for (int d = 0; d < ids.length; d++) {
+            Document document = documents.get(d);
+            ids[d] = -1;
+            for (int o = 0; o < old.length; o++) {
+                if (!kept[o] && docItem[old[o]] == document.item
+                        && docHash[old[o]] == document.hash) {
+                    kept[o] = true;
+                    ids[d] = old[o];
+                    break;
+                }
+            }
+        }
+        for (int o = 0; o < old.length; o++) {
+            if (!kept[o]) delete(old[o]);
+        }
+        for (int d = 0; d < ids.length; d++) {
+            if (ids[d] < 0) ids[d] = add(key, documents.get(d));
+        }
+        if (ids.length > 0) byPage.put(key, ids);
+        if (deletedCount >= COMPACT_MIN_DELETED && deletedCount * 4 >= docCount) compact();
+    }
+
+    private int add(PageKey key, Document document) {
+        if (docCount == docPage.length) grow();
+        int doc = docCount++;
+        docPage[doc] = key;
+        docItem[doc] = document.item;
+        docLength[doc] = document.length;
+        docAircraft[doc] = aircraft.id(key.getAircraft());
+        docStation[doc] = stations.id(document.station);
+        docAta[doc] = ataChapters.id(document.ataChapter);
+        docHash[doc] = document.hash;
+        liveLength += document.length;
+        for (Map.Entry<String, int[]> term : document.freqs.entrySet()) {
+            Postings list = postings.get(term.getKey());
+            if (list == null) {
+                list = new Postings();
+                postings.put(term.getKey(), list);
+            }
+            list.add(doc, term.getValue()[0]);
+        }
+        return doc;
+    }
+
+    private void delete(int doc) {
+        deleted.set(doc);
+        deletedCount++;
+        liveLength -= docLength[doc];
+        docPage[doc] = null;
+    }
+
+    private void grow() {
+        int capacity = docPage.length * 2;
+        docPage = Arrays.copyOf(docPage, capacity);
+        docItem = Arrays.copyOf(docItem, capacity);
+        docLength = Arrays.copyOf(docLength, capacity);
+        docAircraft = Arrays.copyOf(docAircraft, capacity);
+        docStation = Arrays.copyOf(docStation, capacity);
+        docAta = Arrays.copyOf(docAta, capacity);
+        docHash = Arrays.copyOf(docHash, capacity);
+    }
+
+    private void compact() {
+        // Renumbers the live documents in the same order, so postings stay sorted
+        int[] newIds = new int[docCount];
+        int next = 0;
+        for (int doc = 0; doc < docCount; doc++) {
+            if (deleted.get(doc)) {
+                newIds[doc] = -1;
+                continue;
+            }
+            newIds[doc] = next;
+            docPage[next] = docPage[doc];
+            docItem[next] = docItem[doc];
+            docLength[next] = docLength[doc];
+            docAircraft[next] = docAircraft[doc];
+            docStation[next] = docStation[doc];
+            docAta[next] = docAta[doc];
+            docHash[next] = docHash[doc];
+            next++;
+        }
+        Arrays.fill(docPage, next, docCount, null);
+        for (Iterator<Postings> lists = postings.values().iterator(); lists.hasNext(); ) {
+            Postings list = lists.next();
+            int size = 0;
+            for (int i = 0; i < list.size; i++) {
+                int doc = newIds[list.docs[i]];
+                if (doc < 0) continue;
+                list.docs[size] = doc;
+                list.freqs[size] = list.freqs[i];
+                size++;
+            }
+            list.size = size;
+            if (size == 0) lists.remove();
+        }
+        for (int[] ids : byPage.values()) {
+            for (int i = 0; i < ids.length; i++) ids[i] = newIds[ids[i]];
+        }
+        docCount = next;
+        deletedCount = 0;
+        deleted.clear();
+    }
+
+    private static long hash(long hash, String value) {
+        // FNV-1a, with a separator so ("ab", "c") and ("a", "bc") differ
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++)
+                hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        return (hash ^ 0xffff) * 0x100000001b3L;
+    }
+}
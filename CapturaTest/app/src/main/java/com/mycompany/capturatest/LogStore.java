@@ -0,0 +1,858 @@
+package com.mycompany.capturatest;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+public class LogStore implements Closeable {
+    /* Local storage engine for maintenance log pages
+     *
+     * Every save appends a record to the active segment file, nothing is ever overwritten:
+     *   - record: length (int), CRC32 of the payload (int), payload
+     *   - payload: type (PUT/DELETE), varint sequence number, aircraft, folio and, for PUT,
+     *     the items encoded with LogItemBinaryCodec
+     * Segments roll over once they reach maxSegmentBytes.
+     *
+     * An in-memory index maps every page to the location of its latest record. On close the
+     * index is written to a hint file, so the next open only has to scan what was appended after
+     * it. Without a valid hint every segment is scanned, a torn record at the end of the last
+     * segment (the app was killed mid write) is truncated.
+     *
+     * put() returns once the record is on disk. Concurrent writers share fsyncs (group commit):
+     * the first one waiting syncs everything written so far, the rest just wait for it.
+     *
+     * Superseded and deleted records are garbage, when they make up more than
+     * compactionThreshold of the sealed segments a background thread copies the live records
+     * to the active segment and deletes the old files.
+     *
+     * Writes to the same page are made one at a time, from the append to the listeners, so
+     * listeners see them in the order they were written (see keyLock()).
+     *
+     * Interrupting a thread that is reading or writing only fails that call, the segment's
+     * channel is reopened for everyone else (see Segment.channel()).
+     *
+     * Plain java.io/nio, so it runs in JVM unit tests against a temp directory.
+     */
+    static final class Options {
+        long maxSegmentBytes = 4 * 1024 * 1024;
+        // Wait for the record to be on disk before put/delete return
+        boolean syncOnWrite = true;
+        // Compact sealed segments in the background once this fraction of them is garbage
+        double compactionThreshold = 0.5;
+        boolean autoCompact = true;
+    }
+
+    interface Listener {
+        /* Notified on the writing thread after a put or delete is written
+         *
+         * Calls for the same page come one at a time and in the order they were written.
+         * Used to keep secondary indexes up to date without rescanning the store.
+         */
+        void onPageSaved(LogPage page);
+
+        void onPageDeleted(PageKey key);
+    }
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String HINT_FILE = "index.hint";
+    private static final int HINT_MAGIC = 0x4C4F4748; // "LOGH"
+    private static final int HEADER_BYTES = 8;
+    private static final int MAX_RECORD_BYTES = 64 * 1024 * 1024;
+    private static final int TYPE_PUT = 1;
+    private static final int TYPE_DELETE = 2;
+    private static final Logger LOG = Logger.getLogger(LogStore.class.getName());
+
+    private final File directory;
+    private final Options options;
+
+    private final ConcurrentNavigableMap<PageKey, Location> index = new ConcurrentSkipListMap<>();
+    private final Map<Integer, Segment> segments = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    // Striped by page, held from the append to the listeners, see keyLock()
+    private final Object[] keyLocks = new Object[64];
+
+    // Guards the active segment and the sequence/append counters
+    private final Object writeLock = new Object();
+    private Segment active;
+    private long nextSequence = 1;
+    private long appendCount;
+
+    // Group commit
+    private final Object syncLock = new Object();
+    private boolean syncing;
+    private long syncedCount;
+
+    private final Object compactionLock = new Object();
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+    private final ExecutorService compactor;
+    // Set first thing on close, a running compaction stops copying and keeps its segments
+    private volatile boolean closing;
+    // Set once the compactor is done, under writeLock, no record is appended after it
+    private boolean closed;
+
+    private static final class Location {
+        final int segment;
+        final long offset;
+        final int length;
+        final long sequence;
+
+        Location(int segment, long offset, int length, long sequence) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final class Segment {
+        final int id;
+        final File file;
+        // Only changed while holding writeLock
+        volatile long size;
+        final AtomicLong liveBytes = new AtomicLong();
+        private volatile FileChannel channel;
+        private boolean retired;
+
+        Segment(int id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            channel = new RandomAccessFile(file, "rw").getChannel();
+            size = channel.size();
+        }
+
+        FileChannel channel() throws IOException {
+            /* A FileChannel closes itself when a thread using it is interrupted, whatever
+             * other threads are doing with it. It's reopened here until the segment is retired.
+             */
+            FileChannel current = channel;
+            return current.isOpen() ? current : reopen();
+        }
+
+        private synchronized FileChannel reopen() throws IOException {
+            if (retired) throw new ClosedChannelException();
+            if (!channel.isOpen()) channel = new RandomAccessFile(file, "rw").getChannel();
+            return channel;
+        }
+
+        synchronized boolean isRetired() {
+            return retired;
+        }
+
+        synchronized void retire() throws IOException {
+            // Closed for good, compacted away or the store closed
+            retired = true;
+            channel.close();
+        }
+    }
+
+    private static final class Record {
+        int type;
+        long sequence;
+        PageKey key;
+        BinaryInput items;
+        int length;
+    }
+
+    private LogStore(File directory, Options options) {
+        this.directory = directory;
+        this.options = options;
+        for (int i = 0; i < keyLocks.length; i++) keyLocks[i] = new Object();
+        compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "LogStore-compactor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    static LogStore open(File directory) throws IOException {
+        return open(directory, new Options());
+    }
+
+    static LogStore open(File directory, Options options) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can't create " + directory);
+        LogStore store = new LogStore(directory, options);
+        try {
+            store.recover();
+        } catch (IOException ex) {
+            store.close();
+            throw ex;
+        }
+        return store;
+    }
+
+    public void put(LogPage page) throws IOException {
+        byte[] items = page.encodedItems();
+        synchronized (keyLock(page.getKey())) {
+            finishWrite(append(TYPE_PUT, page.getKey(), items, 0, items.length, null));
+            page.markSaved();
+            for (Listener listener : listeners) listener.onPageSaved(page);
+        }
+    }
+
+    public boolean putIfDirty(LogPage page) throws IOException {
+        // For autosave, skips pages that didn't change since they were last saved or read
+        if (!page.isDirty()) return false;
+        put(page);
+        return true;
+    }
+
+    public LogPage get(String aircraft, String folio) throws IOException {
+        PageKey key = new PageKey(aircraft, folio);
+        while (true) {
+            Location location = index.get(key);
+            if (location == null) return null;
+            Segment segment = segments.get(location.segment);
+            try {
+                if (segment != null) {
+                    Record record = readRecord(segment, location);
+                    LogPage page = new LogPage(aircraft, folio,
+                            LogItemBinaryCodec.decode(record.items));
+                    page.markSaved();
+                    return page;
+                }
+            } catch (ClosedByInterruptException ex) {
+                // This thread was interrupted, the next read reopens the channel
+                throw ex;
+            } catch (ClosedChannelException ex) {
+                // Another thread was interrupted while reading it, or it was compacted away
+                if (!segment.isRetired()) continue;
+            }
+            // Retry only if the page moved in the meantime
+            if (index.get(key) == location) throw new IOException("Missing segment for " + key);
+        }
+    }
+
+    public boolean delete(String aircraft, String folio) throws IOException {
+        PageKey key = new PageKey(aircraft, folio);
+        synchronized (keyLock(key)) {
+            if (!index.containsKey(key)) return false;
+            finishWrite(append(TYPE_DELETE, key, null, 0, 0, null));
+            for (Listener listener : listeners) listener.onPageDeleted(key);
+        }
+        return true;
+    }
+
+    private Object keyLock(PageKey key) {
+        /* Orders the writes to a page with their listener calls
+         *
+         * Without it two saves of the same page could append in one order and reach the
+         * listeners in the other, leaving the indexes with the older copy. Held across the
+         * fsync, pages sharing a stripe wait for each other's, others still share fsyncs.
+         * Compaction copies don't change what a page holds, they don't take it.
+         */
+        return keyLocks[(key.hashCode() & 0x7fffffff) % keyLocks.length];
+    }
+
+    void replay(Listener listener) throws IOException {
+        // Hands every page to the listener as if just saved, pages saved meanwhile may be missed
+        for (PageKey key : keys()) {
+            LogPage page = get(key.getAircraft(), key.getFolio());
+            if (page != null) listener.onPageSaved(page);
+        }
+    }
+
+    void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public boolean contains(String aircraft, String folio) {
+        return index.containsKey(new PageKey(aircraft, folio));
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    List<PageKey> keys() {
+        return new ArrayList<>(index.keySet());
+    }
+
+    List<PageKey> keys(String aircraft) {
+        // Pages of one aircraft, in folio order
+        List<PageKey> keys = new ArrayList<>();
+        for (PageKey key : index.tailMap(new PageKey(aircraft, "")).keySet()) {
+            if (!key.getAircraft().equals(aircraft)) break;
+            keys.add(key);
+        }
+        return keys;
+    }
+
+    long diskBytes() {
+        long bytes = 0;
+        for (Segment segment : segments.values()) bytes += segment.size;
+        return bytes;
+    }
+
+    int segmentCount() {
+        return segments.size();
+    }
+
+    long lastSequence() {
+        // Sequence number of the last put or delete, so indexes can tell if they missed writes
+        synchronized (writeLock) {
+            return nextSequence - 1;
+        }
+    }
+
+    public void compact() throws IOException {
+        /* Copies the live records of every sealed segment to the active one and deletes them
+         *
+         * Dropping the sealed segments also drops their tombstones, which is safe because any
+         * older record of a deleted page can only be in a sealed segment too.
+         */
+        synchronized (compactionLock) {
+            List<Segment> sealed = new ArrayList<>();
+            synchronized (writeLock) {
+                for (Segment segment : segments.values())
+                    if (segment != active) sealed.add(segment);
+            }
+            if (sealed.isEmpty()) return;
+            Collections.sort(sealed, new Comparator<Segment>() {
+                @Override
+                public int compare(Segment a, Segment b) {
+                    return a.id < b.id ? -1 : (a.id == b.id ? 0 : 1);
+                }
+            });
+            // The hint would point to the segments we are about to delete
+            deleteHint();
+
+            final long[] lastCopy = {0};
+            for (final Segment segment : sealed) {
+                if (closing) return;
+                scan(segment, 0, new RecordVisitor() {
+                    @Override
+                    public void visit(Record record, long offset, byte[] payload)
+                            throws IOException {
+                        if (record.type != TYPE_PUT || closing) return;
+                        Location location = index.get(record.key);
+                        if (location == null || location.segment != segment.id
+                                || location.offset != offset) return;
+                        // Only copied if the page is still there, unchanged, under writeLock
+                        int itemsOffset = record.items.position();
+                        lastCopy[0] = Math.max(lastCopy[0], append(TYPE_PUT, record.key,
+                                payload, itemsOffset, payload.length - itemsOffset, location));
+                    }
+                });
+            }
+            // Some records weren't copied, the segments stay. Close syncs the copies made.
+            if (closing) return;
+            // All copies have to be on disk before the originals go away
+            if (lastCopy[0] > 0) awaitDurable(lastCopy[0]);
+
+            for (Segment segment : sealed) {
+                segments.remove(segment.id);
+                segment.retire();
+                if (!segment.file.delete()) throw new IOException("Can't delete " + segment.file);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closing) return;
+        closing = true;
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (compactionLock) {
+            synchronized (writeLock) {
+                closed = true;
+                if (active != null) {
+                    force(active);
+                    writeHint();
+                }
+                for (Segment segment : segments.values()) segment.retire();
+            }
+        }
+    }
+
+    private void finishWrite(long ticket) throws IOException {
+        // Finishes a put or delete
+        if (options.syncOnWrite) awaitDurable(ticket);
+        if (options.autoCompact) maybeCompact();
+    }
+
+    private long append(int type, PageKey key, byte[] items, int offset, int length,
+                        Location original) throws IOException {
+        /* Appends a record and updates the index, returns the append count to sync up to
+         *
+         * Compaction passes the original record's location, the copy keeps its sequence and
+         * is only written if the index still points to the original. Otherwise the page was
+         * saved again or deleted meanwhile, nothing is written and 0 is returned.
+         */
+        BinaryOutput out = new BinaryOutput(length + 64);
+        out.writeInt(0); // Length, filled in below
+        out.writeInt(0); // CRC
+        long ticket;
+        synchronized (writeLock) {
+            // Every change to the index is made holding writeLock, recovery aside
+            if (closed) throw new IOException("Store is closed");
+            if (original != null && index.get(key) != original) return 0;
+            long sequence = original != null ? original.sequence : nextSequence++;
+            out.writeByte(type);
+            out.writeVarLong(sequence);
+            out.writeString(key.getAircraft());
+            out.writeString(key.getFolio());
+            if (items != null) out.writeBytes(items, offset, length);
+            byte[] record = out.buffer();
+            int payloadLength = out.size() - HEADER_BYTES;
+            CRC32 crc = new CRC32();
+            crc.update(record, HEADER_BYTES, payloadLength);
+            putInt(record, 0, payloadLength);
+            putInt(record, 4, (int) crc.getValue());
+
+            if (active.size > 0 && active.size + out.size() > options.maxSegmentBytes) roll();
+            long position = active.size;
+            write(active, ByteBuffer.wrap(record, 0, out.size()), position);
+            active.size += out.size();
+            ticket = ++appendCount;
+
+            Location location = new Location(active.id, position, out.size(), sequence);
+            if (original != null) {
+                active.liveBytes.addAndGet(location.length);
+                index.replace(key, original, location);
+                release(original);
+            } else if (type == TYPE_PUT) {
+                active.liveBytes.addAndGet(location.length);
+                if (!replace(key, location)) active.liveBytes.addAndGet(-location.length);
+            } else {
+                Location old = index.get(key);
+                if (old != null && old.sequence < sequence && index.remove(key, old))
+                    release(old);
+            }
+        }
+        return ticket;
+    }
+
+    private boolean replace(PageKey key, Location location) {
+        // Points the index to a newer record, older sequence numbers never win
+        while (true) {
+            Location old = index.get(key);
+            if (old == null) {
+                if (index.putIfAbsent(key, location) == null) return true;
+            } else {
+                if (old.sequence > location.sequence) return false;
+                if (index.replace(key, old, location)) {
+                    release(old);
+                    return true;
+                }
+            }
+        }
+    }
+
+    private void release(Location location) {
+        Segment segment = segments.get(location.segment);
+        if (segment != null) segment.liveBytes.addAndGet(-location.length);
+    }
+
+    private void roll() throws IOException {
+        // Called with writeLock held, everything before the roll is made durable first
+        force(active);
+        synchronized (syncLock) {
+            syncedCount = Math.max(syncedCount, appendCount);
+        }
+        openSegment(active.id + 1);
+    }
+
+    private void openSegment(int id) throws IOException {
+        Segment segment = new Segment(id, segmentFile(id));
+        segments.put(id, segment);
+        active = segment;
+    }
+
+    private void awaitDurable(long ticket) throws IOException {
+        // Group commit, whoever finds no sync in progress syncs for everyone
+        while (true) {
+            synchronized (syncLock) {
+                while (syncing && syncedCount < ticket) {
+                    try {
+                        syncLock.wait();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for sync");
+                    }
+                }
+                if (syncedCount >= ticket) return;
+                syncing = true;
+            }
+            long target;
+            Segment segment;
+            synchronized (writeLock) {
+                target = appendCount;
+                segment = active;
+            }
+            IOException failure = null;
+            try {
+                force(segment);
+            } catch (IOException ex) {
+                failure = ex;
+            }
+            synchronized (syncLock) {
+                syncing = false;
+                if (failure == null) syncedCount = Math.max(syncedCount, target);
+                syncLock.notifyAll();
+            }
+            if (failure != null) throw failure;
+        }
+    }
+
+    private static void write(Segment segment, ByteBuffer buffer, long position)
+            throws IOException {
+        /* Writes all of buffer at position, with writeLock held
+         *
+         * If another thread's interrupt closed the channel the write starts over on the
+         * reopened one. If this thread was interrupted whatever part of the record made it to
+         * the file is cut off, so the segment still ends with a whole record.
+         */
+        while (true) {
+            try {
+                while (buffer.hasRemaining())
+                    segment.channel().write(buffer, position + buffer.position());
+                return;
+            } catch (ClosedByInterruptException ex) {
+                // Cleared meanwhile, otherwise truncate() would close the channel again
+                Thread.interrupted();
+                try {
+                    segment.channel().truncate(position);
+                } finally {
+                    Thread.currentThread().interrupt();
+                }
+                throw ex;
+            } catch (ClosedChannelException ex) {
+                // Closed by another thread's interrupt, before or while writing
+                if (segment.isRetired()) throw ex;
+                buffer.rewind();
+            }
+        }
+    }
+
+    private static void force(Segment segment) throws IOException {
+        // Like write(), an fsync through the reopened channel covers what was written before
+        while (true) {
+            try {
+                segment.channel().force(false);
+                return;
+            } catch (ClosedByInterruptException ex) {
+                throw ex;
+            } catch (ClosedChannelException ex) {
+                // Another thread was interrupted
+                if (segment.isRetired()) throw ex;
+            }
+        }
+    }
+
+    private void maybeCompact() {
+        long sealedBytes = 0;
+        long liveBytes = 0;
+        Segment current = active;
+        for (Segment segment : segments.values()) {
+            if (segment == current) continue;
+            sealedBytes += segment.size;
+            liveBytes += segment.liveBytes.get();
+        }
+        if (sealedBytes == 0 || liveBytes > sealedBytes * (1 - options.compactionThreshold))
+            return;
+        if (!compactionScheduled.compareAndSet(false, true)) return;
+        compactor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!closing) compact();
+                } catch (IOException ex) {
+                    LOG.log(Level.WARNING, "Compaction of " + directory + " failed", ex);
+                } finally {
+                    compactionScheduled.set(false);
+                }
+            }
+        });
+    }
+
+    private void recover() throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) continue;
+                try {
+                    ids.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException ex) {
+                    // Not one of ours
+                }
+            }
+        }
+        Collections.sort(ids);
+        for (int id : ids) segments.put(id, new Segment(id, segmentFile(id)));
+
+        // Tombstones are kept in the index while scanning so older records don't come back
+        final Map<PageKey, Location> deleted = new ConcurrentHashMap<>();
+        long[] hint = readHint();
+        for (int i = 0; i < ids.size(); i++) {
+            int id = ids.get(i);
+            if (hint != null && id < hint[0]) continue;
+            final Segment segment = segments.get(id);
+            long start = hint != null && id == hint[0] ? hint[1] : 0;
+            long end = scan(segment, start, new RecordVisitor() {
+                @Override
+                public void visit(Record record, long offset, byte[] payload) {
+                    Location location = new Location(segment.id, offset, record.length,
+                            record.sequence);
+                    nextSequence = Math.max(nextSequence, record.sequence + 1);
+                    Location tombstone = deleted.get(record.key);
+                    if (tombstone != null && tombstone.sequence > record.sequence) return;
+                    if (record.type == TYPE_PUT) {
+                        deleted.remove(record.key);
+                        segment.liveBytes.addAndGet(location.length);
+                        if (!replace(record.key, location))
+                            segment.liveBytes.addAndGet(-location.length);
+                    } else {
+                        deleted.put(record.key, location);
+                        Location old = index.get(record.key);
+                        if (old != null && old.sequence < record.sequence
+                                && index.remove(record.key, old)) release(old);
+                    }
+                }
+            });
+            if (end < segment.size) {
+                // Torn or corrupt record, everything after it is lost
+                if (i == ids.size() - 1) {
+                    segment.channel().truncate(end);
+                    segment.size = end;
+                } else {
+                    throw new IOException("Corrupt segment " + segment.file);
+                }
+            }
+        }
+        if (ids.isEmpty()) openSegment(0);
+        else active = segments.get(ids.get(ids.size() - 1));
+        deleteHint();
+    }
+
+    private interface RecordVisitor {
+        void visit(Record record, long offset, byte[] payload) throws IOException;
+    }
+
+    private long scan(Segment segment, long start, RecordVisitor visitor) throws IOException {
+        // Visits every valid record from start, returns the offset after the last valid one
+        long offset = start;
+        InputStream in = new BufferedInputStream(new FileInputStream(segment.file), 64 * 1024);
+        try {
+            skipFully(in, start);
+            DataInputStream data = new DataInputStream(in);
+            Record record = new Record();
+            while (true) {
+                int length;
+                int crc;
+                try {
+                    length = data.readInt();
+                    crc = data.readInt();
+                } catch (EOFException ex) {
+                    break;
+                }
+                if (length <= 0 || length > MAX_RECORD_BYTES) break;
+                byte[] payload = new byte[length];
+                try {
+                    data.readFully(payload);
+                } catch (EOFException ex) {
+                    break;
+                }
+                CRC32 check = new CRC32();
+                check.update(payload);
+                if ((int) check.getValue() != crc) break;
+                parsePayload(payload, record);
+                record.length = HEADER_BYTES + length;
+                visitor.visit(record, offset, payload);
+                offset += record.length;
+            }
+        } finally {
+            in.close();
+        }
+        return offset;
+    }
+
+    private Record readRecord(Segment segment, Location location) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(location.length);
+        while (buffer.hasRemaining()) {
+            if (segment.channel().read(buffer, location.offset + buffer.position()) < 0)
+                throw new EOFException();
+        }
+        byte[] bytes = buffer.array();
+        int length = getInt(bytes, 0);
+        CRC32 crc = new CRC32();
+        crc.update(bytes, HEADER_BYTES, length);
+        if (length != location.length - HEADER_BYTES || (int) crc.getValue() != getInt(bytes, 4))
+            throw new IOException("Corrupt record in " + segment.file);
+        byte[] payload = new byte[length];
+        System.arraycopy(bytes, HEADER_BYTES, payload, 0, length);
+        Record record = new Record();
+        parsePayload(payload, record);
+        record.length = location.length;
+        return record;
+    }
+
+    private static void parsePayload(byte[] payload, Record record) throws IOException {
+        BinaryInput in = new BinaryInput(payload);
+        record.type = in.readByte();
+        record.sequence = in.readVarLong();
+        record.key = new PageKey(in.readString(), in.readString());
+        record.items = in;
+    }
+
+    private void writeHint() throws IOException {
+        // Called on close with writeLock held
+        BinaryOutput out = new BinaryOutput(index.size() * 32 + 64);
+        out.writeInt(HINT_MAGIC);
+        out.writeVarInt(active.id);
+        out.writeVarLong(active.size);
+        out.writeVarLong(nextSequence);
+        out.writeVarInt(index.size());
+        for (Map.Entry<PageKey, Location> entry : index.entrySet()) {
+            Location location = entry.getValue();
+            out.writeString(entry.getKey().getAircraft());
+            out.writeString(entry.getKey().getFolio());
+            out.writeVarInt(location.segment);
+            out.writeVarLong(location.offset);
+            out.writeVarInt(location.length);
+            out.writeVarLong(location.sequence);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(out.buffer(), 0, out.size());
+        out.writeInt((int) crc.getValue());
+
+        File temp = new File(directory, HINT_FILE + ".tmp");
+        FileOutputStream file = new FileOutputStream(temp);
+        try {
+            out.writeTo(file);
+            file.getFD().sync();
+        } finally {
+            file.close();
+        }
+        if (!temp.renameTo(new File(directory, HINT_FILE)))
+            throw new IOException("Can't write " + HINT_FILE);
+    }
+
+    private long[] readHint() {
+        /* Loads the index saved on close, returns {segment, offset} to resume scanning from
+         *
+         * Returns null, leaving the index empty, if there's no usable hint.
+         */
+        File file = new File(directory, HINT_FILE);
+        if (!file.isFile()) return null;
+        try {
+            byte[] bytes = readFile(file);
+            if (bytes.length < 4) return null;
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length - 4);
+            if ((int) crc.getValue() != getInt(bytes, bytes.length - 4)) return null;
+            BinaryInput in = new BinaryInput(bytes, 0, bytes.length - 4);
+            if (in.readInt() != HINT_MAGIC) return null;
+            int segment = in.readVarInt();
+            long offset = in.readVarLong();
+            Segment last = segments.get(segment);
+            if (last == null || last.size < offset) return null;
+            long sequence = in.readVarLong();
+            int count = in.readVarInt();
+            Map<PageKey, Location> entries = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                PageKey key = new PageKey(in.readString(), in.readString());
+                Location location = new Location(in.readVarInt(), in.readVarLong(),
+                        in.readVarInt(), in.readVarLong());
+                // Every segment the hint points to has to still be there
+                if (!segments.containsKey(location.segment)) return null;
+                entries.put(key, location);
+            }
+            for (Location location : entries.values())
+                segments.get(location.segment).liveBytes.addAndGet(location.length);
+            index.putAll(entries);
+            nextSequence = sequence;
+            return new long[]{segment, offset};
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    private void deleteHint() {
+        File file = new File(directory, HINT_FILE);
+        if (file.exists() && !file.delete()) file.deleteOnExit();
+    }
+
+    private File segmentFile(int id) {
+        return new File(directory, String.format(Locale.US, "%s%08d%s",
+                SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) throw new EOFException();
+            count -= skipped;
+        }
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static int getInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,702 @@
+package com.mycompany.capturatest;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+public class LogSyncQueue implements Closeable {
+    /* Outbound queue of completed log pages for the back office
+     *
+     * enqueue() renders the page to JSON on the calling thread (LogPage isn't thread safe and
+     * a page is a few KB) and hands it over to a disk thread, which appends it to the queue
+     * file. Once it's on disk a network thread waits batchDelayMillis, so pages completed
+     * together travel together, and POSTs up to batchPages of them as one gzipped request:
+     *
+     *   {"pages":[{"id":12,"aircraft":"XA-MFH","folio":"7","items":[...]}, ...]}
+     *
+     * The UI thread never touches the disk or the network.
+     *
+     * A 2xx answer takes the batch off the queue. Network errors, timeouts, 408, 429 and 5xx
+     * are retried after an exponential backoff with jitter: the n-th failure in a row waits
+     * between half and all of initialBackoffMillis * 2^(n - 1), capped at maxBackoffMillis, so
+     * a fleet of tablets coming back online doesn't retry in lockstep. So are 401, 403 and 404:
+     * an expired token or a wrong endpoint gets fixed, the pages have to wait for it. Any other
+     * answer means the server will never take those pages. Rather than blocking the queue
+     * forever they are moved to the rejected file (see getRejectedFile()) and counted as
+     * rejected, a maintenance record is never just dropped.
+     *
+     * Ids keep growing for the life of the queue file, a batch whose answer got lost is sent
+     * again with the same ids so the server can ignore the repeats. Enqueuing a page that is
+     * still waiting replaces it with the new version.
+     *
+     * Queue file records, framed like LogJournal's (varint length, CRC32 of the payload, payload):
+     *   - ADD: type, varint id, aircraft, folio, page JSON as a string
+     *   - DONE: type, varint id
+     *   - NEXT_ID: type, varint next id, written first whenever the file starts over
+     * On open the file is replayed and whatever was added and not done is sent again. The file
+     * is rewritten with just those pages, and emptied again each time the queue drains.
+     *
+     * The rejected file has a line per page, its JSON with the id and the HTTP status added:
+     *   {"status":400,"id":12,"aircraft":"XA-MFH","folio":"7","items":[...]}
+     */
+    static final class Options {
+        int batchPages = 25;
+        // Uncompressed JSON, a single bigger page is still sent on its own
+        int batchBytes = 512 * 1024;
+        long batchDelayMillis = 2000;
+        long initialBackoffMillis = 1000;
+        long maxBackoffMillis = 10 * 60 * 1000;
+        int connectTimeoutMillis = 15000;
+        int readTimeoutMillis = 30000;
+        // fsync after every write to the queue file
+        boolean syncOnWrite = true;
+    }
+
+    static final class Metrics {
+        /* Counters since the queue was opened, plus the current depth */
+        final int queuedPages;
+        final long queuedBytes;
+        final int maxQueuedPages;
+        final int sentPages;
+        final int sentBatches;
+        final int failedAttempts;
+        final int rejectedPages;
+        // Uncompressed JSON and gzipped request bodies of the batches that went through
+        final long jsonBytes;
+        final long sentBytes;
+        // Time spent in requests, failed ones included
+        final long sendNanos;
+
+        private Metrics(LogSyncQueue queue) {
+            queuedPages = queue.queue.size();
+            queuedBytes = queue.queuedBytes;
+            maxQueuedPages = queue.maxQueuedPages;
+            sentPages = queue.sentPages;
+            sentBatches = queue.sentBatches;
+            failedAttempts = queue.failedAttempts;
+            rejectedPages = queue.rejectedPages;
+            jsonBytes = queue.jsonBytes;
+            sentBytes = queue.sentBytes;
+            sendNanos = queue.sendNanos;
+        }
+
+        double pagesPerSecond() {
+            return sendNanos == 0 ? 0 : sentPages * 1e9 / sendNanos;
+        }
+
+        double compressionRatio() {
+            return sentBytes == 0 ? 0 : (double) jsonBytes / sentBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d queued (%d max, %d KB), %d pages in %d batches, "
+                            + "%d failed attempts, %d rejected, %.0f pages/s, gzip %.1fx",
+                    queuedPages, maxQueuedPages, queuedBytes / 1024, sentPages, sentBatches,
+                    failedAttempts, rejectedPages, pagesPerSecond(), compressionRatio());
+        }
+    }
+
+    private static final int TYPE_ADD = 0;
+    private static final int TYPE_DONE = 1;
+    private static final int TYPE_NEXT_ID = 2;
+
+    private static final class Entry {
+        final long id;
+        final PageKey key;
+        final String json;
+
+        Entry(long id, PageKey key, String json) {
+            this.id = id;
+            this.key = key;
+            this.json = json;
+        }
+    }
+
+    private final File file;
+    private final File rejectedFile;
+    private final URL endpoint;
+    private final Options options;
+    private final ExecutorService disk;
+    private final ScheduledExecutorService network;
+    private final Random random = new Random();
+
+    // Replaced by the disk thread when the file starts over
+    private volatile FileChannel channel;
+    // Only used on the disk thread
+    private final CRC32 crc = new CRC32();
+    private final BinaryOutput record = new BinaryOutput(256);
+    private final BinaryOutput framed = new BinaryOutput(4096);
+    private long nextId;
+
+    // Guards everything below. Pages are only added to the queue once they are on disk.
+    private final Object lock = new Object();
+    private final LinkedHashMap<Long, Entry> queue = new LinkedHashMap<>();
+    private final Map<PageKey, Long> idsByKey = new HashMap<>();
+    private long queuedBytes;
+    private int maxQueuedPages;
+    private int sentPages;
+    private int sentBatches;
+    private int failedAttempts;
+    private int rejectedPages;
+    private long jsonBytes;
+    private long sentBytes;
+    private long sendNanos;
+    private int failures;
+    private boolean sendScheduled;
+    private IOException failure;
+    private boolean closed;
+
+    private final Runnable sendTask = new Runnable() {
+        @Override
+        public void run() {
+            sendBatch();
+        }
+    };
+
+    private LogSyncQueue(File file, URL endpoint, Options options) {
+        this.file = file;
+        rejectedFile = new File(file.getPath() + ".rejected");
+        this.endpoint = endpoint;
+        this.options = options;
+        disk = Executors.newSingleThreadExecutor(daemon("LogSyncQueue-disk"));
+        network = Executors.newSingleThreadScheduledExecutor(daemon("LogSyncQueue-network"));
+    }
+
+    static LogSyncQueue open(File file, URL endpoint) throws IOException {
+        return open(file, endpoint, new Options());
+    }
+
+    static LogSyncQueue open(File file, URL endpoint, Options options) throws IOException {
+        LogSyncQueue syncQueue = new LogSyncQueue(file, endpoint, options);
+        try {
+            syncQueue.recover();
+        } catch (IOException ex) {
+            syncQueue.disk.shutdown();
+            syncQueue.network.shutdown();
+            throw ex;
+        }
+        synchronized (syncQueue.lock) {
+            if (!syncQueue.queue.isEmpty()) syncQueue.scheduleSend(0);
+        }
+        return syncQueue;
+    }
+
+    void enqueue(LogPage page) {
+        // Queues the page as it is now. Doesn't wait for the disk, see flush().
+        final PageKey key = page.getKey();
+        final String json = toJson(page);
+        synchronized (lock) {
+            if (closed) throw new IllegalStateException("Sync queue closed");
+            disk.execute(new Runnable() {
+                @Override
+                public void run() {
+                    add(key, json);
+                }
+            });
+        }
+    }
+
+    void flush() throws IOException {
+        // Waits for every page enqueued so far to be on disk
+        Future<?> future;
+        synchronized (lock) {
+            if (closed) throw new IOException("Sync queue closed");
+            future = disk.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+        }
+        try {
+            future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while flushing", ex);
+        } catch (ExecutionException ex) {
+            throw new IOException(ex.getCause());
+        }
+        synchronized (lock) {
+            if (failure != null) throw failure;
+        }
+    }
+
+    Metrics getMetrics() {
+        synchronized (lock) {
+            return new Metrics(this);
+        }
+    }
+
+    File getRejectedFile() {
+        // Pages the server refused, for someone to look at, it's only ever appended to
+        return rejectedFile;
+    }
+
+    long fileBytes() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // A request in flight is abandoned, its pages are still in the file for next time
+        try {
+            flush();
+        } finally {
+            synchronized (lock) {
+                closed = true;
+            }
+            network.shutdownNow();
+            disk.shutdown();
+            try {
+                disk.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            channel.close();
+        }
+    }
+
+    static long backoffMillis(int failures, Options options, Random random) {
+        // Wait before the next attempt after failures failed ones in a row
+        int doublings = Math.min(failures - 1, 30);
+        long cap = Math.min(options.maxBackoffMillis, options.initialBackoffMillis << doublings);
+        long half = cap / 2;
+        return half + (long) (random.nextDouble() * (cap - half));
+    }
+
+    private static String toJson(LogPage page) {
+        StringWriter text = new StringWriter();
+        text.write("{\"" + LogJsonKeys.SYNC_AIRCRAFT + "\":");
+        text.write(JSONObject.quote(page.getAircraft()));
+        text.write(",\"" + LogJsonKeys.SYNC_FOLIO + "\":");
+        text.write(JSONObject.quote(page.getFolio()));
+        text.write(",\"" + LogJsonKeys.SYNC_ITEMS + "\":");
+        try {
+            LogItemJsonWriter writer = new LogItemJsonWriter(text);
+            writer.beginArray();
+            for (LogItem item : page.getItems()) writer.write(item);
+            writer.endArray();
+        } catch (IOException ex) {
+            // StringWriter doesn't throw
+            throw new IllegalStateException(ex);
+        }
+        text.write('}');
+        return text.toString();
+    }
+
+    private void add(PageKey key, String json) {
+        // Disk thread
+        Entry entry = new Entry(nextId++, key, json);
+        Long replaced;
+        synchronized (lock) {
+            replaced = idsByKey.get(key);
+        }
+        framed.reset();
+        if (replaced != null) frameDone(replaced);
+        record.reset();
+        record.writeByte(TYPE_ADD);
+        record.writeVarLong(entry.id);
+        record.writeString(key.getAircraft());
+        record.writeString(key.getFolio());
+        record.writeString(json);
+        frame();
+        write();
+        synchronized (lock) {
+            if (replaced != null) remove(replaced);
+            queue.put(entry.id, entry);
+            idsByKey.put(key, entry.id);
+            queuedBytes += json.length();
+            maxQueuedPages = Math.max(maxQueuedPages, queue.size());
+            // While backing off the retry will pick it up
+            if (failures == 0) scheduleSend(options.batchDelayMillis);
+        }
+    }
+
+    private void done(final List<Entry> batch, final int rejectedWith) {
+        // Network thread, the batch was delivered, or rejected with that status if not 0
+        synchronized (lock) {
+            for (Entry entry : batch) remove(entry.id);
+            if (closed) return;
+            disk.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // Not written off, they're sent again on the next launch
+                    if (rejectedWith != 0 && !reject(batch, rejectedWith)) return;
+                    boolean empty;
+                    synchronized (lock) {
+                        empty = queue.isEmpty();
+                    }
+                    framed.reset();
+                    if (empty) {
+                        // Only this thread adds pages, so nothing can be lost by starting over
+                        truncate();
+                        return;
+                    }
+                    for (Entry entry : batch) frameDone(entry.id);
+                    write();
+                }
+            });
+        }
+    }
+
+    private void remove(long id) {
+        // Called with the lock held
+        Entry entry = queue.remove(id);
+        if (entry == null) return;
+        queuedBytes -= entry.json.length();
+        Long current = idsByKey.get(entry.key);
+        if (current != null && current == id) idsByKey.remove(entry.key);
+    }
+
+    private void scheduleSend(long delayMillis) {
+        // Called with the lock held
+        if (closed || sendScheduled) return;
+        sendScheduled = true;
+        network.schedule(sendTask, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void sendBatch() {
+        // Network thread
+        List<Entry> batch = new ArrayList<>();
+        synchronized (lock) {
+            sendScheduled = false;
+            int bytes = 0;
+            Iterator<Entry> entries = queue.values().iterator();
+            while (entries.hasNext() && batch.size() < options.batchPages) {
+                Entry entry = entries.next();
+                if (!batch.isEmpty() && bytes + entry.json.length() > options.batchBytes) break;
+                batch.add(entry);
+                bytes += entry.json.length();
+            }
+        }
+        if (batch.isEmpty()) return;
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\"").append(LogJsonKeys.SYNC_PAGES).append("\":[");
+        for (int i = 0; i < batch.size(); i++) {
+            Entry entry = batch.get(i);
+            if (i > 0) json.append(',');
+            json.append("{\"").append(LogJsonKeys.SYNC_ID).append("\":").append(entry.id)
+                    .append(',').append(entry.json, 1, entry.json.length());
+        }
+        json.append("]}");
+        byte[] utf8 = json.toString().getBytes(LogItemJsonWriter.UTF_8);
+        byte[] body = gzip(utf8);
+
+        long start = System.nanoTime();
+        int status;
+        try {
+            status = post(body);
+        } catch (IOException ex) {
+            status = -1;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        boolean delivered = status >= 200 && status < 300;
+        boolean retry = status == -1 || status == 401 || status == 403 || status == 404
+                || status == 408 || status == 429 || status >= 500;
+        synchronized (lock) {
+            sendNanos += elapsed;
+            if (retry) {
+                failedAttempts++;
+                failures++;
+                scheduleSend(backoffMillis(failures, options, random));
+                return;
+            }
+            failures = 0;
+            if (delivered) {
+                sentPages += batch.size();
+                sentBatches++;
+                jsonBytes += utf8.length;
+                sentBytes += body.length;
+            } else {
+                rejectedPages += batch.size();
+            }
+        }
+        done(batch, delivered ? 0 : status);
+        synchronized (lock) {
+            if (!queue.isEmpty()) scheduleSend(0);
+        }
+    }
+
+    private int post(byte[] body) throws IOException {
+        // Returns the HTTP status
+        HttpURLConnection connection = (HttpURLConnection) endpoint.openConnection();
+        connection.setConnectTimeout(options.connectTimeoutMillis);
+        connection.setReadTimeout(options.readTimeoutMillis);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+        connection.setRequestProperty("Content-Encoding", "gzip");
+        try {
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(body);
+            } finally {
+                out.close();
+            }
+            int status = connection.getResponseCode();
+            // Reading the answer to the end lets the connection be reused
+            InputStream in = status < 400 ? connection.getInputStream()
+                    : connection.getErrorStream();
+            if (in != null) {
+                try {
+                    byte[] buffer = new byte[1024];
+                    while (in.read(buffer) != -1) {
+                        // Discarded
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+            return status;
+        } catch (IOException ex) {
+            connection.disconnect();
+            throw ex;
+        }
+    }
+
+    private static byte[] gzip(byte[] json) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(json.length / 4);
+        try {
+            GZIPOutputStream out = new GZIPOutputStream(bytes);
+            out.write(json);
+            out.close();
+        } catch (IOException ex) {
+            // ByteArrayOutputStream doesn't throw
+            throw new IllegalStateException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    private boolean reject(List<Entry> batch, int status) {
+        // Disk thread, appends the batch to the rejected file, false if it couldn't
+        StringBuilder lines = new StringBuilder();
+        for (Entry entry : batch) {
+            lines.append("{\"").append(LogJsonKeys.SYNC_STATUS).append("\":").append(status)
+                    .append(",\"").append(LogJsonKeys.SYNC_ID).append("\":").append(entry.id)
+                    .append(',').append(entry.json, 1, entry.json.length()).append('\n');
+        }
+        try {
+            FileOutputStream out = new FileOutputStream(rejectedFile, true);
+            try {
+                out.write(lines.toString().getBytes(LogItemJsonWriter.UTF_8));
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            return true;
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            synchronized (lock) {
+                failure = ex;
+            }
+            return false;
+        }
+    }
+
+    private void frameDone(long id) {
+        record.reset();
+        record.writeByte(TYPE_DONE);
+        record.writeVarLong(id);
+        frame();
+    }
+
+    private void frame() {
+        // Disk thread, adds length and CRC and moves the record to framed
+        crc.reset();
+        crc.update(record.buffer(), 0, record.size());
+        framed.writeVarInt(record.size());
+        framed.writeInt((int) crc.getValue());
+        framed.writeBytes(record.buffer(), 0, record.size());
+    }
+
+    private void frameNextId() {
+        record.reset();
+        record.writeByte(TYPE_NEXT_ID);
+        record.writeVarLong(nextId);
+        frame();
+    }
+
+    private void write() {
+        // Disk thread, appends framed to the file
+        try {
+            ByteBuffer bytes = ByteBuffer.wrap(framed.buffer(), 0, framed.size());
+            long position = channel.size();
+            while (bytes.hasRemaining()) position += channel.write(bytes, position);
+            if (options.syncOnWrite) channel.force(false);
+        } catch (IOException ex) {
+            // The pages are still sent, they just won't survive a restart
+            ex.printStackTrace();
+            synchronized (lock) {
+                failure = ex;
+            }
+        } finally {
+            framed.reset();
+        }
+    }
+
+    private void truncate() {
+        /* Disk thread, keeps just the next id
+         *
+         * Through a new file like recover(), truncating in place would lose the next id to a
+         * crash before it's written again, and reused ids are dropped by the server.
+         */
+        frameNextId();
+        try {
+            replaceFile();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            synchronized (lock) {
+                failure = ex;
+            }
+        }
+    }
+
+    private void replaceFile() throws IOException {
+        // Replaces the file with what's framed, at once
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            framed.writeTo(stream);
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+            framed.reset();
+        }
+        if (!temp.renameTo(file)) throw new IOException("Can't replace " + file);
+        syncDirectory();
+        FileChannel old = channel;
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        if (old != null) old.close();
+    }
+
+    private void syncDirectory() {
+        /* The rename is only on disk once the directory is synced too
+         *
+         * java.nio.file is there from API 26 on Android. Before that, or where directories
+         * can't be synced, the rename is left to the file system.
+         */
+        try {
+            FileChannel directory = FileChannel.open(
+                    file.getAbsoluteFile().getParentFile().toPath(), StandardOpenOption.READ);
+            try {
+                directory.force(true);
+            } finally {
+                directory.close();
+            }
+        } catch (IOException | LinkageError ex) {
+            // Not supported here
+        }
+    }
+
+    private void recover() throws IOException {
+        byte[] data = new byte[0];
+        if (file.isFile()) {
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            try {
+                data = new byte[(int) in.length()];
+                in.readFully(data);
+            } finally {
+                in.close();
+            }
+        }
+        LinkedHashMap<Long, Entry> pending = new LinkedHashMap<>();
+        BinaryInput in = new BinaryInput(data);
+        while (in.remaining() > 0) {
+            byte[] payload;
+            try {
+                int length = in.readVarInt();
+                int expected = in.readInt();
+                if (length < 0 || length > in.remaining()) break;
+                payload = in.readBytes(length);
+                CRC32 check = new CRC32();
+                check.update(payload, 0, length);
+                if ((int) check.getValue() != expected) break;
+            } catch (IOException ex) {
+                // Torn record at the end
+                break;
+            }
+            BinaryInput fields = new BinaryInput(payload);
+            int type = fields.readByte();
+            long id = fields.readVarLong();
+            switch (type) {
+                case TYPE_ADD:
+                    PageKey key = new PageKey(fields.readString(), fields.readString());
+                    pending.put(id, new Entry(id, key, fields.readString()));
+                    nextId = Math.max(nextId, id + 1);
+                    break;
+                case TYPE_DONE:
+                    pending.remove(id);
+                    break;
+                case TYPE_NEXT_ID:
+                    nextId = Math.max(nextId, id);
+                    break;
+                default:
+                    throw new IOException("Unknown sync queue record " + type);
+            }
+        }
+
+        // Start a new file with just the pages still to send, replacing the old one at once
+        for (Entry entry : pending.values()) {
+            record.reset();
+            record.writeByte(TYPE_ADD);
+            record.writeVarLong(entry.id);
+            record.writeString(entry.key.getAircraft());
+            record.writeString(entry.key.getFolio());
+            record.writeString(entry.json);
+            frame();
+        }
+        frameNextId();
+        replaceFile();
+        synchronized (lock) {
+            for (Entry entry : pending.values()) {
+                queue.put(entry.id, entry);
+                idsByKey.put(entry.key, entry.id);
+                queuedBytes += entry.json.length();
+            }
+            maxQueuedPages = queue.size();
+        }
+    }
+
+    private static ThreadFactory daemon(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
@@ -0,0 +1,372 @@
+package com.mycompany.capturatest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+final class LogValidator {
+    /* Checks log entries against the rules of the maintenance log
+     *
+     * Rules are declared once in a Rules object: the valid ATA chapters, the known stations and
+     * which structural rules apply. compile() turns them into lookup tables (a flag per chapter
+     * number, a flag per three letter code) and an array of the checks that are enabled, so
+     * validating an entry is a few array reads with no parsing of the rules or hashing of
+     * strings. That's cheap enough to run on every edit of the entry being typed.
+     *
+     * Whole histories (an import, the store) are validated in parallel, one slice of pages per
+     * thread, and every violation is reported with the page, item and field it was found in.
+     *
+     * Canceled items, and canceled discrepancies or corrective actions, aren't checked. Empty
+     * fields aren't violations, the entry may still be being filled in.
+     */
+    // Rule identifiers
+    static final String ATA_UNKNOWN = "ata.unknown";
+    static final String STATION_UNKNOWN = "station.unknown";
+    static final String DEFERRAL_WITHOUT_BASIS = "deferral.withoutBasis";
+    static final String INSTALLED_INCOMPLETE = "component.installedIncomplete";
+    static final String REMOVED_INCOMPLETE = "component.removedIncomplete";
+
+    // Chapters of ATA iSpec 2200, used by Rules.standard()
+    private static final String[] ATA_CHAPTERS = {"00", "01", "02", "03", "04", "05", "06",
+            "07", "08", "09", "10", "11", "12", "18", "20", "21", "22", "23", "24", "25", "26",
+            "27", "28", "29", "30", "31", "32", "33", "34", "35", "36", "37", "38", "39", "41",
+            "44", "45", "46", "47", "49", "50", "51", "52", "53", "54", "55", "56", "57", "60",
+            "61", "62", "63", "64", "65", "66", "67", "70", "71", "72", "73", "74", "75", "76",
+            "77", "78", "79", "80", "81", "82", "83", "84", "85", "91"};
+
+    private static final int LETTERS = 26;
+
+    static final class Rules {
+        /* What compile() builds the validator from
+         *
+         * ataChapters are two digit chapters, an ATA reference is valid if its chapter is
+         * ("32", "32-41", "32-41-01"). With no chapters any well formed reference is accepted,
+         * with no stations any three letter code.
+         */
+        final Set<String> ataChapters = new HashSet<>();
+        final Set<String> stations = new HashSet<>();
+        boolean deferralNeedsBasis = true;
+        boolean installedNeedsPartAndSerial = true;
+        boolean removedNeedsPartAndSerial = true;
+
+        static Rules standard() {
+            Rules rules = new Rules();
+            rules.ataChapters.addAll(Arrays.asList(ATA_CHAPTERS));
+            return rules;
+        }
+    }
+
+    public static final class Violation {
+        private final PageKey page;
+        private final int itemNumber;
+        private final String rule;
+        private final int part;
+        private final int index;
+        private final int field;
+        private final String value;
+
+        Violation(PageKey page, int itemNumber, String rule, int part, int index, int field,
+                  String value) {
+            this.page = page;
+            this.itemNumber = itemNumber;
+            this.rule = rule;
+            this.part = part;
+            this.index = index;
+            this.field = field;
+            this.value = value;
+        }
+
+        public PageKey getPage() {
+            // Null when a single entry was validated
+            return page;
+        }
+
+        public int getLogItemNumber() {
+            return itemNumber;
+        }
+
+        public String getRule() {
+            return rule;
+        }
+
+        public int getPart() {
+            // LogField.PART_*, index is the component change for PART_COMPONENT_CHANGE
+            return part;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public int getField() {
+            // The LogField to fix
+            return field;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return (page == null ? "" : page + " ") + "#" + itemNumber + " " + rule + " (part "
+                    + part + ", index " + index + ", field " + field + ")"
+                    + (value == null ? "" : ": " + value);
+        }
+    }
+
+    public static final class Report {
+        private final int checked;
+        private final List<Violation> violations;
+
+        Report(int checked, List<Violation> violations) {
+            this.checked = checked;
+            this.violations = Collections.unmodifiableList(violations);
+        }
+
+        public int getCheckedItems() {
+            return checked;
+        }
+
+        public List<Violation> getViolations() {
+            // In the order the pages were given
+            return violations;
+        }
+
+        public Map<String, Integer> countByRule() {
+            Map<String, Integer> counts = new HashMap<>();
+            for (Violation violation : violations) {
+                Integer count = counts.get(violation.getRule());
+                counts.put(violation.getRule(), count == null ? 1 : count + 1);
+            }
+            return counts;
+        }
+    }
+
+    private abstract static class Check {
+        // One compiled rule
+        abstract void check(PageKey page, LogItem item, List<Violation> out);
+    }
+
+    private interface PageSource<T> {
+        LogPage page(T source) throws IOException;
+    }
+
+    private final Check[] checks;
+
+    private LogValidator(Check[] checks) {
+        this.checks = checks;
+    }
+
+    static LogValidator compile(Rules rules) {
+        List<Check> checks = new ArrayList<>();
+        final boolean anyChapter = rules.ataChapters.isEmpty();
+        final boolean[] chapters = new boolean[100];
+        for (String chapter : rules.ataChapters) {
+            int number = chapterOf(chapter);
+            if (number < 0 || chapter.length() != 2)
+                throw new IllegalArgumentException("Not an ATA chapter: " + chapter);
+            chapters[number] = true;
+        }
+        checks.add(new Check() {
+            @Override
+            void check(PageKey page, LogItem item, List<Violation> out) {
+                checkAta(page, item, item.getDiscrepancy(), anyChapter, chapters, out);
+                checkAta(page, item, item.getCorrectiveAction(), anyChapter, chapters, out);
+            }
+        });
+
+        final boolean anyStation = rules.stations.isEmpty();
+        final boolean[] stations = new boolean[LETTERS * LETTERS * LETTERS];
+        for (String station : rules.stations) {
+            int code = stationCode(station);
+            if (code < 0) throw new IllegalArgumentException("Not an IATA code: " + station);
+            stations[code] = true;
+        }
+        checks.add(new Check() {
+            @Override
+            void check(PageKey page, LogItem item, List<Violation> out) {
+                checkStation(page, item, item.getDiscrepancy(), anyStation, stations, out);
+                checkStation(page, item, item.getCorrectiveAction(), anyStation, stations, out);
+            }
+        });
+
+        if (rules.deferralNeedsBasis) {
+            checks.add(new Check() {
+                @Override
+                void check(PageKey page, LogItem item, List<Violation> out) {
+                    LogItem.CorrectiveAction action = item.getCorrectiveAction();
+                    if (action.isCanceled() || !action.isDeferred()) return;
+                    if (isBlank(action.getDeferralBasis()))
+                        out.add(new Violation(page, item.getLogItemNumber(),
+                                DEFERRAL_WITHOUT_BASIS, LogField.PART_CORRECTIVE_ACTION, 0,
+                                LogField.DEFERRAL_BASIS, action.getDeferralBasis()));
+                }
+            });
+        }
+        if (rules.installedNeedsPartAndSerial || rules.removedNeedsPartAndSerial) {
+            final boolean installed = rules.installedNeedsPartAndSerial;
+            final boolean removed = rules.removedNeedsPartAndSerial;
+            checks.add(new Check() {
+                @Override
+                void check(PageKey page, LogItem item, List<Violation> out) {
+                    checkComponents(page, item, installed, removed, out);
+                }
+            });
+        }
+        return new LogValidator(checks.toArray(new Check[checks.size()]));
+    }
+
+    List<Violation> validate(LogItem item) {
+        // For the entry being edited, on its thread
+        List<Violation> violations = new ArrayList<>(0);
+        validate(null, item, violations);
+        return violations;
+    }
+
+    void validate(PageKey page, LogItem item, List<Violation> out) {
+        if (item.isCanceled()) return;
+        for (Check check : checks) check.check(page, item, out);
+    }
+
+    Report validate(List<LogPage> pages, int threads) throws IOException {
+        return validate(pages, threads, new PageSource<LogPage>() {
+            @Override
+            public LogPage page(LogPage page) {
+                return page;
+            }
+        });
+    }
+
+    Report validate(final LogStore store, int threads) throws IOException {
+        // Pages saved meanwhile may or may not be seen
+        return validate(store.keys(), threads, new PageSource<PageKey>() {
+            @Override
+            public LogPage page(PageKey key) throws IOException {
+                return store.get(key.getAircraft(), key.getFolio());
+            }
+        });
+    }
+
+    private <T> Report validate(List<T> sources, int threads, final PageSource<T> source)
+            throws IOException {
+        // One slice of the pages per thread, the reports are joined in order
+        List<Report> reports = Slices.run(sources, threads, new Slices.Job<T, Report>() {
+            @Override
+            public Report run(List<T> slice) throws IOException {
+                return validateSlice(slice, source);
+            }
+        });
+
+        int checked = 0;
+        List<Violation> violations = new ArrayList<>();
+        for (Report report : reports) {
+            checked += report.checked;
+            violations.addAll(report.violations);
+        }
+        return new Report(checked, violations);
+    }
+
+    private <T> Report validateSlice(List<T> sources, PageSource<T> source)
+            throws IOException {
+        int checked = 0;
+        List<Violation> violations = new ArrayList<>();
+        for (T t : sources) {
+            LogPage page = source.page(t);
+            if (page == null) continue;
+            for (LogItem item : page.getItems()) {
+                validate(page.getKey(), item, violations);
+                checked++;
+            }
+        }
+        return new Report(checked, violations);
+    }
+
+    private static void checkAta(PageKey page, LogItem item, LogItem.BaseLogItem base,
+                                 boolean anyChapter, boolean[] chapters, List<Violation> out) {
+        String ata = base.getAtaChapter();
+        if (base.isCanceled() || isBlank(ata)) return;
+        int chapter = chapterOf(ata);
+        if (chapter < 0 || !(anyChapter || chapters[chapter]))
+            out.add(new Violation(page, item.getLogItemNumber(), ATA_UNKNOWN, base.part(), 0,
+                    LogField.ATA_CHAPTER, ata));
+    }
+
+    private static void checkStation(PageKey page, LogItem item, LogItem.BaseLogItem base,
+                                     boolean anyStation, boolean[] stations,
+                                     List<Violation> out) {
+        String station = base.getStation();
+        if (base.isCanceled() || isBlank(station)) return;
+        int code = stationCode(station);
+        if (code < 0 || !(anyStation || stations[code]))
+            out.add(new Violation(page, item.getLogItemNumber(), STATION_UNKNOWN, base.part(),
+                    0, LogField.STATION, station));
+    }
+
+    private static void checkComponents(PageKey page, LogItem item, boolean installed,
+                                        boolean removed, List<Violation> out) {
+        List<LogItem.ComponentsChanged.ComponentChange> changes =
+                item.getComponentsChanged().getComponentChanges();
+        for (int i = 0; i < changes.size(); i++) {
+            LogItem.ComponentsChanged.ComponentChange change = changes.get(i);
+            if (installed && change.isComponentInstalled()) {
+                if (isBlank(change.getInstalledPartNumber()))
+                    out.add(new Violation(page, item.getLogItemNumber(), INSTALLED_INCOMPLETE,
+                            LogField.PART_COMPONENT_CHANGE, i, LogField.INSTALLED_PART_NUMBER,
+                            null));
+                if (isBlank(change.getInstalledSerialNumber()))
+                    out.add(new Violation(page, item.getLogItemNumber(), INSTALLED_INCOMPLETE,
+                            LogField.PART_COMPONENT_CHANGE, i,
+                            LogField.INSTALLED_SERIAL_NUMBER, null));
+            }
+            if (removed && change.isComponentRemoved()) {
+                if (isBlank(change.getRemovedPartNumber()))
+                    out.add(new Violation(page, item.getLogItemNumber(), REMOVED_INCOMPLETE,
+                            LogField.PART_COMPONENT_CHANGE, i, LogField.REMOVED_PART_NUMBER,
+                            null));
+                if (isBlank(change.getRemovedSerialNumber()))
+                    out.add(new Violation(page, item.getLogItemNumber(), REMOVED_INCOMPLETE,
+                            LogField.PART_COMPONENT_CHANGE, i, LogField.REMOVED_SERIAL_NUMBER,
+                            null));
+            }
+        }
+    }
+
+    static int chapterOf(String ata) {
+        /* Chapter number of "32", "32-41" or "32-41-01", -1 if it isn't one of those
+         *
+         * Sections and subjects are two digits each.
+         */
+        int length = ata.length();
+        if (length != 2 && length != 5 && length != 8) return -1;
+        for (int i = 0; i < length; i++) {
+            char c = ata.charAt(i);
+            boolean dash = i % 3 == 2;
+            if (dash ? c != '-' : c < '0' || c > '9') return -1;
+        }
+        return (ata.charAt(0) - '0') * 10 + ata.charAt(1) - '0';
+    }
+
+    static int stationCode(String station) {
+        // Index of a three letter code in the station table, any case, -1 if it isn't one
+        if (station.length() != 3) return -1;
+        int code = 0;
+        for (int i = 0; i < 3; i++) {
+            char c = station.charAt(i);
+            if (c >= 'a' && c <= 'z') c -= 'a' - 'A';
+            if (c < 'A' || c > 'Z') return -1;
+            code = code * LETTERS + c - 'A';
+        }
+        return code;
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+}
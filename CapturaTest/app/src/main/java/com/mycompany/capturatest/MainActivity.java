@@ -5,14 +5,45 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import android.os.Bundle;
+import android.view.View;
+import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.Spinner;
 
-import java.util.ArrayList;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 public class MainActivity extends AppCompatActivity {
+    private static final String JOURNAL_FILE = "edits.journal";
+    private static final String STORE_DIRECTORY = "log";
+    /* Opens, reads and closes the storage, one task at a time
+     *
+     * Shared by every instance of the activity, so the one created after a rotation only
+     * opens the store once the one before has closed it. History windows are read here too,
+     * the store isn't closed under them.
+     */
+    private static final ExecutorService STORAGE = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, "LogStorage");
+                }
+            });
+
+    // Set on the storage thread, used on the UI thread once their opening was posted
+    private volatile LogJournal journal;
+    private volatile LogStore store;
+    private volatile AircraftLogIndex index;
+    private LogAdapter pageAdapter;
+    private RecyclerView recyclerView;
+    private Spinner spinner;
+    private volatile boolean destroyed;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -20,7 +51,7 @@ public class MainActivity extends AppCompatActivity {
         setContentView(R.layout.activity_main);
 
         // Add items to aircraft selector
-        Spinner spinner = findViewById(R.id.aircraftSelector);
+        spinner = findViewById(R.id.aircraftSelector);
         List<String> aircraft = Arrays.asList((getResources().getStringArray(R.array.aircraft_array)));
         ArrayAdapter<String> spinnerAdapter = new ArrayAdapter<>(this,
                 android.R.layout.simple_spinner_dropdown_item, aircraft);
@@ -29,14 +60,116 @@ public class MainActivity extends AppCompatActivity {
         spinner.setAdapter(spinnerAdapter);
 
         // Add items to Recycler View
-        RecyclerView recyclerView = findViewById(R.id.logItems);
+        recyclerView = findViewById(R.id.logItems);
         recyclerView.setHasFixedSize(true);
         LinearLayoutManager linearLayoutManager = new LinearLayoutManager(this);
         recyclerView.setLayoutManager(linearLayoutManager);
-        List<LogItem> items = new ArrayList<>();
-        // Maintenance log should only have 3 entry items
-        for (int i = 1; i <= 3; i++) items.add(new LogItem(i));
-        LogAdapter adapter = new LogAdapter(items);
-        recyclerView.setAdapter(adapter);
+        pageAdapter = new LogAdapter();
+        recyclerView.setAdapter(pageAdapter);
+
+        spinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                showAircraft((String) parent.getItemAtPosition(position));
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
+        // Enabled once the store is open
+        spinner.setEnabled(false);
+        openStorage();
+    }
+
+    private void openStorage() {
+        /* Opening the store may scan every segment, and the journal is rewritten and synced,
+         * so both are opened off the main thread. Then the index, which reads years of pages.
+         */
+        STORAGE.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Closed before it got to open
+                if (destroyed) return;
+                try {
+                    store = LogStore.open(new File(getFilesDir(), STORE_DIRECTORY));
+                    journal = LogJournal.open(new File(getFilesDir(), JOURNAL_FILE));
+                    store.addListener(journal);
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        storageOpened();
+                    }
+                });
+                if (store == null) return;
+
+                try {
+                    index = AircraftLogIndex.open(store);
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!destroyed) showAircraft((String) spinner.getSelectedItem());
+                        }
+                    });
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        });
+    }
+
+    private void storageOpened() {
+        // UI thread, the store or the journal may be null if it couldn't be opened
+        if (destroyed) return;
+        // Continue with the page that was being edited if the app was killed
+        LogPage page = null;
+        if (journal != null && !journal.getRecoveredPages().isEmpty())
+            page = journal.getRecoveredPages().get(0);
+        if (page == null) {
+            page = new LogPage((String) spinner.getItemAtPosition(0), "");
+            // Maintenance log should only have 3 entry items
+            for (int i = 1; i <= LogItem.ITEMS_PER_PAGE; i++) page.addItem(new LogItem(i));
+            if (journal != null) journal.track(page);
+        }
+        pageAdapter.submitList(LogRow.of(page));
+        spinner.setEnabled(true);
+    }
+
+    private void showAircraft(String aircraft) {
+        // Aircraft with saved pages show their whole history, newest first
+        if (index != null && index.size(aircraft) > 0)
+            recyclerView.setAdapter(new LogHistoryAdapter(store, index.pages(aircraft), STORAGE));
+        else if (recyclerView.getAdapter() != pageAdapter)
+            recyclerView.setAdapter(pageAdapter);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        destroyed = true;
+        // Detaches the history adapter, dropping its loads
+        recyclerView.setAdapter(null);
+        // Closing waits for compaction and syncs, after the opening if it's still going
+        STORAGE.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (index != null) index.close();
+                close(journal);
+                close(store);
+            }
+        });
+    }
+
+    private static void close(Closeable closeable) {
+        // Each one on its own, a journal that fails to close still lets the store close
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
     }
 }
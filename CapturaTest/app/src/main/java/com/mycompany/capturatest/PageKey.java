@@ -0,0 +1,77 @@
+package com.mycompany.capturatest;
+
+final class PageKey implements Comparable<PageKey> {
+    /* Identifies a maintenance log page: aircraft registration + log folio
+     *
+     * Sorted by aircraft and then by folio, numeric folios in numeric order so "9" comes
+     * before "10".
+     */
+    private final String aircraft;
+    private final String folio;
+
+    PageKey(String aircraft, String folio) {
+        if (aircraft == null || folio == null) throw new NullPointerException();
+        this.aircraft = aircraft;
+        this.folio = folio;
+    }
+
+    String getAircraft() {
+        return aircraft;
+    }
+
+    String getFolio() {
+        return folio;
+    }
+
+    @Override
+    public int compareTo(PageKey other) {
+        int result = aircraft.compareTo(other.aircraft);
+        return result != 0 ? result : compareFolios(folio, other.folio);
+    }
+
+    static int compareFolios(String a, String b) {
+        // Consistent with equals(), "007" and "7" are the same number but different folios
+        if (isNumber(a) && isNumber(b)) {
+            String strippedA = stripLeadingZeros(a);
+            String strippedB = stripLeadingZeros(b);
+            if (strippedA.length() != strippedB.length())
+                return strippedA.length() < strippedB.length() ? -1 : 1;
+            int result = strippedA.compareTo(strippedB);
+            if (result != 0) return result;
+        }
+        return a.compareTo(b);
+    }
+
+    private static boolean isNumber(String value) {
+        if (value.isEmpty()) return false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+
+    private static String stripLeadingZeros(String value) {
+        int start = 0;
+        while (start < value.length() - 1 && value.charAt(start) == '0') start++;
+        return value.substring(start);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PageKey)) return false;
+        PageKey other = (PageKey) o;
+        return aircraft.equals(other.aircraft) && folio.equals(other.folio);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * aircraft.hashCode() + folio.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return aircraft + "/" + folio;
+    }
+}
@@ -0,0 +1,433 @@
+package com.mycompany.capturatest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class ReliabilityAnalytics implements LogStore.Listener, Closeable {
+    /* Fleet reliability figures: discrepancies by ATA chapter, station, aircraft and month, and
+     * repeat defects
+     *
+     * Every reported discrepancy (item and discrepancy not canceled) is a Fact. Facts are
+     * rolled up into counters per dimension, plus a counter per aircraft and month that gives
+     * the exposure for rates (discrepancies per aircraft-month, counting the months an aircraft
+     * reported anything). Dashboards read the counters, never the history.
+     *
+     * recompute() reads the whole store in parallel: the pages are split into one slice per
+     * core, each slice is read, decoded and rolled up on its own thread and the partial rollups
+     * are added together. After that LogStore.Listener keeps the rollups up to date, a saved
+     * page takes its old facts out and puts its new ones in.
+     *
+     * Repeat defects (the same ATA chapter on the same aircraft within some days) come from a
+     * date ordered set of facts per aircraft and chapter, so any window can be asked for.
+     */
+    static final int ATA_CHAPTER = 0;
+    static final int STATION = 1;
+    static final int AIRCRAFT = 2;
+    static final int MONTH = 3;
+    private static final int DIMENSIONS = 4;
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private static final Comparator<Fact> BY_DATE = new Comparator<Fact>() {
+        @Override
+        public int compare(Fact a, Fact b) {
+            // A series is one aircraft and ATA chapter, neither needs comparing
+            if (a.date != b.date) return a.date < b.date ? -1 : 1;
+            int result = PageKey.compareFolios(a.page.getFolio(), b.page.getFolio());
+            if (result != 0) return result;
+            if (a.itemNumber != b.itemNumber) return a.itemNumber < b.itemNumber ? -1 : 1;
+            return a.position - b.position;
+        }
+    };
+
+    private final LogStore store;
+    private final int threads;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Rollups rollups = new Rollups();
+    private Map<PageKey, Fact[]> byPage = new HashMap<>();
+    // Dated facts by aircraft + " " + ATA chapter
+    private Map<String, NavigableSet<Fact>> series = new HashMap<>();
+
+    public static final class RepeatDefect {
+        private final Fact first;
+        private final Fact repeat;
+
+        RepeatDefect(Fact first, Fact repeat) {
+            this.first = first;
+            this.repeat = repeat;
+        }
+
+        public String getAircraft() {
+            return repeat.page.getAircraft();
+        }
+
+        public String getAtaChapter() {
+            return repeat.ataChapter;
+        }
+
+        public String getFirstFolio() {
+            return first.page.getFolio();
+        }
+
+        public int getFirstLogItemNumber() {
+            return first.itemNumber;
+        }
+
+        public String getFolio() {
+            return repeat.page.getFolio();
+        }
+
+        public int getLogItemNumber() {
+            return repeat.itemNumber;
+        }
+
+        public Date getDate() {
+            return new Date(repeat.date);
+        }
+
+        public int getDays() {
+            // Whole days since the previous report
+            return (int) ((repeat.date - first.date) / DAY_MILLIS);
+        }
+
+        @Override
+        public String toString() {
+            return getAircraft() + " ATA " + getAtaChapter() + ": " + first.page + " #"
+                    + first.itemNumber + " -> " + repeat.page + " #" + repeat.itemNumber;
+        }
+    }
+
+    private static final class Fact {
+        // One reported discrepancy
+        final PageKey page;
+        final int itemNumber;
+        final int position;
+        final String ataChapter;
+        final String station;
+        final String month;
+        final long date;
+
+        Fact(PageKey page, int itemNumber, int position, String ataChapter, String station,
+             String month, long date) {
+            this.page = page;
+            this.itemNumber = itemNumber;
+            this.position = position;
+            this.ataChapter = ataChapter;
+            this.station = station;
+            this.month = month;
+            this.date = date;
+        }
+    }
+
+    private static final class Rollups {
+        // Counters are one element arrays, so updating one is a single map lookup
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        final Map<String, int[]>[] counts = new Map[DIMENSIONS];
+        final Map<String, Map<String, int[]>> aircraftMonths = new HashMap<>();
+        int facts;
+
+        Rollups() {
+            for (int i = 0; i < DIMENSIONS; i++) counts[i] = new HashMap<>();
+        }
+
+        void add(Fact fact, int delta) {
+            facts += delta;
+            count(counts[ATA_CHAPTER], fact.ataChapter, delta);
+            count(counts[STATION], fact.station, delta);
+            count(counts[AIRCRAFT], fact.page.getAircraft(), delta);
+            count(counts[MONTH], fact.month, delta);
+            if (fact.month == null) return;
+            Map<String, int[]> months = aircraftMonths.get(fact.page.getAircraft());
+            if (months == null) {
+                months = new HashMap<>();
+                aircraftMonths.put(fact.page.getAircraft(), months);
+            }
+            count(months, fact.month, delta);
+            if (months.isEmpty()) aircraftMonths.remove(fact.page.getAircraft());
+        }
+
+        void addAll(Rollups other) {
+            facts += other.facts;
+            for (int i = 0; i < DIMENSIONS; i++) {
+                for (Map.Entry<String, int[]> entry : other.counts[i].entrySet())
+                    count(counts[i], entry.getKey(), entry.getValue()[0]);
+            }
+            for (Map.Entry<String, Map<String, int[]>> aircraft
+                    : other.aircraftMonths.entrySet()) {
+                Map<String, int[]> months = aircraftMonths.get(aircraft.getKey());
+                if (months == null) {
+                    aircraftMonths.put(aircraft.getKey(), aircraft.getValue());
+                    continue;
+                }
+                for (Map.Entry<String, int[]> month : aircraft.getValue().entrySet())
+                    count(months, month.getKey(), month.getValue()[0]);
+            }
+        }
+
+        private static void count(Map<String, int[]> counts, String key, int delta) {
+            if (key == null) return;
+            int[] count = counts.get(key);
+            if (count == null) {
+                count = new int[1];
+                counts.put(key, count);
+            }
+            count[0] += delta;
+            if (count[0] == 0) counts.remove(key);
+        }
+    }
+
+    private static final class Slice {
+        // What one thread of recompute() read
+        final Rollups rollups = new Rollups();
+        final Map<PageKey, Fact[]> byPage = new HashMap<>();
+    }
+
+    private ReliabilityAnalytics(LogStore store, int threads) {
+        this.store = store;
+        this.threads = threads;
+    }
+
+    static ReliabilityAnalytics open(LogStore store) throws IOException {
+        return open(store, Runtime.getRuntime().availableProcessors());
+    }
+
+    static ReliabilityAnalytics open(LogStore store, int threads) throws IOException {
+        // Open it before writing to the store
+        ReliabilityAnalytics analytics = new ReliabilityAnalytics(store, Math.max(1, threads));
+        analytics.recompute();
+        store.addListener(analytics);
+        return analytics;
+    }
+
+    void recompute() throws IOException {
+        /* Rebuilds every rollup from the store, one slice of the pages per thread
+         *
+         * Pages saved while it runs are applied to the old rollups and may be missed, it's
+         * meant for opening and for checking the incremental rollups.
+         */
+        List<Slice> slices = Slices.run(store.keys(), threads,
+                new Slices.Job<PageKey, Slice>() {
+                    @Override
+                    public Slice run(List<PageKey> slice) throws IOException {
+                        return read(slice);
+                    }
+                });
+
+        // Merged off the lock, the rollups being replaced stay readable meanwhile
+        Rollups merged = slices.get(0).rollups;
+        Map<PageKey, Fact[]> pages = slices.get(0).byPage;
+        for (int s = 1; s < slices.size(); s++) {
+            merged.addAll(slices.get(s).rollups);
+            pages.putAll(slices.get(s).byPage);
+        }
+        Map<String, NavigableSet<Fact>> dated = new HashMap<>();
+        for (Fact[] facts : pages.values()) {
+            for (Fact fact : facts) addToSeries(dated, fact);
+        }
+        lock.writeLock().lock();
+        try {
+            rollups = merged;
+            byPage = pages;
+            series = dated;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Slice read(List<PageKey> keys) throws IOException {
+        Slice slice = new Slice();
+        Calendar calendar = Calendar.getInstance();
+        for (PageKey key : keys) {
+            LogPage page = store.get(key.getAircraft(), key.getFolio());
+            if (page == null) continue;
+            Fact[] facts = factsOf(page, calendar);
+            if (facts.length == 0) continue;
+            slice.byPage.put(key, facts);
+            for (Fact fact : facts) slice.rollups.add(fact, 1);
+        }
+        return slice;
+    }
+
+    @Override
+    public void onPageSaved(LogPage page) {
+        Fact[] facts = factsOf(page, Calendar.getInstance());
+        lock.writeLock().lock();
+        try {
+            remove(page.getKey());
+            if (facts.length == 0) return;
+            byPage.put(page.getKey(), facts);
+            for (Fact fact : facts) {
+                rollups.add(fact, 1);
+                addToSeries(series, fact);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onPageDeleted(PageKey key) {
+        lock.writeLock().lock();
+        try {
+            remove(key);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Map<String, Integer> counts(int dimension) {
+        // Discrepancies per ATA chapter, station, aircraft or month ("2019-03"), sorted by key
+        Map<String, Integer> result = new TreeMap<>();
+        lock.readLock().lock();
+        try {
+            for (Map.Entry<String, int[]> entry : rollups.counts[dimension].entrySet())
+                result.put(entry.getKey(), entry.getValue()[0]);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    public Map<String, Double> rates(int dimension) {
+        /* Discrepancies per aircraft-month
+         *
+         * By aircraft it's over that aircraft's months, by month over the aircraft that
+         * reported in that month, otherwise over every aircraft-month of the fleet.
+         */
+        Map<String, Double> result = new TreeMap<>();
+        lock.readLock().lock();
+        try {
+            int fleetMonths = 0;
+            Map<String, int[]> aircraftPerMonth = new HashMap<>();
+            for (Map<String, int[]> months : rollups.aircraftMonths.values()) {
+                fleetMonths += months.size();
+                for (String month : months.keySet()) Rollups.count(aircraftPerMonth, month, 1);
+            }
+            for (Map.Entry<String, int[]> entry : rollups.counts[dimension].entrySet()) {
+                int exposure = fleetMonths;
+                if (dimension == AIRCRAFT) {
+                    Map<String, int[]> months = rollups.aircraftMonths.get(entry.getKey());
+                    exposure = months == null ? 0 : months.size();
+                } else if (dimension == MONTH) {
+                    exposure = aircraftPerMonth.get(entry.getKey())[0];
+                }
+                if (exposure > 0)
+                    result.put(entry.getKey(), (double) entry.getValue()[0] / exposure);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    public List<RepeatDefect> repeatDefects(int days) {
+        // Reports of a chapter already reported on the aircraft within days, oldest first
+        long window = days * DAY_MILLIS;
+        List<RepeatDefect> result = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (NavigableSet<Fact> facts : series.values()) {
+                Fact previous = null;
+                for (Fact fact : facts) {
+                    if (previous != null && fact.date - previous.date <= window)
+                        result.add(new RepeatDefect(previous, fact));
+                    previous = fact;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        Collections.sort(result, new Comparator<RepeatDefect>() {
+            @Override
+            public int compare(RepeatDefect a, RepeatDefect b) {
+                if (a.repeat.date != b.repeat.date) return a.repeat.date < b.repeat.date ? -1 : 1;
+                return a.repeat.page.compareTo(b.repeat.page);
+            }
+        });
+        return result;
+    }
+
+    public int discrepancies() {
+        lock.readLock().lock();
+        try {
+            return rollups.facts;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        store.removeListener(this);
+    }
+
+    private void remove(PageKey key) {
+        // Called with the write lock held
+        Fact[] facts = byPage.remove(key);
+        if (facts == null) return;
+        for (Fact fact : facts) {
+            rollups.add(fact, -1);
+            if (fact.date == LogDateCodec.NO_DATE || fact.ataChapter == null) continue;
+            String name = seriesName(fact);
+            NavigableSet<Fact> dated = series.get(name);
+            dated.remove(fact);
+            if (dated.isEmpty()) series.remove(name);
+        }
+    }
+
+    private static void addToSeries(Map<String, NavigableSet<Fact>> series, Fact fact) {
+        if (fact.date == LogDateCodec.NO_DATE || fact.ataChapter == null) return;
+        String name = seriesName(fact);
+        NavigableSet<Fact> dated = series.get(name);
+        if (dated == null) {
+            dated = new TreeSet<>(BY_DATE);
+            series.put(name, dated);
+        }
+        dated.add(fact);
+    }
+
+    private static String seriesName(Fact fact) {
+        return fact.page.getAircraft() + " " + fact.ataChapter;
+    }
+
+    private static Fact[] factsOf(LogPage page, Calendar calendar) {
+        List<Fact> facts = new ArrayList<>(page.getItems().size());
+        for (int i = 0; i < page.getItems().size(); i++) {
+            LogItem item = page.getItems().get(i);
+            LogItem.Discrepancy discrepancy = item.getDiscrepancy();
+            if (item.isCanceled() || discrepancy.isCanceled()) continue;
+            Date date = discrepancy.getDate();
+            String month = null;
+            if (date != null) {
+                calendar.setTime(date);
+                month = monthOf(calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1);
+            }
+            facts.add(new Fact(page.getKey(), item.getLogItemNumber(), i,
+                    TextFolding.normalizeCode(discrepancy.getAtaChapter()),
+                    TextFolding.normalizeCode(discrepancy.getStation()), month,
+                    LogDateCodec.millisOf(date)));
+        }
+        return facts.toArray(new Fact[facts.size()]);
+    }
+
+    private static String monthOf(int year, int month) {
+        // "2019-03", String.format is slow enough to show in every save
+        char[] chars = {(char) ('0' + year / 1000 % 10), (char) ('0' + year / 100 % 10),
+                (char) ('0' + year / 10 % 10), (char) ('0' + year % 10), '-',
+                (char) ('0' + month / 10), (char) ('0' + month % 10)};
+        return new String(chars);
+    }
+}
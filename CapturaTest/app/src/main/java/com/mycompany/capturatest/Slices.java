@@ -0,0 +1,65 @@
+package com.mycompany.capturatest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+final class Slices {
+    /* Splits a list into one slice per thread and runs a job on each, for bulk reads of the
+     * store (ReliabilityAnalytics.recompute(), LogValidator.validate())
+     *
+     * Slices have at least MIN_SLICE elements, a list too short for two of them runs on the
+     * calling thread. Results come back in the order of the slices.
+     *
+     * When a slice fails the others are left to finish, not interrupted: an interrupt closes
+     * the FileChannel a thread is reading, a LogStore's channels included.
+     */
+    static final int MIN_SLICE = 64;
+
+    interface Job<T, R> {
+        R run(List<T> slice) throws IOException;
+    }
+
+    private Slices() {
+    }
+
+    static <T, R> List<R> run(List<T> items, int threads, final Job<T, R> job)
+            throws IOException {
+        int sliceCount = Math.max(1, Math.min(threads, items.size() / MIN_SLICE));
+        List<R> results = new ArrayList<>(sliceCount);
+        if (sliceCount == 1) {
+            results.add(job.run(items));
+            return results;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(sliceCount);
+        List<Future<R>> futures = new ArrayList<>(sliceCount);
+        try {
+            for (int s = 0; s < sliceCount; s++) {
+                final List<T> slice = items.subList(items.size() * s / sliceCount,
+                        items.size() * (s + 1) / sliceCount);
+                futures.add(pool.submit(new Callable<R>() {
+                    @Override
+                    public R call() throws IOException {
+                        return job.run(slice);
+                    }
+                }));
+            }
+            for (Future<R> future : futures) results.add(future.get());
+            return results;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) throw (IOException) ex.getCause();
+            throw new IOException(ex.getCause());
+        } finally {
+            for (Future<?> future : futures) future.cancel(false);
+            pool.shutdown();
+        }
+    }
+}
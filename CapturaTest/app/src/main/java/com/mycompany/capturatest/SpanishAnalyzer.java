@@ -0,0 +1,81 @@
+package com.mycompany.capturatest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+final class SpanishAnalyzer {
+    /* Turns Spanish free text into search terms: "Fugas hidráulicas en el tren" ->
+     * [fuga, hidraulic, tren]
+     *
+     * Words are accent and case folded (TextFolding), stop words are dropped and what is left
+     * goes through a light stemmer that takes off plural and gender endings and the most
+     * common verb participles, so "reemplazó", "reemplazado" and "reemplazar" meet. It is
+     * deliberately light: maintenance text is full of part names and abbreviations that an
+     * aggressive stemmer would merge by mistake. Words with digits are kept as they are.
+     */
+    private static final Set<String> STOP_WORDS = new HashSet<>(Arrays.asList(
+            "a", "al", "ante", "con", "de", "del", "desde", "e", "el", "en", "entre", "es",
+            "esta", "este", "fue", "ha", "hay", "la", "las", "le", "lo", "los", "mas", "o",
+            "para", "pero", "por", "que", "se", "segun", "sin", "sobre", "su", "sus", "u", "un",
+            "una", "uno", "y"));
+
+    // Longest first, each needs at least 3 letters left in front of it
+    private static final String[] SUFFIXES = {"amientos", "imientos", "amiento", "imiento",
+            "aciones", "uciones", "acion", "ucion", "ados", "adas", "idos", "idas", "ando",
+            "iendo", "ado", "ada", "ido", "ida", "ar", "er", "ir", "o"};
+
+    private SpanishAnalyzer() {
+    }
+
+    static List<String> terms(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) return terms;
+        String folded = TextFolding.foldWords(text);
+        int start = 0;
+        while (start < folded.length()) {
+            int end = folded.indexOf(' ', start);
+            if (end < 0) end = folded.length();
+            String word = folded.substring(start, end);
+            if (!STOP_WORDS.contains(word)) terms.add(stem(word));
+            start = end + 1;
+        }
+        return terms;
+    }
+
+    static String stem(String word) {
+        // Expects a folded word
+        if (word.length() < 4 || hasDigit(word)) return word;
+        int length = word.length();
+        // Plurals: "valvulas" -> "valvula", "luces" -> "luz", "motores" -> "motor"
+        if (word.endsWith("ces")) {
+            word = word.substring(0, length - 3) + "z";
+        } else if (word.endsWith("es") && length > 4 && !isVowel(word.charAt(length - 3))) {
+            word = word.substring(0, length - 2);
+        } else if (word.endsWith("s")) {
+            word = word.substring(0, length - 1);
+        }
+        for (String suffix : SUFFIXES) {
+            if (word.endsWith(suffix) && word.length() - suffix.length() >= 3)
+                return word.substring(0, word.length() - suffix.length());
+        }
+        // Gender: "hidraulica" and "hidraulico" -> "hidraulic"
+        if (word.length() > 4 && (word.endsWith("a") || word.endsWith("e")))
+            return word.substring(0, word.length() - 1);
+        return word;
+    }
+
+    private static boolean hasDigit(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (c >= '0' && c <= '9') return true;
+        }
+        return false;
+    }
+
+    private static boolean isVowel(char c) {
+        return c == 'a' || c == 'e' || c == 'i' || c == 'o' || c == 'u';
+    }
+}
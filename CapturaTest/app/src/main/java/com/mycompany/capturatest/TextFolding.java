@@ -0,0 +1,57 @@
+package com.mycompany.capturatest;
+
+import java.text.Normalizer;
+import java.util.Locale;
+
+final class TextFolding {
+    /* Case and accent insensitive forms of text: "José Núñez" -> "jose nunez"
+     *
+     * Latin characters are folded with a lookup table built once from their Unicode
+     * decomposition, so folding doesn't have to normalize every string.
+     */
+    private static final char[] TABLE = new char[0x250];
+
+    static {
+        for (char c = 0; c < TABLE.length; c++) {
+            String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+            TABLE[c] = Character.toLowerCase(decomposed.charAt(0));
+        }
+    }
+
+    private TextFolding() {
+    }
+
+    static char fold(char c) {
+        return c < TABLE.length ? TABLE[c] : Character.toLowerCase(c);
+    }
+
+    static boolean isMark(char c) {
+        // Combining accents of already decomposed text
+        return c >= 0x300 && Character.getType(c) == Character.NON_SPACING_MARK;
+    }
+
+    static String foldWords(CharSequence text) {
+        // Folds the text and leaves its words separated by single spaces
+        StringBuilder folded = new StringBuilder(text.length());
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (isMark(c)) continue;
+            if (Character.isLetterOrDigit(c)) {
+                if (space && folded.length() > 0) folded.append(' ');
+                space = false;
+                folded.append(fold(c));
+            } else {
+                space = true;
+            }
+        }
+        return folded.toString();
+    }
+
+    static String normalizeCode(String value) {
+        // Stations, ATA chapters, part and serial numbers: trimmed, upper case, null if blank
+        if (value == null) return null;
+        value = value.trim();
+        return value.isEmpty() ? null : value.toUpperCase(Locale.US);
+    }
+}
@@ -0,0 +1,186 @@
+package com.mycompany.capturatest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static com.mycompany.capturatest.LogItemFixtures.page;
+import static org.junit.Assert.*;
+
+public class AircraftLogIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Date day(int year, int month, int day) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month, day);
+        return calendar.getTime();
+    }
+
+    private static LogItem item(int number, Date reported, boolean deferred) {
+        LogItem item = new LogItem(number);
+        item.getDiscrepancy().setDate(reported);
+        item.getDiscrepancy().setDescription("Discrepancia " + number);
+        item.getCorrectiveAction().setDeferred(deferred);
+        return item;
+    }
+
+    @Test
+    public void rangesLatestAndDeferredPerAircraft() throws Exception {
+        LogStore store = LogStore.open(folder.newFolder());
+        store.put(page("XA-MFH", "9", item(1, day(2019, Calendar.MARCH, 1), false),
+                item(2, day(2019, Calendar.MARCH, 1), true)));
+        AircraftLogIndex index = AircraftLogIndex.open(store);
+        assertEquals(2, index.size());
+
+        store.put(page("XA-MFH", "10", item(1, day(2019, Calendar.MARCH, 5), false),
+                item(2, null, false), item(3, day(2019, Calendar.APRIL, 2), true)));
+        store.put(page("XA-BPK", "10", item(1, day(2019, Calendar.MARCH, 3), true)));
+        assertEquals(6, index.size());
+        assertEquals(5, index.size("XA-MFH"));
+
+        // From inclusive, to exclusive, undated entries left out
+        List<AircraftLogIndex.Entry> march = index.between("XA-MFH", day(2019, Calendar.MARCH, 1),
+                day(2019, Calendar.MARCH, 5));
+        assertEquals(2, march.size());
+        assertEquals("9", march.get(0).getFolio());
+        assertEquals(1, march.get(0).getLogItemNumber());
+        assertEquals(2, march.get(1).getLogItemNumber());
+        assertEquals(3, index.between("XA-MFH", day(2019, Calendar.MARCH, 1),
+                day(2019, Calendar.APRIL, 1)).size());
+        assertTrue(index.between("XA-MFH", day(2019, Calendar.MAY, 1),
+                day(2019, Calendar.MARCH, 1)).isEmpty());
+        assertTrue(index.between("XA-AFH", day(2000, 0, 1), day(2030, 0, 1)).isEmpty());
+
+        List<AircraftLogIndex.Entry> latest = index.latest("XA-MFH", 2);
+        assertEquals(2, latest.size());
+        assertEquals(day(2019, Calendar.APRIL, 2), latest.get(0).getDate());
+        assertEquals("10", latest.get(1).getFolio());
+        assertEquals(1, latest.get(1).getLogItemNumber());
+        assertNull(index.latest("XA-MFH", 10).get(4).getDate());
+
+        List<AircraftLogIndex.Entry> deferred = index.openDeferred("XA-MFH");
+        assertEquals(2, deferred.size());
+        assertEquals("9", deferred.get(0).getFolio());
+        assertEquals("10", deferred.get(1).getFolio());
+        assertTrue(deferred.get(1).isDeferred());
+
+        List<PageKey> pages = index.pages("XA-MFH");
+        assertEquals(2, pages.size());
+        assertEquals("10", pages.get(0).getFolio());
+
+        // Canceling, re-saving and deleting pages
+        LogPage edited = store.get("XA-MFH", "9");
+        edited.getItems().get(1).setCanceled(true);
+        store.put(edited);
+        assertEquals(1, index.openDeferred("XA-MFH").size());
+        assertEquals(5, index.size("XA-MFH"));
+        store.delete("XA-MFH", "10");
+        assertEquals(2, index.size("XA-MFH"));
+        assertTrue(index.openDeferred("XA-MFH").isEmpty());
+        assertEquals(1, index.openDeferred("XA-BPK").size());
+
+        index.close();
+        store.put(page("XA-MFH", "11", item(1, day(2019, Calendar.JUNE, 1), false)));
+        assertEquals(2, index.size("XA-MFH"));
+        store.close();
+    }
+
+    @Test
+    public void keepsFoliosWrittenWithLeadingZeros() throws Exception {
+        assertTrue(PageKey.compareFolios("007", "7") < 0);
+        assertTrue(PageKey.compareFolios("7", "08") < 0);
+        assertEquals(0, PageKey.compareFolios("007", "007"));
+        LogStore store = LogStore.open(folder.newFolder());
+        AircraftLogIndex index = AircraftLogIndex.open(store);
+        // Two pages on the same day, same numbers, only the folio's zeros tell them apart
+        store.put(page("XA-MFH", "7", item(1, day(2019, Calendar.MARCH, 1), true)));
+        store.put(page("XA-MFH", "007", item(1, day(2019, Calendar.MARCH, 1), true)));
+        assertEquals(2, store.size());
+        assertEquals(2, index.size("XA-MFH"));
+        assertEquals(2, index.openDeferred("XA-MFH").size());
+        assertEquals(2, index.pages("XA-MFH").size());
+        store.delete("XA-MFH", "007");
+        assertEquals(1, index.size("XA-MFH"));
+        assertEquals("7", index.openDeferred("XA-MFH").get(0).getFolio());
+        index.close();
+        store.close();
+    }
+
+    @Test
+    public void benchmarkElevenAircraftTenYears() throws Exception {
+        Benchmarks.assumeEnabled();
+        LogStore.Options options = new LogStore.Options();
+        options.syncOnWrite = false;
+        LogStore store = LogStore.open(folder.newFolder(), options);
+        Random random = new Random(1);
+        Calendar calendar = Calendar.getInstance();
+        // One page a day per aircraft, some days two
+        int pages = 0;
+        for (String aircraft : LogItemFixtures.AIRCRAFT) {
+            calendar.clear();
+            calendar.set(2010, Calendar.JANUARY, 1);
+            int folio = 1;
+            for (int day = 0; day < 3652; day++) {
+                int perDay = random.nextInt(5) == 0 ? 2 : 1;
+                for (int p = 0; p < perDay; p++) {
+                    LogPage page = new LogPage(aircraft, String.valueOf(folio++));
+                    for (int i = 1; i <= LogItem.ITEMS_PER_PAGE; i++) {
+                        LogItem item = LogItemFixtures.item(random, i);
+                        if (!item.isCanceled()) item.getDiscrepancy().setDate(calendar.getTime());
+                        page.addItem(item);
+                    }
+                    store.put(page);
+                    pages++;
+                }
+                calendar.add(Calendar.DAY_OF_MONTH, 1);
+            }
+        }
+
+        long start = System.nanoTime();
+        final AircraftLogIndex index = AircraftLogIndex.open(store);
+        System.out.printf("Indexed %d pages, %d entries in %.0f ms%n", pages, index.size(),
+                (System.nanoTime() - start) / 1e6);
+        assertEquals(pages * LogItem.ITEMS_PER_PAGE, index.size());
+
+        final int[] sink = new int[1];
+        final Random queries = new Random(2);
+        Benchmarks.Result month = Benchmarks.measure("between 30 days", 10000, 100000,
+                new Benchmarks.Body() {
+                    @Override
+                    public void run() {
+                        Date from = day(2010 + queries.nextInt(10), queries.nextInt(12), 1);
+                        sink[0] += index.between(
+                                LogItemFixtures.pick(queries, LogItemFixtures.AIRCRAFT), from,
+                                new Date(from.getTime() + 30 * 86400000L)).size();
+                    }
+                });
+        Benchmarks.Result latest = Benchmarks.measure("latest 50", 10000, 100000,
+                new Benchmarks.Body() {
+                    @Override
+                    public void run() {
+                        sink[0] += index.latest(
+                                LogItemFixtures.pick(queries, LogItemFixtures.AIRCRAFT), 50).size();
+                    }
+                });
+        Benchmarks.measure("openDeferred", 100, 1000, new Benchmarks.Body() {
+            @Override
+            public void run() {
+                sink[0] += index.openDeferred(
+                        LogItemFixtures.pick(queries, LogItemFixtures.AIRCRAFT)).size();
+            }
+        });
+        assertTrue("a month of one aircraft should take well under a millisecond",
+                month.nanosPerOp < 1000000);
+        assertTrue(latest.nanosPerOp < 1000000);
+        assertTrue(sink[0] > 0);
+        index.close();
+        store.close();
+    }
+}
@@ -0,0 +1,108 @@
+package com.mycompany.capturatest;
+
+import org.junit.Assume;
+
+import java.lang.reflect.Method;
+import java.util.Locale;
+
+final class Benchmarks {
+    /* Minimal micro benchmark harness for JVM unit tests
+     *
+     * Runs a warm up phase and then reports time and, when the JVM exposes it, heap bytes
+     * allocated per operation by the current thread. Numbers are printed, not asserted, since
+     * they depend on the machine running the tests.
+     *
+     * Benchmark tests start with assumeEnabled() and are skipped unless run with
+     * -Dbenchmarks=true (./gradlew testDebugUnitTest -Pbenchmarks=true), so the unit tests
+     * stay fast.
+     */
+    private static final Object THREAD_BEAN;
+    private static final Method ALLOCATED_BYTES;
+
+    static {
+        // Looked up reflectively, java.lang.management is not part of android.jar
+        Object bean = null;
+        Method method = null;
+        try {
+            bean = Class.forName("java.lang.management.ManagementFactory")
+                    .getMethod("getThreadMXBean").invoke(null);
+            method = Class.forName("com.sun.management.ThreadMXBean")
+                    .getMethod("getThreadAllocatedBytes", long.class);
+        } catch (Exception ex) {
+            bean = null;
+            method = null;
+        }
+        THREAD_BEAN = bean;
+        ALLOCATED_BYTES = method;
+    }
+
+    interface Body {
+        void run() throws Exception;
+    }
+
+    static final class Result {
+        final String name;
+        final double nanosPerOp;
+        final double bytesPerOp;
+
+        Result(String name, double nanosPerOp, double bytesPerOp) {
+            this.name = name;
+            this.nanosPerOp = nanosPerOp;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        double opsPerSecond() {
+            return 1e9 / nanosPerOp;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-40s %12.1f ns/op %12.0f ops/s %12.1f B/op", name,
+                    nanosPerOp, opsPerSecond(), bytesPerOp);
+        }
+    }
+
+    private Benchmarks() {
+    }
+
+    static void assumeEnabled() {
+        // Skips the calling test unless benchmarks were asked for
+        Assume.assumeTrue("benchmarks not enabled", Boolean.getBoolean("benchmarks"));
+    }
+
+    static Result measure(String name, int warmup, int iterations, Body body) throws Exception {
+        for (int i = 0; i < warmup; i++) body.run();
+        long bytesBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) body.run();
+        long elapsed = System.nanoTime() - start;
+        long bytes = allocatedBytes() - bytesBefore;
+        Result result = new Result(name, (double) elapsed / iterations,
+                bytesBefore < 0 ? Double.NaN : (double) bytes / iterations);
+        System.out.println(result);
+        return result;
+    }
+
+    static long allocatedBytes() {
+        if (ALLOCATED_BYTES == null) return -1;
+        try {
+            return (Long) ALLOCATED_BYTES.invoke(THREAD_BEAN, Thread.currentThread().getId());
+        } catch (Exception ex) {
+            return -1;
+        }
+    }
+
+    static long usedHeap() {
+        // Best effort, used for coarse bytes per object measurements
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,187 @@
+package com.mycompany.capturatest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+
+import static com.mycompany.capturatest.LogItemFixtures.page;
+import static org.junit.Assert.*;
+
+public class ComponentIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static LogItem item(int number, int day, String removedPart, String removedSerial,
+                                String installedPart, String installedSerial) {
+        LogItem item = new LogItem(number);
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2019, Calendar.MARCH, day);
+        item.getCorrectiveAction().setDate(calendar.getTime());
+        LogItem.ComponentsChanged.ComponentChange change =
+                item.getComponentsChanged().addComponentChange();
+        if (removedPart != null) {
+            change.setComponentRemoved(true);
+            change.setRemovedPartNumber(removedPart);
+            change.setRemovedSerialNumber(removedSerial);
+        }
+        if (installedPart != null) {
+            change.setComponentInstalled(true);
+            change.setInstalledPartNumber(installedPart);
+            change.setInstalledSerialNumber(installedSerial);
+        }
+        return item;
+    }
+
+    @Test
+    public void tracesSerialNumbersAcrossAircraft() throws Exception {
+        File directory = folder.newFolder();
+        LogStore store = LogStore.open(directory);
+        ComponentIndex index = ComponentIndex.open(new File(directory, "components.idx"), store);
+
+        store.put(page("XA-AFH", "10", item(1, 2, null, null, "3214552-4", "SN100")));
+        store.put(page("XA-AFH", "12", item(1, 20, "3214552-4", "sn100 ", "3214552-4", "SN200")));
+        LogItem canceled = item(2, 21, "3214552-4", "SN200", "3214552-4", "SN999");
+        canceled.setCanceled(true);
+        store.put(page("XA-BPK", "7", item(1, 25, "2119-1", "X1", "3214552-4", "SN100"),
+                canceled));
+
+        List<ComponentIndex.Entry> history = index.findBySerial("sn100");
+        assertEquals(3, history.size());
+        assertTrue(history.get(0).isInstalled());
+        assertEquals("10", history.get(0).getFolio());
+        assertTrue(history.get(1).isRemoved());
+        assertEquals("12", history.get(1).getFolio());
+        assertEquals("XA-BPK", history.get(2).getAircraft());
+        assertEquals(1, history.get(2).getLogItemNumber());
+        assertEquals("3214552-4", history.get(2).getPartNumber());
+        assertNotNull(history.get(2).getDate());
+
+        assertTrue(index.findBySerial("SN999").isEmpty());
+        assertEquals(5, index.size());
+        assertEquals(4, index.findByPart("3214552-4").size());
+
+        // Re-saving a page replaces its entries, deleting it drops them
+        store.put(page("XA-AFH", "12", item(1, 20, "3214552-4", "SN100", "3214552-4", "SN300")));
+        assertTrue(index.findBySerial("SN200").isEmpty());
+        assertEquals(1, index.findBySerial("SN300").size());
+        store.delete("XA-BPK", "7");
+        assertEquals(2, index.findBySerial("SN100").size());
+        assertTrue(index.findByPart("2119-1").isEmpty());
+        assertEquals(3, index.size());
+
+        index.close();
+        store.close();
+    }
+
+    @Test
+    public void prefixQueries() throws Exception {
+        File directory = folder.newFolder();
+        LogStore store = LogStore.open(directory);
+        ComponentIndex index = ComponentIndex.open(new File(directory, "components.idx"), store);
+        store.put(page("XA-AFH", "1", item(1, 1, "3214552-4", "A1", "3214552-5", "A2"),
+                item(2, 2, "3214-0", "A3", "3215000", "A4"),
+                item(3, 3, "321", "A5", null, null)));
+
+        assertEquals(2, index.findByPartPrefix("3214552", 10).size());
+        assertEquals(3, index.findByPartPrefix("3214", 10).size());
+        assertEquals(2, index.findByPartPrefix("3214", 2).size());
+        assertEquals("3214-0", index.findByPartPrefix("3214", 1).get(0).getPartNumber());
+        assertEquals(5, index.findByPartPrefix("321", 10).size());
+        assertTrue(index.findByPartPrefix("9", 10).isEmpty());
+        assertEquals(5, index.findBySerialPrefix("a", 10).size());
+        List<String> parts = index.partNumbers("3214", 10);
+        assertEquals(3, parts.size());
+        assertEquals("3214-0", parts.get(0));
+        assertEquals("3214552-5", parts.get(2));
+        index.close();
+        store.close();
+    }
+
+    @Test
+    public void snapshotIsReusedOnlyIfCurrent() throws Exception {
+        File directory = folder.newFolder();
+        File file = new File(directory, "components.idx");
+        LogStore store = LogStore.open(directory);
+        ComponentIndex index = ComponentIndex.open(file, store);
+        store.put(page("XA-AFH", "1", item(1, 1, "PN-1", "S1", "PN-1", "S2")));
+        store.put(page("XA-AFH", "2", item(1, 2, "PN-1", "S2", "PN-2", "S3")));
+        index.close();
+        assertTrue(file.isFile());
+
+        index = ComponentIndex.open(file, store);
+        // Open until closed, a crash leaves no snapshot behind
+        assertFalse(file.exists());
+        assertEquals(4, index.size());
+        assertEquals(2, index.findBySerial("S2").size());
+        assertEquals(3, index.findByPartPrefix("PN-1", 10).size());
+        index.close();
+
+        // Written while the index wasn't listening, the snapshot is stale
+        store.put(page("XA-AFH", "3", item(1, 3, "PN-2", "S3", null, null)));
+        store.close();
+        store = LogStore.open(directory);
+        index = ComponentIndex.open(file, store);
+        assertEquals(5, index.size());
+        assertEquals(2, index.findBySerial("S3").size());
+        index.close();
+        store.close();
+    }
+
+    @Test
+    public void benchmarkMillionChanges() throws Exception {
+        Benchmarks.assumeEnabled();
+        File directory = folder.newFolder();
+        File file = new File(directory, "components.idx");
+        LogStore store = LogStore.open(directory);
+        final ComponentIndex index = ComponentIndex.open(file, store);
+        Random random = new Random(1);
+        long start = System.nanoTime();
+        // Fed straight to the listener, the store isn't what's being measured
+        for (int folio = 1; index.size() < 1000000; folio++) {
+            LogPage page = new LogPage(LogItemFixtures.pick(random, LogItemFixtures.AIRCRAFT),
+                    String.valueOf(folio));
+            for (int i = 1; i <= LogItem.ITEMS_PER_PAGE; i++) {
+                page.addItem(item(i, 1 + random.nextInt(28),
+                        "PN-" + random.nextInt(20000), "SN" + random.nextInt(400000),
+                        "PN-" + random.nextInt(20000), "SN" + random.nextInt(400000)));
+            }
+            index.onPageSaved(page);
+        }
+        System.out.printf("Indexed %d entries in %.0f ms%n", index.size(),
+                (System.nanoTime() - start) / 1e6);
+
+        final int[] sink = new int[1];
+        final Random queries = new Random(2);
+        Benchmarks.measure("findBySerial", 10000, 100000, new Benchmarks.Body() {
+            @Override
+            public void run() {
+                sink[0] += index.findBySerial("SN" + queries.nextInt(400000)).size();
+            }
+        });
+        Benchmarks.Result prefix = Benchmarks.measure("findByPartPrefix 100", 1000, 10000,
+                new Benchmarks.Body() {
+                    @Override
+                    public void run() {
+                        sink[0] += index.findByPartPrefix("PN-1" + queries.nextInt(100), 100)
+                                .size();
+                    }
+                });
+        assertTrue("prefix query over a million entries should take under a millisecond",
+                prefix.nanosPerOp < 1000000);
+
+        index.close();
+        System.out.printf("Snapshot %d KB%n", file.length() / 1024);
+        start = System.nanoTime();
+        ComponentIndex loaded = ComponentIndex.open(file, store);
+        System.out.printf("Loaded snapshot in %.0f ms%n", (System.nanoTime() - start) / 1e6);
+        assertEquals(index.size(), loaded.size());
+        loaded.close();
+        store.close();
+    }
+}
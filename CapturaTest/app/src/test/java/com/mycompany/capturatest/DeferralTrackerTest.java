@@ -0,0 +1,211 @@
+package com.mycompany.capturatest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static com.mycompany.capturatest.LogItemFixtures.page;
+import static org.junit.Assert.*;
+
+public class DeferralTrackerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final class TestClock implements DeferralTracker.Clock {
+        long now;
+
+        @Override
+        public long currentTimeMillis() {
+            return now;
+        }
+    }
+
+    private static long time(int month, int day, int hour) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2019, month, day, hour, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    private static LogItem deferred(int number, long reported, String basis) {
+        LogItem item = new LogItem(number);
+        item.getDiscrepancy().setDate(new Date(reported));
+        item.getCorrectiveAction().setDeferred(true);
+        item.getCorrectiveAction().setDeferralBasis(basis);
+        return item;
+    }
+
+    @Test
+    public void expiryFromMelCategory() {
+        long reported = time(Calendar.MARCH, 1, 15);
+        assertEquals(time(Calendar.MARCH, 5, 0), expiry("MEL 32-41-01 CAT B", reported));
+        assertEquals(time(Calendar.MARCH, 12, 0), expiry("mel 21-10 cat. c", reported));
+        assertEquals(time(Calendar.JUNE, 30, 0), expiry("Categoría D", reported));
+        assertEquals(time(Calendar.MARCH, 4, 0), expiry("MEL 33-40-02 CAT A 2 DÍAS", reported));
+        assertEquals(time(Calendar.MARCH, 4, 15), expiry("MEL 33-40-02 CAT A 72 HRS", reported));
+        // The item's "3 D" isn't the interval
+        assertEquals(time(Calendar.MARCH, 4, 0), expiry("MEL 30-41-3 D CAT A 2 DÍAS", reported));
+        // Can't tell, so it's already due
+        assertEquals(Long.MIN_VALUE, expiry("MEL 33-40-02 CAT A", reported));
+        assertEquals(Long.MIN_VALUE, expiry("Se difiere conforme a MEL", reported));
+        assertEquals(Long.MIN_VALUE, expiry("MEL CAT B", Long.MIN_VALUE));
+    }
+
+    private static long expiry(String basis, long reported) {
+        String[] words = TextFolding.foldWords(basis).split(" ");
+        return DeferralTracker.expiryOf(DeferralTracker.categoryOf(words), words, reported);
+    }
+
+    @Test
+    public void tracksOpenDeferralsAgainstTheClock() throws Exception {
+        LogStore store = LogStore.open(folder.newFolder());
+        store.put(page("XA-MFH", "1", deferred(1, time(Calendar.MARCH, 1, 10), "MEL CAT B"),
+                deferred(2, time(Calendar.MARCH, 1, 11), "MEL CAT C")));
+        TestClock clock = new TestClock();
+        DeferralTracker tracker = DeferralTracker.open(store, clock);
+        // Saved before the tracker was first used, still found when it loads
+        store.put(page("XA-BPK", "7", deferred(1, time(Calendar.MARCH, 2, 9), "MEL CAT A 24 HRS")));
+
+        clock.now = time(Calendar.MARCH, 2, 12);
+        assertEquals(3, tracker.size());
+        List<DeferralTracker.Deferral> soon = tracker.expiringWithin(DeferralTracker.DAY_MILLIS);
+        assertEquals(1, soon.size());
+        assertEquals("XA-BPK", soon.get(0).getAircraft());
+        assertEquals('A', soon.get(0).getCategory());
+        assertTrue(tracker.expiringWithin("XA-MFH", DeferralTracker.DAY_MILLIS).isEmpty());
+
+        clock.now = time(Calendar.MARCH, 4, 8);
+        soon = tracker.expiringWithin("XA-MFH", DeferralTracker.DAY_MILLIS);
+        assertEquals(1, soon.size());
+        assertEquals(1, soon.get(0).getLogItemNumber());
+        assertEquals(time(Calendar.MARCH, 5, 0), soon.get(0).getExpiryMillis());
+        DeferralTracker.Deferral next = tracker.next();
+        assertEquals("XA-BPK", next.getAircraft());
+        assertTrue(next.isExpired(clock.now));
+
+        // Closing, canceling and new deferrals come in through the store
+        LogPage page = store.get("XA-MFH", "1");
+        page.getItems().get(0).getCorrectiveAction().setDeferred(false);
+        store.put(page);
+        assertTrue(tracker.expiringWithin("XA-MFH", DeferralTracker.DAY_MILLIS).isEmpty());
+        assertEquals(1, tracker.open("XA-MFH").size());
+        page.getItems().get(1).setCanceled(true);
+        store.put(page);
+        assertTrue(tracker.open("XA-MFH").isEmpty());
+        store.put(page("XA-MFH", "2", deferred(1, time(Calendar.MARCH, 4, 7), "MEL CAT A 3 HRS")));
+        // Expired ones are asked for on their own
+        assertEquals(1, tracker.expiringWithin(DeferralTracker.DAY_MILLIS).size());
+        assertEquals(1, tracker.expired("XA-BPK").size());
+        assertTrue(tracker.expired("XA-MFH").isEmpty());
+        store.delete("XA-BPK", "7");
+        assertEquals("XA-MFH", tracker.next().getAircraft());
+        assertEquals(1, tracker.size());
+
+        tracker.close();
+        store.put(page("XA-MFH", "3", deferred(1, time(Calendar.MARCH, 4, 7), "MEL CAT B")));
+        assertEquals(1, tracker.size());
+        store.close();
+    }
+
+    @Test
+    public void savesWhileLoadingAreKept() throws Exception {
+        LogStore store = LogStore.open(folder.newFolder());
+        Random random = new Random(2);
+        for (int folio = 1; folio <= 300; folio++) {
+            store.put(page(LogItemFixtures.pick(random, LogItemFixtures.AIRCRAFT),
+                    String.valueOf(folio), deferred(1, time(Calendar.MARCH, 1, 10), "MEL CAT B")));
+        }
+        final DeferralTracker tracker = DeferralTracker.open(store, new TestClock());
+        final Exception[] failure = new Exception[1];
+        Thread loader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    tracker.size();
+                } catch (Exception ex) {
+                    failure[0] = ex;
+                }
+            }
+        });
+        loader.start();
+        // Saved and deleted while the store is read, before and after each page is
+        for (int edit = 0; edit < 300; edit++) {
+            String aircraft = LogItemFixtures.pick(random, LogItemFixtures.AIRCRAFT);
+            String folio = String.valueOf(1 + random.nextInt(400));
+            if (random.nextInt(3) == 0) {
+                store.delete(aircraft, folio);
+            } else {
+                store.put(page(aircraft, folio, deferred(1, time(Calendar.MARCH, 2, 10),
+                        "MEL CAT C"), deferred(2, time(Calendar.MARCH, 2, 11), "MEL CAT A")));
+            }
+        }
+        loader.join();
+        assertNull(failure[0]);
+
+        DeferralTracker reloaded = DeferralTracker.open(store, new TestClock());
+        assertEquals(reloaded.size(), tracker.size());
+        for (String aircraft : LogItemFixtures.AIRCRAFT) {
+            assertEquals(reloaded.open(aircraft).toString(), tracker.open(aircraft).toString());
+        }
+        tracker.close();
+        reloaded.close();
+        store.close();
+    }
+
+    @Test
+    public void benchmarkFleetDeferrals() throws Exception {
+        Benchmarks.assumeEnabled();
+        LogStore store = LogStore.open(folder.newFolder());
+        TestClock clock = new TestClock();
+        clock.now = time(Calendar.JUNE, 1, 0);
+        final DeferralTracker tracker = DeferralTracker.open(store, clock);
+        tracker.size();
+        String[] bases = {"MEL 32-41-01 CAT B", "MEL 21-10-03 CAT C", "MEL 25-20-01 CAT D",
+                "MEL 33-40-02 CAT A 2 DIAS", "MEL 34-11-01 CAT A 48 HRS"};
+        Random random = new Random(1);
+        final LogPage[] pages = new LogPage[50000];
+        for (int folio = 0; folio < pages.length; folio++) {
+            LogPage page = new LogPage(LogItemFixtures.pick(random, LogItemFixtures.AIRCRAFT),
+                    String.valueOf(folio));
+            for (int i = 1; i <= LogItem.ITEMS_PER_PAGE; i++) {
+                page.addItem(deferred(i, time(random.nextInt(6), 1 + random.nextInt(28),
+                        random.nextInt(24)), LogItemFixtures.pick(random, bases)));
+            }
+            pages[folio] = page;
+        }
+        // Fed straight to the listener, the store isn't what's being measured
+        long start = System.nanoTime();
+        for (LogPage page : pages) tracker.onPageSaved(page);
+        System.out.printf("Opened %d deferrals in %.0f ms%n", tracker.size(),
+                (System.nanoTime() - start) / 1e6);
+        assertEquals(pages.length * LogItem.ITEMS_PER_PAGE, tracker.size());
+
+        final int[] sink = new int[1];
+        final Random queries = new Random(2);
+        Benchmarks.measure("expiringWithin aircraft 24 h", 1000, 10000, new Benchmarks.Body() {
+            @Override
+            public void run() throws Exception {
+                sink[0] += tracker.expiringWithin(
+                        LogItemFixtures.pick(queries, LogItemFixtures.AIRCRAFT),
+                        DeferralTracker.DAY_MILLIS).size();
+            }
+        });
+        final LogPage closed = new LogPage(pages[0].getKey().getAircraft(),
+                pages[0].getKey().getFolio());
+        final int[] next = new int[1];
+        Benchmarks.measure("close and reopen a page", 1000, 10000, new Benchmarks.Body() {
+            @Override
+            public void run() {
+                tracker.onPageSaved(next[0]++ % 2 == 0 ? closed : pages[0]);
+            }
+        });
+        assertTrue(sink[0] > 0);
+        tracker.close();
+        store.close();
+    }
+}
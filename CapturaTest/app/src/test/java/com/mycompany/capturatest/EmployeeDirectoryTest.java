@@ -0,0 +1,153 @@
+package com.mycompany.capturatest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class EmployeeDirectoryTest {
+    private static final String[] FIRST_NAMES = {"José", "María", "Raúl", "Ana", "Jesús", "Iván",
+            "Lucía", "Andrés", "Sofía", "Héctor", "Ramón", "Mónica", "Óscar", "Inés", "Julián"};
+    private static final String[] LAST_NAMES = {"Hernández", "Pérez", "Gómez", "Núñez", "Ramírez",
+            "Domínguez", "Martínez", "López", "González", "Sánchez", "Díaz", "Álvarez", "Muñoz",
+            "Ibáñez", "Cortés", "Vázquez", "Jiménez", "Ruíz", "Ortíz", "Guzmán"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static EmployeeDirectory directory(int people, long seed) {
+        Random random = new Random(seed);
+        EmployeeDirectory directory = new EmployeeDirectory();
+        for (int i = 0; i < people; i++) {
+            String name = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " "
+                    + LAST_NAMES[random.nextInt(LAST_NAMES.length)] + " "
+                    + LAST_NAMES[random.nextInt(LAST_NAMES.length)] + " " + i;
+            int reports = 1 + random.nextInt(5);
+            for (int r = 0; r < reports; r++)
+                directory.record(name, "LIC-" + i, random.nextInt(10) == 0);
+        }
+        return directory;
+    }
+
+    @Test
+    public void suggestsAccentInsensitivePrefixes() {
+        EmployeeDirectory directory = new EmployeeDirectory();
+        directory.record("José Hernández", "A-1", false);
+        directory.record("Josefina Núñez", "A-2", false);
+        directory.record("Josefina Núñez", "A-2", false);
+        directory.record("Raúl Herrera", "A-3", true);
+
+        List<EmployeeDirectory.Person> jose = directory.suggest("JOSE", 10);
+        assertEquals(2, jose.size());
+        // More reports first
+        assertEquals("Josefina Núñez", jose.get(0).getName());
+        assertEquals("José Hernández", jose.get(1).getName());
+
+        List<EmployeeDirectory.Person> her = directory.suggest("hér", 10);
+        assertEquals(2, her.size());
+        assertEquals("nun", "Josefina Núñez", directory.suggest("nun", 10).get(0).getName());
+        assertEquals(1, directory.suggest("jose hern", 10).size());
+        assertEquals("José Hernández", directory.suggest("jose hern", 10).get(0).getName());
+        assertTrue(directory.suggest("jos herr", 10).isEmpty());
+        assertTrue(directory.suggest("xyz", 10).isEmpty());
+        assertEquals(1, directory.suggest("j", 1).size());
+    }
+
+    @Test
+    public void looksUpLicensesAndNames() {
+        EmployeeDirectory directory = new EmployeeDirectory();
+        directory.record("Ana Sofía Núñez", null, false);
+        assertNull(directory.licenseFor("ana sofia nunez"));
+        // The license shows up later for the same person
+        directory.record("Ana Sofía Núñez", "LIC-9", false);
+        assertEquals(1, directory.size());
+        assertEquals("LIC-9", directory.licenseFor("ANA SOFIA NUÑEZ"));
+        assertEquals("Ana Sofía Núñez", directory.nameFor("LIC-9"));
+
+        // Two people with the same name can't give a license back
+        directory.record("Ana Sofía Núñez", "LIC-10", false);
+        assertEquals(2, directory.size());
+        assertNull(directory.licenseFor("Ana Sofía Núñez"));
+        assertEquals("Ana Sofía Núñez", directory.nameFor("LIC-10"));
+
+        LogItem item = new LogItem(1);
+        LogItem.Employee employee = item.getDiscrepancy().getEmployee();
+        employee.setEmployeeLicense("LIC-9");
+        employee.completeFromDirectory(directory);
+        assertEquals("Ana Sofía Núñez", employee.getEmployeeName());
+    }
+
+    @Test
+    public void learnsFromSavedPages() throws Exception {
+        EmployeeDirectory directory = new EmployeeDirectory();
+        LogStore store = LogStore.open(folder.newFolder());
+        store.addListener(directory);
+        LogPage page = new LogPage("XA-AFH", "1", LogItemFixtures.items(3, 31));
+        store.put(page);
+        store.close();
+        for (LogItem item : page.getItems()) {
+            if (item.isCanceled() || item.getDiscrepancy().isCanceled()) continue;
+            String name = item.getDiscrepancy().getEmployee().getEmployeeName();
+            assertFalse(directory.suggest(name, 1).isEmpty());
+        }
+    }
+
+    @Test
+    public void snapshotRoundTrip() throws Exception {
+        EmployeeDirectory directory = directory(2000, 1);
+        File file = new File(folder.getRoot(), "employees.bin");
+        directory.save(file);
+        EmployeeDirectory loaded = EmployeeDirectory.load(file);
+        assertEquals(directory.size(), loaded.size());
+        String[] prefixes = {"jo", "maria her", "nu", "gonzalez", "i"};
+        for (String prefix : prefixes) {
+            List<EmployeeDirectory.Person> expected = directory.suggest(prefix, 10);
+            List<EmployeeDirectory.Person> actual = loaded.suggest(prefix, 10);
+            assertEquals(prefix, expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getName(), actual.get(i).getName());
+                assertEquals(expected.get(i).getReports(), actual.get(i).getReports());
+            }
+        }
+        assertEquals("LIC-17", loaded.findByLicense("LIC-17").getLicense());
+        assertEquals(0, EmployeeDirectory.load(new File(folder.getRoot(), "missing")).size());
+    }
+
+    @Test
+    public void benchmarkFiftyThousandPeople() throws Exception {
+        Benchmarks.assumeEnabled();
+        long start = System.nanoTime();
+        final EmployeeDirectory directory = directory(50000, 2);
+        System.out.printf("Built 50k people in %.0f ms%n", (System.nanoTime() - start) / 1e6);
+        File file = new File(folder.getRoot(), "employees.bin");
+        directory.save(file);
+        start = System.nanoTime();
+        EmployeeDirectory.load(file);
+        System.out.printf("Loaded %d KB snapshot in %.0f ms%n", file.length() / 1024,
+                (System.nanoTime() - start) / 1e6);
+
+        final String[] prefixes = {"j", "jo", "jos", "her", "ma", "nuñ", "alv", "jose gom",
+                "maria hernandez d"};
+        final int[] sink = new int[1];
+        Benchmarks.Result result = Benchmarks.measure("suggest x9 prefixes", 2000, 20000,
+                new Benchmarks.Body() {
+                    @Override
+                    public void run() {
+                        for (String prefix : prefixes)
+                            sink[0] += directory.suggest(prefix, 10).size();
+                    }
+                });
+        System.out.printf("%.1f us per suggestion%n", result.nanosPerOp / prefixes.length / 1000);
+        Benchmarks.measure("licenseFor + nameFor", 1000, 100000, new Benchmarks.Body() {
+            @Override
+            public void run() {
+                sink[0] += directory.nameFor("LIC-123").length();
+            }
+        });
+    }
+}
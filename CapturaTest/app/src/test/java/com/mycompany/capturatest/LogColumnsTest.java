@@ -0,0 +1,172 @@
+package com.mycompany.capturatest;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LogColumnsTest {
+    private static byte[] export(List<LogItem> items) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LogItemJsonWriter writer = new LogItemJsonWriter(out);
+        for (LogItem item : items) writer.writeLine(item);
+        writer.close();
+        return out.toByteArray();
+    }
+
+    private static long year(int year) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, Calendar.JANUARY, 1);
+        return calendar.getTimeInMillis();
+    }
+
+    @Test
+    public void loadsTheJsonExportAndMaterializesItems() throws Exception {
+        List<LogItem> items = LogItemFixtures.items(600, 4);
+        LogColumns columns = new LogColumns();
+        assertEquals(600, columns.addJson("XA-MFH", new ByteArrayInputStream(export(items))));
+        assertEquals(600, columns.size());
+        for (int row = 0; row < items.size(); row++) {
+            assertTrue(columns.item(row).toJSON().similar(items.get(row).toJSON()));
+            assertEquals(items.get(row).getLogItemNumber(), columns.getLogItemNumber(row));
+            assertEquals("XA-MFH", columns.get(LogColumns.AIRCRAFT, row));
+            assertNull(columns.get(LogColumns.FOLIO, row));
+        }
+
+        // Pages keep their folio, and fields the export leaves out of canceled items
+        LogPage page = new LogPage("XA-BPK", "12", LogItemFixtures.items(3, 8));
+        page.getItems().get(0).setCanceled(true);
+        columns.add(page);
+        assertEquals(603, columns.size());
+        assertEquals("12", columns.get(LogColumns.FOLIO, 600));
+        assertTrue(columns.is(LogColumns.CANCELED, 600));
+        LogItem canceled = columns.item(600);
+        assertEquals(page.getItems().get(0).getDiscrepancy().getDescription(),
+                canceled.getDiscrepancy().getDescription());
+        assertEquals(page.getItems().get(0).getComponentsChanged().numberOfComponentChanges(),
+                canceled.getComponentsChanged().numberOfComponentChanges());
+    }
+
+    @Test
+    public void keepsItemNumbersBeyondAByte() throws Exception {
+        // Items added one by one carry whatever int they were numbered with
+        Random random = new Random(3);
+        List<LogItem> items = new ArrayList<>();
+        for (int number : new int[]{127, 128, 255, 300, 70000, Integer.MAX_VALUE})
+            items.add(LogItemFixtures.item(random, number));
+        LogColumns columns = new LogColumns();
+        for (LogItem item : items) columns.add("XA-MFH", "7", item);
+        for (int row = 0; row < items.size(); row++) {
+            assertEquals(items.get(row).getLogItemNumber(), columns.getLogItemNumber(row));
+            assertTrue(columns.item(row).toJSON().similar(items.get(row).toJSON()));
+            assertEquals(items.get(row).getLogItemNumber(),
+                    columns.item(row).getLogItemNumber());
+        }
+    }
+
+    @Test
+    public void filtersMatchAScanOfTheItems() throws Exception {
+        List<LogItem> items = LogItemFixtures.items(3000, 6);
+        LogColumns columns = new LogColumns();
+        columns.addJson("XA-AFH", new ByteArrayInputStream(export(items)));
+
+        BitSet selected = columns.equal(LogColumns.DISCREPANCY_STATION, "MEX");
+        selected.and(columns.between(LogColumns.DISCREPANCY_DATE, year(2017), year(2018)));
+        selected.andNot(columns.flagged(LogColumns.CANCELED));
+        BitSet fugas = columns.containing(LogColumns.DISCREPANCY_DESCRIPTION, "FUGA HIDRAULICA");
+        BitSet deferred = columns.flagged(LogColumns.DEFERRED);
+        int[] byAta = columns.count(LogColumns.DISCREPANCY_ATA, columns.all());
+
+        int expected = 0;
+        int[] expectedByAta = new int[columns.codeCount()];
+        for (int row = 0; row < items.size(); row++) {
+            LogItem item = items.get(row);
+            LogItem.Discrepancy discrepancy = item.getDiscrepancy();
+            Date date = discrepancy.getDate();
+            boolean match = !item.isCanceled() && "MEX".equals(discrepancy.getStation())
+                    && date != null && date.getTime() >= year(2017) && date.getTime() < year(2018);
+            assertEquals(match, selected.get(row));
+            if (match) expected++;
+            String description = discrepancy.getDescription();
+            assertEquals(description != null && TextFolding.foldWords(description)
+                    .contains("fuga hidraulica"), fugas.get(row));
+            assertEquals(item.getCorrectiveAction().isDeferred(), deferred.get(row));
+            if (discrepancy.getAtaChapter() != null)
+                expectedByAta[columns.codeOf(discrepancy.getAtaChapter())]++;
+        }
+        assertTrue(expected > 0);
+        assertArrayEquals(expectedByAta, byAta);
+        assertTrue(columns.equal(LogColumns.DISCREPANCY_STATION, "LAX").isEmpty());
+        // Null is a value like any other
+        assertEquals(items.size() - deferred.cardinality(),
+                columns.equal(LogColumns.DEFERRAL_BASIS, null).cardinality());
+    }
+
+    @Test
+    public void benchmarkScanAgainstObjects() throws Exception {
+        Benchmarks.assumeEnabled();
+        int count = 300000;
+        byte[] json = export(LogItemFixtures.items(count, 2));
+        long before = Benchmarks.usedHeap();
+        long start = System.nanoTime();
+        final LogColumns columns = new LogColumns();
+        columns.addJson("XA-MFH", new ByteArrayInputStream(json));
+        columns.trimToSize();
+        long loadNanos = System.nanoTime() - start;
+        long columnBytes = Benchmarks.usedHeap() - before;
+
+        before = Benchmarks.usedHeap();
+        final List<LogItem> objects = new ArrayList<>(count);
+        LogItemJsonReader reader = new LogItemJsonReader(new ByteArrayInputStream(json));
+        while (reader.hasNext()) objects.add(reader.next());
+        reader.close();
+        long objectBytes = Benchmarks.usedHeap() - before;
+        System.out.printf("Loaded %d rows in %.0f ms, %d bytes per row (LogItem: %d)%n",
+                columns.size(), loadNanos / 1e6, columnBytes / count, objectBytes / count);
+
+        final long from = year(2016);
+        final long to = year(2017);
+        final int[] sink = new int[1];
+        Benchmarks.Result scan = Benchmarks.measure("columns: station + year + not canceled",
+                5, 50, new Benchmarks.Body() {
+                    @Override
+                    public void run() {
+                        BitSet selected = columns.equal(LogColumns.DISCREPANCY_STATION, "GDL");
+                        selected.and(columns.between(LogColumns.DISCREPANCY_DATE, from, to));
+                        selected.andNot(columns.flagged(LogColumns.CANCELED));
+                        sink[0] += selected.cardinality();
+                    }
+                });
+        Benchmarks.Result objectScan = Benchmarks.measure("LogItems: station + year + not canceled",
+                5, 50, new Benchmarks.Body() {
+                    @Override
+                    public void run() {
+                        for (LogItem item : objects) {
+                            Date date = item.getDiscrepancy().getDate();
+                            if (!item.isCanceled()
+                                    && "GDL".equals(item.getDiscrepancy().getStation())
+                                    && date != null && date.getTime() >= from
+                                    && date.getTime() < to) sink[0]++;
+                        }
+                    }
+                });
+        Benchmarks.measure("columns: description contains", 2, 10, new Benchmarks.Body() {
+            @Override
+            public void run() {
+                sink[0] += columns.containing(LogColumns.DISCREPANCY_DESCRIPTION, "vibracion")
+                        .cardinality();
+            }
+        });
+        assertTrue(scan.nanosPerOp < objectScan.nanosPerOp);
+        assertTrue(sink[0] > 0);
+    }
+}
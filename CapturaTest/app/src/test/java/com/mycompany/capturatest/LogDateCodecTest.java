@@ -0,0 +1,146 @@
+package com.mycompany.capturatest;
+
+import org.junit.Test;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class LogDateCodecTest {
+    private static final String[] ZONES = {"America/Mexico_City", "America/Tijuana", "UTC",
+            "Pacific/Auckland", "Asia/Kolkata"};
+
+    private static DateFormat simpleDateFormat(TimeZone timeZone) {
+        DateFormat format = new SimpleDateFormat(LogJsonKeys.DATE_PATTERN, new Locale("es", "mx"));
+        format.setTimeZone(timeZone);
+        return format;
+    }
+
+    @Test
+    public void formatsLikeSimpleDateFormat() {
+        Random random = new Random(1);
+        for (String zone : ZONES) {
+            TimeZone timeZone = TimeZone.getTimeZone(zone);
+            LogDateCodec codec = new LogDateCodec(timeZone);
+            DateFormat expected = simpleDateFormat(timeZone);
+            for (int i = 0; i < 20000; i++) {
+                // Anywhere between 1900 and 2100
+                long millis = -2208988800000L + (long) (random.nextDouble() * 6311433600000L);
+                assertEquals(expected.format(new Date(millis)), codec.format(millis));
+            }
+        }
+    }
+
+    @Test
+    public void parsesLikeSimpleDateFormat() throws ParseException {
+        for (String zone : ZONES) {
+            TimeZone timeZone = TimeZone.getTimeZone(zone);
+            LogDateCodec codec = new LogDateCodec(timeZone);
+            DateFormat expected = simpleDateFormat(timeZone);
+            for (int year = 1990; year <= 2030; year++) {
+                for (int month = 1; month <= 12; month++) {
+                    for (int day = 1; day <= 28; day += 3) {
+                        String text = String.format(Locale.US, "%02d/%02d/%d", day, month, year);
+                        assertEquals(text, expected.parse(text).getTime(), codec.parseMillis(text));
+                        assertEquals(text, codec.format(codec.parseMillis(text)));
+                    }
+                }
+            }
+            assertEquals(expected.parse("1/2/2019"), codec.parse("1/2/2019"));
+        }
+    }
+
+    @Test
+    public void rejectsInvalidDates() {
+        LogDateCodec codec = new LogDateCodec(TimeZone.getTimeZone("UTC"));
+        String[] invalid = {"", "12/12", "32/01/2019", "29/02/2019", "01/13/2019", "1-2-2019",
+                "01/01/20190", "/01/2019", "01//2019", "01/01/2019 "};
+        for (String text : invalid) {
+            try {
+                codec.parseMillis(text);
+                fail("Parsed " + text);
+            } catch (ParseException expected) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void sharedByConcurrentWorkers() throws Exception {
+        final TimeZone timeZone = TimeZone.getTimeZone("America/Mexico_City");
+        final LogDateCodec codec = new LogDateCodec(timeZone);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final long seed = t;
+            results.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    DateFormat expected = simpleDateFormat(timeZone);
+                    Random random = new Random(seed);
+                    int mismatches = 0;
+                    for (int i = 0; i < 50000; i++) {
+                        // Few distinct days so threads keep hitting and replacing the same slots
+                        long millis = 1500000000000L + random.nextInt(4000) * 3600000L;
+                        if (!expected.format(new Date(millis)).equals(codec.format(millis)))
+                            mismatches++;
+                    }
+                    return mismatches;
+                }
+            }));
+        }
+        for (Future<Integer> result : results) assertEquals(0, (int) result.get());
+        executor.shutdown();
+    }
+
+    @Test
+    public void benchmarkAgainstPerCallFormatter() throws Exception {
+        Benchmarks.assumeEnabled();
+        final Random random = new Random(2);
+        final Date[] dates = new Date[10000];
+        for (int i = 0; i < dates.length; i++)
+            dates[i] = new Date(1420070400000L + random.nextInt(5 * 365) * 86400000L);
+        final int[] sink = new int[1];
+
+        Benchmarks.Result perCall = Benchmarks.measure("new SimpleDateFormat per date x10k", 2, 5,
+                new Benchmarks.Body() {
+                    @Override
+                    public void run() {
+                        for (Date date : dates) {
+                            DateFormat df = new SimpleDateFormat("dd/MM/yyyy",
+                                    new Locale("es", "mx"));
+                            sink[0] += df.format(date).length();
+                        }
+                    }
+                });
+        final LogDateCodec codec = LogDateCodec.getDefault();
+        Benchmarks.Result cached = Benchmarks.measure("LogDateCodec.format x10k", 2, 5,
+                new Benchmarks.Body() {
+                    @Override
+                    public void run() {
+                        for (Date date : dates) sink[0] += codec.format(date).length();
+                    }
+                });
+        Benchmarks.measure("LogDateCodec.parseMillis x10k", 2, 5, new Benchmarks.Body() {
+            @Override
+            public void run() throws Exception {
+                for (Date date : dates) sink[0] += (int) codec.parseMillis(codec.format(date));
+            }
+        });
+        assertTrue(cached.nanosPerOp < perCall.nanosPerOp);
+        // Every date repeats, so after warm up formatting shouldn't allocate at all
+        if (!Double.isNaN(cached.bytesPerOp)) assertTrue(cached.bytesPerOp < dates.length);
+    }
+}
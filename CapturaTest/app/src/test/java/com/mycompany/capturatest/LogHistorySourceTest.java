@@ -0,0 +1,174 @@
+package com.mycompany.capturatest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LogHistorySourceTest {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LogStore store(int pages) throws Exception {
+        LogStore.Options options = new LogStore.Options();
+        options.syncOnWrite = false;
+        LogStore store = LogStore.open(folder.newFolder(), options);
+        Random random = new Random(1);
+        for (int folio = 1; folio <= pages; folio++) {
+            // Every tenth page has only one entry
+            int items = folio % 10 == 0 ? 1 : LogItem.ITEMS_PER_PAGE;
+            LogPage page = new LogPage("XA-AFH", String.valueOf(folio));
+            for (int i = 1; i <= items; i++) page.addItem(LogItemFixtures.item(random, i));
+            store.put(page);
+        }
+        store.put(new LogPage("XA-BPK", "1", LogItemFixtures.items(3, 2)));
+        return store;
+    }
+
+    private static List<PageKey> pages(LogStore store) {
+        List<PageKey> pages = store.keys("XA-AFH");
+        Collections.reverse(pages);
+        return pages;
+    }
+
+    @Test
+    public void rowsComeNewestFirstWithBlankEntries() throws Exception {
+        LogStore store = store(95);
+        final List<Integer> loaded = new ArrayList<>();
+        LogHistorySource source = new LogHistorySource(store, pages(store), 10, 4, DIRECT, DIRECT,
+                new LogHistorySource.Callback() {
+                    @Override
+                    public void onRowsLoaded(int position, int count) {
+                        loaded.add(position);
+                    }
+                });
+        assertEquals(95 * LogItem.ITEMS_PER_PAGE, source.size());
+
+        // Synchronous loader, the row is there right away
+        LogRow first = source.get(0);
+        assertNotNull(first);
+        assertEquals("1", first.getItemNumber());
+        assertEquals(LogRow.idOf(new PageKey("XA-AFH", "95"), 1), first.getId());
+        LogPage page = store.get("XA-AFH", "95");
+        assertEquals(page.getItems().get(0).getDiscrepancy().getDescription(),
+                first.getDiscrepancy());
+
+        // Folio 90 has one entry, the other two rows are blank
+        LogRow blank = source.get(5 * LogItem.ITEMS_PER_PAGE + 2);
+        assertEquals("3", blank.getItemNumber());
+        assertNull(blank.getDiscrepancy());
+        assertNull(blank.getCorrectiveAction());
+
+        // The last window is a partial one
+        assertNotNull(source.get(source.size() - 1));
+        assertTrue(loaded.contains(0));
+        assertTrue(loaded.contains(90 * LogItem.ITEMS_PER_PAGE));
+        store.close();
+    }
+
+    @Test
+    public void prefetchesAheadAndStaysBounded() throws Exception {
+        LogStore store = store(1000);
+        LogHistorySource source = new LogHistorySource(store, pages(store), 20, 4, DIRECT, DIRECT,
+                new LogHistorySource.Callback() {
+                    @Override
+                    public void onRowsLoaded(int position, int count) {
+                    }
+                });
+        int rowsPerWindow = 20 * LogItem.ITEMS_PER_PAGE;
+        // Halfway through the first window the second one is loaded too
+        source.get(0);
+        assertEquals(1, source.loadedWindows());
+        source.get(rowsPerWindow / 2);
+        assertEquals(2, source.loadedWindows());
+
+        for (int position = 0; position < source.size(); position++) {
+            assertNotNull(source.get(position));
+            assertTrue(source.loadedWindows() <= 4);
+        }
+        // And back up again
+        for (int position = source.size() - 1; position >= 0; position--) {
+            assertNotNull(source.get(position));
+            assertTrue(source.loadedWindows() <= 4);
+        }
+        store.close();
+    }
+
+    @Test
+    public void loadsOnTheLoaderThread() throws Exception {
+        LogStore store = store(200);
+        ExecutorService loader = Executors.newSingleThreadExecutor();
+        // Held until the placeholder is checked, a quick load would otherwise beat it
+        final CountDownLatch hold = new CountDownLatch(1);
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    hold.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        final CountDownLatch done = new CountDownLatch(1);
+        final Thread test = Thread.currentThread();
+        final boolean[] offThread = new boolean[1];
+        LogHistorySource source = new LogHistorySource(store, pages(store), 20, 4, loader, DIRECT,
+                new LogHistorySource.Callback() {
+                    @Override
+                    public void onRowsLoaded(int position, int count) {
+                        offThread[0] = Thread.currentThread() != test;
+                        if (position == 60) done.countDown();
+                    }
+                });
+        // Not loaded yet, the row is a placeholder
+        assertNull(source.get(60));
+        hold.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(offThread[0]);
+        assertNotNull(source.get(60));
+
+        source.close();
+        loader.shutdown();
+        store.close();
+    }
+
+    @Test
+    public void benchmarkScrollThroughHistory() throws Exception {
+        Benchmarks.assumeEnabled();
+        final LogStore store = store(3000);
+        final LogHistorySource source = new LogHistorySource(store, pages(store), 20, 6, DIRECT,
+                DIRECT, new LogHistorySource.Callback() {
+                    @Override
+                    public void onRowsLoaded(int position, int count) {
+                    }
+                });
+        final int[] position = new int[1];
+        Benchmarks.measure("get() scrolling", 1000, source.size() * 3, new Benchmarks.Body() {
+            @Override
+            public void run() {
+                source.get(position[0]);
+                position[0] = (position[0] + 1) % source.size();
+            }
+        });
+        store.close();
+    }
+}
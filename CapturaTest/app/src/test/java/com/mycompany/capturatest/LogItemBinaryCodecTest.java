@@ -0,0 +1,131 @@
+package com.mycompany.capturatest;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LogItemBinaryCodecTest {
+    @Test
+    public void roundTripMatchesToJSON() throws Exception {
+        List<LogItem> items = LogItemFixtures.items(2000, 21);
+        List<LogItem> decoded = LogItemBinaryCodec.decode(LogItemBinaryCodec.encode(items));
+        assertEquals(items.size(), decoded.size());
+        for (int i = 0; i < items.size(); i++) {
+            assertEquals(items.get(i).getLogItemNumber(), decoded.get(i).getLogItemNumber());
+            assertTrue(decoded.get(i).toJSON().similar(items.get(i).toJSON()));
+        }
+    }
+
+    @Test
+    public void keepsFieldsOfCanceledItems() throws Exception {
+        LogItem item = new LogItem(2);
+        item.getDiscrepancy().setStation("GDL");
+        item.getDiscrepancy().setDate(new Date(1546300800123L));
+        item.getCorrectiveAction().setDeferred(true);
+        item.getCorrectiveAction().setCanceled(true);
+        item.setCanceled(true);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LogItemBinaryCodec.encode(Arrays.asList(item), out);
+        LogItem decoded = LogItemBinaryCodec.decode(
+                new ByteArrayInputStream(out.toByteArray())).get(0);
+        assertTrue(decoded.isCanceled());
+        assertEquals("GDL", decoded.getDiscrepancy().getStation());
+        assertEquals(1546300800123L, decoded.getDiscrepancy().getDate().getTime());
+        assertTrue(decoded.getCorrectiveAction().isDeferred());
+        assertTrue(decoded.getCorrectiveAction().isCanceled());
+    }
+
+    @Test
+    public void rejectsTruncatedData() {
+        byte[] data = LogItemBinaryCodec.encode(LogItemFixtures.items(10, 22));
+        for (int length = 0; length < data.length; length += 7) {
+            try {
+                LogItemBinaryCodec.decode(Arrays.copyOf(data, length));
+                fail("Decoded " + length + " of " + data.length + " bytes");
+            } catch (IOException expected) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void rejectsCorruptSizes() {
+        // Header, then a dictionary size or an item count no file this short could hold
+        byte[][] corrupt = {
+                {0x4C, 0x4F, 0x47, 0x42, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7F},
+                {0x4C, 0x4F, 0x47, 0x42, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                        0x0F},
+                {0x4C, 0x4F, 0x47, 0x42, 1, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7F},
+                {0x4C, 0x4F, 0x47, 0x42, 1, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                        (byte) 0xFF, 0x0F}};
+        for (byte[] data : corrupt) {
+            try {
+                LogItemBinaryCodec.decode(data);
+                fail("Decoded " + Arrays.toString(data));
+            } catch (IOException expected) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void benchmarkAgainstJson() throws Exception {
+        Benchmarks.assumeEnabled();
+        final List<LogItem> items = LogItemFixtures.items(10000, 23);
+        final ByteArrayOutputStream json = new ByteArrayOutputStream();
+        final byte[] binary = LogItemBinaryCodec.encode(items);
+        writeJson(items, json);
+        System.out.printf("10k items: JSON %d bytes, binary %d bytes (%.1f%%)%n", json.size(),
+                binary.length, 100.0 * binary.length / json.size());
+        assertTrue(binary.length < json.size() / 3);
+
+        Benchmarks.measure("JSON write x10k", 3, 10, new Benchmarks.Body() {
+            @Override
+            public void run() throws Exception {
+                json.reset();
+                writeJson(items, json);
+            }
+        });
+        Benchmarks.measure("Binary encode x10k", 3, 10, new Benchmarks.Body() {
+            @Override
+            public void run() {
+                LogItemBinaryCodec.encode(items);
+            }
+        });
+        final byte[] jsonBytes = json.toByteArray();
+        Benchmarks.Result jsonRead = Benchmarks.measure("JSON read x10k", 3, 10,
+                new Benchmarks.Body() {
+                    @Override
+                    public void run() throws Exception {
+                        LogItemJsonReader reader = new LogItemJsonReader(
+                                new ByteArrayInputStream(jsonBytes));
+                        while (reader.hasNext()) reader.next();
+                    }
+                });
+        Benchmarks.Result binaryRead = Benchmarks.measure("Binary decode x10k", 3, 10,
+                new Benchmarks.Body() {
+                    @Override
+                    public void run() throws Exception {
+                        LogItemBinaryCodec.decode(binary);
+                    }
+                });
+        assertTrue(binaryRead.nanosPerOp < jsonRead.nanosPerOp);
+    }
+
+    private static void writeJson(List<LogItem> items, ByteArrayOutputStream out)
+            throws IOException {
+        LogItemJsonWriter writer = new LogItemJsonWriter(out);
+        writer.beginArray();
+        for (LogItem item : items) writer.write(item);
+        writer.endArray();
+        writer.flush();
+    }
+}
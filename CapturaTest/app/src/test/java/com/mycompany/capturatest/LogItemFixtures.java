@@ -0,0 +1,101 @@
+package com.mycompany.capturatest;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+
+final class LogItemFixtures {
+    /* Synthetic but realistic maintenance log entries for tests and benchmarks */
+    static final String[] AIRCRAFT = {"XA-AFH", "XA-BPK", "XA-EFH", "XA-IFP", "XA-JFH", "XA-MAF",
+            "XA-MFH", "XA-NFP", "XA-PFL", "XA-RHF", "XA-SFH"};
+    static final String[] STATIONS = {"MEX", "GDL", "MTY", "CUN", "TIJ", "OAX", "VER", "MID"};
+    static final String[] ATA_CHAPTERS = {"21", "24", "25", "27", "28", "29", "30", "32", "33",
+            "34", "36", "49", "52", "71", "72", "79"};
+    static final String[] NAMES = {"José Hernández", "María Pérez", "Raúl Gómez",
+            "Ana Sofía Núñez", "Jesús Ramírez", "Iván Domínguez", "Lucía Martínez"};
+    static final String[] DISCREPANCIES = {"Fuga hidráulica en tren principal izquierdo",
+            "Luz de navegación \"LH\" fundida", "Llanta #2 desgastada fuera de límites",
+            "Reporte de vibración en motor 1 / crucero", "Asiento 12C no reclina",
+            "Puerta de carga trasera con indicación intermitente"};
+    static final String[] ACTIONS = {"Se reemplazó sello y se efectuó prueba operacional, OK",
+            "Se cambió foco, prueba satisfactoria", "Se difiere conforme a MEL",
+            "Se inspeccionó de acuerdo al AMM 05-51-00\nsin hallazgos",
+            "Se ajustó micro switch, prueba OK"};
+
+    private LogItemFixtures() {
+    }
+
+    static LogPage page(String aircraft, String folio, LogItem... items) {
+        LogPage page = new LogPage(aircraft, folio);
+        for (LogItem item : items) page.addItem(item);
+        return page;
+    }
+
+    static List<LogItem> items(int count, long seed) {
+        Random random = new Random(seed);
+        List<LogItem> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) items.add(item(random, i % 3 + 1));
+        return items;
+    }
+
+    static LogItem item(Random random, int logItemNumber) {
+        LogItem item = new LogItem(logItemNumber);
+        if (random.nextInt(20) == 0) {
+            item.setCanceled(true);
+            return item;
+        }
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2015 + random.nextInt(5), random.nextInt(12), 1 + random.nextInt(28));
+
+        LogItem.Discrepancy discrepancy = item.getDiscrepancy();
+        fill(discrepancy, random, calendar);
+        discrepancy.setDescription(pick(random, DISCREPANCIES));
+        discrepancy.setFlightNumber(String.valueOf(100 + random.nextInt(900)));
+        if (random.nextBoolean()) discrepancy.setOperationLog(String.valueOf(random.nextInt(99999)));
+
+        LogItem.CorrectiveAction correctiveAction = item.getCorrectiveAction();
+        if (random.nextInt(10) == 0) {
+            correctiveAction.setCanceled(true);
+        } else {
+            fill(correctiveAction, random, calendar);
+            correctiveAction.setDescription(pick(random, ACTIONS));
+            if (random.nextInt(4) == 0) {
+                correctiveAction.setDeferred(true);
+                correctiveAction.setDeferralBasis("MEL " + pick(random, ATA_CHAPTERS) + "-"
+                        + (10 + random.nextInt(80)) + "-01 CAT " + "ABCD".charAt(random.nextInt(4)));
+            }
+        }
+
+        int changes = random.nextInt(4) == 0 ? 1 + random.nextInt(2) : 0;
+        for (int i = 0; i < changes; i++) {
+            LogItem.ComponentsChanged.ComponentChange change =
+                    item.getComponentsChanged().addComponentChange();
+            change.setComponentRemoved(true);
+            change.setRemovedPartNumber("PN-" + random.nextInt(500));
+            change.setRemovedSerialNumber("SN" + random.nextInt(100000));
+            if (random.nextInt(5) != 0) {
+                change.setComponentInstalled(true);
+                change.setInstalledPartNumber("PN-" + random.nextInt(500));
+                change.setInstalledSerialNumber("SN" + random.nextInt(100000));
+            }
+        }
+        return item;
+    }
+
+    private static void fill(LogItem.BaseLogItem base, Random random, Calendar calendar) {
+        base.setStation(pick(random, STATIONS));
+        if (random.nextInt(5) != 0) base.setAtaChapter(pick(random, ATA_CHAPTERS));
+        base.setDate(calendar.getTime());
+        LogItem.Employee employee = base.getEmployee();
+        int who = random.nextInt(NAMES.length);
+        employee.setEmployeeName(NAMES[who]);
+        if (random.nextInt(3) != 0) employee.setEmployeeLicense("LIC-" + (1000 + who));
+        employee.setCrew(random.nextInt(4) == 0);
+    }
+
+    static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+}
@@ -0,0 +1,157 @@
+package com.mycompany.capturatest;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LogItemJsonReaderTest {
+    private static String array(List<LogItem> items) throws IOException {
+        StringWriter out = new StringWriter();
+        LogItemJsonWriter writer = new LogItemJsonWriter(out);
+        writer.beginArray();
+        for (LogItem item : items) writer.write(item);
+        writer.endArray();
+        writer.flush();
+        return out.toString();
+    }
+
+    @Test
+    public void readsArrayWrittenByToJSON() throws Exception {
+        List<LogItem> items = LogItemFixtures.items(300, 5);
+        StringBuilder json = new StringBuilder("[");
+        for (LogItem item : items) {
+            if (json.length() > 1) json.append(",\n  ");
+            json.append(item.toJSON().toString());
+        }
+        json.append(']');
+
+        LogItemJsonReader reader = new LogItemJsonReader(new StringReader(json.toString()));
+        for (int i = 0; i < items.size(); i++) {
+            assertTrue(reader.hasNext());
+            LogItem read = reader.next();
+            assertEquals(i % LogItem.ITEMS_PER_PAGE + 1, read.getLogItemNumber());
+            assertTrue(read.toJSON().similar(items.get(i).toJSON()));
+        }
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void readsJsonLines() throws Exception {
+        List<LogItem> items = LogItemFixtures.items(100, 6);
+        StringWriter out = new StringWriter();
+        LogItemJsonWriter writer = new LogItemJsonWriter(out);
+        for (LogItem item : items) writer.writeLine(item);
+        writer.flush();
+
+        LogItemJsonReader reader = new LogItemJsonReader(new StringReader(out.toString()));
+        int count = 0;
+        while (reader.hasNext()) {
+            assertTrue(reader.next().toJSON().similar(items.get(count).toJSON()));
+            count++;
+        }
+        assertEquals(items.size(), count);
+    }
+
+    @Test
+    public void onlyMaterializesRequestedFields() throws Exception {
+        List<LogItem> items = LogItemFixtures.items(50, 8);
+        LogItemJsonReader reader = new LogItemJsonReader(new StringReader(array(items)),
+                "discrepancy.ataChapter", "correctiveAction.reportedBy");
+        for (LogItem expected : items) {
+            LogItem read = reader.next();
+            if (expected.isCanceled()) continue;
+            LogItem.Discrepancy discrepancy = read.getDiscrepancy();
+            assertEquals(expected.getDiscrepancy().getAtaChapter(), discrepancy.getAtaChapter());
+            assertNull(discrepancy.getDescription());
+            assertNull(discrepancy.getStation());
+            assertNull(discrepancy.getDate());
+            assertNull(discrepancy.getEmployee().getEmployeeName());
+            LogItem.CorrectiveAction action = read.getCorrectiveAction();
+            assertNull(action.getDescription());
+            assertEquals(expected.getCorrectiveAction().getEmployee().getEmployeeName(),
+                    action.getEmployee().getEmployeeName());
+            assertEquals(0, read.getComponentsChanged().numberOfComponentChanges());
+        }
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void skipsUnknownFields() throws Exception {
+        String json = "{\"version\":2,\"extra\":{\"a\":[1,2,{\"b\":null}],\"c\":\"\\\"}\"},"
+                + "\"discrepancy\":{\"station\":\"MEX\",\"future\":[true,false]}}";
+        LogItemJsonReader reader = new LogItemJsonReader(new StringReader(json));
+        assertEquals("MEX", reader.next().getDiscrepancy().getStation());
+        assertFalse(reader.hasNext());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsMalformedInput() throws Exception {
+        LogItemJsonReader reader = new LogItemJsonReader(
+                new StringReader("[{\"discrepancy\":{\"station\" \"MEX\"}}]"));
+        reader.next();
+    }
+
+    private static Reader repeat(final String item, final int count) {
+        // The same item over and over without ever holding the whole document
+        return new Reader() {
+            private int itemsLeft = count;
+            private int pos = item.length();
+
+            @Override
+            public int read(char[] buffer, int off, int len) {
+                if (pos == item.length()) {
+                    if (itemsLeft == 0) return -1;
+                    itemsLeft--;
+                    pos = 0;
+                }
+                int n = Math.min(len, item.length() - pos);
+                item.getChars(pos, pos + n, buffer, off);
+                pos += n;
+                return n;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Test
+    public void streamsItemsAcrossReads() throws Exception {
+        // Handed over a read at a time, never as one document
+        String item = LogItemFixtures.items(1, 9).get(0).toJSON().toString() + "\n";
+        LogItemJsonReader reader = new LogItemJsonReader(repeat(item, 2000),
+                "discrepancy.ataChapter");
+        int read = 0;
+        while (reader.hasNext()) {
+            reader.next();
+            read++;
+        }
+        assertEquals(2000, read);
+    }
+
+    @Test
+    public void benchmarkLargeInputs() throws Exception {
+        Benchmarks.assumeEnabled();
+        String item = LogItemFixtures.items(1, 9).get(0).toJSON().toString() + "\n";
+        int count = 200000;
+        LogItemJsonReader reader = new LogItemJsonReader(repeat(item, count),
+                "discrepancy.ataChapter");
+        int read = 0;
+        long start = System.nanoTime();
+        while (reader.hasNext()) {
+            reader.next();
+            read++;
+        }
+        System.out.printf("Read %d items (%d MB) in %d ms%n", read,
+                (long) item.length() * count / (1024 * 1024),
+                (System.nanoTime() - start) / 1000000);
+        assertEquals(count, read);
+    }
+}
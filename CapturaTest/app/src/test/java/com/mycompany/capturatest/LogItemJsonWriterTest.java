@@ -0,0 +1,216 @@
+package com.mycompany.capturatest;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LogItemJsonWriterTest {
+    private static final String CANCELED_ACTION = "{\"discrepancy\":{\"station\":\"GDL\","
+            + "\"reportedBy\":{\"isCrew\":false},\"description\":\"Luz fundida\"},"
+            + "\"correctiveAction\":{\"canceled\":true}}";
+
+    private static String stream(LogItem item) throws Exception {
+        StringWriter out = new StringWriter();
+        LogItemJsonWriter writer = new LogItemJsonWriter(out);
+        writer.write(item);
+        writer.flush();
+        return out.toString();
+    }
+
+    @Test
+    public void streamedItemsMatchTree() throws Exception {
+        for (LogItem item : LogItemFixtures.items(500, 42)) {
+            JSONObject tree = item.toJSON();
+            JSONObject streamed = new JSONObject(stream(item));
+            assertTrue(streamed + " != " + tree, streamed.similar(tree));
+        }
+    }
+
+    @Test
+    public void writesKeysInTheirOrder() throws Exception {
+        // The exact text, key order and escapes included, not only the same JSON
+        LogItem item = new LogItem(2);
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2019, Calendar.MARCH, 7);
+        LogItem.Discrepancy discrepancy = item.getDiscrepancy();
+        discrepancy.setStation("MEX");
+        discrepancy.setAtaChapter("32");
+        discrepancy.setDate(calendar.getTime());
+        discrepancy.setFlightNumber("AM 123");
+        discrepancy.setDescription("Fuga \"hidráulica\" en tren\tizquierdo\n1/2 \\ ctl\u0001");
+        discrepancy.getEmployee().setEmployeeName("José Hernández");
+        discrepancy.getEmployee().setEmployeeLicense("TMA-123");
+        discrepancy.getEmployee().setCrew(true);
+        LogItem.CorrectiveAction action = item.getCorrectiveAction();
+        action.setStation("MEX");
+        action.setDescription("Se difiere");
+        action.setDeferred(true);
+        action.setDeferralBasis("MEL 32-41-01 CAT B");
+        LogItem.ComponentsChanged.ComponentChange change =
+                item.getComponentsChanged().addComponentChange();
+        change.setComponentRemoved(true);
+        change.setRemovedPartNumber("PN-1");
+        change.setRemovedSerialNumber("SN-9");
+        String expected = "{\"discrepancy\":{\"station\":\"MEX\",\"ataChapter\":\"32\","
+                + "\"date\":\"07\\/03\\/2019\",\"reportedBy\":{\"name\":\"José Hernández\","
+                + "\"license\":\"TMA-123\",\"isCrew\":true},"
+                + "\"description\":\"Fuga \\\"hidráulica\\\" en tren\\tizquierdo"
+                + "\\n1\\/2 \\\\ ctl\\u0001\","
+                + "\"flightNumber\":\"AM 123\"},\"correctiveAction\":{\"station\":\"MEX\","
+                + "\"reportedBy\":{\"isCrew\":false},\"description\":\"Se difiere\","
+                + "\"deferred\":true,\"deferralBasis\":\"MEL 32-41-01 CAT B\"},"
+                + "\"componentsChanged\":[{\"removed\":{\"partNumber\":\"PN-1\","
+                + "\"serialNumber\":\"SN-9\"}}]}";
+        assertEquals(expected, stream(item));
+        // Cached parts are written back unchanged
+        assertEquals(expected, stream(item));
+        assertEquals(expected, item.toJSONString());
+        assertTrue(new JSONObject(expected).similar(item.toJSON()));
+    }
+
+    @Test
+    public void canceledItemOnlyWritesFlag() throws Exception {
+        LogItem item = new LogItem(1);
+        item.getDiscrepancy().setDescription("Not written");
+        item.setCanceled(true);
+        assertEquals("{\"canceledItem\":true}", stream(item));
+    }
+
+    @Test
+    public void canceledCorrectiveActionOnlyWritesFlag() throws Exception {
+        LogItem item = new LogItem(3);
+        item.getDiscrepancy().setStation("GDL");
+        item.getDiscrepancy().setDescription("Luz fundida");
+        item.getCorrectiveAction().setDescription("No escrito");
+        item.getCorrectiveAction().setCanceled(true);
+        String streamed = stream(item);
+        assertEquals(CANCELED_ACTION, streamed);
+        assertTrue(new JSONObject(streamed).similar(item.toJSON()));
+
+        item = LogItemFixtures.items(1, 7).get(0);
+        item.setCanceled(false);
+        item.getCorrectiveAction().setCanceled(true);
+        assertEquals("{\"canceled\":true}", new JSONObject(stream(item))
+                .getJSONObject(LogJsonKeys.CORRECTIVE_ACTION).toString());
+    }
+
+    @Test
+    public void escapesLikeJSONStringer() throws Exception {
+        LogItem item = new LogItem(1);
+        item.getDiscrepancy().setDescription("\"A/B\" \\ tab\t nl\n ctl\u0001 ñ");
+        String streamed = stream(item);
+        assertEquals("{\"discrepancy\":{\"reportedBy\":{\"isCrew\":false},"
+                + "\"description\":\"\\\"A\\/B\\\" \\\\ tab\\t nl\\n ctl\\u0001 ñ\"},"
+                + "\"correctiveAction\":{\"reportedBy\":{\"isCrew\":false},"
+                + "\"deferred\":false}}", streamed);
+        assertTrue(new JSONObject(streamed).similar(item.toJSON()));
+    }
+
+    @Test
+    public void writesArraysAndLines() throws Exception {
+        LogItem canceled = new LogItem(4);
+        canceled.setCanceled(true);
+        LogItem item = new LogItem(3);
+        item.getDiscrepancy().setStation("GDL");
+        item.getDiscrepancy().setDescription("Luz fundida");
+        item.getCorrectiveAction().setCanceled(true);
+        StringWriter out = new StringWriter();
+        LogItemJsonWriter writer = new LogItemJsonWriter(out);
+        writer.beginArray();
+        writer.write(item);
+        writer.write(canceled);
+        writer.endArray();
+        writer.writeLine(item);
+        writer.writeLine(canceled);
+        writer.flush();
+        assertEquals("[" + CANCELED_ACTION + ",{\"canceledItem\":true}]" + CANCELED_ACTION
+                + "\n{\"canceledItem\":true}\n", out.toString());
+    }
+
+    @Test
+    public void streamedArraysAndLinesMatchTree() throws Exception {
+        List<LogItem> items = LogItemFixtures.items(20, 3);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        LogItemJsonWriter writer = new LogItemJsonWriter(bytes);
+        writer.beginArray();
+        for (LogItem item : items) writer.write(item);
+        writer.endArray();
+        writer.close();
+        JSONArray array = new JSONArray(new String(bytes.toByteArray(), "UTF-8"));
+        assertEquals(items.size(), array.length());
+        for (int i = 0; i < items.size(); i++)
+            assertTrue(array.getJSONObject(i).similar(items.get(i).toJSON()));
+
+        StringWriter lines = new StringWriter();
+        writer = new LogItemJsonWriter(lines);
+        for (LogItem item : items) writer.writeLine(item);
+        writer.flush();
+        String[] split = lines.toString().split("\n");
+        assertEquals(items.size(), split.length);
+        for (int i = 0; i < items.size(); i++)
+            assertTrue(new JSONObject(split[i]).similar(items.get(i).toJSON()));
+    }
+
+    @Test
+    public void benchmarkAgainstTree() throws Exception {
+        Benchmarks.assumeEnabled();
+        // A fresh copy of the items for every run, the writer keeps the JSON of items it wrote
+        final List<List<LogItem>> runs = new ArrayList<>();
+        // 3 warm up runs and 10 measured ones
+        for (int i = 0; i < 13; i++) runs.add(LogItemFixtures.items(2000, 11));
+        final Writer sink = new NullWriter();
+        final int[] run = new int[1];
+        Benchmarks.Result tree = Benchmarks.measure("toJSON().toString() x2k", 3, 10,
+                new Benchmarks.Body() {
+                    @Override
+                    public void run() throws Exception {
+                        for (LogItem item : runs.get(run[0]++))
+                            sink.write(item.toJSON().toString());
+                    }
+                });
+        // toJSON() caches nothing, the items are still cold
+        run[0] = 0;
+        final LogItemJsonWriter writer = new LogItemJsonWriter(sink);
+        Benchmarks.Result streamed = Benchmarks.measure("LogItemJsonWriter x2k uncached", 3, 10,
+                new Benchmarks.Body() {
+                    @Override
+                    public void run() throws Exception {
+                        for (LogItem item : runs.get(run[0]++)) writer.write(item);
+                    }
+                });
+        if (!Double.isNaN(streamed.bytesPerOp))
+            assertTrue(streamed.bytesPerOp < tree.bytesPerOp);
+    }
+
+    private static class NullWriter extends Writer {
+        @Override
+        public void write(int c) {
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+        }
+
+        @Override
+        public void write(char[] buffer, int off, int len) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.mycompany.capturatest;
+
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class LogItemTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static LogItem item() {
+        LogItem item = new LogItem(1);
+        item.getDiscrepancy().setStation("MEX");
+        item.getDiscrepancy().setDate(new Date(1546300800000L));
+        item.getDiscrepancy().getEmployee().setEmployeeName("José Hernández");
+        item.getCorrectiveAction().setStation("MEX");
+        item.getCorrectiveAction().getEmployee().setEmployeeLicense("LIC-1");
+        LogItem.ComponentsChanged.ComponentChange change =
+                item.getComponentsChanged().addComponentChange();
+        change.setComponentRemoved(true);
+        change.setRemovedPartNumber("3214552-4");
+        return item;
+    }
+
+    @Test
+    public void everySetterMarksTheItemDirty() {
+        LogItem item = item();
+        assertTrue(item.isDirty());
+        item.markSaved();
+        assertFalse(item.isDirty());
+
+        int version = item.getVersion();
+        item.getDiscrepancy().setFlightNumber("123");
+        assertTrue(item.isDirty());
+        assertTrue(item.getVersion() > version);
+
+        item.markSaved();
+        item.getCorrectiveAction().getEmployee().setCrew(true);
+        assertTrue(item.isDirty());
+        item.markSaved();
+        item.getComponentsChanged().getComponentChanges().get(0).setRemovedSerialNumber("S1");
+        assertTrue(item.isDirty());
+        item.markSaved();
+        item.setCanceled(true);
+        assertTrue(item.isDirty());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void componentChangesAreOnlyAddedThroughTheItem() {
+        List<LogItem.ComponentsChanged.ComponentChange> changes =
+                item().getComponentsChanged().getComponentChanges();
+        changes.clear();
+    }
+
+    @Test
+    public void cachedJsonIsInvalidatedPerObject() {
+        LogDateCodec codec = LogDateCodec.getDefault();
+        LogItem item = item();
+        String json = item.toJSONString();
+        assertTrue(item.toJSON().similar(new JSONObject(json)));
+        assertSame(json, item.toJSONString());
+        String correctiveAction = item.getCorrectiveAction().getCachedJson(codec);
+        String components = item.getComponentsChanged().getCachedJson();
+        assertNotNull(correctiveAction);
+        assertNotNull(components);
+
+        // Only the discrepancy is serialized again
+        item.getDiscrepancy().getEmployee().setEmployeeLicense("LIC-2");
+        assertNull(item.getDiscrepancy().getCachedJson(codec));
+        assertSame(correctiveAction, item.getCorrectiveAction().getCachedJson(codec));
+        assertSame(components, item.getComponentsChanged().getCachedJson());
+        json = item.toJSONString();
+        assertTrue(json.contains("LIC-2"));
+        assertTrue(item.toJSON().similar(new JSONObject(json)));
+
+        item.getComponentsChanged().getComponentChanges().get(0).setRemovedSerialNumber("S9");
+        assertNull(item.getComponentsChanged().getCachedJson());
+        assertSame(correctiveAction, item.getCorrectiveAction().getCachedJson(codec));
+        assertTrue(item.toJSONString().contains("S9"));
+
+        // A date format change doesn't reuse text formatted the old way
+        assertNull(item.getCorrectiveAction().getCachedJson(new LogDateCodec(
+                TimeZone.getTimeZone("UTC"))));
+    }
+
+    @Test
+    public void cachedJsonAlwaysMatchesItsDateFormat() throws Exception {
+        // Exports with different date formats racing to fill the same cache
+        final LogItem.Discrepancy discrepancy = item().getDiscrepancy();
+        final AtomicInteger mismatches = new AtomicInteger();
+        Thread[] threads = new Thread[2];
+        for (int t = 0; t < threads.length; t++) {
+            final LogDateCodec codec = new LogDateCodec(TimeZone.getTimeZone("GMT+" + t));
+            final String json = "{\"written\":" + t + "}";
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 200000; i++) {
+                        discrepancy.setCachedJson(json, codec);
+                        String cached = discrepancy.getCachedJson(codec);
+                        if (cached != null && !cached.equals(json)) mismatches.incrementAndGet();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertEquals(0, mismatches.get());
+    }
+
+    @Test
+    public void unchangedPagesAreNotSavedAgain() throws Exception {
+        LogStore store = LogStore.open(folder.newFolder());
+        LogPage page = new LogPage("XA-AFH", "1", LogItemFixtures.items(3, 1));
+        assertTrue(page.isDirty());
+        byte[] encoded = page.encodedItems();
+        assertSame(encoded, page.encodedItems());
+
+        assertTrue(store.putIfDirty(page));
+        assertFalse(store.putIfDirty(page));
+        long sequence = store.lastSequence();
+        page.getItems().get(1).getCorrectiveAction().setDescription("Se limpió conector");
+        assertNotSame(encoded, page.encodedItems());
+        assertTrue(store.putIfDirty(page));
+        assertEquals(sequence + 1, store.lastSequence());
+
+        LogPage read = store.get("XA-AFH", "1");
+        assertFalse(read.isDirty());
+        assertEquals("Se limpió conector",
+                read.getItems().get(1).getCorrectiveAction().getDescription());
+        store.close();
+    }
+
+    @Test
+    public void repeatedValuesAreSharedBetweenRecords() throws Exception {
+        // Every decode reads its own dictionary, the strings it gives back are still one object
+        byte[] record = LogItemBinaryCodec.encode(LogItemFixtures.items(LogItem.ITEMS_PER_PAGE, 5));
+        LogItem.Discrepancy first = LogItemBinaryCodec.decode(record).get(0).getDiscrepancy();
+        LogItem.Discrepancy copy = LogItemBinaryCodec.decode(record).get(0).getDiscrepancy();
+        assertNotSame(first, copy);
+        assertNotNull(first.getStation());
+        assertSame(first.getStation(), copy.getStation());
+        assertSame(first.getEmployee().getEmployeeName(), copy.getEmployee().getEmployeeName());
+    }
+
+    @Test
+    public void benchmarkHeapPerLoadedItem() throws Exception {
+        Benchmarks.assumeEnabled();
+        // Pages are encoded one by one like LogStore records, so each has its own dictionary
+        int pageCount = 40000;
+        List<byte[]> records = new ArrayList<>(pageCount);
+        Random random = new Random(5);
+        for (int i = 0; i < pageCount; i++) {
+            List<LogItem> items = new ArrayList<>(LogItem.ITEMS_PER_PAGE);
+            for (int n = 1; n <= LogItem.ITEMS_PER_PAGE; n++)
+                items.add(LogItemFixtures.item(random, n));
+            records.add(LogItemBinaryCodec.encode(items));
+        }
+        List<List<LogItem>> history = new ArrayList<>(pageCount);
+        long before = Benchmarks.usedHeap();
+        for (byte[] record : records) history.add(LogItemBinaryCodec.decode(record));
+        long after = Benchmarks.usedHeap();
+        System.out.printf("%.0f heap bytes per loaded LogItem%n",
+                (double) (after - before) / (pageCount * LogItem.ITEMS_PER_PAGE));
+        assertEquals(pageCount, history.size());
+    }
+
+    @Test
+    public void benchmarkAutosaveOfMostlyUnchangedPage() throws Exception {
+        Benchmarks.assumeEnabled();
+        final LogPage page = new LogPage("XA-AFH", "1", LogItemFixtures.items(3, 7));
+        final Random random = new Random(1);
+        final int[] sink = new int[1];
+        Benchmarks.measure("toJSON().toString() x3", 2000, 20000, new Benchmarks.Body() {
+            @Override
+            public void run() {
+                page.getItems().get(random.nextInt(3)).getDiscrepancy().setFlightNumber("1");
+                for (LogItem item : page.getItems()) sink[0] += item.toJSON().toString().length();
+            }
+        });
+        Benchmarks.measure("toJSONString x3, one field edited", 2000, 20000,
+                new Benchmarks.Body() {
+                    @Override
+                    public void run() {
+                        page.getItems().get(random.nextInt(3)).getDiscrepancy()
+                                .setFlightNumber("1");
+                        for (LogItem item : page.getItems())
+                            sink[0] += item.toJSONString().length();
+                    }
+                });
+        Benchmarks.measure("toJSONString x3, nothing edited", 2000, 20000,
+                new Benchmarks.Body() {
+                    @Override
+                    public void run() {
+                        for (LogItem item : page.getItems())
+                            sink[0] += item.toJSONString().length();
+                    }
+                });
+
+        final LogStore.Options options = new LogStore.Options();
+        options.syncOnWrite = false;
+        final LogStore store = LogStore.open(folder.newFolder(), options);
+        Benchmarks.measure("LogStore.put", 1000, 10000, new Benchmarks.Body() {
+            @Override
+            public void run() throws Exception {
+                store.put(page);
+            }
+        });
+        Benchmarks.measure("LogStore.putIfDirty, 1 in 10 edited", 1000, 10000,
+                new Benchmarks.Body() {
+                    @Override
+                    public void run() throws Exception {
+                        if (random.nextInt(10) == 0)
+                            page.getItems().get(0).getCorrectiveAction().setDescription("OK");
+                        store.putIfDirty(page);
+                    }
+                });
+        store.close();
+    }
+}
@@ -0,0 +1,263 @@
+package com.mycompany.capturatest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+public class LogJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void edit(LogPage page, Random random) {
+        // One random setter call
+        LogItem item = page.getItems().get(random.nextInt(page.getItems().size()));
+        LogItem.BaseLogItem base = random.nextBoolean()
+                ? item.getDiscrepancy() : item.getCorrectiveAction();
+        switch (random.nextInt(8)) {
+            case 0:
+                base.setDescription(LogItemFixtures.pick(random, LogItemFixtures.ACTIONS)
+                        + random.nextInt(100));
+                break;
+            case 1:
+                base.setStation(LogItemFixtures.pick(random, LogItemFixtures.STATIONS));
+                break;
+            case 2:
+                base.setDate(random.nextBoolean() ? null : new Date(random.nextLong() >>> 24));
+                break;
+            case 3:
+                base.getEmployee().setEmployeeName(
+                        LogItemFixtures.pick(random, LogItemFixtures.NAMES));
+                break;
+            case 4:
+                base.getEmployee().setCrew(random.nextBoolean());
+                break;
+            case 5:
+                item.getCorrectiveAction().setDeferred(random.nextBoolean());
+                item.getCorrectiveAction().setDeferralBasis("MEL 21-" + random.nextInt(99));
+                break;
+            case 6:
+                LogItem.ComponentsChanged.ComponentChange change =
+                        item.getComponentsChanged().addComponentChange();
+                change.setComponentRemoved(true);
+                change.setRemovedSerialNumber("SN" + random.nextInt(1000));
+                break;
+            default:
+                base.setCanceled(random.nextInt(4) == 0);
+        }
+    }
+
+    private static void assertSameItems(LogPage expected, LogPage actual) {
+        // The binary encoding keeps every field, canceled or not
+        assertEquals(expected.getKey(), actual.getKey());
+        assertArrayEquals(LogItemBinaryCodec.encode(expected.getItems()),
+                LogItemBinaryCodec.encode(actual.getItems()));
+    }
+
+    private List<LogPage> recoverCopy(File file) throws Exception {
+        // What a new process would find if the app died now, the running journal is left alone
+        File copy = folder.newFile();
+        Files.copy(file.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return LogJournal.open(copy).getRecoveredPages();
+    }
+
+    @Test
+    public void replayRebuildsThePage() throws Exception {
+        File file = folder.newFile();
+        LogJournal journal = LogJournal.open(file);
+        assertTrue(journal.getRecoveredPages().isEmpty());
+        LogPage page = new LogPage("XA-AFH", "2041", LogItemFixtures.items(2, 3));
+        journal.track(page);
+        Random random = new Random(4);
+        for (int i = 0; i < 200; i++) edit(page, random);
+        page.addItem(LogItemFixtures.item(random, 3));
+        for (int i = 0; i < 200; i++) edit(page, random);
+        journal.flush();
+
+        // The app dies here, the journal is never closed
+        LogJournal reopened = LogJournal.open(file);
+        List<LogPage> recovered = reopened.getRecoveredPages();
+        assertEquals(1, recovered.size());
+        assertSameItems(page, recovered.get(0));
+
+        // Recovered pages keep being journaled
+        LogPage again = recovered.get(0);
+        again.getItems().get(0).getDiscrepancy().setDescription("Se revisó de nuevo");
+        reopened.close();
+        recovered = LogJournal.open(file).getRecoveredPages();
+        assertEquals(1, recovered.size());
+        assertSameItems(again, recovered.get(0));
+    }
+
+    @Test
+    public void savedPagesAreNotRecovered() throws Exception {
+        File directory = folder.newFolder();
+        File file = new File(directory, "edits.journal");
+        LogStore store = LogStore.open(directory);
+        LogJournal journal = LogJournal.open(file);
+        store.addListener(journal);
+        LogPage saved = new LogPage("XA-AFH", "1", LogItemFixtures.items(3, 5));
+        LogPage open = new LogPage("XA-BPK", "9", LogItemFixtures.items(1, 6));
+        journal.track(saved);
+        journal.track(open);
+        saved.getItems().get(0).getDiscrepancy().setDescription("Fuga de combustible");
+        store.put(saved);
+        journal.flush();
+        // The other page is new and unsaved
+        assertEquals(1, recoverCopy(file).size());
+
+        store.put(open);
+        journal.flush();
+        long emptied = journal.fileBytes();
+        assertTrue(recoverCopy(file).isEmpty());
+
+        // Edits after the last save are recovered on top of the saved page
+        open.getItems().get(0).getCorrectiveAction().setStation("CUN");
+        journal.flush();
+        assertTrue(journal.fileBytes() > emptied);
+        List<LogPage> recovered = recoverCopy(file);
+        assertEquals(1, recovered.size());
+        assertSameItems(open, recovered.get(0));
+
+        journal.untrack(open);
+        journal.untrack(saved);
+        journal.flush();
+        assertEquals(0, journal.fileBytes());
+        journal.close();
+        store.close();
+    }
+
+    @Test
+    public void tornRecordEndsTheReplay() throws Exception {
+        File file = folder.newFile();
+        LogJournal journal = LogJournal.open(file);
+        LogPage page = new LogPage("XA-AFH", "7", LogItemFixtures.items(3, 8));
+        journal.track(page);
+        page.getItems().get(2).getDiscrepancy().setFlightNumber("455");
+        journal.close();
+
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.write(new byte[]{40, 1, 2, 3});
+        out.close();
+        List<LogPage> recovered = LogJournal.open(file).getRecoveredPages();
+        assertEquals(1, recovered.size());
+        assertEquals("455",
+                recovered.get(0).getItems().get(2).getDiscrepancy().getFlightNumber());
+    }
+
+    private static void appendChange(FileOutputStream out, int page, int position, int part,
+                                     int field, Object value) throws Exception {
+        // A well-formed CHANGE record, whether or not it fits the page
+        BinaryOutput payload = new BinaryOutput(64);
+        payload.writeByte(2);
+        payload.writeVarInt(page);
+        payload.writeVarInt(position);
+        payload.writeByte(part);
+        payload.writeVarInt(0);
+        payload.writeByte(field);
+        if (value instanceof String) {
+            payload.writeByte(3);
+            payload.writeString((String) value);
+        } else {
+            payload.writeByte((Boolean) value ? 2 : 1);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload.buffer(), 0, payload.size());
+        BinaryOutput record = new BinaryOutput(64);
+        record.writeVarInt(payload.size());
+        record.writeInt((int) crc.getValue());
+        record.writeBytes(payload.buffer(), 0, payload.size());
+        record.writeTo(out);
+    }
+
+    @Test
+    public void recordsThatDontApplyAreSkipped() throws Exception {
+        File file = folder.newFile();
+        LogJournal journal = LogJournal.open(file);
+        LogPage page = new LogPage("XA-AFH", "7", LogItemFixtures.items(3, 8));
+        journal.track(page);
+        page.getItems().get(2).getDiscrepancy().setFlightNumber("455");
+        journal.close();
+
+        FileOutputStream out = new FileOutputStream(file, true);
+        // Unknown page, missing item, unknown field, wrong value type
+        appendChange(out, 9, 0, LogField.PART_DISCREPANCY, LogField.FLIGHT_NUMBER, "100");
+        appendChange(out, 0, 99, LogField.PART_DISCREPANCY, LogField.FLIGHT_NUMBER, "101");
+        appendChange(out, 0, 0, LogField.PART_ITEM, LogField.FLIGHT_NUMBER, "102");
+        appendChange(out, 0, 0, LogField.PART_DISCREPANCY, LogField.FLIGHT_NUMBER, true);
+        appendChange(out, 0, 1, LogField.PART_DISCREPANCY, LogField.FLIGHT_NUMBER, "456");
+        out.close();
+        List<LogPage> recovered = LogJournal.open(file).getRecoveredPages();
+        assertEquals(1, recovered.size());
+        List<LogItem> items = recovered.get(0).getItems();
+        assertEquals(page.getItems().get(0).getDiscrepancy().getFlightNumber(),
+                items.get(0).getDiscrepancy().getFlightNumber());
+        assertEquals("456", items.get(1).getDiscrepancy().getFlightNumber());
+        assertEquals("455", items.get(2).getDiscrepancy().getFlightNumber());
+    }
+
+    @Test
+    public void recordsAreBatched() throws Exception {
+        File file = folder.newFile();
+        LogJournal.Options options = new LogJournal.Options();
+        options.flushIntervalMillis = 60 * 60 * 1000;
+        options.flushBytes = 1024;
+        LogJournal journal = LogJournal.open(file, options);
+        LogPage page = new LogPage("XA-AFH", "7", LogItemFixtures.items(3, 8));
+        journal.track(page);
+        LogItem.Discrepancy discrepancy = page.getItems().get(0).getDiscrepancy();
+        discrepancy.setDescription("Primer cambio");
+        Thread.sleep(50);
+        assertEquals(0, journal.fileBytes());
+
+        // Past flushBytes the flusher writes without waiting for the interval
+        for (int i = 0; i < 100; i++) discrepancy.setDescription("Cambio número " + i);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (journal.fileBytes() == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertTrue(journal.fileBytes() > 0);
+        journal.close();
+    }
+
+    @Test
+    public void benchmarkTenThousandRecords() throws Exception {
+        Benchmarks.assumeEnabled();
+        File file = folder.newFile();
+        LogJournal journal = LogJournal.open(file);
+        final LogPage page = new LogPage("XA-AFH", "2041", LogItemFixtures.items(3, 9));
+        journal.track(page);
+        final Random random = new Random(10);
+        final LogPage untracked = new LogPage("XA-AFH", "2042", LogItemFixtures.items(3, 9));
+        Benchmarks.measure("setter", 2000, 10000, new Benchmarks.Body() {
+            @Override
+            public void run() {
+                edit(untracked, random);
+            }
+        });
+        // Ten thousand records after the warm up
+        Benchmarks.measure("journaled setter", 2000, 10000, new Benchmarks.Body() {
+            @Override
+            public void run() {
+                edit(page, random);
+            }
+        });
+        journal.flush();
+        System.out.printf("Journal of %d KB%n", journal.fileBytes() / 1024);
+
+        long start = System.nanoTime();
+        List<LogPage> recovered = LogJournal.open(file).getRecoveredPages();
+        System.out.printf("Replayed in %.1f ms%n", (System.nanoTime() - start) / 1e6);
+        assertSameItems(page, recovered.get(0));
+        journal.close();
+    }
+}
@@ -0,0 +1,189 @@
+package com.mycompany.capturatest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class LogPageStateTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void snapshotsRoundTripAndShareWhatDidNotChange() {
+        for (LogItem item : LogItemFixtures.items(300, 12)) {
+            LogItemSnapshot snapshot = LogItemSnapshot.of(item);
+            assertTrue(snapshot.toLogItem().toJSON().similar(item.toJSON()));
+        }
+
+        LogItem item = LogItemFixtures.items(1, 3).get(0);
+        item.getComponentsChanged().addComponentChange().setComponentRemoved(true);
+        LogItemSnapshot snapshot = LogItemSnapshot.of(item);
+        LogItemSnapshot edited = snapshot.toBuilder()
+                .discrepancy(snapshot.getDiscrepancy().toBuilder().station("OAX").build())
+                .build();
+        assertEquals("OAX", edited.getDiscrepancy().getStation());
+        assertEquals(item.getDiscrepancy().getStation(), snapshot.getDiscrepancy().getStation());
+        assertSame(snapshot.getCorrectiveAction(), edited.getCorrectiveAction());
+        assertSame(snapshot.getComponentChanges(), edited.getComponentChanges());
+        // Editing the LogItem afterwards doesn't reach the snapshot
+        item.getDiscrepancy().setDescription("Cambiado");
+        assertNotEquals("Cambiado", snapshot.getDiscrepancy().getDescription());
+    }
+
+    @Test
+    public void savesOnlyNewVersions() throws Exception {
+        LogStore store = LogStore.open(folder.newFolder());
+        LogPageState state = new LogPageState(LogPageSnapshot.of(
+                new LogPage("XA-MFH", "7", LogItemFixtures.items(2, 1))));
+        assertFalse(state.isSaved());
+        assertTrue(state.saveTo(store));
+        assertFalse(state.saveTo(store));
+
+        LogPageSnapshot before = state.get();
+        state.updateItem(1, new LogPageState.ItemEdit() {
+            @Override
+            public LogItemSnapshot apply(LogItemSnapshot current) {
+                return current;
+            }
+        });
+        assertSame(before, state.get());
+        assertTrue(state.isSaved());
+
+        state.updateItem(1, new LogPageState.ItemEdit() {
+            @Override
+            public LogItemSnapshot apply(LogItemSnapshot current) {
+                return current.toBuilder().canceled(true).build();
+            }
+        });
+        assertSame(before.getItems().get(0), state.get().getItems().get(0));
+        assertFalse(state.isSaved());
+        assertTrue(state.saveTo(store));
+        assertTrue(store.get("XA-MFH", "7").getItems().get(1).isCanceled());
+        store.close();
+    }
+
+    @Test
+    public void concurrentReadersAndWritersSeeWholeVersions() throws Exception {
+        /* Writers increment a counter kept in three fields of the page, readers and the saver
+         * check that every version they see has the three fields equal and that the counter
+         * never goes back
+         */
+        final int writers = 4;
+        final int readers = 3;
+        final int updatesPerWriter = 5000;
+        final LogStore store = LogStore.open(folder.newFolder());
+        LogItemSnapshot empty = LogItemSnapshot.builder(1)
+                .discrepancy(new LogItemSnapshot.Part.Builder().flightNumber("0")
+                        .description("0").build())
+                .correctiveAction(new LogItemSnapshot.Part.Builder().description("0").build())
+                .build();
+        final LogPageState state = new LogPageState(new LogPageSnapshot(
+                new PageKey("XA-AFH", "1"), Collections.singletonList(empty)));
+
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final AtomicInteger retries = new AtomicInteger();
+        final AtomicInteger reads = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch writersDone = new CountDownLatch(writers);
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < updatesPerWriter; i++) {
+                            final int[] attempts = new int[1];
+                            state.updateItem(0, new LogPageState.ItemEdit() {
+                                @Override
+                                public LogItemSnapshot apply(LogItemSnapshot current) {
+                                    if (attempts[0]++ > 0) retries.incrementAndGet();
+                                    String next = String.valueOf(counter(current) + 1);
+                                    return current.toBuilder()
+                                            .discrepancy(current.getDiscrepancy().toBuilder()
+                                                    .flightNumber(next).description(next).build())
+                                            .correctiveAction(current.getCorrectiveAction()
+                                                    .toBuilder().description(next).build())
+                                            .build();
+                                }
+                            });
+                        }
+                    } catch (Throwable ex) {
+                        failure.compareAndSet(null, ex);
+                    } finally {
+                        writersDone.countDown();
+                    }
+                }
+            }));
+        }
+        for (int r = 0; r < readers; r++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        int last = 0;
+                        while (writing.get()) {
+                            int counter = counter(state.get().getItems().get(0));
+                            assertTrue(counter >= last);
+                            last = counter;
+                            reads.incrementAndGet();
+                            Thread.yield();
+                        }
+                    } catch (Throwable ex) {
+                        failure.compareAndSet(null, ex);
+                    }
+                }
+            }));
+        }
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // Autosave, serializing whatever version is current
+                try {
+                    start.await();
+                    while (writing.get()) {
+                        state.saveTo(store);
+                        counter(LogItemSnapshot.of(store.get("XA-AFH", "1").getItems().get(0)));
+                        Thread.sleep(1);
+                    }
+                } catch (Throwable ex) {
+                    failure.compareAndSet(null, ex);
+                }
+            }
+        }));
+        for (Thread thread : threads) thread.start();
+        start.countDown();
+        writersDone.await();
+        writing.set(false);
+        for (Thread thread : threads) thread.join();
+        if (failure.get() != null) throw new AssertionError(failure.get());
+
+        assertEquals(writers * updatesPerWriter, counter(state.get().getItems().get(0)));
+        state.saveTo(store);
+        assertEquals(writers * updatesPerWriter, counter(LogItemSnapshot.of(
+                store.get("XA-AFH", "1").getItems().get(0))));
+        System.out.printf("%d updates, %d retried, %d reads%n", writers * updatesPerWriter,
+                retries.get(), reads.get());
+        store.close();
+    }
+
+    private static int counter(LogItemSnapshot item) {
+        // Fails unless the three copies of the counter agree
+        String flightNumber = item.getDiscrepancy().getFlightNumber();
+        assertEquals(flightNumber, item.getDiscrepancy().getDescription());
+        assertEquals(flightNumber, item.getCorrectiveAction().getDescription());
+        return Integer.parseInt(flightNumber);
+    }
+}
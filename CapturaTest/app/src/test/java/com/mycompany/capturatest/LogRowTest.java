@@ -0,0 +1,48 @@
+package com.mycompany.capturatest;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class LogRowTest {
+    @Test
+    public void idsAreStableAndDistinct() {
+        LogPage page = new LogPage("XA-AFH", "120", LogItemFixtures.items(3, 1));
+        List<LogRow> rows = LogRow.of(page);
+        page.getItems().get(0).getDiscrepancy().setDescription("Otra descripción");
+        List<LogRow> edited = LogRow.of(page);
+        for (int i = 0; i < rows.size(); i++)
+            assertEquals(rows.get(i).getId(), edited.get(i).getId());
+
+        Set<Long> ids = new HashSet<>();
+        for (String aircraft : LogItemFixtures.AIRCRAFT) {
+            for (int folio = 1; folio <= 5000; folio++) {
+                for (int number = 1; number <= LogItem.ITEMS_PER_PAGE; number++)
+                    assertTrue(ids.add(LogRow.idOf(new PageKey(aircraft, String.valueOf(folio)),
+                            number)));
+            }
+        }
+    }
+
+    @Test
+    public void changesOnlyFlagWhatChanged() {
+        LogPage page = new LogPage("XA-AFH", "120", LogItemFixtures.items(3, 2));
+        LogRow before = LogRow.of(page).get(1);
+        assertEquals(before, LogRow.of(page).get(1));
+        assertEquals(0, LogRow.of(page).get(1).changesFrom(before));
+
+        page.getItems().get(1).getCorrectiveAction().setDescription("Se reapretó abrazadera");
+        LogRow after = LogRow.of(page).get(1);
+        assertNotEquals(before, after);
+        assertEquals(LogRow.CHANGED_CORRECTIVE_ACTION, after.changesFrom(before));
+
+        page.getItems().get(1).getDiscrepancy().setDescription(null);
+        assertEquals(LogRow.CHANGED_DISCREPANCY | LogRow.CHANGED_CORRECTIVE_ACTION,
+                LogRow.of(page).get(1).changesFrom(before));
+        assertNull(LogRow.of(page).get(1).getDiscrepancy());
+    }
+}
@@ -0,0 +1,239 @@
+package com.mycompany.capturatest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static com.mycompany.capturatest.LogItemFixtures.page;
+import static org.junit.Assert.*;
+
+public class LogSearchIndexTest {
+    private static final String[] COMPONENTS = {"válvula de purga", "actuador de flap",
+            "bomba hidráulica", "sensor de temperatura", "llanta", "freno", "luz de navegación",
+            "puerta de carga", "asiento", "motor", "tren principal", "tren de nariz", "spoiler",
+            "APU", "generador", "pitot", "limpiaparabrisas", "extintor", "bote salvavidas",
+            "compuerta de combustible", "antena VHF", "tubo de drenaje", "cableado"};
+    private static final String[] CONDITIONS = {"con fuga", "inoperativo",
+            "desgastado fuera de límites", "con vibración", "con indicación intermitente", "dañado", "flojo", "con corrosión",
+            "con fuga hidráulica", "no reclina", "sin tapa", "con golpe", "quemado"};
+    private static final String[] SIDES = {"izquierdo", "derecho", "número 1", "número 2",
+            "trasero", "delantero", ""};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static LogItem item(int number, String station, String ata, String discrepancy,
+                                String action) {
+        LogItem item = new LogItem(number);
+        item.getDiscrepancy().setStation(station);
+        item.getDiscrepancy().setAtaChapter(ata);
+        item.getDiscrepancy().setDescription(discrepancy);
+        item.getCorrectiveAction().setStation(station);
+        item.getCorrectiveAction().setDescription(action);
+        return item;
+    }
+
+    @Test
+    public void analyzerFoldsStopsAndStems() {
+        assertEquals(Arrays.asList("fuga", "hidraulic", "tren", "principal"),
+                SpanishAnalyzer.terms("Fugas hidráulicas en el TREN principal"));
+        assertEquals(SpanishAnalyzer.terms("hidráulico"), SpanishAnalyzer.terms("hidraulica"));
+        assertEquals(SpanishAnalyzer.terms("se reemplazó"), SpanishAnalyzer.terms("reemplazado"));
+        assertEquals(SpanishAnalyzer.terms("reemplazar"), SpanishAnalyzer.terms("Reemplazos"));
+        assertEquals(SpanishAnalyzer.terms("luz"), SpanishAnalyzer.terms("luces"));
+        assertEquals(SpanishAnalyzer.terms("motor"), SpanishAnalyzer.terms("motores"));
+        assertEquals(SpanishAnalyzer.terms("inspección"), SpanishAnalyzer.terms("inspecciones"));
+        // Part numbers and chapters aren't stemmed
+        assertEquals(Arrays.asList("05", "51", "00", "12c"),
+                SpanishAnalyzer.terms("05-51-00, 12C"));
+        assertTrue(SpanishAnalyzer.terms("de la y en").isEmpty());
+    }
+
+    @Test
+    public void ranksFiltersAndUpdates() throws Exception {
+        LogStore store = LogStore.open(folder.newFolder());
+        LogSearchIndex index = LogSearchIndex.open(store);
+        store.put(page("XA-MFH", "1",
+                item(1, "MEX", "32", "Fuga hidráulica en tren principal izquierdo",
+                        "Se reemplazó sello, prueba OK"),
+                item(2, "GDL", "33", "Luz de navegación fundida", "Se cambió foco"),
+                item(3, "MEX", "29", "Bomba hidráulica con ruido", "Se difiere conforme a MEL")));
+        store.put(page("XA-BPK", "4",
+                item(1, "mty", "32", "Tren principal derecho con llanta desgastada",
+                        "Se reemplazó llanta"),
+                item(2, "MEX", "32", "Fugas hidráulicas en actuador del tren de nariz", null)));
+        assertEquals(9, index.size());
+
+        List<LogSearchIndex.Hit> hits = index.search("fuga hidráulica tren principal", null, 10);
+        assertEquals(4, hits.size());
+        assertEquals("XA-MFH", hits.get(0).getAircraft());
+        assertEquals(1, hits.get(0).getLogItemNumber());
+        assertFalse(hits.get(0).isCorrectiveAction());
+        for (int i = 1; i < hits.size(); i++)
+            assertTrue(hits.get(i - 1).getScore() >= hits.get(i).getScore());
+        assertEquals(2, index.search("fuga hidráulica tren principal", null, 2).size());
+
+        LogSearchIndex.Filter filter = new LogSearchIndex.Filter();
+        filter.aircraft = "XA-BPK";
+        hits = index.search("fuga hidráulica tren principal", filter, 10);
+        assertEquals(2, hits.size());
+        assertEquals("4", hits.get(0).getFolio());
+        filter.aircraft = null;
+        filter.station = " MTY";
+        hits = index.search("tren", filter, 10);
+        assertEquals(1, hits.size());
+        filter.station = null;
+        filter.ataChapter = "29";
+        assertEquals(1, index.search("hidráulica", filter, 10).size());
+        filter.ataChapter = "99";
+        assertTrue(index.search("hidráulica", filter, 10).isEmpty());
+
+        // Corrective actions are documents too
+        hits = index.search("reemplazar llantas", null, 10);
+        assertTrue(hits.get(0).isCorrectiveAction());
+        assertEquals("XA-BPK", hits.get(0).getAircraft());
+        assertTrue(index.search("de la", null, 10).isEmpty());
+        assertTrue(index.search("inexistente", null, 10).isEmpty());
+
+        // Edits reindex only what changed, canceling and deleting remove documents
+        LogPage page = store.get("XA-MFH", "1");
+        page.getItems().get(1).getDiscrepancy().setDescription("Antena VHF floja");
+        page.getItems().get(2).setCanceled(true);
+        store.put(page);
+        assertEquals(7, index.size());
+        assertTrue(index.search("navegación", null, 10).isEmpty());
+        assertEquals(1, index.search("antena", null, 10).size());
+        assertTrue(index.search("bomba", null, 10).isEmpty());
+        store.delete("XA-BPK", "4");
+        assertEquals(4, index.size());
+        assertEquals(1, index.search("tren", null, 10).size());
+        index.close();
+        store.close();
+    }
+
+    @Test
+    public void compactionKeepsResults() throws Exception {
+        LogStore store = LogStore.open(folder.newFolder());
+        LogSearchIndex index = LogSearchIndex.open(store);
+        Random random = new Random(3);
+        for (int folio = 1; folio <= 200; folio++)
+            index.onPageSaved(page("XA-AFH", String.valueOf(folio), randomItems(random, folio)));
+        // Editing pages over and over leaves deleted documents behind until compacted
+        boolean[] marked = new boolean[201];
+        for (int edit = 0; edit < 5000; edit++) {
+            int folio = 1 + random.nextInt(200);
+            LogPage page = page("XA-AFH", String.valueOf(folio), randomItems(random, folio));
+            marked[folio] = edit % 50 == 0;
+            if (marked[folio])
+                page.getItems().get(0).getDiscrepancy().setDescription("Marca única " + edit);
+            index.onPageSaved(page);
+        }
+        int expected = 0;
+        for (boolean mark : marked) if (mark) expected++;
+        assertEquals(200 * LogItem.ITEMS_PER_PAGE * 2, index.size());
+        List<LogSearchIndex.Hit> hits = index.search("única", null, 1000);
+        assertEquals(expected, hits.size());
+        for (LogSearchIndex.Hit hit : hits) {
+            assertTrue(marked[Integer.parseInt(hit.getFolio())]);
+            assertEquals(1, hit.getLogItemNumber());
+        }
+        assertEquals(200 * LogItem.ITEMS_PER_PAGE,
+                index.search("reemplazó", null, 100000).size());
+        index.close();
+        store.close();
+    }
+
+    @Test
+    public void scoresStayPositiveWithDeletedDocuments() throws Exception {
+        LogStore store = LogStore.open(folder.newFolder());
+        LogSearchIndex index = LogSearchIndex.open(store);
+        for (int folio = 1; folio <= 10; folio++) {
+            index.onPageSaved(page("XA-AFH", String.valueOf(folio),
+                    item(1, "MEX", "32", "Llanta desgastada", "Se reemplazó llanta"),
+                    item(2, "MEX", "33", "Luz de navegación fundida", "Se cambió foco")));
+        }
+        // Fewer edits than it takes to compact, the old documents are all still there
+        for (int edit = 0; edit < 600; edit++) {
+            index.onPageSaved(page("XA-AFH", "1",
+                    item(1, "MEX", "29", "Fuga en bomba hidráulica " + edit, "Se difiere"),
+                    item(2, "MEX", "33", "Luz de navegación fundida", "Se cambió foco")));
+        }
+        List<LogSearchIndex.Hit> hits = index.search("fuga", null, 10);
+        assertEquals(1, hits.size());
+        assertEquals("1", hits.get(0).getFolio());
+        assertTrue(hits.get(0).getScore() > 0);
+        // 18 descriptions with the tire, one with the leak
+        hits = index.search("fuga llanta", null, 100);
+        assertEquals(19, hits.size());
+        for (LogSearchIndex.Hit hit : hits) assertTrue(hit.getScore() > 0);
+        index.close();
+        store.close();
+    }
+
+    @Test
+    public void benchmarkMillionDescriptions() throws Exception {
+        Benchmarks.assumeEnabled();
+        LogStore store = LogStore.open(folder.newFolder());
+        final LogSearchIndex index = LogSearchIndex.open(store);
+        Random random = new Random(1);
+        long start = System.nanoTime();
+        // Fed straight to the listener, the store isn't what's being measured
+        for (int folio = 1; index.size() < 1000000; folio++) {
+            index.onPageSaved(page(LogItemFixtures.pick(random, LogItemFixtures.AIRCRAFT),
+                    String.valueOf(folio), randomItems(random, folio)));
+        }
+        System.out.printf("Indexed %d descriptions, %d terms in %.0f ms%n", index.size(),
+                index.termCount(), (System.nanoTime() - start) / 1e6);
+
+        final String[] queries = {"fuga hidráulica tren principal", "luz de navegación",
+                "llanta desgastada fuera de límites", "se reemplazó actuador de flap",
+                "vibración motor número 2", "pitot"};
+        final LogSearchIndex.Filter filter = new LogSearchIndex.Filter();
+        filter.aircraft = "XA-MFH";
+        filter.station = "MEX";
+        final int[] sink = new int[1];
+        final int[] next = new int[1];
+        Benchmarks.Result all = Benchmarks.measure("search top 20", 5, 30,
+                new Benchmarks.Body() {
+                    @Override
+                    public void run() {
+                        sink[0] += index.search(queries[next[0]++ % queries.length], null, 20)
+                                .size();
+                    }
+                });
+        Benchmarks.Result filtered = Benchmarks.measure("search aircraft + station", 5, 30,
+                new Benchmarks.Body() {
+                    @Override
+                    public void run() {
+                        sink[0] += index.search(queries[next[0]++ % queries.length], filter,
+                                20).size();
+                    }
+                });
+        assertTrue("a query over a million descriptions should take well under 100 ms",
+                all.nanosPerOp < 100e6 && filtered.nanosPerOp < 100e6);
+        assertTrue(sink[0] > 0);
+        index.close();
+        store.close();
+    }
+
+    private static String description(Random random) {
+        return LogItemFixtures.pick(random, COMPONENTS) + " "
+                + LogItemFixtures.pick(random, CONDITIONS) + " "
+                + LogItemFixtures.pick(random, SIDES);
+    }
+
+    private static LogItem[] randomItems(Random random, int folio) {
+        LogItem[] items = new LogItem[LogItem.ITEMS_PER_PAGE];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = item(i + 1, LogItemFixtures.pick(random, LogItemFixtures.STATIONS),
+                    LogItemFixtures.pick(random, LogItemFixtures.ATA_CHAPTERS),
+                    description(random), "Se reemplazó " + LogItemFixtures.pick(random,
+                            COMPONENTS) + " según AMM " + folio);
+        }
+        return items;
+    }
+}
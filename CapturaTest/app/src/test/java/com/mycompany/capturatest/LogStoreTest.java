@@ -0,0 +1,531 @@
+package com.mycompany.capturatest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+public class LogStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static LogPage page(String aircraft, int folio, Random random) {
+        LogPage page = new LogPage(aircraft, String.valueOf(folio));
+        for (int i = 1; i <= LogItem.ITEMS_PER_PAGE; i++)
+            page.addItem(LogItemFixtures.item(random, i));
+        return page;
+    }
+
+    private static void assertSamePage(LogPage expected, LogPage actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getKey(), actual.getKey());
+        assertEquals(expected.getItems().size(), actual.getItems().size());
+        for (int i = 0; i < expected.getItems().size(); i++) {
+            assertEquals(expected.getItems().get(i).getLogItemNumber(),
+                    actual.getItems().get(i).getLogItemNumber());
+            assertTrue(expected.getItems().get(i).toJSON().similar(
+                    actual.getItems().get(i).toJSON()));
+        }
+    }
+
+    private static File lastSegment(File directory) {
+        File last = null;
+        for (File file : directory.listFiles()) {
+            if (!file.getName().endsWith(".log")) continue;
+            if (last == null || file.getName().compareTo(last.getName()) > 0) last = file;
+        }
+        return last;
+    }
+
+    @Test
+    public void putGetOverwriteDelete() throws Exception {
+        Random random = new Random(1);
+        LogStore store = LogStore.open(folder.newFolder());
+        LogPage first = page("XA-AFH", 100, random);
+        store.put(first);
+        assertSamePage(first, store.get("XA-AFH", "100"));
+        assertNull(store.get("XA-AFH", "101"));
+
+        LogPage second = page("XA-AFH", 100, random);
+        store.put(second);
+        assertSamePage(second, store.get("XA-AFH", "100"));
+        assertEquals(1, store.size());
+
+        assertTrue(store.delete("XA-AFH", "100"));
+        assertFalse(store.delete("XA-AFH", "100"));
+        assertNull(store.get("XA-AFH", "100"));
+        assertEquals(0, store.size());
+        store.close();
+    }
+
+    @Test
+    public void keysAreSortedByAircraftAndFolio() throws Exception {
+        Random random = new Random(2);
+        LogStore store = LogStore.open(folder.newFolder());
+        int[] folios = {10, 9, 100, 1};
+        for (int folio : folios) {
+            store.put(page("XA-MFH", folio, random));
+            store.put(page("XA-BPK", folio, random));
+        }
+        List<PageKey> keys = store.keys("XA-MFH");
+        assertEquals(4, keys.size());
+        assertEquals("1", keys.get(0).getFolio());
+        assertEquals("9", keys.get(1).getFolio());
+        assertEquals("10", keys.get(2).getFolio());
+        assertEquals("100", keys.get(3).getFolio());
+        assertEquals("XA-BPK", store.keys().get(0).getAircraft());
+        store.close();
+    }
+
+    @Test
+    public void reopensWithAndWithoutHint() throws Exception {
+        File directory = folder.newFolder();
+        Random random = new Random(3);
+        LogStore.Options options = new LogStore.Options();
+        options.maxSegmentBytes = 64 * 1024;
+        LogStore store = LogStore.open(directory, options);
+        List<LogPage> pages = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            LogPage page = page(LogItemFixtures.AIRCRAFT[i % 11], i / 11, random);
+            pages.add(page);
+            store.put(page);
+        }
+        store.delete("XA-AFH", "0");
+        store.close();
+
+        // Appends after the hint have to be picked up too
+        store = LogStore.open(directory, options);
+        LogPage late = page("XA-SFH", 999, random);
+        store.put(late);
+        assertEquals(300, store.size());
+        store.close();
+        assertTrue(new File(directory, "index.hint").delete());
+
+        store = LogStore.open(directory, options);
+        assertEquals(300, store.size());
+        assertNull(store.get("XA-AFH", "0"));
+        for (int i = 1; i < pages.size(); i++) {
+            LogPage page = pages.get(i);
+            assertSamePage(page, store.get(page.getAircraft(), page.getFolio()));
+        }
+        assertSamePage(late, store.get("XA-SFH", "999"));
+        store.close();
+    }
+
+    @Test
+    public void truncatesTornRecord() throws Exception {
+        File directory = folder.newFolder();
+        Random random = new Random(4);
+        LogStore store = LogStore.open(directory);
+        LogPage page = page("XA-EFH", 1, random);
+        store.put(page);
+        store.put(page("XA-EFH", 2, random));
+        store.close();
+        assertTrue(new File(directory, "index.hint").delete());
+
+        // Simulate the app being killed half way through the second record
+        File segment = lastSegment(directory);
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.setLength(file.length() - 10);
+        file.close();
+        long tornLength = segment.length();
+
+        store = LogStore.open(directory);
+        assertEquals(1, store.size());
+        assertSamePage(page, store.get("XA-EFH", "1"));
+        assertTrue(segment.length() < tornLength);
+        // New records go after the last good one
+        LogPage replacement = page("XA-EFH", 2, random);
+        store.put(replacement);
+        store.close();
+        store = LogStore.open(directory);
+        assertSamePage(replacement, store.get("XA-EFH", "2"));
+        store.close();
+    }
+
+    @Test
+    public void compactionReclaimsSupersededRecords() throws Exception {
+        File directory = folder.newFolder();
+        Random random = new Random(5);
+        LogStore.Options options = new LogStore.Options();
+        options.maxSegmentBytes = 16 * 1024;
+        options.autoCompact = false;
+        options.syncOnWrite = false;
+        LogStore store = LogStore.open(directory, options);
+        LogPage[] latest = new LogPage[20];
+        for (int round = 0; round < 30; round++) {
+            for (int folio = 0; folio < latest.length; folio++) {
+                latest[folio] = page("XA-JFH", folio, random);
+                store.put(latest[folio]);
+            }
+        }
+        long before = store.diskBytes();
+        int segmentsBefore = store.segmentCount();
+        store.compact();
+        assertTrue(store.diskBytes() < before / 4);
+        assertTrue(store.segmentCount() < segmentsBefore);
+        for (LogPage page : latest) assertSamePage(page, store.get("XA-JFH", page.getFolio()));
+        store.close();
+
+        store = LogStore.open(directory, options);
+        assertEquals(latest.length, store.size());
+        for (LogPage page : latest) assertSamePage(page, store.get("XA-JFH", page.getFolio()));
+        store.close();
+    }
+
+    @Test
+    public void deletesRacingWithCompactionStayDeleted() throws Exception {
+        /* A page deleted while compaction copies it must not come back, now or after a
+         * restart once its tombstone is compacted away too
+         */
+        Random random = new Random(8);
+        LogStore.Options options = new LogStore.Options();
+        options.maxSegmentBytes = 16 * 1024;
+        options.autoCompact = false;
+        options.syncOnWrite = false;
+        for (int round = 0; round < 10; round++) {
+            File directory = folder.newFolder();
+            final LogStore store = LogStore.open(directory, options);
+            final int pages = 300;
+            for (int folio = 0; folio < pages; folio++) store.put(page("XA-DEL", folio, random));
+            // Seals the last of them
+            store.put(page("XA-KEP", 0, random));
+            store.put(page("XA-KEP", 0, random));
+
+            ExecutorService threads = Executors.newFixedThreadPool(4);
+            List<Future<Void>> futures = new ArrayList<>();
+            futures.add(threads.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    store.compact();
+                    return null;
+                }
+            }));
+            // In the order compaction copies them, so they keep running into each other
+            for (int t = 0; t < 3; t++) {
+                final int first = t;
+                futures.add(threads.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int folio = first; folio < pages; folio += 3) {
+                            assertTrue(store.delete("XA-DEL", String.valueOf(folio)));
+                            Thread.yield();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) future.get();
+            threads.shutdown();
+            assertDeleted(store, pages);
+
+            // Compacting again drops the tombstones
+            for (int i = 0; i < 20; i++) store.put(page("XA-KEP", 1, random));
+            store.compact();
+            assertDeleted(store, pages);
+            store.close();
+            LogStore reopened = LogStore.open(directory, options);
+            assertDeleted(reopened, pages);
+            reopened.close();
+        }
+    }
+
+    private static void assertDeleted(LogStore store, int pages) throws Exception {
+        assertTrue(store.keys("XA-DEL").isEmpty());
+        for (int folio = 0; folio < pages; folio++) {
+            assertFalse(store.contains("XA-DEL", String.valueOf(folio)));
+            assertNull(store.get("XA-DEL", String.valueOf(folio)));
+        }
+        for (PageKey key : store.keys()) assertEquals("XA-KEP", key.getAircraft());
+    }
+
+    @Test
+    public void interruptedThreadsOnlyFailTheirOwnCall() throws Exception {
+        /* An interrupt closes the FileChannel the thread is using, the store has to keep
+         * working for the other threads and the next calls
+         */
+        File directory = folder.newFolder();
+        Random random = new Random(9);
+        final LogStore store = LogStore.open(directory);
+        final LogPage[] pages = new LogPage[8];
+        for (int folio = 0; folio < pages.length; folio++) {
+            pages[folio] = page("XA-INT", folio, random);
+            store.put(pages[folio]);
+        }
+
+        Thread.currentThread().interrupt();
+        try {
+            store.get("XA-INT", "0");
+            fail("Read while interrupted");
+        } catch (ClosedByInterruptException ex) {
+            assertTrue(Thread.interrupted());
+        }
+        assertSamePage(pages[0], store.get("XA-INT", "0"));
+
+        // A writer interrupted mid put leaves no partial record behind
+        LogPage lost = page("XA-INT", 100, random);
+        Thread.currentThread().interrupt();
+        try {
+            store.put(lost);
+            fail("Write while interrupted");
+        } catch (ClosedByInterruptException ex) {
+            assertTrue(Thread.interrupted());
+        }
+        assertFalse(store.contains("XA-INT", "100"));
+
+        // One reader interrupted over and over while another keeps reading
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicInteger failures = new AtomicInteger();
+        Thread interrupted = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!done.get()) {
+                    try {
+                        store.get("XA-INT", "1");
+                    } catch (IOException ex) {
+                        Thread.interrupted();
+                    }
+                }
+            }
+        });
+        interrupted.start();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 2000; i++) {
+                    int folio = i % pages.length;
+                    try {
+                        assertSamePage(pages[folio], store.get("XA-INT", pages[folio].getFolio()));
+                    } catch (Throwable ex) {
+                        ex.printStackTrace();
+                        failures.incrementAndGet();
+                    }
+                }
+            }
+        });
+        reader.start();
+        while (reader.isAlive()) {
+            interrupted.interrupt();
+            Thread.sleep(1);
+        }
+        done.set(true);
+        interrupted.join();
+        assertEquals(0, failures.get());
+
+        LogPage last = page("XA-INT", 101, random);
+        store.put(last);
+        store.close();
+        LogStore reopened = LogStore.open(directory);
+        assertEquals(pages.length + 1, reopened.size());
+        assertSamePage(last, reopened.get("XA-INT", "101"));
+        reopened.close();
+    }
+
+    @Test
+    public void closingStopsCompactionQuietly() throws Exception {
+        File directory = folder.newFolder();
+        Random random = new Random(8);
+        LogStore.Options options = new LogStore.Options();
+        options.maxSegmentBytes = 16 * 1024;
+        options.syncOnWrite = false;
+        options.compactionThreshold = 0.1;
+        final List<LogRecord> warnings = Collections.synchronizedList(new ArrayList<LogRecord>());
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                warnings.add(record);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Logger logger = Logger.getLogger(LogStore.class.getName());
+        logger.addHandler(handler);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        LogPage[] latest = new LogPage[20];
+        try {
+            for (int round = 0; round < 10; round++) {
+                final LogStore store = LogStore.open(directory, options);
+                for (int i = 0; i < 200; i++) {
+                    int folio = random.nextInt(latest.length);
+                    latest[folio] = page("XA-CLO", folio, random);
+                    store.put(latest[folio]);
+                }
+                // Closed while the background compaction or this one is copying
+                Future<Void> compaction = pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        store.compact();
+                        return null;
+                    }
+                });
+                store.close();
+                compaction.get();
+                try {
+                    store.put(latest[0]);
+                    fail("Put after close");
+                } catch (IOException expected) {
+                }
+            }
+            assertTrue(warnings.isEmpty());
+        } finally {
+            pool.shutdown();
+            logger.removeHandler(handler);
+        }
+
+        LogStore store = LogStore.open(directory, options);
+        for (LogPage page : latest)
+            if (page != null) assertSamePage(page, store.get("XA-CLO", page.getFolio()));
+        store.close();
+    }
+
+    @Test
+    public void listenersSeeEachPageInTheOrderItWasWritten() throws Exception {
+        final LogStore store = LogStore.open(folder.newFolder());
+        // What an index built from the listener calls holds, slow enough to be overtaken
+        final Map<PageKey, LogPage> mirror = new ConcurrentHashMap<>();
+        store.addListener(new LogStore.Listener() {
+            @Override
+            public void onPageSaved(LogPage page) {
+                Thread.yield();
+                mirror.put(page.getKey(), page);
+            }
+
+            @Override
+            public void onPageDeleted(PageKey key) {
+                Thread.yield();
+                mirror.remove(key);
+            }
+        });
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<Void>> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final Random random = new Random(20 + t);
+            writers.add(pool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int i = 0; i < 300; i++) {
+                        int folio = random.nextInt(3);
+                        if (random.nextInt(4) == 0) store.delete("XA-ORD", String.valueOf(folio));
+                        else store.put(page("XA-ORD", folio, random));
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> writer : writers) writer.get();
+        pool.shutdown();
+
+        for (int folio = 0; folio < 3; folio++) {
+            LogPage stored = store.get("XA-ORD", String.valueOf(folio));
+            LogPage mirrored = mirror.get(new PageKey("XA-ORD", String.valueOf(folio)));
+            if (stored == null) assertNull(mirrored);
+            else assertSamePage(stored, mirrored);
+        }
+        assertEquals(store.size(), mirror.size());
+        store.close();
+    }
+
+    @Test
+    public void backgroundCompactionWhileWriting() throws Exception {
+        File directory = folder.newFolder();
+        Random random = new Random(6);
+        LogStore.Options options = new LogStore.Options();
+        options.maxSegmentBytes = 8 * 1024;
+        options.syncOnWrite = false;
+        LogStore store = LogStore.open(directory, options);
+        LogPage[] latest = new LogPage[10];
+        for (int round = 0; round < 200; round++) {
+            int folio = random.nextInt(latest.length);
+            latest[folio] = page("XA-NFP", folio, random);
+            store.put(latest[folio]);
+            for (LogPage page : latest)
+                if (page != null) assertSamePage(page, store.get("XA-NFP", page.getFolio()));
+        }
+        store.close();
+        store = LogStore.open(directory, options);
+        for (LogPage page : latest)
+            if (page != null) assertSamePage(page, store.get("XA-NFP", page.getFolio()));
+        store.close();
+    }
+
+    @Test
+    public void benchmarkWritesAndRecovery() throws Exception {
+        Benchmarks.assumeEnabled();
+        final File directory = folder.newFolder();
+        final LogStore store = LogStore.open(directory);
+        final int threads = 8;
+        final int pagesPerThread = 250;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            results.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    Random random = new Random(thread);
+                    for (int i = 0; i < pagesPerThread; i++)
+                        store.put(page(LogItemFixtures.AIRCRAFT[thread], i, random));
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> result : results) result.get();
+        executor.shutdown();
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("Durable puts, %d threads: %.0f pages/s%n", threads,
+                threads * pagesPerThread * 1e9 / elapsed);
+
+        Random random = new Random(7);
+        LogStore.Options options = new LogStore.Options();
+        options.syncOnWrite = false;
+        store.close();
+        LogStore bulk = LogStore.open(directory, options);
+        start = System.nanoTime();
+        for (int i = 0; i < 20000; i++)
+            bulk.put(page(LogItemFixtures.AIRCRAFT[i % 11], 1000 + i / 11, random));
+        elapsed = System.nanoTime() - start;
+        System.out.printf("Unsynced puts: %.0f pages/s%n", 20000 * 1e9 / elapsed);
+        bulk.close();
+
+        start = System.nanoTime();
+        LogStore reopened = LogStore.open(directory);
+        System.out.printf("Reopen %d pages with hint: %.1f ms%n", reopened.size(),
+                (System.nanoTime() - start) / 1e6);
+        reopened.close();
+        assertTrue(new File(directory, "index.hint").delete());
+        start = System.nanoTime();
+        reopened = LogStore.open(directory);
+        System.out.printf("Reopen %d pages scanning segments: %.1f ms%n", reopened.size(),
+                (System.nanoTime() - start) / 1e6);
+        assertEquals(threads * pagesPerThread + 20000, reopened.size());
+        reopened.close();
+    }
+}
@@ -0,0 +1,263 @@
+package com.mycompany.capturatest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class LogSyncQueueTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private StandIn backOffice;
+    private URL endpoint;
+
+    private static final class StandIn implements HttpHandler {
+        /* Back office stand-in, keeps every page it accepted by id */
+        final Map<Long, JSONObject> pages = new ConcurrentHashMap<>();
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicInteger failNext = new AtomicInteger();
+        final AtomicInteger largestBatch = new AtomicInteger();
+        volatile int latencyMillis;
+        // Answer with this status instead of taking the pages, 0 to take them
+        volatile int rejectWith;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                requests.incrementAndGet();
+                assertEquals("gzip", exchange.getRequestHeaders().getFirst("Content-Encoding"));
+                byte[] body = readAll(new GZIPInputStream(exchange.getRequestBody()));
+                if (latencyMillis > 0) Thread.sleep(latencyMillis);
+                if (failNext.getAndDecrement() > 0) {
+                    exchange.sendResponseHeaders(503, -1);
+                } else if (rejectWith != 0) {
+                    exchange.sendResponseHeaders(rejectWith, -1);
+                } else {
+                    JSONArray batch = new JSONObject(new String(body, "UTF-8"))
+                            .getJSONArray(LogJsonKeys.SYNC_PAGES);
+                    for (int i = 0; i < batch.length(); i++) {
+                        JSONObject page = batch.getJSONObject(i);
+                        pages.put(page.getLong(LogJsonKeys.SYNC_ID), page);
+                    }
+                    largestBatch.set(Math.max(largestBatch.get(), batch.length()));
+                    exchange.sendResponseHeaders(200, -1);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                exchange.sendResponseHeaders(500, -1);
+            } finally {
+                exchange.close();
+            }
+        }
+
+        JSONObject page(String aircraft, String folio) {
+            // The copy with the highest id
+            JSONObject found = null;
+            for (JSONObject page : pages.values()) {
+                if (page.getString(LogJsonKeys.SYNC_AIRCRAFT).equals(aircraft)
+                        && page.getString(LogJsonKeys.SYNC_FOLIO).equals(folio)
+                        && (found == null || page.getLong(LogJsonKeys.SYNC_ID)
+                        > found.getLong(LogJsonKeys.SYNC_ID)))
+                    found = page;
+            }
+            return found;
+        }
+    }
+
+    @Before
+    public void startServer() throws IOException {
+        backOffice = new StandIn();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/logs", backOffice);
+        server.start();
+        endpoint = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/logs");
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private static LogSyncQueue.Options fastOptions() {
+        LogSyncQueue.Options options = new LogSyncQueue.Options();
+        options.batchPages = 10;
+        options.batchDelayMillis = 20;
+        options.initialBackoffMillis = 10;
+        options.maxBackoffMillis = 80;
+        options.readTimeoutMillis = 5000;
+        return options;
+    }
+
+    private static LogPage page(int folio) {
+        return new LogPage(LogItemFixtures.AIRCRAFT[folio % LogItemFixtures.AIRCRAFT.length],
+                String.valueOf(folio), LogItemFixtures.items(LogItem.ITEMS_PER_PAGE, folio));
+    }
+
+    @Test
+    public void deliversGzippedBatchesThroughFailures() throws Exception {
+        backOffice.failNext.set(3);
+        backOffice.latencyMillis = 5;
+        LogSyncQueue queue = LogSyncQueue.open(folder.newFile(), endpoint, fastOptions());
+        long start = System.nanoTime();
+        for (int folio = 1; folio <= 95; folio++) queue.enqueue(page(folio));
+        LogSyncQueue.Metrics metrics = await(queue, 95, 0);
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals(95, backOffice.pages.size());
+        for (int folio = 1; folio <= 95; folio++) {
+            LogPage page = page(folio);
+            JSONArray items = backOffice.page(page.getAircraft(), page.getFolio())
+                    .getJSONArray(LogJsonKeys.SYNC_ITEMS);
+            for (int i = 0; i < items.length(); i++)
+                assertTrue(items.getJSONObject(i).similar(page.getItems().get(i).toJSON()));
+        }
+        assertTrue(backOffice.largestBatch.get() <= 10);
+        assertEquals(3, metrics.failedAttempts);
+        assertTrue(metrics.sentBatches >= 10);
+        assertTrue(metrics.maxQueuedPages > 10);
+        assertTrue(metrics.compressionRatio() > 2);
+        System.out.printf("95 pages in %.0f ms: %s%n", elapsed / 1e6, metrics);
+
+        // Drained, the file starts over
+        queue.flush();
+        assertTrue(queue.fileBytes() < 16);
+
+        // Pages the server refuses don't block the ones after them, they're set aside
+        backOffice.rejectWith = 400;
+        queue.enqueue(page(200));
+        queue.enqueue(page(201));
+        metrics = await(queue, 95, 2);
+        backOffice.rejectWith = 0;
+        queue.enqueue(page(202));
+        await(queue, 96, 2);
+        assertNotNull(backOffice.page(page(202).getAircraft(), "202"));
+        queue.flush();
+        String[] rejected = new String(readAll(new FileInputStream(queue.getRejectedFile())),
+                "UTF-8").split("\n");
+        assertEquals(2, rejected.length);
+        for (int i = 0; i < rejected.length; i++) {
+            JSONObject page = new JSONObject(rejected[i]);
+            assertEquals(400, page.getInt(LogJsonKeys.SYNC_STATUS));
+            assertEquals(String.valueOf(200 + i), page.getString(LogJsonKeys.SYNC_FOLIO));
+            assertEquals(LogItem.ITEMS_PER_PAGE,
+                    page.getJSONArray(LogJsonKeys.SYNC_ITEMS).length());
+        }
+
+        // An expired token or a wrong endpoint keeps the pages until it's fixed
+        int sent = 96;
+        for (int status : new int[]{401, 403, 404}) {
+            backOffice.rejectWith = status;
+            int failed = queue.getMetrics().failedAttempts;
+            queue.enqueue(page(status));
+            while (queue.getMetrics().failedAttempts < failed + 3) Thread.sleep(5);
+            assertEquals(1, queue.getMetrics().queuedPages);
+            backOffice.rejectWith = 0;
+            await(queue, ++sent, 2);
+        }
+        assertEquals(rejected.length, new String(readAll(new FileInputStream(
+                queue.getRejectedFile())), "UTF-8").split("\n").length);
+        queue.close();
+
+        LogSyncQueue.Options options = new LogSyncQueue.Options();
+        options.initialBackoffMillis = 1000;
+        options.maxBackoffMillis = 60000;
+        Random random = new Random(5);
+        for (int failures = 1; failures < 100; failures++) {
+            long cap = Math.min(60000, 1000L << Math.min(failures - 1, 30));
+            long backoff = LogSyncQueue.backoffMillis(failures, options, random);
+            assertTrue(backoff >= cap / 2 && backoff <= cap);
+        }
+    }
+
+    @Test
+    public void survivesRestartsAndSendsTheLatestVersion() throws Exception {
+        File file = folder.newFile();
+        backOffice.failNext.set(Integer.MAX_VALUE);
+        LogSyncQueue queue = LogSyncQueue.open(file, endpoint, fastOptions());
+        for (int folio = 1; folio <= 4; folio++) queue.enqueue(page(folio));
+        LogPage edited = page(2);
+        edited.getItems().get(0).getDiscrepancy().setDescription("Corregido");
+        queue.enqueue(edited);
+        queue.flush();
+        assertEquals(4, queue.getMetrics().queuedPages);
+        queue.close();
+        assertTrue(backOffice.pages.isEmpty());
+
+        // The app died writing a record
+        FileOutputStream torn = new FileOutputStream(file, true);
+        torn.write(new byte[]{40, 1, 2, 3});
+        torn.close();
+
+        backOffice.failNext.set(0);
+        queue = LogSyncQueue.open(file, endpoint, fastOptions());
+        assertEquals(4, queue.getMetrics().queuedPages);
+        await(queue, 4, 0);
+        assertEquals(4, backOffice.pages.size());
+        assertEquals("Corregido", backOffice.page(edited.getAircraft(), "2")
+                .getJSONArray(LogJsonKeys.SYNC_ITEMS).getJSONObject(0)
+                .getJSONObject(LogJsonKeys.DISCREPANCY).getString(LogJsonKeys.DESCRIPTION));
+        queue.close();
+        // Started over with a new file holding the next id, never an empty one
+        assertTrue(file.length() > 0);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        // Nothing left to send, and ids aren't reused
+        int requests = backOffice.requests.get();
+        queue = LogSyncQueue.open(file, endpoint, fastOptions());
+        assertEquals(0, queue.getMetrics().queuedPages);
+        queue.enqueue(page(5));
+        await(queue, 1, 0);
+        assertEquals(requests + 1, backOffice.requests.get());
+        assertEquals(5, backOffice.pages.size());
+        queue.close();
+    }
+
+    private static LogSyncQueue.Metrics await(LogSyncQueue queue, int sent, int rejected)
+            throws InterruptedException {
+        // Waits for the queue to drain with these totals
+        long deadline = System.currentTimeMillis() + 30000;
+        while (true) {
+            LogSyncQueue.Metrics metrics = queue.getMetrics();
+            if (metrics.queuedPages == 0 && metrics.sentPages == sent
+                    && metrics.rejectedPages == rejected)
+                return metrics;
+            if (System.currentTimeMillis() > deadline) fail("Not drained: " + metrics);
+            Thread.sleep(5);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) bytes.write(buffer, 0, read);
+        in.close();
+        return bytes.toByteArray();
+    }
+}
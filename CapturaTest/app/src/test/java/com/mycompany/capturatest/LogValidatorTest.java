@@ -0,0 +1,158 @@
+package com.mycompany.capturatest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LogValidatorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static LogItem valid(int number) {
+        LogItem item = new LogItem(number);
+        item.getDiscrepancy().setStation("MEX");
+        item.getDiscrepancy().setAtaChapter("32-41-01");
+        item.getCorrectiveAction().setStation("mty");
+        item.getCorrectiveAction().setAtaChapter("32");
+        item.getCorrectiveAction().setDeferred(true);
+        item.getCorrectiveAction().setDeferralBasis("MEL 32-41-01 CAT C");
+        LogItem.ComponentsChanged.ComponentChange change =
+                item.getComponentsChanged().addComponentChange();
+        change.setComponentInstalled(true);
+        change.setInstalledPartNumber("3214552-4");
+        change.setInstalledSerialNumber("SN1234");
+        return item;
+    }
+
+    @Test
+    public void flagsEachRule() {
+        LogValidator validator = LogValidator.compile(LogValidator.Rules.standard());
+        assertTrue(validator.validate(valid(1)).isEmpty());
+
+        LogItem item = valid(2);
+        item.getDiscrepancy().setAtaChapter("99");
+        item.getCorrectiveAction().setAtaChapter("3X-10");
+        item.getCorrectiveAction().setStation("MEXI");
+        item.getCorrectiveAction().setDeferralBasis(" ");
+        item.getComponentsChanged().getComponentChanges().get(0).setInstalledSerialNumber(null);
+        LogItem.ComponentsChanged.ComponentChange removed =
+                item.getComponentsChanged().addComponentChange();
+        removed.setComponentRemoved(true);
+        List<LogValidator.Violation> violations = validator.validate(item);
+        assertEquals(7, violations.size());
+        LogValidator.Violation ata = violations.get(0);
+        assertEquals(LogValidator.ATA_UNKNOWN, ata.getRule());
+        assertEquals(LogField.PART_DISCREPANCY, ata.getPart());
+        assertEquals(LogField.ATA_CHAPTER, ata.getField());
+        assertEquals("99", ata.getValue());
+        assertEquals(LogField.PART_CORRECTIVE_ACTION, violations.get(1).getPart());
+        assertEquals(LogValidator.STATION_UNKNOWN, violations.get(2).getRule());
+        assertEquals(LogValidator.DEFERRAL_WITHOUT_BASIS, violations.get(3).getRule());
+        LogValidator.Violation serial = violations.get(4);
+        assertEquals(LogValidator.INSTALLED_INCOMPLETE, serial.getRule());
+        assertEquals(LogField.INSTALLED_SERIAL_NUMBER, serial.getField());
+        assertEquals(0, serial.getIndex());
+        assertEquals(LogValidator.REMOVED_INCOMPLETE, violations.get(5).getRule());
+        assertEquals(1, violations.get(6).getIndex());
+
+        // Nothing canceled is checked
+        item.getCorrectiveAction().setCanceled(true);
+        assertEquals(4, validator.validate(item).size());
+        item.setCanceled(true);
+        assertTrue(validator.validate(item).isEmpty());
+
+        // Known stations, and rules that are turned off
+        LogValidator.Rules rules = LogValidator.Rules.standard();
+        rules.stations.add("MEX");
+        rules.stations.add("GDL");
+        rules.deferralNeedsBasis = false;
+        validator = LogValidator.compile(rules);
+        item = valid(3);
+        item.getCorrectiveAction().setDeferralBasis(null);
+        violations = validator.validate(item);
+        assertEquals(1, violations.size());
+        assertEquals("mty", violations.get(0).getValue());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rulesAreCheckedWhenCompiled() {
+        LogValidator.Rules rules = new LogValidator.Rules();
+        rules.ataChapters.add("32-41");
+        LogValidator.compile(rules);
+    }
+
+    private static List<LogPage> history(List<String> broken) {
+        // 20000 pages, one entry in 97 pages with an unknown ATA chapter
+        Random random = new Random(4);
+        List<LogPage> pages = new ArrayList<>();
+        for (int folio = 1; folio <= 20000; folio++) {
+            LogPage page = new LogPage(LogItemFixtures.pick(random, LogItemFixtures.AIRCRAFT),
+                    String.valueOf(folio), LogItemFixtures.items(3, folio));
+            if (folio % 97 == 0) {
+                LogItem item = page.getItems().get(folio % 3);
+                item.setCanceled(false);
+                item.getDiscrepancy().setCanceled(false);
+                item.getDiscrepancy().setAtaChapter("19");
+                broken.add(page.getKey() + " #" + item.getLogItemNumber());
+            }
+            pages.add(page);
+        }
+        return pages;
+    }
+
+    @Test
+    public void validatesHistoriesInParallel() throws Exception {
+        List<String> broken = new ArrayList<>();
+        List<LogPage> pages = history(broken);
+        LogValidator validator = LogValidator.compile(LogValidator.Rules.standard());
+        LogValidator.Report serial = validator.validate(pages, 1);
+        LogValidator.Report parallel = validator.validate(pages, 4);
+        assertEquals(serial.getCheckedItems(), parallel.getCheckedItems());
+        assertEquals(60000, parallel.getCheckedItems());
+        List<String> found = new ArrayList<>();
+        for (LogValidator.Violation violation : parallel.getViolations())
+            found.add(violation.getPage() + " #" + violation.getLogItemNumber());
+        assertEquals(broken, found);
+        assertEquals(serial.getViolations().size(), parallel.getViolations().size());
+        Map<String, Integer> counts = parallel.countByRule();
+        assertEquals(Integer.valueOf(broken.size()), counts.get(LogValidator.ATA_UNKNOWN));
+
+        // Straight from the store
+        LogStore store = LogStore.open(folder.newFolder());
+        for (LogPage page : pages.subList(0, 500)) store.put(page);
+        assertEquals(5, validator.validate(store, 2).getViolations().size());
+        store.close();
+    }
+
+    @Test
+    public void benchmarkValidation() throws Exception {
+        Benchmarks.assumeEnabled();
+        final LogValidator validator = LogValidator.compile(LogValidator.Rules.standard());
+        final LogItem item = valid(1);
+        final int[] sink = new int[1];
+        Benchmarks.measure("validate one entry", 10000, 100000, new Benchmarks.Body() {
+            @Override
+            public void run() {
+                sink[0] += validator.validate(item).size();
+            }
+        });
+        final List<LogPage> history = history(new ArrayList<String>());
+        for (final int threads : new int[]{1, 4}) {
+            Benchmarks.measure("validate 60k entries, " + threads + " threads", 2, 10,
+                    new Benchmarks.Body() {
+                        @Override
+                        public void run() throws Exception {
+                            sink[0] += validator.validate(history, threads).getCheckedItems();
+                        }
+                    });
+        }
+        assertTrue(sink[0] > 0);
+    }
+}
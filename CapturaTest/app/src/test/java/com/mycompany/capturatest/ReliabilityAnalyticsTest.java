@@ -0,0 +1,183 @@
+package com.mycompany.capturatest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.mycompany.capturatest.LogItemFixtures.page;
+import static org.junit.Assert.*;
+
+public class ReliabilityAnalyticsTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static LogItem item(int number, int month, int day, String station, String ata) {
+        LogItem item = new LogItem(number);
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2019, month, day);
+        item.getDiscrepancy().setDate(calendar.getTime());
+        item.getDiscrepancy().setStation(station);
+        item.getDiscrepancy().setAtaChapter(ata);
+        return item;
+    }
+
+    @Test
+    public void rollupsRatesAndRepeats() throws Exception {
+        LogStore store = LogStore.open(folder.newFolder());
+        store.put(page("XA-MFH", "1", item(1, Calendar.MARCH, 1, "MEX", "32"),
+                item(2, Calendar.MARCH, 1, "MEX", "33")));
+        ReliabilityAnalytics analytics = ReliabilityAnalytics.open(store, 2);
+        store.put(page("XA-MFH", "2", item(1, Calendar.MARCH, 8, "gdl ", "32"),
+                item(2, Calendar.APRIL, 2, "MEX", "32")));
+        LogItem canceled = item(2, Calendar.APRIL, 3, "MEX", "32");
+        canceled.setCanceled(true);
+        store.put(page("XA-BPK", "1", item(1, Calendar.APRIL, 2, "MTY", "32"), canceled));
+        assertEquals(5, analytics.discrepancies());
+
+        Map<String, Integer> byAta = analytics.counts(ReliabilityAnalytics.ATA_CHAPTER);
+        assertEquals(Integer.valueOf(4), byAta.get("32"));
+        assertEquals(Integer.valueOf(1), byAta.get("33"));
+        assertEquals(Integer.valueOf(3),
+                analytics.counts(ReliabilityAnalytics.STATION).get("MEX"));
+        assertEquals(Integer.valueOf(1),
+                analytics.counts(ReliabilityAnalytics.STATION).get("GDL"));
+        assertEquals(Integer.valueOf(4),
+                analytics.counts(ReliabilityAnalytics.AIRCRAFT).get("XA-MFH"));
+        assertEquals(Integer.valueOf(3),
+                analytics.counts(ReliabilityAnalytics.MONTH).get("2019-03"));
+
+        // XA-MFH reported in March and April, XA-BPK only in April: 3 aircraft-months
+        Map<String, Double> rates = analytics.rates(ReliabilityAnalytics.ATA_CHAPTER);
+        assertEquals(4 / 3.0, rates.get("32"), 1e-9);
+        assertEquals(2.0, analytics.rates(ReliabilityAnalytics.AIRCRAFT).get("XA-MFH"), 1e-9);
+        assertEquals(1.0, analytics.rates(ReliabilityAnalytics.MONTH).get("2019-04"), 1e-9);
+
+        List<ReliabilityAnalytics.RepeatDefect> repeats = analytics.repeatDefects(10);
+        assertEquals(1, repeats.size());
+        assertEquals("XA-MFH", repeats.get(0).getAircraft());
+        assertEquals("32", repeats.get(0).getAtaChapter());
+        assertEquals("1", repeats.get(0).getFirstFolio());
+        assertEquals("2", repeats.get(0).getFolio());
+        assertEquals(7, repeats.get(0).getDays());
+        assertEquals(2, analytics.repeatDefects(31).size());
+
+        // Saves replace a page's figures, deletes take them out
+        store.put(page("XA-MFH", "2", item(1, Calendar.MARCH, 8, "GDL", "21")));
+        assertEquals(4, analytics.discrepancies());
+        assertTrue(analytics.repeatDefects(31).isEmpty());
+        store.delete("XA-BPK", "1");
+        assertNull(analytics.counts(ReliabilityAnalytics.AIRCRAFT).get("XA-BPK"));
+        assertNull(analytics.counts(ReliabilityAnalytics.MONTH).get("2019-04"));
+        assertEquals(1.0, analytics.rates(ReliabilityAnalytics.ATA_CHAPTER).get("32"), 1e-9);
+        analytics.close();
+        store.close();
+    }
+
+    @Test
+    public void parallelRecomputeMatchesIncrementalRollups() throws Exception {
+        LogStore.Options options = new LogStore.Options();
+        options.syncOnWrite = false;
+        LogStore store = LogStore.open(folder.newFolder(), options);
+        ReliabilityAnalytics incremental = ReliabilityAnalytics.open(store, 1);
+        Random random = new Random(2);
+        // Enough pages for 4 slices, saved, saved again and deleted under the listener
+        for (int i = 0; i < 600; i++) {
+            String aircraft = LogItemFixtures.pick(random, LogItemFixtures.AIRCRAFT);
+            String folio = String.valueOf(1 + random.nextInt(60));
+            if (i % 10 == 9) store.delete(aircraft, folio);
+            else store.put(new LogPage(aircraft, folio,
+                    LogItemFixtures.items(LogItem.ITEMS_PER_PAGE, random.nextLong())));
+        }
+        assertTrue(store.size() >= 4 * 64);
+
+        ReliabilityAnalytics parallel = ReliabilityAnalytics.open(store, 4);
+        assertEquals(incremental.discrepancies(), parallel.discrepancies());
+        int[] dimensions = {ReliabilityAnalytics.ATA_CHAPTER, ReliabilityAnalytics.STATION,
+                ReliabilityAnalytics.AIRCRAFT, ReliabilityAnalytics.MONTH};
+        for (int dimension : dimensions) {
+            assertEquals(incremental.counts(dimension), parallel.counts(dimension));
+            assertEquals(incremental.rates(dimension), parallel.rates(dimension));
+        }
+        List<ReliabilityAnalytics.RepeatDefect> expected = incremental.repeatDefects(30);
+        List<ReliabilityAnalytics.RepeatDefect> actual = parallel.repeatDefects(30);
+        assertFalse(expected.isEmpty());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getAircraft(), actual.get(i).getAircraft());
+            assertEquals(expected.get(i).getFirstFolio(), actual.get(i).getFirstFolio());
+            assertEquals(expected.get(i).getFolio(), actual.get(i).getFolio());
+        }
+        parallel.close();
+        incremental.close();
+        store.close();
+    }
+
+    @Test
+    public void benchmarkRecomputeAgainstIncremental() throws Exception {
+        Benchmarks.assumeEnabled();
+        LogStore.Options options = new LogStore.Options();
+        options.syncOnWrite = false;
+        LogStore store = LogStore.open(folder.newFolder(), options);
+        Random random = new Random(1);
+        // Three years of a page a day for the fleet
+        int pages = 0;
+        for (String aircraft : LogItemFixtures.AIRCRAFT) {
+            for (int folio = 1; folio <= 3 * 365; folio++) {
+                store.put(new LogPage(aircraft, String.valueOf(folio),
+                        LogItemFixtures.items(LogItem.ITEMS_PER_PAGE, random.nextLong())));
+                pages++;
+            }
+        }
+        final ReliabilityAnalytics analytics = ReliabilityAnalytics.open(store);
+        Map<String, Integer> incremental = analytics.counts(ReliabilityAnalytics.ATA_CHAPTER);
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (final int threads : cores > 1 ? new int[]{1, cores} : new int[]{1}) {
+            final ReliabilityAnalytics fresh = ReliabilityAnalytics.open(store, threads);
+            store.removeListener(fresh);
+            Benchmarks.measure("recompute " + pages + " pages, " + threads + " threads", 1, 3,
+                    new Benchmarks.Body() {
+                        @Override
+                        public void run() throws Exception {
+                            fresh.recompute();
+                        }
+                    });
+            assertEquals(incremental, fresh.counts(ReliabilityAnalytics.ATA_CHAPTER));
+        }
+
+        final LogPage[] edits = new LogPage[1000];
+        for (int i = 0; i < edits.length; i++) {
+            edits[i] = new LogPage(LogItemFixtures.pick(random, LogItemFixtures.AIRCRAFT),
+                    String.valueOf(1 + random.nextInt(3 * 365)),
+                    LogItemFixtures.items(LogItem.ITEMS_PER_PAGE, random.nextLong()));
+        }
+        final int[] next = new int[1];
+        Benchmarks.measure("incremental save", 1000, 10000, new Benchmarks.Body() {
+            @Override
+            public void run() {
+                // What the store calls after writing, without the write itself
+                analytics.onPageSaved(edits[next[0]++ % edits.length]);
+            }
+        });
+        Benchmarks.measure("rates by ATA chapter", 1000, 10000, new Benchmarks.Body() {
+            @Override
+            public void run() {
+                analytics.rates(ReliabilityAnalytics.ATA_CHAPTER);
+            }
+        });
+        Benchmarks.measure("repeat defects, 10 days", 10, 100, new Benchmarks.Body() {
+            @Override
+            public void run() {
+                analytics.repeatDefects(10);
+            }
+        });
+        analytics.close();
+        store.close();
+    }
+}
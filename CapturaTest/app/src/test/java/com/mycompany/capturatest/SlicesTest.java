@@ -0,0 +1,78 @@
+package com.mycompany.capturatest;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SlicesTest {
+    private static List<Integer> numbers(int count) {
+        List<Integer> numbers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) numbers.add(i);
+        return numbers;
+    }
+
+    @Test
+    public void slicesInOrderAndShortListsOnTheCallingThread() throws Exception {
+        final Thread caller = Thread.currentThread();
+        final List<Thread> threads = new ArrayList<>();
+        Slices.Job<Integer, List<Integer>> copy = new Slices.Job<Integer, List<Integer>>() {
+            @Override
+            public List<Integer> run(List<Integer> slice) {
+                synchronized (threads) {
+                    threads.add(Thread.currentThread());
+                }
+                return new ArrayList<>(slice);
+            }
+        };
+        List<List<Integer>> slices = Slices.run(numbers(1000), 4, copy);
+        assertEquals(4, slices.size());
+        List<Integer> joined = new ArrayList<>();
+        for (List<Integer> slice : slices) joined.addAll(slice);
+        assertEquals(numbers(1000), joined);
+        assertFalse(threads.contains(caller));
+
+        threads.clear();
+        assertEquals(1, Slices.run(numbers(Slices.MIN_SLICE * 2 - 1), 4, copy).size());
+        assertEquals(caller, threads.get(0));
+    }
+
+    @Test
+    public void aFailedSliceLetsTheOthersFinish() throws Exception {
+        final AtomicInteger finished = new AtomicInteger();
+        final AtomicInteger interrupted = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(3);
+        try {
+            Slices.run(numbers(400), 4, new Slices.Job<Integer, Void>() {
+                @Override
+                public Void run(List<Integer> slice) throws IOException {
+                    try {
+                        // Fails once the others are running, they still get to finish
+                        if (slice.get(0) == 0) {
+                            started.await();
+                            throw new IOException("Bad page");
+                        }
+                        started.countDown();
+                        Thread.sleep(50);
+                        finished.incrementAndGet();
+                    } catch (InterruptedException ex) {
+                        interrupted.incrementAndGet();
+                    }
+                    return null;
+                }
+            });
+            fail("Expected the slice's exception");
+        } catch (IOException ex) {
+            assertEquals("Bad page", ex.getMessage());
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (finished.get() < 3 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        assertEquals(3, finished.get());
+        assertEquals(0, interrupted.get());
+    }
+}